@@ -15,25 +15,68 @@
  *******************************************************************************/
 package com.ibm.ws.repository.transport.client.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 
 import mockit.Deencapsulation;
 import mockit.Expectations;
 
 import org.junit.Test;
 
+import com.ibm.ws.repository.common.enums.AttachmentType;
 import com.ibm.ws.repository.common.enums.FilterableAttribute;
 import com.ibm.ws.repository.common.enums.ResourceType;
+import com.ibm.ws.repository.common.enums.StateAction;
+import com.ibm.ws.repository.transport.client.AssetBatch;
+import com.ibm.ws.repository.transport.client.CacheInvalidatingListener;
+import com.ibm.ws.repository.transport.client.ChangeEventSubscription;
 import com.ibm.ws.repository.transport.client.ClientLoginInfo;
 import com.ibm.ws.repository.transport.client.RestClient;
 import com.ibm.ws.repository.transport.exceptions.RequestFailureException;
+import com.ibm.ws.repository.transport.model.Asset;
+import com.ibm.ws.repository.transport.model.Attachment;
+import com.ibm.ws.repository.transport.model.AttachmentSummary;
+import com.ibm.ws.repository.transport.model.BulkOperationResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 public class RestClientUnitTest {
 
+    /** The SHA-256 hash of the string "known content" */
+    private static final String KNOWN_HASH = "41277d8d0b0610e58f13bdc06b732c629a2fd3ff93c382f40af3f60cfe5e5c9e";
+
     /**
      * The test verifies that empty filters are ignored, i.e. they are not included in the query
      * url passed to the repository.
@@ -53,7 +96,7 @@ public class RestClientUnitTest {
         final RestClient client = new RestClient(info);
         new Expectations(client) {
             {
-                Deencapsulation.invoke(client, "createHttpURLConnectionToMassive", "/assets?type=com.ibm.websphere.Feature");
+                Deencapsulation.invoke(client, "createHttpURLConnectionToMassive", "/assets?type=com.ibm.websphere.Feature&includeAttachments=true");
                 // now that the correct query string has been constructed, stop the test
                 // Otherwise the test will try to connect to a duff url
                 result = new NullPointerException("This might just work");
@@ -75,4 +118,605 @@ public class RestClientUnitTest {
 
     }
 
+    /**
+     * Tests that asking for some fields of the filtered assets sends them in the fields parameter, instead of asking for the attachments
+     */
+    @Test
+    public void testFilteredAssetsWithFields() throws Exception {
+        ClientLoginInfo info = new ClientLoginInfo("noone", "letmein", "123", "http://broken");
+
+        final RestClient client = new RestClient(info);
+        new Expectations(client) {
+            {
+                Deencapsulation.invoke(client, "createHttpURLConnectionToMassive", "/assets?type=com.ibm.websphere.Feature&fields=type%2CwlpInformation.provideFeature");
+                result = new NullPointerException("This might just work");
+            }
+
+        };
+
+        Map<FilterableAttribute, Collection<String>> filters = new HashMap<FilterableAttribute, Collection<String>>();
+        filters.put(FilterableAttribute.TYPE, Collections.singleton(ResourceType.FEATURE.getValue()));
+
+        try {
+            client.getFilteredAssets(filters, Arrays.asList("type", "wlpInformation.provideFeature"));
+        } catch (NullPointerException e) {
+            if (!e.getMessage().equals("This might just work")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Tests that when the server sends an ETag, the next request for the same asset is conditional
+     * and the cached body is used when the server replies 304 Not Modified.
+     */
+    @Test
+    public void testConditionalGetReusesCachedAsset() throws Exception {
+        final List<String> ifNoneMatchHeaders = new ArrayList<String>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets/1234", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                ifNoneMatchHeaders.add(ifNoneMatch);
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(ifNoneMatch)) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] body = "{\"_id\":\"1234\",\"name\":\"cached asset\"}".getBytes("UTF-8");
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            assertEquals("cached asset", client.getAsset("1234").getName());
+            assertEquals("cached asset", client.getAsset("1234").getName());
+
+            assertEquals(Arrays.asList(null, "\"v1\""), ifNoneMatchHeaders);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that the client asks for compressed responses and decompresses them as it reads them.
+     */
+    @Test
+    public void testCompressedResponses() throws Exception {
+        final List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                acceptEncodings.add(acceptEncoding);
+                String body;
+                if (exchange.getRequestURI().getPath().endsWith("/attachments/5678")) {
+                    body = "license text";
+                    exchange.getResponseHeaders().add("Content-Type", "text/plain");
+                } else {
+                    body = "[{\"_id\":\"1234\",\"name\":\"compressed asset\"}]";
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                }
+
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+                    out.write(body.getBytes("UTF-8"));
+                    out.finish();
+                } else {
+                    byte[] bytes = body.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    exchange.getResponseBody().write(bytes);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            assertEquals("compressed asset", client.getAllAssets().get(0).getName());
+            assertEquals("compressed asset", client.findAssets("compressed", null).get(0).getName());
+            Map<FilterableAttribute, Collection<String>> filters = new HashMap<FilterableAttribute, Collection<String>>();
+            assertEquals("compressed asset", client.getFilteredAssets(filters).iterator().next().getName());
+
+            Attachment attachment = new Attachment();
+            attachment.setUrl(url + "/assets/1234/attachments/5678");
+            InputStream in = client.getAttachment(new Asset(), attachment);
+            try {
+                assertEquals("license text", new Scanner(in, "UTF-8").useDelimiter("\\A").next());
+            } finally {
+                in.close();
+            }
+
+            assertEquals(4, acceptEncodings.size());
+            for (String acceptEncoding : acceptEncodings) {
+                assertEquals("gzip, deflate", acceptEncoding);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSyncAssets() throws Exception {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/changes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // The client adds its API key to the query, which is not of interest here
+                String query = exchange.getRequestURI().getQuery().replaceFirst("&?apiKey=123", "");
+                queries.add(query);
+                String body;
+                if (query.isEmpty()) {
+                    body = "{\"assets\":[{\"_id\":\"1\",\"name\":\"one\"},{\"_id\":\"2\",\"name\":\"two\"}],"
+                           + "\"deletedAssetIds\":[],\"next\":\"10\",\"more\":true}";
+                } else if (query.equals("since=10")) {
+                    body = "{\"assets\":[{\"_id\":\"3\",\"name\":\"three\"}],\"deletedAssetIds\":[],\"next\":\"12\",\"more\":false}";
+                } else if (query.equals("since=12")) {
+                    body = "{\"assets\":[{\"_id\":\"1\",\"name\":\"one again\"}],\"deletedAssetIds\":[\"2\"],\"next\":\"15\",\"more\":false}";
+                } else {
+                    body = "{\"assets\":[{\"_id\":\"4\",\"name\":\"four\"}],\"deletedAssetIds\":[],\"next\":\"20\",\"more\":false,\"reset\":true}";
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            Map<String, Asset> assets = new HashMap<String, Asset>();
+            assets.put("stale", new Asset());
+            String position = client.syncAssets(assets, null);
+            assertEquals("12", position);
+            assertEquals("Every asset should have been read, and the map cleared first", 3, assets.size());
+            assertEquals("two", assets.get("2").getName());
+
+            position = client.syncAssets(assets, position);
+            assertEquals("15", position);
+            assertEquals("one again", assets.get("1").getName());
+            assertFalse("Deleted asset should have been removed", assets.containsKey("2"));
+            assertEquals(2, assets.size());
+
+            position = client.syncAssets(assets, position);
+            assertEquals("20", position);
+            assertEquals("The assets should have been discarded when the changes were reset", Collections.singleton("4"), assets.keySet());
+
+            assertEquals(Arrays.asList("", "since=10", "since=12", "since=15"), queries);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testAssetBatch() throws Exception {
+        final List<JsonObject> requests = Collections.synchronizedList(new ArrayList<JsonObject>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets/bulk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                JsonReader reader = Json.createReader(exchange.getRequestBody());
+                JsonObject request = reader.readObject();
+                reader.close();
+                requests.add(request);
+
+                // Every operation succeeds, except for deleting the asset with id "missing"
+                JsonArrayBuilder results = Json.createArrayBuilder();
+                for (JsonObject operation : request.getJsonArray("operations").getValuesAs(JsonObject.class)) {
+                    String op = operation.getString("op");
+                    String id = operation.getString("id", "new" + requests.size());
+                    int status = op.equals("delete") ? (id.equals("missing") ? 404 : 204) : 200;
+                    results.add(Json.createObjectBuilder().add("op", op).add("status", status).add("id", id));
+                }
+                byte[] bytes = Json.createObjectBuilder().add("results", results).build().toString().getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            Asset asset = new Asset();
+            asset.setName("batched");
+            AssetBatch batch = client.createBatch(2, 0);
+            Future<BulkOperationResult> added = batch.addAsset(asset);
+            Future<BulkOperationResult> published = batch.updateState("1", StateAction.PUBLISH);
+            assertTrue("The batch should have been sent when it was full", added.isDone());
+            Future<BulkOperationResult> deleted = batch.deleteAssetAndAttachments("missing");
+            assertFalse("The last write should wait for the batch to be flushed", deleted.isDone());
+            batch.close();
+
+            assertEquals(2, requests.size());
+            JsonObject first = requests.get(0);
+            assertTrue(first.getBoolean("ordered"));
+            assertEquals(2, first.getJsonArray("operations").size());
+            assertEquals("batched", first.getJsonArray("operations").getJsonObject(0).getJsonObject("asset").getString("name"));
+            assertEquals("publish", first.getJsonArray("operations").getJsonObject(1).getString("action"));
+
+            assertEquals("new1", added.get().getId());
+            assertTrue(published.get().isSuccessful());
+            assertEquals(404, deleted.get().getStatus());
+            assertFalse(deleted.get().isSuccessful());
+
+            // Writes are sent after the delay, even if the batch is not full
+            batch = client.createBatch(10, 50);
+            Future<BulkOperationResult> delayed = batch.updateState("2", StateAction.APPROVE);
+            assertEquals(200, delayed.get(10, TimeUnit.SECONDS).getStatus());
+            assertEquals(3, requests.size());
+            batch.close();
+            assertEquals("Closing an empty batch should not send anything", 3, requests.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testDeleteAssetsAndAttachments() throws Exception {
+        final List<JsonObject> requests = Collections.synchronizedList(new ArrayList<JsonObject>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets/delete", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                JsonReader reader = Json.createReader(exchange.getRequestBody());
+                requests.add(reader.readObject());
+                reader.close();
+                byte[] bytes = "{\"deleted\":2}".getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+            client.deleteAssetsAndAttachments(Arrays.asList("1", "2"));
+
+            assertEquals("The assets should be deleted in one request", 1, requests.size());
+            assertEquals(Json.createArrayBuilder().add("1").add("2").build(), requests.get(0).getJsonArray("ids"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSubscribeToChanges() throws Exception {
+        final List<String> lastEventIds = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/ma/v1/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+                lastEventIds.add(lastEventId);
+                String body;
+                if (lastEventId == null) {
+                    // Send two events then drop the connection, so that the client reconnects
+                    body = "retry: 10\n\n"
+                           + ":\n\n"
+                           + "id: 41\nevent: created\ndata: {\"assetId\":\"1\",\"changeSequence\":\"7\"}\n\n"
+                           + "id: 42\nevent: deleted\ndata: {\"assetId\":\"2\",\"changeSequence\":\"8\"}\n\n";
+                } else {
+                    body = "event: reset\ndata: {}\n\n";
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        ChangeEventSubscription subscription = null;
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            final Map<String, String> cache = new ConcurrentHashMap<String, String>();
+            cache.put("1", "one");
+            cache.put("2", "two");
+            cache.put("3", "three");
+            final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch reset = new CountDownLatch(1);
+            subscription = client.subscribeToChanges(new CacheInvalidatingListener(cache) {
+                @Override
+                public void assetChanged(String assetId, String changeSequence) {
+                    super.assetChanged(assetId, changeSequence);
+                    seen.add("changed " + assetId + " " + changeSequence + " " + cache.keySet());
+                }
+
+                @Override
+                public void assetDeleted(String assetId, String changeSequence) {
+                    super.assetDeleted(assetId, changeSequence);
+                    seen.add("deleted " + assetId + " " + changeSequence + " " + cache.keySet());
+                }
+
+                @Override
+                public void eventsLost() {
+                    super.eventsLost();
+                    seen.add("lost " + cache.keySet());
+                    reset.countDown();
+                }
+            });
+
+            assertTrue("The subscription should have reconnected and been reset", reset.await(30, TimeUnit.SECONDS));
+            subscription.close();
+            assertFalse(subscription.isActive());
+
+            assertEquals(Arrays.asList("changed 1 7 [2, 3]", "deleted 2 8 [3]", "lost []"), seen.subList(0, 3));
+            assertEquals("The client should resume from the last event it read", Arrays.asList(null, "42"), lastEventIds.subList(0, 2));
+        } finally {
+            if (subscription != null) {
+                subscription.close();
+            }
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testParallelDownloadUsesRanges() throws Exception {
+        final byte[] content = new byte[20 * 1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+
+        final List<String> rangeHeaders = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/ma/v1/assets/1234/attachments/5678", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                rangeHeaders.add(range);
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+                exchange.getResponseBody().write(content, start, end - start + 1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        File target = File.createTempFile("attachment", ".bin");
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            ClientLoginInfo loginInfo = new ClientLoginInfo("noone", "letmein", "123", url);
+            loginInfo.setParallelDownloads(4);
+            RestClient client = new RestClient(loginInfo);
+
+            Attachment attachment = new Attachment();
+            attachment.setUrl(url + "/assets/1234/attachments/5678");
+            attachment.setSize(content.length);
+            client.downloadAttachment(new Asset(), attachment, target);
+
+            assertEquals(4, rangeHeaders.size());
+            assertTrue(rangeHeaders.contains("bytes=0-5242879"));
+            assertTrue(rangeHeaders.contains("bytes=15728640-20971519"));
+
+            byte[] downloaded = new byte[content.length];
+            DataInputStream in = new DataInputStream(new FileInputStream(target));
+            try {
+                in.readFully(downloaded);
+                assertEquals(-1, in.read());
+            } finally {
+                in.close();
+            }
+            assertArrayEquals(content, downloaded);
+        } finally {
+            server.stop(0);
+            target.delete();
+        }
+    }
+
+    /**
+     * Tests that when one range of a parallel download fails, the other ranges are stopped before
+     * the download fails, and the partly written file is removed. A range which ends early is a
+     * failure, not a short range.
+     */
+    @Test
+    public void testParallelDownloadFailureRemovesFile() throws Exception {
+        final int length = 20 * 1024 * 1024;
+        final int rangeSize = length / 4;
+        final CountDownLatch rangesStarted = new CountDownLatch(3);
+        final CountDownLatch rangesStopped = new CountDownLatch(3);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/ma/v1/assets/1234/attachments/5678", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                if (start % rangeSize != 0) {
+                    // Ranges can't be resumed
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+                exchange.getResponseBody().write(new byte[1024]);
+                exchange.getResponseBody().flush();
+                try {
+                    if (start == 2 * rangeSize) {
+                        // Once the other ranges have started, cut this one short
+                        rangesStarted.await(30, TimeUnit.SECONDS);
+                        exchange.close();
+                        return;
+                    }
+
+                    // The other ranges are slow, and carry on until the client stops reading them
+                    rangesStarted.countDown();
+                    for (int written = 1024; written < end - start + 1; written += 1024) {
+                        Thread.sleep(10);
+                        exchange.getResponseBody().write(new byte[1024]);
+                        exchange.getResponseBody().flush();
+                    }
+                } catch (IOException e) {
+                    rangesStopped.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+
+        File target = File.createTempFile("attachment", ".bin");
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            ClientLoginInfo loginInfo = new ClientLoginInfo("noone", "letmein", "123", url);
+            loginInfo.setParallelDownloads(4);
+            RestClient client = new RestClient(loginInfo);
+
+            Attachment attachment = new Attachment();
+            attachment.setUrl(url + "/assets/1234/attachments/5678");
+            attachment.setSize(length);
+            try {
+                client.downloadAttachment(new Asset(), attachment, target);
+                fail("The download should have failed");
+            } catch (IOException e) {
+                // Expected
+            }
+            assertTrue("The other ranges should have been stopped", rangesStopped.await(30, TimeUnit.SECONDS));
+            assertFalse("The partly written file should have been removed", target.exists());
+        } finally {
+            server.stop(0);
+            target.delete();
+        }
+    }
+
+    /**
+     * Tests that an attachment whose content the repository already holds is added by sending the
+     * hash of the content, and that the file is only uploaded when the repository doesn't have it.
+     */
+    @Test
+    public void testAddAttachmentSendsContentHash() throws Exception {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> contentTypes = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets/1234/attachments", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                queries.add(query);
+                contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {
+                    // discard the request body
+                }
+                if (query.contains("sha256=") && !query.contains(KNOWN_HASH)) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    byte[] body = "{\"_id\":\"5678\",\"name\":\"content.txt\"}".getBytes("UTF-8");
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        File known = File.createTempFile("known", ".txt");
+        File unknown = File.createTempFile("unknown", ".txt");
+        try {
+            writeFile(known, "known content");
+            writeFile(unknown, "unknown content");
+            String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+            RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+            assertEquals("5678", client.addAttachment("1234", createAttachmentSummary(known)).get_id());
+            assertEquals(1, queries.size());
+            assertTrue(queries.get(0), queries.get(0).contains("&sha256=" + KNOWN_HASH));
+            assertEquals("application/json", contentTypes.get(0));
+
+            assertEquals("5678", client.addAttachment("1234", createAttachmentSummary(unknown)).get_id());
+            assertEquals(3, queries.size());
+            assertTrue(queries.get(1), queries.get(1).contains("&sha256="));
+            assertFalse(queries.get(2), queries.get(2).contains("sha256"));
+            assertTrue(contentTypes.get(2), contentTypes.get(2).startsWith("multipart/form-data"));
+        } finally {
+            server.stop(0);
+            known.delete();
+            unknown.delete();
+        }
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static AttachmentSummary createAttachmentSummary(final File file) {
+        final Attachment attachment = new Attachment();
+        attachment.setType(AttachmentType.CONTENT);
+        return new AttachmentSummary() {
+            @Override
+            public String getName() {
+                return "content.txt";
+            }
+
+            @Override
+            public File getFile() {
+                return file;
+            }
+
+            @Override
+            public String getURL() {
+                return null;
+            }
+
+            @Override
+            public Attachment getAttachment() {
+                return attachment;
+            }
+
+            @Override
+            public Locale getLocale() {
+                return null;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.repository.common.enums.AttachmentType;
+import com.ibm.ws.repository.transport.client.ClientLoginInfo;
+import com.ibm.ws.repository.transport.client.RestClient;
+import com.ibm.ws.repository.transport.model.Attachment;
+import com.ibm.ws.repository.transport.model.AttachmentSummary;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures the throughput of uploading an attachment with {@link RestClient}, to a local server
+ * which reads and discards the request body.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class RestClientUploadBenchmark {
+
+    private static final int CONTENT_SIZE = 256 * 1024 * 1024;
+
+    private static final int RUNS = 5;
+
+    private static HttpServer server;
+    private static File contentFile;
+    private static long bytesReceived;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        contentFile = File.createTempFile("uploadBenchmark", ".bin");
+        FileOutputStream out = new FileOutputStream(contentFile);
+        try {
+            byte[] block = new byte[1024 * 1024];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) i;
+            }
+            for (int i = 0; i < CONTENT_SIZE / block.length; i++) {
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ma/v1/assets/1234/attachments", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                }
+                bytesReceived = total;
+
+                byte[] body = "{\"_id\":\"5678\"}".getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+        contentFile.delete();
+    }
+
+    @Test
+    public void testUploadThroughput() throws Exception {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/ma/v1";
+        RestClient client = new RestClient(new ClientLoginInfo("noone", "letmein", "123", url));
+
+        final Attachment attachment = new Attachment();
+        attachment.setType(AttachmentType.CONTENT);
+        AttachmentSummary summary = new AttachmentSummary() {
+            @Override
+            public String getName() {
+                return "benchmark.esa";
+            }
+
+            @Override
+            public File getFile() {
+                return contentFile;
+            }
+
+            @Override
+            public String getURL() {
+                return null;
+            }
+
+            @Override
+            public Attachment getAttachment() {
+                return attachment;
+            }
+
+            @Override
+            public Locale getLocale() {
+                return null;
+            }
+        };
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            assertEquals("5678", client.addAttachment("1234", summary).get_id());
+            long elapsed = System.nanoTime() - start;
+            assertTrue("The server should have received the whole file", bytesReceived > CONTENT_SIZE);
+            System.out.println("Run " + run + ": uploaded " + (CONTENT_SIZE / (1024 * 1024)) + "MB at "
+                               + ((CONTENT_SIZE * 1000L * 1000L * 1000L) / (elapsed * 1024L * 1024L)) + "MB/s");
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.ibm.ws.repository.common.enums;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 
 /**
  * The attributes that you can filter a resource by.
@@ -78,4 +79,20 @@ public enum FilterableAttribute {
     public Class<?> getType() {
         return type;
     }
+
+    /**
+     * Returns the names of all of the fields which hold the values of filterable attributes, including the secondary attribute names.
+     *
+     * @return the field names
+     */
+    public static Collection<String> getAttributeNames() {
+        Collection<String> names = new LinkedHashSet<String>();
+        for (FilterableAttribute attribute : values()) {
+            names.add(attribute.getAttributeName());
+            if (attribute.getSecondaryAttributeName() != null) {
+                names.add(attribute.getSecondaryAttributeName());
+            }
+        }
+        return names;
+    }
 }
\ No newline at end of file
@@ -1812,34 +1812,12 @@ public abstract class RepositoryResourceImpl implements RepositoryResourceWritab
          */
         public void downloadToFile(final File fileToWriteTo) throws RepositoryBackendException,
                         IOException, RepositoryBadDataException {
-            FileOutputStream fos = null;
-            InputStream is = getInputStream();
             try {
-                try {
-                    fos = AccessController.doPrivileged(
-                                    new PrivilegedExceptionAction<FileOutputStream>() {
-                                        @Override
-                                        public FileOutputStream run() throws FileNotFoundException {
-                                            return new FileOutputStream(fileToWriteTo);
-                                        }
-                                    });
-                } catch (PrivilegedActionException e) {
-                    // Creating a FileInputStream can only return a FileNotFoundException
-                    throw (FileNotFoundException) e.getCause();
-                }
-
-                byte[] buffer = new byte[1024];
-                int read = 0;
-                while ((read = is.read(buffer)) != -1) {
-                    fos.write(buffer, 0, read);
-                }
-            } finally {
-                if (null != fos) {
-                    fos.close();
-                }
-                if (null != is) {
-                    is.close();
-                }
+                _client.downloadAttachment(_asset, _attachment, fileToWriteTo);
+            } catch (BadVersionException e) {
+                throw new RepositoryBadDataException("BadVersion reading attachment", getId(), e);
+            } catch (RequestFailureException e) {
+                throw new RepositoryBackendRequestFailureException(e, _repoConnection);
             }
         }
 
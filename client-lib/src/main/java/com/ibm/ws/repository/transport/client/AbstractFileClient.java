@@ -126,6 +126,16 @@ public abstract class AbstractFileClient extends AbstractRepositoryClient implem
         return filtered;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The whole of each asset is returned, as the assets have to be read in full to filter them.
+     */
+    @Override
+    public Collection<Asset> getFilteredAssets(final Map<FilterableAttribute, Collection<String>> filters, final Collection<String> fields) throws IOException, RequestFailureException {
+        return getFilteredAssets(filters);
+    }
+
     @Override
     public List<Asset> findAssets(final String searchString, final Collection<ResourceType> types) throws IOException, RequestFailureException {
         Collection<Asset> assets = getAssets(types, null, null, null);
@@ -15,7 +15,10 @@
  *******************************************************************************/
 package com.ibm.ws.repository.transport.client;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -26,6 +29,7 @@ import java.util.Map;
 import com.ibm.ws.repository.common.enums.FilterableAttribute;
 import com.ibm.ws.repository.common.enums.ResourceType;
 import com.ibm.ws.repository.common.enums.Visibility;
+import com.ibm.ws.repository.transport.exceptions.BadVersionException;
 import com.ibm.ws.repository.transport.exceptions.RequestFailureException;
 import com.ibm.ws.repository.transport.model.AppliesToFilterInfo;
 import com.ibm.ws.repository.transport.model.Asset;
@@ -36,6 +40,9 @@ import com.ibm.ws.repository.transport.model.Attachment;
  */
 public abstract class AbstractRepositoryClient implements RepositoryReadableClient {
 
+    /** The size of the buffer used to copy an attachment to a file */
+    protected static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
     /**
      * This method will return all of the assets matching specific filters in Massive.
      * It will just return a summary of each asset and not include any {@link Attachment}s.
@@ -93,6 +100,30 @@ public abstract class AbstractRepositoryClient implements RepositoryReadableClie
         return getFilteredAssets(types, null, null, null, false);
     }
 
+    /**
+     * Downloads an attachment by copying the stream returned by
+     * {@link #getAttachment(Asset, Attachment)} to the file. Clients which can download an
+     * attachment more efficiently should override this method.
+     */
+    @Override
+    public void downloadAttachment(final Asset asset, final Attachment attachment, final File target) throws IOException, BadVersionException, RequestFailureException {
+        InputStream is = getAttachment(asset, attachment);
+        try {
+            OutputStream os = DirectoryUtils.createFileOutputStream(target);
+            try {
+                byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
     /**
      * Implementation for the filtered get methods {@link #getAssets(Collection, String, Visibility, String)} and
      * {@link #getAssetsWithUnboundedMaxVersion(Collection, String, Visibility)}.
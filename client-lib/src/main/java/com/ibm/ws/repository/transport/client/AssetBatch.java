@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.ws.repository.common.enums.StateAction;
+import com.ibm.ws.repository.transport.exceptions.RequestFailureException;
+import com.ibm.ws.repository.transport.model.Asset;
+import com.ibm.ws.repository.transport.model.BulkOperation;
+import com.ibm.ws.repository.transport.model.BulkOperationResult;
+
+/**
+ * Collects asset writes and sends them to the repository together, in as few bulk write requests
+ * as possible.
+ * <p>
+ * Each write is queued, and a {@link Future} of its result is returned straight away. The queued
+ * writes are sent, in the order they were made, when the batch holds the maximum number of
+ * operations, when the oldest queued write has waited for the maximum delay, or when
+ * {@link #flush()} or {@link #close()} is called. Writes which are sent because of the delay are
+ * sent on a background thread.
+ * <p>
+ * The result of each write holds the HTTP status which the equivalent single request would have
+ * returned, so a write which fails does not stop the others in the batch being made, unless it
+ * failed because it was invalid. If the whole request fails, the futures of all the writes it held
+ * throw an {@link ExecutionException}.
+ */
+public class AssetBatch {
+
+    private static final Logger logger = Logger.getLogger(AssetBatch.class.getName());
+
+    /** The most operations which the repository accepts in one bulk write */
+    public static final int MAX_OPERATIONS = 1000;
+
+    /**
+     * Sends a list of operations to the repository
+     */
+    interface Sender {
+        /**
+         * @return the result of each operation, in the same order
+         */
+        List<BulkOperationResult> send(List<BulkOperation> operations) throws IOException, RequestFailureException;
+    }
+
+    private final Sender sender;
+    private final int maxOperations;
+    private final long maxDelayMillis;
+
+    /** Guards the queue, the timer and the closed flag */
+    private final Object queueLock = new Object();
+    /** Held while sending, so that batches are sent one at a time and in order */
+    private final Object sendLock = new Object();
+
+    private List<BulkOperation> operations = new ArrayList<BulkOperation>();
+    private List<PendingResult> results = new ArrayList<PendingResult>();
+    private Timer timer;
+    private TimerTask flushTask;
+    private boolean closed = false;
+
+    /**
+     * @param sender sends the operations to the repository
+     * @param maxOperations the number of operations to send in each request, at most
+     *            {@link #MAX_OPERATIONS}
+     * @param maxDelayMillis how long to wait for more operations before sending the ones which
+     *            are queued, or 0 to only send them when the batch is full or flushed
+     */
+    AssetBatch(Sender sender, int maxOperations, long maxDelayMillis) {
+        if (maxOperations < 1 || maxOperations > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("The maximum number of operations must be between 1 and " + MAX_OPERATIONS + ": " + maxOperations);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("The maximum delay must not be negative: " + maxDelayMillis);
+        }
+        this.sender = sender;
+        this.maxOperations = maxOperations;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Adds an asset. The result holds the id of the new asset.
+     *
+     * @param asset the asset to add, which must not have an id
+     * @return the result of adding the asset
+     * @throws IOException if the batch was full and could not be sent
+     * @throws RequestFailureException if the batch was full and the repository refused it
+     */
+    public Future<BulkOperationResult> addAsset(Asset asset) throws IOException, RequestFailureException {
+        return add(BulkOperation.create(asset));
+    }
+
+    /**
+     * Takes an action on the state of an asset.
+     *
+     * @see #addAsset(Asset)
+     */
+    public Future<BulkOperationResult> updateState(String assetId, StateAction action) throws IOException, RequestFailureException {
+        return add(BulkOperation.updateState(assetId, action));
+    }
+
+    /**
+     * Deletes an asset and its attachments.
+     *
+     * @see #addAsset(Asset)
+     */
+    public Future<BulkOperationResult> deleteAssetAndAttachments(String assetId) throws IOException, RequestFailureException {
+        return add(BulkOperation.delete(assetId));
+    }
+
+    private Future<BulkOperationResult> add(BulkOperation operation) throws IOException, RequestFailureException {
+        PendingResult result = new PendingResult();
+        boolean full;
+        synchronized (queueLock) {
+            if (closed) {
+                throw new IllegalStateException("The batch has been closed");
+            }
+            operations.add(operation);
+            results.add(result);
+            full = operations.size() >= maxOperations;
+            if (!full && flushTask == null && maxDelayMillis > 0) {
+                scheduleFlush();
+            }
+        }
+        if (full) {
+            flush();
+        }
+        return result;
+    }
+
+    private void scheduleFlush() {
+        if (timer == null) {
+            timer = new Timer("Repository asset batch", true);
+        }
+        flushTask = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    // The futures of the writes have been given the exception
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.log(Level.FINE, "Failed to send a batch of asset writes", e);
+                    }
+                }
+            }
+        };
+        timer.schedule(flushTask, maxDelayMillis);
+    }
+
+    /**
+     * Sends the queued writes and waits for their results.
+     *
+     * @throws IOException if the writes could not be sent
+     * @throws RequestFailureException if the repository refused the request
+     */
+    public void flush() throws IOException, RequestFailureException {
+        synchronized (sendLock) {
+            List<BulkOperation> toSend;
+            List<PendingResult> toComplete;
+            synchronized (queueLock) {
+                if (flushTask != null) {
+                    flushTask.cancel();
+                    flushTask = null;
+                }
+                if (operations.isEmpty()) {
+                    return;
+                }
+                toSend = operations;
+                toComplete = results;
+                operations = new ArrayList<BulkOperation>();
+                results = new ArrayList<PendingResult>();
+            }
+
+            List<BulkOperationResult> sent;
+            try {
+                sent = sender.send(toSend);
+                if (sent.size() != toSend.size()) {
+                    throw new IOException("The repository returned " + sent.size() + " results for " + toSend.size() + " operations");
+                }
+            } catch (IOException e) {
+                failAll(toComplete, e);
+                throw e;
+            } catch (RequestFailureException e) {
+                failAll(toComplete, e);
+                throw e;
+            } catch (RuntimeException e) {
+                failAll(toComplete, e);
+                throw e;
+            }
+
+            for (int i = 0; i < toComplete.size(); i++) {
+                toComplete.get(i).complete(sent.get(i), null);
+            }
+        }
+    }
+
+    private static void failAll(List<PendingResult> pending, Exception e) {
+        for (PendingResult result : pending) {
+            result.complete(null, e);
+        }
+    }
+
+    /**
+     * Sends any queued writes, and stops the batch from taking any more.
+     *
+     * @see #flush()
+     */
+    public void close() throws IOException, RequestFailureException {
+        synchronized (queueLock) {
+            closed = true;
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+                flushTask = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * The result of a write, which is available once the batch holding it has been sent
+     */
+    private static class PendingResult implements Future<BulkOperationResult> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile BulkOperationResult result;
+        private volatile Exception exception;
+
+        void complete(BulkOperationResult result, Exception exception) {
+            this.result = result;
+            this.exception = exception;
+            done.countDown();
+        }
+
+        /** Writes can't be taken out of a batch once they have been queued */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public BulkOperationResult get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public BulkOperationResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private BulkOperationResult getResult() throws ExecutionException {
+            if (exception != null) {
+                throw new ExecutionException(exception);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.repository.transport.client;
+
+import java.util.Map;
+
+/**
+ * A {@link RepositoryChangeListener} which removes the entries for changed and deleted assets from
+ * a cache of resources keyed by asset id, so that they are read from the repository again the next
+ * time they are needed. The whole cache is cleared if events are lost.
+ * <p>
+ * The listener is called on the subscription's thread, so the map must be safe to use from more
+ * than one thread, such as a {@link java.util.concurrent.ConcurrentHashMap}.
+ */
+public class CacheInvalidatingListener implements RepositoryChangeListener {
+
+    private final Map<String, ?> cache;
+
+    /**
+     * @param cache the cache of resources, keyed by asset id
+     */
+    public CacheInvalidatingListener(Map<String, ?> cache) {
+        this.cache = cache;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assetChanged(String assetId, String changeSequence) {
+        cache.remove(assetId);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assetDeleted(String assetId, String changeSequence) {
+        cache.remove(assetId);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void eventsLost() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.repository.transport.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * A subscription to a repository's stream of events about changes to assets. The events are read
+ * on a background thread and passed to a {@link RepositoryChangeListener}.
+ * <p>
+ * If the connection is lost, the subscription reconnects and carries on from the last event it
+ * read. The repository tells the subscription if any events were missed while it was not
+ * connected, and the listener's {@link RepositoryChangeListener#eventsLost()} method is called.
+ * Events are only sent for changes made after the subscription first connects, so a client should
+ * subscribe before it reads the assets it wants to keep up to date.
+ */
+public class ChangeEventSubscription {
+
+    private static final Logger logger = Logger.getLogger(ChangeEventSubscription.class.getName());
+
+    /** How long to wait before reconnecting, unless the repository says otherwise */
+    static final long DEFAULT_RETRY_MILLIS = 5000;
+
+    private final ResumableInputStream.ConnectionFactory factory;
+    private final RepositoryChangeListener listener;
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+    private volatile HttpURLConnection connection;
+
+    /** The id of the last event read, only used by the subscription's thread */
+    private String lastEventId;
+    private long retryMillis = DEFAULT_RETRY_MILLIS;
+
+    /**
+     * @param factory creates connections to the repository's event stream
+     * @param listener told about the events
+     */
+    ChangeEventSubscription(ResumableInputStream.ConnectionFactory factory, RepositoryChangeListener listener) {
+        this.factory = factory;
+        this.listener = listener;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readEvents();
+            }
+        }, "Repository change events");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Ends the subscription. The listener may be called once more if an event is being passed to
+     * it when this is called.
+     */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    /**
+     * @return true if the subscription has not been closed
+     */
+    public boolean isActive() {
+        return !closed;
+    }
+
+    private void readEvents() {
+        while (!closed) {
+            try {
+                HttpURLConnection current = factory.createConnection();
+                current.setRequestProperty("Accept", "text/event-stream");
+                if (lastEventId != null) {
+                    current.setRequestProperty("Last-Event-ID", lastEventId);
+                }
+                connection = current;
+                if (closed) {
+                    break;
+                }
+
+                int responseCode = current.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("The repository returned " + responseCode + " when subscribing to events");
+                }
+                InputStream in = current.getInputStream();
+                try {
+                    readStream(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                if (!closed && logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Lost the connection to the repository's event stream", e);
+                }
+            } finally {
+                HttpURLConnection current = connection;
+                if (current != null) {
+                    current.disconnect();
+                }
+                connection = null;
+            }
+
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads events from the stream until it ends. Each event is a group of lines ending with a
+     * blank line, and the lines which start with a colon are comments.
+     */
+    private void readStream(BufferedReader reader) throws IOException {
+        String id = null;
+        String event = null;
+        StringBuilder data = new StringBuilder();
+
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (id != null) {
+                    lastEventId = id;
+                }
+                if (event != null) {
+                    dispatch(event, data.toString());
+                }
+                id = null;
+                event = null;
+                data.setLength(0);
+                continue;
+            }
+            if (line.startsWith(":")) {
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            String field = colon == -1 ? line : line.substring(0, colon);
+            String value = colon == -1 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+
+            if (field.equals("id")) {
+                id = value;
+            } else if (field.equals("event")) {
+                event = value;
+            } else if (field.equals("data")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
+            } else if (field.equals("retry")) {
+                try {
+                    retryMillis = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    // Ignore it, as the spec says
+                }
+            }
+        }
+    }
+
+    private void dispatch(String event, String data) {
+        try {
+            if (event.equals("reset")) {
+                listener.eventsLost();
+                return;
+            }
+
+            JsonReader jsonReader = Json.createReader(new StringReader(data));
+            JsonObject object = jsonReader.readObject();
+            jsonReader.close();
+            String assetId = object.getString("assetId");
+            String changeSequence = object.getString("changeSequence", null);
+
+            if (event.equals("deleted")) {
+                listener.assetDeleted(assetId, changeSequence);
+            } else {
+                listener.assetChanged(assetId, changeSequence);
+            }
+        } catch (JsonException e) {
+            logger.log(Level.WARNING, "Could not read the data of a " + event + " event from the repository: " + data, e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "The listener failed to handle a " + event + " event", e);
+        }
+    }
+}
@@ -33,6 +33,8 @@ public class ClientLoginInfo {
 
     private LoginInfoClientProxy proxy;
 
+    private int parallelDownloads = 1;
+
     public ClientLoginInfo(String userId, String password, String apiKey, String repositoryUrl,
                      String softlayerUserId, String softlayerPassword, String attachmentBasicAuthUserId, String attachmentBasicAuthPassword, String userAgent) {
         this.userId = userId;
@@ -145,4 +147,23 @@ public class ClientLoginInfo {
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
     }
+
+    /**
+     * @return the number of ranges which a large attachment is split into when it is downloaded
+     */
+    public int getParallelDownloads() {
+        return parallelDownloads;
+    }
+
+    /**
+     * Sets the number of ranges which a large attachment is split into when it is downloaded to a
+     * file. The ranges are downloaded at the same time on separate connections, which can be
+     * faster over a connection with high latency. The default is 1, which downloads attachments
+     * over a single connection.
+     *
+     * @param parallelDownloads the number of ranges to download at once
+     */
+    public void setParallelDownloads(int parallelDownloads) {
+        this.parallelDownloads = parallelDownloads;
+    }
 }
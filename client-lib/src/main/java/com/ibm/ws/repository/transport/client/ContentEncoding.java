@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lets a response be sent compressed, and decompresses it again as it is read.
+ */
+final class ContentEncoding {
+
+    /** The value of the Accept-Encoding header, listing the encodings which can be decompressed */
+    static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private ContentEncoding() {
+        // static methods only
+    }
+
+    /**
+     * Asks for the response on a connection to be compressed if the server is able to.
+     *
+     * @param connection a connection which has not been connected yet
+     */
+    static void acceptCompressed(HttpURLConnection connection) {
+        connection.setRequestProperty("Accept-Encoding", ACCEPTED_ENCODINGS);
+    }
+
+    /**
+     * Returns true if the body of the response on a connection has been compressed
+     */
+    static boolean isCompressed(HttpURLConnection connection) {
+        String encoding = connection.getContentEncoding();
+        return encoding != null && !encoding.trim().isEmpty() && !"identity".equalsIgnoreCase(encoding.trim());
+    }
+
+    /**
+     * Returns the body of the response on a connection, decompressing it if it was compressed
+     *
+     * @throws IOException if the body was compressed with an encoding that is not supported
+     */
+    static InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        if (!isCompressed(connection)) {
+            return in;
+        }
+
+        String encoding = connection.getContentEncoding().trim();
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(in);
+        }
+        in.close();
+        throw new IOException("The response from " + connection.getURL() + " has an unsupported content encoding: " + encoding);
+    }
+}
@@ -20,6 +20,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -57,6 +58,19 @@ public class DirectoryUtils {
         }
     }
 
+    public static RandomAccessFile createRandomAccessFile(final File file, final String mode) throws IOException {
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<RandomAccessFile>() {
+                @Override
+                public RandomAccessFile run() throws IOException {
+                    return new RandomAccessFile(file, mode);
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
     public static boolean exists(final File file) {
         return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
             @Override
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.repository.transport.client;
+
+/**
+ * Told about the changes to assets in a repository, as they are read from the repository's event
+ * stream by a {@link ChangeEventSubscription}.
+ * <p>
+ * The methods are called on the subscription's thread, one at a time, in the order the changes
+ * were made.
+ */
+public interface RepositoryChangeListener {
+
+    /**
+     * Called when an asset has been created or changed, including a change to its state or its
+     * attachments.
+     *
+     * @param assetId the id of the asset
+     * @param changeSequence the position of the change in the repository's change feed
+     */
+    void assetChanged(String assetId, String changeSequence);
+
+    /**
+     * Called when an asset has been deleted.
+     *
+     * @param assetId the id of the asset
+     * @param changeSequence the position of the deletion in the repository's change feed
+     */
+    void assetDeleted(String assetId, String changeSequence);
+
+    /**
+     * Called when some events may have been missed, for instance because the repository was
+     * restarted or the subscription fell too far behind. Anything held about the assets may now be
+     * out of date, and should be read again or brought up to date with
+     * {@link RestClient#syncAssets(java.util.Map, String)}.
+     */
+    void eventsLost();
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.ibm.ws.repository.transport.client;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
@@ -99,6 +100,18 @@ public interface RepositoryReadableClient extends RepositoryClient {
      */
     public InputStream getAttachment(final Asset asset, final Attachment attachment) throws IOException, BadVersionException, RequestFailureException;
 
+    /**
+     * Downloads the content of an attachment to a file, replacing anything already in the file.
+     *
+     * @param asset The asset which contains the attachment
+     * @param attachment The attachment to download
+     * @param target The file to write the attachment to
+     * @throws IOException
+     * @throws BadVersionException
+     * @throws RequestFailureException
+     */
+    public void downloadAttachment(final Asset asset, final Attachment attachment, final File target) throws IOException, BadVersionException, RequestFailureException;
+
     /**
      * Find assets based on the <code>searchString</code>.
      *
@@ -126,6 +139,21 @@ public interface RepositoryReadableClient extends RepositoryClient {
     public Collection<Asset> getFilteredAssets(final Map<FilterableAttribute, Collection<String>> filters)
                     throws IOException, RequestFailureException;
 
+    /**
+     * This will obtain assets using the supplied filters in the same way as {@link #getFilteredAssets(Map)}, but only reads the given fields of each asset. The assets returned
+     * only contain their ID and the requested fields, and do not include their attachments. A repository which can't return part of an asset may return the whole asset.
+     * <p>
+     * To read just enough of each asset to match it against further filters, pass {@link FilterableAttribute#getAttributeNames()}.
+     *
+     * @param filters A map of attributes to filter on mapped to the values to use
+     * @param fields The names of the fields to read, which may refer to a field inside an object using dots, such as <code>wlpInformation.provideFeature</code>
+     * @return The filtered assets
+     * @throws IOException
+     * @throws RequestFailureException
+     */
+    public Collection<Asset> getFilteredAssets(final Map<FilterableAttribute, Collection<String>> filters, final Collection<String> fields)
+                    throws IOException, RequestFailureException;
+
     /**
      * Checks the repository availability
      *
@@ -22,27 +22,45 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -56,8 +74,13 @@ import com.ibm.ws.repository.common.enums.StateAction;
 import com.ibm.ws.repository.transport.exceptions.BadVersionException;
 import com.ibm.ws.repository.transport.exceptions.RequestFailureException;
 import com.ibm.ws.repository.transport.model.Asset;
+import com.ibm.ws.repository.transport.model.AssetChanges;
 import com.ibm.ws.repository.transport.model.Attachment;
 import com.ibm.ws.repository.transport.model.AttachmentSummary;
+import com.ibm.ws.repository.transport.model.BulkOperation;
+import com.ibm.ws.repository.transport.model.BulkOperationResult;
+import com.ibm.ws.repository.transport.model.BulkWriteRequest;
+import com.ibm.ws.repository.transport.model.BulkWriteResponse;
 import com.ibm.ws.repository.transport.model.StateUpdateAction;
 
 /**
@@ -74,6 +97,37 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
 
     private static final int REPOSITORY_SOCKET_READ_TIMEOUT = 300 * 1000;
 
+    /**
+     * The maximum total size of the response bodies kept so that they can be reused when the
+     * server says they have not been modified
+     */
+    private static final long VALIDATOR_CACHE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * The size of the largest single response body kept in the validator cache
+     */
+    private static final long VALIDATOR_CACHE_MAX_ENTRY_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Attachments smaller than this are always downloaded over a single connection, even if
+     * parallel downloads are enabled
+     */
+    private static final long PARALLEL_DOWNLOAD_MIN_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The size of the buffer used to upload attachment content, which is also the size of each
+     * chunk if the upload has to use chunked encoding
+     */
+    private static final int UPLOAD_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Added to queries for lists of assets, so that each asset is returned with its attachments
+     * rather than the attachments having to be read with a separate request for each asset
+     */
+    private static final String INCLUDE_ATTACHMENTS = "includeAttachments=true";
+
+    private final ValidatorCache validatorCache = new ValidatorCache(VALIDATOR_CACHE_SIZE, VALIDATOR_CACHE_MAX_ENTRY_SIZE);
+
     /**
      * Create a new instance of the client using the supplied userId and
      * password
@@ -97,10 +151,8 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
      */
     @Override
     public List<Asset> getAllAssets() throws IOException, RequestFailureException {
-        HttpURLConnection connection = createHttpURLConnectionToMassive("/assets");
-        connection.setRequestMethod("GET");
-        testResponseCode(connection);
-        return JSONAssetConverter.readValues(connection.getInputStream());
+        HttpURLConnection connection = createHttpURLConnectionToMassive("/assets?" + INCLUDE_ATTACHMENTS);
+        return JSONAssetConverter.readValues(doConditionalGet(connection));
     }
 
     /**
@@ -130,6 +182,137 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
         return connection.getHeaderFields();
     }
 
+    /**
+     * Brings a copy of the assets in the repository up to date by reading the repository's change
+     * feed, so that only the assets which have changed since the copy was last brought up to date
+     * are downloaded. Changed assets are put into the map, with their attachments, and deleted
+     * assets are removed from it.
+     * <p>
+     * The first call should pass a null position, in which case the map is cleared and every asset
+     * is read. Each later call should pass the position returned by the call before. If the
+     * position is too old for the repository to know every change since, the map is cleared and
+     * every asset is read again.
+     * <p>
+     * Changes made in the last few seconds may not be returned until a later call.
+     *
+     * @param assets the copy of the assets, keyed by asset id, which is updated in place
+     * @param since the position returned by the last call, or null to read every asset
+     * @return the position to pass to the next call
+     * @throws IOException
+     * @throws BadVersionException
+     * @throws RequestFailureException if the response code is not OK
+     */
+    public String syncAssets(Map<String, Asset> assets, String since) throws IOException, BadVersionException, RequestFailureException {
+        if (since == null) {
+            assets.clear();
+        }
+
+        String position = since;
+        AssetChanges changes;
+        do {
+            String url = "/changes";
+            if (position != null) {
+                url += "?since=" + URLEncoder.encode(position, "UTF-8");
+            }
+            HttpURLConnection connection = createHttpURLConnectionToMassive(url);
+            ContentEncoding.acceptCompressed(connection);
+            connection.setRequestMethod("GET");
+            testResponseCode(connection);
+
+            InputStream inputStream = ContentEncoding.getInputStream(connection);
+            try {
+                changes = JSONAssetConverter.readValue(inputStream, AssetChanges.class);
+            } finally {
+                inputStream.close();
+            }
+
+            if (changes.getReset()) {
+                assets.clear();
+            }
+            for (Asset asset : changes.getAssets()) {
+                assets.put(asset.get_id(), asset);
+            }
+            for (String assetId : changes.getDeletedAssetIds()) {
+                assets.remove(assetId);
+            }
+            position = changes.getNext();
+        } while (changes.getMore());
+
+        return position;
+    }
+
+    /**
+     * Subscribes to the repository's stream of events about changes to assets. The events are
+     * read on a background thread, and passed to the listener, until the subscription is closed.
+     *
+     * @param listener told about the changes, for instance a {@link CacheInvalidatingListener}
+     * @return the subscription, which must be closed when it is no longer needed
+     */
+    public ChangeEventSubscription subscribeToChanges(RepositoryChangeListener listener) {
+        ChangeEventSubscription subscription = new ChangeEventSubscription(new ResumableInputStream.ConnectionFactory() {
+            @Override
+            public HttpURLConnection createConnection() throws IOException {
+                return createHttpURLConnectionToMassive("/events");
+            }
+        }, listener);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Makes several asset writes in one request. Each operation has the same effect as the
+     * equivalent single request, and its result holds the status that request would have
+     * returned, so the request succeeds even if some of the operations fail.
+     *
+     * @param operations the operations, at most {@link AssetBatch#MAX_OPERATIONS}
+     * @param ordered if true, the operations are made in order, and none are made after one which
+     *            is invalid
+     * @return the result of each operation, in the same order
+     * @throws IOException
+     * @throws RequestFailureException if the response code is not OK
+     */
+    public List<BulkOperationResult> bulkWrite(List<BulkOperation> operations, boolean ordered) throws IOException, RequestFailureException {
+        BulkWriteRequest request = new BulkWriteRequest();
+        request.setOrdered(ordered);
+        request.setOperations(operations);
+
+        HttpURLConnection connection = createHttpURLConnectionToMassive("/assets/bulk");
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        ContentEncoding.acceptCompressed(connection);
+        connection.setDoOutput(true);
+        JSONAssetConverter.writeValue(connection.getOutputStream(), request);
+        testResponseCode(connection);
+
+        InputStream inputStream = ContentEncoding.getInputStream(connection);
+        try {
+            return JSONAssetConverter.readValue(inputStream, BulkWriteResponse.class).getResults();
+        } catch (BadVersionException e) {
+            throw new IOException("Could not read the results of the bulk write", e);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Creates a batch which collects asset writes and sends them together with
+     * {@link #bulkWrite(List, boolean)}. The writes are made in order.
+     *
+     * @param maxOperations the number of writes to send in each request, at most
+     *            {@link AssetBatch#MAX_OPERATIONS}
+     * @param maxDelayMillis how long a write can wait for more to be added before it is sent, or 0
+     *            to only send the writes when the batch is full or flushed
+     * @return the batch, which must be closed once the writes have been added
+     */
+    public AssetBatch createBatch(int maxOperations, long maxDelayMillis) {
+        return new AssetBatch(new AssetBatch.Sender() {
+            @Override
+            public List<BulkOperationResult> send(List<BulkOperation> operations) throws IOException, RequestFailureException {
+                return bulkWrite(operations, true);
+            }
+        }, maxOperations, maxDelayMillis);
+    }
+
     /**
      * Adds an asset into Massive. Note that Massive will set some fields (such
      * as ID) so it is important to switch to the returned object after calling
@@ -233,12 +416,14 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
             }
             url.append("&" + createListFilter(FilterableAttribute.TYPE, typeValues));
         }
+        url.append("&" + INCLUDE_ATTACHMENTS);
 
         // Call massive to run the query
         HttpURLConnection connection = createHttpURLConnectionToMassive(url.toString());
+        ContentEncoding.acceptCompressed(connection);
         connection.setRequestMethod("GET");
         testResponseCode(connection);
-        InputStream is = connection.getInputStream();
+        InputStream is = ContentEncoding.getInputStream(connection);
 
         // take the returned input stream and convert it to assets
         List<Asset> assets = JSONAssetConverter.readValues(is);
@@ -317,6 +502,14 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
             urlString = urlString + "&type=" + attach.getType().toString();
         }
 
+        if (attSummary.getURL() == null) {
+            // If the repository already holds identical content, refer to it rather than uploading it again
+            Attachment existing = addAttachmentWithExistingContent(urlString, attSummary);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
         HttpURLConnection connection = createHttpURLConnectionToMassive(urlString);
         if (attSummary.getURL() == null) {
             writeMultiPart(assetId, attSummary, connection);
@@ -340,6 +533,97 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
         return attachment;
     }
 
+    /**
+     * Tries to add an attachment whose content is already stored in the repository, by sending the
+     * SHA-256 hash of the attachment's file instead of the file itself.
+     *
+     * @param urlString the path to post the attachment to, including the name and type
+     * @param attSummary the attachment, which must have a file
+     * @return the new attachment, or null if the repository doesn't have the content or doesn't
+     *         support adding attachments by hash, in which case the file must be uploaded
+     * @throws IOException
+     * @throws BadVersionException
+     * @throws RequestFailureException
+     */
+    private Attachment addAttachmentWithExistingContent(String urlString, AttachmentSummary attSummary) throws IOException, BadVersionException, RequestFailureException {
+        HttpURLConnection connection = createHttpURLConnectionToMassive(urlString + "&sha256=" + computeSha256(attSummary.getFile()));
+        writeSinglePart(null, attSummary, connection);
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_BAD_REQUEST) {
+            // A 404 means there's no content with that hash, a 400 that the server doesn't support
+            // the hash parameter
+            clearErrorStream(connection);
+            return null;
+        }
+        testResponseCode(connection);
+        InputStream is = connection.getInputStream();
+        try {
+            return JSONAssetConverter.readValue(is, Attachment.class);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file
+     *
+     * @return the hash as a lower case hex string
+     * @throws IOException
+     */
+    private static String computeSha256(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("The SHA-256 algorithm is not available: " + e.getMessage());
+        }
+
+        FileInputStream inputStream;
+        try {
+            inputStream = AccessController.doPrivileged(new PrivilegedExceptionAction<FileInputStream>() {
+                @Override
+                public FileInputStream run() throws IOException {
+                    return new FileInputStream(file);
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getCause();
+        }
+        try {
+            byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        byte[] hash = digest.digest();
+        return String.format("%0" + (hash.length * 2) + "x", new BigInteger(1, hash));
+    }
+
+    /**
+     * Reads and discards the error stream of a connection which got an unsuccessful response, so
+     * that the connection can be reused
+     */
+    private static void clearErrorStream(HttpURLConnection connection) {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (errorStream.read(buffer) != -1) {
+                // discard
+            }
+            errorStream.close();
+        } catch (IOException e) {
+            // Nothing useful can be done
+        }
+    }
+
     /**
      * Adds a new attachment to an asset
      *
@@ -370,7 +654,13 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
 
         connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
 
-        connection.setRequestProperty("Content-Length", "" + contentLength);
+        // Stream the body rather than letting the connection buffer all of it in memory to work
+        // out the Content-Length
+        if (contentLength <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) contentLength);
+        } else {
+            connection.setChunkedStreamingMode(UPLOAD_BUFFER_SIZE);
+        }
         connection.setRequestMethod("POST");
         connection.setDoOutput(true);
 
@@ -378,7 +668,6 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
 
         // Write the header
         httpStream.write(startBytes);
-        httpStream.flush();
 
         FileInputStream inputStream = null;
         try {
@@ -392,17 +681,17 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
             } catch (PrivilegedActionException e) {
                 throw (IOException) e.getCause();
             }
-            byte[] buffer = new byte[1024];
-            int read;
-            int total = 0;
-            while ((read = inputStream.read(buffer)) != -1) {
-                httpStream.write(buffer, 0, read);
-                total += read;
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_BUFFER_SIZE);
+            long total = 0;
+            while (channel.read(buffer) != -1) {
+                httpStream.write(buffer.array(), 0, buffer.position());
+                total += buffer.position();
+                buffer.clear();
             }
             if (total != fileSize) {
                 throw new IOException("File size was " + fileSize + " but we only uploaded " + total + " bytes");
             }
-            httpStream.flush();
         } finally {
             if (inputStream != null) {
                 inputStream.close();
@@ -445,28 +734,242 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
     @Override
     public InputStream getAttachment(final Asset asset, final Attachment attachment)
                     throws IOException, BadVersionException, RequestFailureException {
+        ResumableInputStream.ConnectionFactory factory = createAttachmentConnectionFactory(attachment);
+        return doConditionalGet(factory.createConnection(), factory);
+    }
 
-        // accept license for type CONTENT
-        HttpURLConnection connection;
-        if (attachment.getType() == AttachmentType.CONTENT) {
-            connection = createHttpURLConnection(attachment.getUrl() + "?license=agree");
-        } else {
-            connection = createHttpURLConnection(attachment.getUrl());
+    /**
+     * Downloads an attachment to a file.
+     * <p>
+     * If {@link ClientLoginInfo#getParallelDownloads()} is more than one and the attachment is
+     * large, the attachment is split into that many ranges which are downloaded at the same time.
+     * If the server does not support ranges, or the attachment changes during the download, the
+     * whole attachment is downloaded again over a single connection.
+     */
+    @Override
+    public void downloadAttachment(final Asset asset, final Attachment attachment, final File target)
+                    throws IOException, BadVersionException, RequestFailureException {
+        int parallelDownloads = loginInfo.getParallelDownloads();
+        if (parallelDownloads <= 1 || attachment.getSize() < PARALLEL_DOWNLOAD_MIN_SIZE) {
+            super.downloadAttachment(asset, attachment, target);
+            return;
         }
 
-        // If the attachment was a link and we have a basic auth userid + password specified
-        // we are attempting to access the files staged from a protected site so authorise for it
-        if (attachment.getLinkType() == AttachmentLinkType.DIRECT) {
-            if ((loginInfo.getAttachmentBasicAuthUserId() != null) && (loginInfo.getAttachmentBasicAuthPassword() != null)) {
-                String userpass = loginInfo.getAttachmentBasicAuthUserId() + ":" + loginInfo.getAttachmentBasicAuthPassword();
-                String basicAuth = "Basic " + javax.xml.bind.DatatypeConverter.printBase64Binary(userpass.getBytes(Charset.forName("UTF-8")));
-                connection.setRequestProperty("Authorization", basicAuth);
+        final ResumableInputStream.ConnectionFactory factory = createAttachmentConnectionFactory(attachment);
+        long rangeSize = (attachment.getSize() + parallelDownloads - 1) / parallelDownloads;
+
+        HttpURLConnection connection = factory.createConnection();
+        connection.setRequestProperty("Range", "bytes=0-" + (rangeSize - 1));
+        testResponseCode(connection);
+        final String validator = ResumableInputStream.getValidator(connection);
+        final long totalLength = ResumableInputStream.getTotalLength(connection.getHeaderField("Content-Range"));
+        if (connection.getResponseCode() != ResumableInputStream.HTTP_PARTIAL_CONTENT) {
+            // The server ignored the range and is sending the whole attachment
+            OutputStream os = DirectoryUtils.createFileOutputStream(target);
+            try {
+                copy(ResumableInputStream.wrap(connection, factory), os);
+            } finally {
+                os.close();
             }
+            return;
+        }
+        if (validator == null || totalLength < 0) {
+            // Without a validator the ranges can't be checked to be from the same content
+            connection.disconnect();
+            super.downloadAttachment(asset, attachment, target);
+            return;
         }
 
-        connection.setRequestMethod("GET");
-        testResponseCode(connection);
-        return connection.getInputStream();
+        // Once the download has failed the ranges stop reading, and don't reconnect to resume
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ResumableInputStream.ConnectionFactory rangeFactory = new ResumableInputStream.ConnectionFactory() {
+            @Override
+            public HttpURLConnection createConnection() throws IOException {
+                checkNotFailed(failed);
+                return factory.createConnection();
+            }
+        };
+
+        boolean complete = true;
+        boolean finished = false;
+        RandomAccessFile file = DirectoryUtils.createRandomAccessFile(target, "rw");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelDownloads);
+        try {
+            file.setLength(totalLength);
+            final FileChannel channel = file.getChannel();
+
+            // The results are taken as each range finishes, so that a range which fails stops the
+            // others straight away rather than once the ranges before it have finished
+            CompletionService<Boolean> ranges = new ExecutorCompletionService<Boolean>(executor);
+            final InputStream firstRange = ResumableInputStream.wrapRange(connection, rangeFactory, validator, 0, Math.min(rangeSize, totalLength) - 1);
+            ranges.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    copyToChannel(firstRange, channel, 0, failed);
+                    return true;
+                }
+            });
+            int rangeCount = 1;
+            for (long start = rangeSize; start < totalLength; start += rangeSize) {
+                final long rangeStart = start;
+                final long rangeEnd = Math.min(start + rangeSize, totalLength) - 1;
+                ranges.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return downloadRange(rangeFactory, validator, rangeStart, rangeEnd, channel, failed);
+                    }
+                });
+                rangeCount++;
+            }
+
+            for (int i = 0; i < rangeCount && complete; i++) {
+                if (!ranges.take().get()) {
+                    complete = false;
+                }
+            }
+            finished = complete;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + attachment.getUrl());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to download " + attachment.getUrl(), e.getCause());
+        } finally {
+            if (finished) {
+                executor.shutdown();
+                file.close();
+            } else {
+                abortRanges(failed, executor);
+                file.close();
+                // Don't leave a partly written file behind
+                target.delete();
+            }
+        }
+
+        if (!complete) {
+            // The attachment changed during the download, so start again
+            super.downloadAttachment(asset, attachment, target);
+        }
+    }
+
+    /**
+     * Stops the ranges of a download which has failed, and waits for them to finish, so that none
+     * of them is still writing to the file once it is closed. A range stops after its next read
+     * from the server, or when that read times out if the connection has stalled.
+     */
+    private static void abortRanges(AtomicBoolean failed, ExecutorService executor) {
+        failed.set(true);
+        executor.shutdownNow();
+        // Wait even if this thread has been interrupted, which may be why the download failed
+        boolean interrupted = Thread.interrupted();
+        boolean terminated = false;
+        while (!terminated) {
+            try {
+                terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws an exception if a parallel download has failed, to stop one of its ranges
+     */
+    private static void checkNotFailed(AtomicBoolean failed) throws InterruptedIOException {
+        if (failed.get()) {
+            throw new InterruptedIOException("Another range of the download has failed");
+        }
+    }
+
+    /**
+     * Downloads one range of an attachment and writes it to the same offset in a file
+     *
+     * @return false if the server did not return the range, because the content has changed
+     */
+    private boolean downloadRange(ResumableInputStream.ConnectionFactory factory, String validator, long start, long end, FileChannel channel,
+                                  AtomicBoolean failed) throws IOException {
+        HttpURLConnection connection = factory.createConnection();
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        connection.setRequestProperty("If-Range", validator);
+        if (connection.getResponseCode() != ResumableInputStream.HTTP_PARTIAL_CONTENT
+            || ResumableInputStream.getRangeStart(connection.getHeaderField("Content-Range")) != start) {
+            connection.disconnect();
+            return false;
+        }
+        copyToChannel(ResumableInputStream.wrapRange(connection, factory, validator, start, end), channel, start, failed);
+        return true;
+    }
+
+    /**
+     * Copies a stream to another stream and closes the input stream
+     */
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        try {
+            byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Copies a stream to a file channel, starting at the given position in the file, and closes
+     * the stream. The channel's own position is not used, so several threads can write different
+     * parts of the file at once. The copy stops if the download the stream is part of fails.
+     */
+    private static void copyToChannel(InputStream is, FileChannel channel, long position, AtomicBoolean failed) throws IOException {
+        try {
+            byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                checkNotFailed(failed);
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Creates a factory for connections to an attachment's URL. For content attachments the
+     * license is accepted, and if the attachment is a direct link and a basic auth user id and
+     * password have been specified, they are sent to the site hosting the attachment.
+     */
+    private ResumableInputStream.ConnectionFactory createAttachmentConnectionFactory(final Attachment attachment) {
+        return new ResumableInputStream.ConnectionFactory() {
+            @Override
+            public HttpURLConnection createConnection() throws IOException {
+                // accept license for type CONTENT
+                HttpURLConnection connection;
+                if (attachment.getType() == AttachmentType.CONTENT) {
+                    connection = createHttpURLConnection(attachment.getUrl() + "?license=agree");
+                } else {
+                    connection = createHttpURLConnection(attachment.getUrl());
+                }
+
+                // If the attachment was a link and we have a basic auth userid + password specified
+                // we are attempting to access the files staged from a protected site so authorise for it
+                if (attachment.getLinkType() == AttachmentLinkType.DIRECT) {
+                    if ((loginInfo.getAttachmentBasicAuthUserId() != null) && (loginInfo.getAttachmentBasicAuthPassword() != null)) {
+                        String userpass = loginInfo.getAttachmentBasicAuthUserId() + ":" + loginInfo.getAttachmentBasicAuthPassword();
+                        String basicAuth = "Basic " + javax.xml.bind.DatatypeConverter.printBase64Binary(userpass.getBytes(Charset.forName("UTF-8")));
+                        connection.setRequestProperty("Authorization", basicAuth);
+                    }
+                }
+                return connection;
+            }
+        };
     }
 
     /**
@@ -539,6 +1042,34 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
         deleteAsset(assetId);
     }
 
+    /**
+     * Deletes a number of assets, together with their attachments, in one request. If there are
+     * many assets, the repository carries on deleting them after this method returns.
+     *
+     * @param assetIds the ids of the assets to delete
+     * @throws IOException
+     * @throws RequestFailureException if the response code is not OK
+     */
+    public void deleteAssetsAndAttachments(Collection<String> assetIds) throws IOException, RequestFailureException {
+        JsonArrayBuilder ids = Json.createArrayBuilder();
+        for (String assetId : assetIds) {
+            ids.add(assetId);
+        }
+        String body = Json.createObjectBuilder().add("ids", ids).build().toString();
+
+        HttpURLConnection connection = createHttpURLConnectionToMassive("/assets/delete");
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        testResponseCode(connection, true);
+    }
+
     /**
      * Gets a single asset
      *
@@ -552,9 +1083,7 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
     public Asset getAsset(final String assetId) throws IOException, BadVersionException, RequestFailureException {
         HttpURLConnection connection = createHttpURLConnectionToMassive("/assets/"
                                                                         + assetId);
-        connection.setRequestMethod("GET");
-        testResponseCode(connection);
-        return JSONAssetConverter.readValue(connection.getInputStream());
+        return JSONAssetConverter.readValue(doConditionalGet(connection));
     }
 
     /**
@@ -791,31 +1320,54 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
             return getAllAssets();
         }
 
+        return getFilteredAssets(filters, INCLUDE_ATTACHMENTS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Collection<Asset> getFilteredAssets(final Map<FilterableAttribute, Collection<String>> filters, final Collection<String> fields) throws IOException, RequestFailureException {
+        StringBuilder fieldsString = new StringBuilder();
+        for (String field : fields) {
+            if (fieldsString.length() > 0) {
+                fieldsString.append(",");
+            }
+            fieldsString.append(field);
+        }
+
+        return getFilteredAssets(filters, "fields=" + URLEncoder.encode(fieldsString.toString(), "UTF-8"));
+    }
+
+    /**
+     * Obtains the assets which match the filters
+     *
+     * @param filters A map of attributes to filter on mapped to the values to use, may be <code>null</code>
+     * @param parameter A further query parameter to add to the request
+     * @return The filtered assets
+     */
+    private Collection<Asset> getFilteredAssets(final Map<FilterableAttribute, Collection<String>> filters, final String parameter) throws IOException, RequestFailureException {
         // Build up a filter string
         Collection<String> filterStrings = new HashSet<String>();
-        for (Map.Entry<FilterableAttribute, Collection<String>> filter : filters.entrySet()) {
-            Collection<String> values = filter.getValue();
-            if (values != null && !values.isEmpty()) {
-                filterStrings.add(createListFilter(filter.getKey(), values));
+        if (filters != null) {
+            for (Map.Entry<FilterableAttribute, Collection<String>> filter : filters.entrySet()) {
+                Collection<String> values = filter.getValue();
+                if (values != null && !values.isEmpty()) {
+                    filterStrings.add(createListFilter(filter.getKey(), values));
+                }
             }
         }
 
         StringBuilder filterString = new StringBuilder("?");
-        boolean isFirst = true;
         for (String filter : filterStrings) {
-            if (isFirst) {
-                isFirst = false;
-            } else {
-                filterString.append("&");
-            }
-            filterString.append(filter);
+            filterString.append(filter).append("&");
         }
+        filterString.append(parameter);
 
         // Now do the filtered call into massive
         HttpURLConnection connection = createHttpURLConnectionToMassive("/assets" + filterString.toString());
+        ContentEncoding.acceptCompressed(connection);
         connection.setRequestMethod("GET");
         testResponseCode(connection);
-        return JSONAssetConverter.readValues(connection.getInputStream());
+        return JSONAssetConverter.readValues(ContentEncoding.getInputStream(connection));
     }
 
     /**
@@ -880,6 +1432,83 @@ public class RestClient extends AbstractRepositoryClient implements RepositoryRe
         return null;
     }
 
+    /**
+     * Issues a GET on the connection and returns the response body.
+     * <p>
+     * If a response for the same URL is in the validator cache, the request is made conditional on
+     * it having changed, and if the server replies 304 Not Modified the cached body is returned.
+     * Otherwise, if the new response has an ETag or Last-Modified header and is small enough, it is
+     * read into memory and added to the cache.
+     * <p>
+     * The server may compress the response, in which case it is decompressed as it is read and the
+     * uncompressed body is cached.
+     *
+     * @param connection the connection, which must not have been connected yet
+     * @return the response body
+     * @throws IOException
+     * @throws RequestFailureException if the response code is not OK
+     */
+    private InputStream doConditionalGet(HttpURLConnection connection) throws IOException, RequestFailureException {
+        return doConditionalGet(connection, null);
+    }
+
+    /**
+     * Issues a GET on the connection and returns the response body, as
+     * {@link #doConditionalGet(HttpURLConnection)} does. If the body is too large to cache, it is
+     * returned as a {@link ResumableInputStream}, so that if the connection fails the rest of the
+     * body can be requested on a new connection created by the factory.
+     *
+     * @param connection the connection, which must not have been connected yet
+     * @param factory creates new connections to the same URL, or null if the body can't be resumed
+     * @return the response body
+     * @throws IOException
+     * @throws RequestFailureException if the response code is not OK
+     */
+    private InputStream doConditionalGet(HttpURLConnection connection, ResumableInputStream.ConnectionFactory factory) throws IOException, RequestFailureException {
+        String url = connection.getURL().toString();
+        ValidatorCache.Entry cached = validatorCache.get(url);
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+        }
+
+        ContentEncoding.acceptCompressed(connection);
+        connection.setRequestMethod("GET");
+        if (cached != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new ByteArrayInputStream(cached.getBody());
+        }
+        testResponseCode(connection);
+
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if ((etag == null && lastModified == null) || connection.getContentLength() > validatorCache.getMaxEntrySize()) {
+            validatorCache.remove(url);
+            return factory == null ? ContentEncoding.getInputStream(connection) : ResumableInputStream.wrap(connection, factory);
+        }
+
+        InputStream inputStream = ContentEncoding.getInputStream(connection);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 8192));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            if (body.size() > validatorCache.getMaxEntrySize()) {
+                // Too big to cache after all, so hand back what has been read followed by the rest
+                validatorCache.remove(url);
+                return new SequenceInputStream(new ByteArrayInputStream(body.toByteArray()), inputStream);
+            }
+        }
+        inputStream.close();
+
+        byte[] bodyBytes = body.toByteArray();
+        validatorCache.put(url, new ValidatorCache.Entry(etag, lastModified, bodyBytes));
+        return new ByteArrayInputStream(bodyBytes);
+    }
+
     /**
      * This method will test the return type to make sure that it is between 200 (inclusive) and 300 (exclusive), i.e. that it is "successful". If it is not then it will throw an
      * {@link RequestFailureException} with the response code and message from the error stream.
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * An input stream over the body of a response which, if the connection fails part way through,
+ * carries on from where it stopped by requesting the rest of the body with a Range header.
+ * <p>
+ * The request for the rest of the body is conditional on the content being unchanged, using the
+ * ETag or Last-Modified header from the first response. If the server does not return exactly
+ * the requested range, the original exception is thrown. A body with a known end which stops
+ * before that end is treated as a failed connection.
+ */
+class ResumableInputStream extends InputStream {
+
+    /**
+     * Creates a new connection for the same URL and with the same headers as the original request
+     */
+    interface ConnectionFactory {
+        HttpURLConnection createConnection() throws IOException;
+    }
+
+    /** The number of times a single stream will try to resume before giving up */
+    static final int MAX_RESUMES = 3;
+
+    static final int HTTP_PARTIAL_CONTENT = 206;
+
+    private final ConnectionFactory factory;
+    private final String validator;
+    /** The offset of the first byte of the stream within the whole content */
+    private final long start;
+    /** The offset of the last byte of the stream within the whole content, or -1 for the end */
+    private final long end;
+    private InputStream delegate;
+    private long position = 0;
+    private int resumes = 0;
+
+    private ResumableInputStream(InputStream delegate, ConnectionFactory factory, String validator, long start, long end) {
+        this.delegate = delegate;
+        this.factory = factory;
+        this.validator = validator;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the body of the response on a connection, wrapped so that it can be resumed if the
+     * server says it supports byte ranges and has sent a validator for the content, and the body
+     * has not been compressed. Otherwise the body is returned as it is, after decompressing it.
+     *
+     * @param connection a connection which has already received a successful response
+     * @param factory used to create a new connection to the same URL
+     */
+    static InputStream wrap(HttpURLConnection connection, ConnectionFactory factory) throws IOException {
+        if (ContentEncoding.isCompressed(connection)) {
+            // Ranges refer to the uncompressed content, so a compressed body can't be resumed
+            return ContentEncoding.getInputStream(connection);
+        }
+        String validator = getValidator(connection);
+        if (!"bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges")) || validator == null) {
+            return connection.getInputStream();
+        }
+        return new ResumableInputStream(connection.getInputStream(), factory, validator, 0, -1);
+    }
+
+    /**
+     * Returns the body of a 206 Partial Content response, wrapped so that if it fails it is
+     * resumed by requesting the rest of the same range.
+     *
+     * @param connection a connection which has received a 206 response for the range
+     * @param factory used to create a new connection to the same URL
+     * @param validator the value to send in the If-Range header
+     * @param start the offset of the first byte of the range
+     * @param end the offset of the last byte of the range
+     */
+    static InputStream wrapRange(HttpURLConnection connection, ConnectionFactory factory, String validator, long start, long end) throws IOException {
+        return new ResumableInputStream(connection.getInputStream(), factory, validator, start, end);
+    }
+
+    /**
+     * Returns the value which should be sent in the If-Range header of a request for part of the
+     * same content, or null if the response has neither a strong ETag nor a Last-Modified header.
+     */
+    static String getValidator(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Parses the first byte offset out of a Content-Range header such as
+     * <code>bytes 100-199/1000</code>
+     *
+     * @return the offset, or -1 if the header is missing or can't be parsed
+     */
+    static long getRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the total length out of a Content-Range header such as <code>bytes 100-199/1000</code>
+     *
+     * @return the length, or -1 if the header is missing, can't be parsed or the length is unknown
+     */
+    static long getTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.indexOf('/');
+        if (slash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            try {
+                int result = delegate.read();
+                if (result != -1) {
+                    position++;
+                } else {
+                    checkComplete();
+                }
+                return result;
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            try {
+                int result = delegate.read(b, off, len);
+                if (result > 0) {
+                    position += result;
+                } else if (result == -1) {
+                    checkComplete();
+                }
+                return result;
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int available() throws IOException {
+        return delegate.available();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * Fails if the body has ended before the last byte of the range, which happens if the server
+     * closes the connection part way through a response whose length is known
+     */
+    private void checkComplete() throws EOFException {
+        if (end != -1 && start + position <= end) {
+            throw new EOFException("The response ended at byte " + (start + position) + " before the end of the range at byte " + end);
+        }
+    }
+
+    /**
+     * Replaces the delegate stream with one which starts at the current position
+     *
+     * @param cause the exception which the delegate threw, which is rethrown if the download can't
+     *            be resumed
+     */
+    private void resume(IOException cause) throws IOException {
+        if (resumes >= MAX_RESUMES) {
+            throw cause;
+        }
+        resumes++;
+
+        try {
+            delegate.close();
+        } catch (IOException e) {
+            // The connection has already failed, so this doesn't matter
+        }
+
+        HttpURLConnection connection;
+        try {
+            connection = factory.createConnection();
+            connection.setRequestProperty("Range", "bytes=" + (start + position) + "-" + (end == -1 ? "" : Long.toString(end)));
+            connection.setRequestProperty("If-Range", validator);
+            if (connection.getResponseCode() != HTTP_PARTIAL_CONTENT
+                || getRangeStart(connection.getHeaderField("Content-Range")) != start + position) {
+                // The content has changed, or the server ignored the range
+                connection.disconnect();
+                throw cause;
+            }
+            delegate = connection.getInputStream();
+        } catch (IOException e) {
+            // Report the failure which interrupted the download rather than the failure to resume
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded, in memory cache of response bodies, together with the validators (ETag and
+ * Last-Modified) which the server sent with them.
+ * <p>
+ * The validators are used to make later requests for the same URL conditional, and if the server
+ * says the response has not been modified, the cached body is used instead of downloading it
+ * again. When the total size of the cached bodies goes over the maximum, the least recently used
+ * entries are dropped.
+ */
+class ValidatorCache {
+
+    /**
+     * A cached response
+     */
+    static class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+
+        Entry(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        /**
+         * @return the value of the ETag header, or null if there wasn't one
+         */
+        String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return the value of the Last-Modified header, or null if there wasn't one
+         */
+        String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the response body, which must not be modified
+         */
+        byte[] getBody() {
+            return body;
+        }
+    }
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    private long size = 0;
+
+    /** Access ordered, so iteration starts at the least recently used entry */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * @param maxSize the maximum total size in bytes of the cached bodies
+     * @param maxEntrySize the size in bytes of the largest body which will be cached
+     */
+    ValidatorCache(long maxSize, long maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = Math.min(maxEntrySize, maxSize);
+    }
+
+    /**
+     * @return the size in bytes of the largest body which will be cached
+     */
+    long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @return the cached response for the URL, or null if there isn't one
+     */
+    synchronized Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Caches a response, replacing any previous response for the same URL. If the body is larger
+     * than {@link #getMaxEntrySize()}, any previous response is removed and nothing is cached.
+     */
+    synchronized void put(String url, Entry entry) {
+        remove(url);
+        if (entry.body.length > maxEntrySize) {
+            return;
+        }
+
+        entries.put(url, entry);
+        size += entry.body.length;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.body.length;
+        }
+    }
+
+    /**
+     * Removes any cached response for the URL
+     */
+    synchronized void remove(String url) {
+        Entry previous = entries.remove(url);
+        if (previous != null) {
+            size -= previous.body.length;
+        }
+    }
+}
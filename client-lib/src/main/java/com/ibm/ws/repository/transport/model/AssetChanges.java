@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.repository.transport.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the repository's change feed, which holds the assets which have changed and the ids of
+ * the assets which have been deleted since a position in the feed.
+ */
+public class AssetChanges extends AbstractJSON {
+
+    private List<Asset> assets = new ArrayList<Asset>();
+    private List<String> deletedAssetIds = new ArrayList<String>();
+    private String next;
+    private boolean more;
+    private boolean reset;
+
+    /**
+     * @return the assets which have changed, in their current form
+     */
+    public List<Asset> getAssets() {
+        return assets;
+    }
+
+    public void setAssets(List<Asset> assets) {
+        this.assets = assets;
+    }
+
+    /**
+     * @return the ids of the assets which have been deleted
+     */
+    public List<String> getDeletedAssetIds() {
+        return deletedAssetIds;
+    }
+
+    public void setDeletedAssetIds(List<String> deletedAssetIds) {
+        this.deletedAssetIds = deletedAssetIds;
+    }
+
+    /**
+     * @return the position in the feed to read the following changes from
+     */
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    /**
+     * @return true if there are more changes to read from the {@link #getNext() next} position
+     */
+    public boolean getMore() {
+        return more;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+
+    /**
+     * @return true if the position the changes were read from was too old, so that the changes
+     *         hold every asset in the repository, and any assets held from earlier reads should be
+     *         discarded
+     */
+    public boolean getReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+}
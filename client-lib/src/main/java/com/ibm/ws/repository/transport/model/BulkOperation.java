@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.model;
+
+import com.ibm.ws.repository.common.enums.StateAction;
+
+/**
+ * One operation of a bulk write, which creates an asset, changes the state of an asset or deletes
+ * an asset.
+ */
+public class BulkOperation extends AbstractJSON {
+
+    public static final String CREATE = "create";
+    public static final String STATE = "state";
+    public static final String DELETE = "delete";
+
+    private String op;
+    private String id;
+    private Asset asset;
+    private StateAction action;
+
+    public BulkOperation() {
+
+    }
+
+    /**
+     * @return an operation which creates the asset
+     */
+    public static BulkOperation create(Asset asset) {
+        BulkOperation operation = new BulkOperation();
+        operation.op = CREATE;
+        operation.asset = asset;
+        return operation;
+    }
+
+    /**
+     * @return an operation which performs the action on the state of the asset
+     */
+    public static BulkOperation updateState(String assetId, StateAction action) {
+        BulkOperation operation = new BulkOperation();
+        operation.op = STATE;
+        operation.id = assetId;
+        operation.action = action;
+        return operation;
+    }
+
+    /**
+     * @return an operation which deletes the asset and its attachments
+     */
+    public static BulkOperation delete(String assetId) {
+        BulkOperation operation = new BulkOperation();
+        operation.op = DELETE;
+        operation.id = assetId;
+        return operation;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Asset getAsset() {
+        return asset;
+    }
+
+    public void setAsset(Asset asset) {
+        this.asset = asset;
+    }
+
+    public StateAction getAction() {
+        return action;
+    }
+
+    public void setAction(StateAction action) {
+        this.action = action;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body of a bulk write request, which holds the operations to make.
+ */
+public class BulkWriteRequest extends AbstractJSON {
+
+    private boolean ordered = true;
+    private List<BulkOperation> operations = new ArrayList<BulkOperation>();
+
+    /**
+     * @return true if the operations must be made in order, stopping at the first which can't be
+     *         made
+     */
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public List<BulkOperation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<BulkOperation> operations) {
+        this.operations = operations;
+    }
+
+}
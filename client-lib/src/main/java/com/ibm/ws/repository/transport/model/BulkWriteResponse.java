@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.repository.transport.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The response to a bulk write request, which holds a result for each operation in the order
+ * they were sent.
+ */
+public class BulkWriteResponse extends AbstractJSON {
+
+    private List<BulkOperationResult> results = new ArrayList<BulkOperationResult>();
+
+    public List<BulkOperationResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<BulkOperationResult> results) {
+        this.results = results;
+    }
+
+}
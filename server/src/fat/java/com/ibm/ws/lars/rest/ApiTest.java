@@ -21,6 +21,7 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -38,9 +39,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -335,6 +339,103 @@ public class ApiTest {
         assertTrue("Asset should have zero attachments after deletion of only attachment", attachmentsAfterDeletion.isEmpty());
     }
 
+    /**
+     * Tests that an asset, the asset list and attachment content can be fetched conditionally, and
+     * that changes to the repository change their entity tags.
+     */
+    @Test
+    public void testConditionalGet() throws Exception {
+        Asset returnedAsset = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        String assetUrl = "/assets/" + returnedAsset.get_id();
+
+        String assetTag = repository.doGetWithHeader(assetUrl, "Accept", "application/json", 200).getFirstHeader("ETag").getValue();
+        repository.doGetWithHeader(assetUrl, "If-None-Match", assetTag, 304);
+
+        // The asset list is only tagged once the writes to the repository have settled
+        Thread.sleep(ChangePosition.SETTLE_MILLIS);
+        String listTag = repository.doGetWithHeader("/assets", "Accept", "application/json", 200).getFirstHeader("ETag").getValue();
+        repository.doGetWithHeader("/assets", "If-None-Match", listTag, 304);
+
+        String attachmentName = "attachment.txt";
+        byte[] content = "This is the content.".getBytes("UTF-8");
+        Attachment createdAttachment = repository.doPostAttachmentWithContent(returnedAsset.get_id(),
+                                                                              attachmentName,
+                                                                              AssetUtils.getTestAttachmentWithContent(),
+                                                                              content,
+                                                                              ContentType.APPLICATION_OCTET_STREAM);
+
+        // Adding the attachment changes the asset and the repository
+        assetTag = repository.doGetWithHeader(assetUrl, "If-None-Match", assetTag, 200).getFirstHeader("ETag").getValue();
+        repository.doGetWithHeader("/assets", "If-None-Match", listTag, 200);
+
+        String contentUrl = assetUrl + "/attachments/" + createdAttachment.get_id() + "/" + attachmentName;
+        HttpResponse contentResponse = repository.doGetWithHeader(contentUrl, "Accept", "*/*", 200);
+        String contentTag = contentResponse.getFirstHeader("ETag").getValue();
+        String lastModified = contentResponse.getFirstHeader("Last-Modified").getValue();
+        repository.doGetWithHeader(contentUrl, "If-None-Match", contentTag, 304);
+        repository.doGetWithHeader(contentUrl, "If-Modified-Since", lastModified, 304);
+        repository.doGetWithHeader(contentUrl, "If-None-Match", "\"not-the-tag\"", 200);
+
+        repository.updateAssetState(returnedAsset.get_id(), "publish", 200);
+        String newAssetTag = repository.doGetWithHeader(assetUrl, "If-None-Match", assetTag, 200).getFirstHeader("ETag").getValue();
+        assertTrue("A state change should change the asset's tag", !assetTag.equals(newAssetTag));
+    }
+
+    /**
+     * Tests that a large enough asset list is compressed when the client accepts it. The HTTP
+     * client decompresses the response and removes the Content-Encoding header, so the compression
+     * is seen from the entity tag.
+     */
+    @Test
+    public void testCompressedAssetList() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        }
+
+        // The asset list is only tagged once the writes to the repository have settled
+        Thread.sleep(ChangePosition.SETTLE_MILLIS);
+        HttpResponse compressed = repository.doGetWithHeader("/assets", "Accept-Encoding", "gzip", 200);
+        String compressedTag = compressed.getFirstHeader("ETag").getValue();
+        assertTrue(compressedTag, compressedTag.endsWith("-gzip\""));
+        assertEquals("Accept-Encoding", compressed.getFirstHeader("Vary").getValue());
+
+        HttpResponse uncompressed = repository.doGetWithHeader("/assets", "Accept-Encoding", "identity", 200);
+        String uncompressedTag = uncompressed.getFirstHeader("ETag").getValue();
+        assertEquals(compressedTag.replace("-gzip", ""), uncompressedTag);
+
+        // Either tag matches the current asset list
+        repository.doGetWithHeader("/assets", "If-None-Match", compressedTag, 304);
+        repository.doGetWithHeader("/assets", "If-None-Match", uncompressedTag, 304);
+    }
+
+    @Test
+    public void testRangeRequest() throws Exception {
+        Asset returnedAsset = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        String attachmentName = "attachment.txt";
+        byte[] content = "This is the content.".getBytes("UTF-8");
+        Attachment createdAttachment = repository.doPostAttachmentWithContent(returnedAsset.get_id(),
+                                                                              attachmentName,
+                                                                              AssetUtils.getTestAttachmentWithContent(),
+                                                                              content,
+                                                                              ContentType.APPLICATION_OCTET_STREAM);
+        String contentUrl = "/assets/" + returnedAsset.get_id() + "/attachments/" + createdAttachment.get_id() + "/" + attachmentName;
+
+        HttpResponse whole = repository.doGetWithHeader(contentUrl, "Accept", "*/*", 200);
+        assertEquals("bytes", whole.getFirstHeader("Accept-Ranges").getValue());
+        assertEquals(Integer.toString(content.length), whole.getFirstHeader("Content-Length").getValue());
+
+        HttpResponse partial = repository.doGetWithHeader(contentUrl, "Range", "bytes=5-6", 206);
+        assertEquals("bytes 5-6/" + content.length, partial.getFirstHeader("Content-Range").getValue());
+        assertEquals("2", partial.getFirstHeader("Content-Length").getValue());
+
+        HttpResponse suffix = repository.doGetWithHeader(contentUrl, "Range", "bytes=-8", 206);
+        assertEquals("bytes " + (content.length - 8) + "-" + (content.length - 1) + "/" + content.length,
+                     suffix.getFirstHeader("Content-Range").getValue());
+
+        HttpResponse unsatisfiable = repository.doGetWithHeader(contentUrl, "Range", "bytes=1000-", 416);
+        assertEquals("bytes */" + content.length, unsatisfiable.getFirstHeader("Content-Range").getValue());
+    }
+
     /**
      * Tries to upload an attachment that has both content and a url and verifies that the returns
      * HTTP 400 Bad Request.
@@ -821,6 +922,135 @@ public class ApiTest {
         assertThat(collatePages(page1, page2), contains(smallFoo, bigFoo, giantBar));
     }
 
+    /**
+     * Tests following the Link header from one page of assets to the next
+     */
+    @Test
+    public void testGetAllAssetsPageLinks() throws Exception {
+        Asset bigFoo = addLittleAsset("name", "Big Foo", "size", "20");
+        Asset smallFoo = addLittleAsset("name", "Small Foo", "size", "10");
+        Asset giantBar = addLittleAsset("name", "Giant Bar", "size", "40");
+
+        List<Asset> assets = new ArrayList<>();
+        String query = "sortBy=size&sortOrder=DESC&offset=0&limit=2";
+        int pages = 0;
+        while (query != null) {
+            HttpResponse response = repository.doRawGet("/assets?" + query);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            for (Asset asset : AssetList.jsonArrayToAssetList(EntityUtils.toString(response.getEntity()))) {
+                assets.add(asset);
+            }
+            pages++;
+
+            Header link = response.getFirstHeader("Link");
+            if (link == null) {
+                query = null;
+            } else {
+                String value = link.getValue();
+                assertTrue("Unexpected link " + value, value.endsWith(">; rel=\"next\""));
+                query = value.substring(value.indexOf('?') + 1, value.indexOf('>'));
+                assertTrue("The next page should not use an offset: " + query, !query.contains("offset="));
+            }
+        }
+
+        // The second page isn't full, so has no link to a third
+        assertEquals(2, pages);
+        assertThat(assets, contains(giantBar, bigFoo, smallFoo));
+    }
+
+    @Test
+    public void testGetAssetsWithFields() throws Exception {
+        Asset bigFoo = addLittleAsset("name", "Big Foo", "size", "20", "category", "foo");
+        Asset smallFoo = addLittleAsset("name", "Small Foo", "size", "10", "category", "foo");
+        addLittleAsset("name", "Giant Bar", "size", "40", "category", "bar");
+
+        AssetList assets = repository.getAllAssets("category=foo&fields=name&sortBy=size&sortOrder=ASC");
+        assertEquals(2, assets.size());
+        assertEquals(smallFoo.get_id(), assets.get(0).get_id());
+        assertEquals("Small Foo", assets.get(0).getProperties().get("name"));
+        assertEquals("The sort field should be included", "10", assets.get(0).getProperties().get("size"));
+        assertNull("Other fields should not be included", assets.get(0).getProperties().get("category"));
+        assertEquals(bigFoo.get_id(), assets.get(1).get_id());
+
+        Asset asset = Asset.deserializeAssetFromJson(repository.doGet("/assets/" + bigFoo.get_id() + "?fields=size", 200));
+        assertEquals(bigFoo.get_id(), asset.get_id());
+        assertEquals("20", asset.getProperties().get("size"));
+        assertNull(asset.getProperties().get("name"));
+
+        repository.doGet("/assets?fields=%24where", 400);
+    }
+
+    @Test
+    public void testExplainAssets() throws Exception {
+        addLittleAsset("name", "Big Foo", "type", "com.ibm.websphere.Feature");
+
+        String plan = repository.doGet("/admin/explain/assets?type=com.ibm.websphere.Feature", 200);
+        assertTrue(plan, plan.contains("lars_type_productId_minVersion"));
+
+        plan = repository.doGet("/admin/explain/assets?sortBy=name&limit=10", 200);
+        assertTrue(plan, plan.contains("lars_sort_name"));
+
+        repository.doGet("/admin/explain/assets?fields=%24where", 400);
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        // The feed holds back changes which follow a recent gap in the change sequence, and the
+        // writes made by this test and the ones before it leave gaps, so wait for them to settle
+        Thread.sleep(ChangePosition.SETTLE_MILLIS);
+        Map<String, Object> changes = repository.getChanges("");
+        String start = (String) changes.get("next");
+
+        Asset updated = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        Asset deleted = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        repository.updateAssetState(updated.get_id(), Asset.StateAction.PUBLISH.getValue(), 200);
+        repository.deleteAsset(deleted.get_id(), 204);
+
+        Thread.sleep(ChangePosition.SETTLE_MILLIS);
+        changes = repository.getChanges("since=" + start);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> assets = (List<Map<String, Object>>) changes.get("assets");
+        assertEquals("Wrong number of changed assets", 1, assets.size());
+        assertEquals("Wrong changed asset", updated.get_id(), assets.get(0).get("_id"));
+        assertEquals("Changed asset should be in its new state", "awaiting_approval", assets.get(0).get("state"));
+        assertEquals("Wrong deleted assets", Arrays.asList(deleted.get_id()), changes.get("deletedAssetIds"));
+        assertEquals(false, changes.get("more"));
+
+        changes = repository.getChanges("since=" + start + "&limit=1");
+        assertEquals("Only one change should be returned", 1, ((List<?>) changes.get("assets")).size() + ((List<?>) changes.get("deletedAssetIds")).size());
+        assertEquals(true, changes.get("more"));
+
+        repository.doGet("/changes?since=yesterday", 400);
+        repository.doGet("/changes?limit=0", 400);
+    }
+
+    @Test
+    public void testGetAllAssetsIncludeAttachments() throws Exception {
+        Asset withAttachment = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        Asset withoutAttachment = repository.addAssetNoAttachments(AssetUtils.getTestAsset());
+        Attachment attachment = repository.doPostAttachmentWithContent(withAttachment.get_id(),
+                                                                       "attachment.txt",
+                                                                       AssetUtils.getTestAttachmentWithContent(),
+                                                                       "Some content".getBytes("UTF-8"),
+                                                                       ContentType.APPLICATION_OCTET_STREAM);
+
+        for (Asset asset : repository.getAllAssets("includeAttachments=true")) {
+            if (asset.get_id().equals(withAttachment.get_id())) {
+                AttachmentList attachments = asset.getAttachments();
+                assertEquals(1, attachments.size());
+                assertEquals(attachment.get_id(), attachments.get(0).get_id());
+                assertEquals(attachment.getUrl(), attachments.get(0).getUrl());
+            } else {
+                assertEquals(withoutAttachment.get_id(), asset.get_id());
+                assertTrue(asset.getAttachments().isEmpty());
+            }
+        }
+
+        for (Asset asset : repository.getAllAssets("")) {
+            assertNull("Attachments should only be included when asked for", asset.getProperties().get(Asset.ATTACHMENTS));
+        }
+    }
+
     @SuppressWarnings("unused")
     @Test
     public void countAllAssets() throws Exception {
@@ -878,6 +1108,28 @@ public class ApiTest {
         repository.getBadAssetSummary("fields=", 400);
 
         repository.getBadAssetSummary("", 400);
+
+        repository.getBadAssetSummary("fields=%24where", 400);
+    }
+
+    @Test
+    public void testGetAssetSummaryWithCounts() throws Exception {
+        addLittleAsset("weather", "hot", "ground", "flat");
+        addLittleAsset("weather", "hot", "ground", "hilly");
+        addLittleAsset("weather", "cold", "ground", "flat");
+
+        List<Map<String, Object>> result = repository.getAssetSummary("fields=weather,ground&includeCounts=true");
+        assertEquals(2, result.size());
+        assertEquals("weather", result.get(0).get("filterName"));
+        assertEquals(Arrays.asList("hot", "cold"), result.get(0).get("filterValue"));
+        assertEquals(Arrays.asList(2, 1), result.get(0).get("filterValueCounts"));
+        assertEquals("ground", result.get(1).get("filterName"));
+        assertEquals(Arrays.asList("flat", "hilly"), result.get(1).get("filterValue"));
+        assertEquals(Arrays.asList(2, 1), result.get(1).get("filterValueCounts"));
+
+        result = repository.getAssetSummary("fields=weather&weather=cold&includeCounts=true");
+        assertEquals(Arrays.asList("cold"), result.get(0).get("filterValue"));
+        assertEquals(Arrays.asList(1), result.get(0).get("filterValueCounts"));
     }
 
     // Add and asset with an extra properties
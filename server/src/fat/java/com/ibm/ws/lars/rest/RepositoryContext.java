@@ -283,6 +283,21 @@ public class RepositoryContext extends ExternalResource {
         return httpClient.execute(targetHost, get, context);
     }
 
+    /**
+     * Does a GET with one extra request header, checks the status code and returns the response
+     * with its entity already read and released.
+     */
+    public HttpResponse doGetWithHeader(String url, String headerName, String headerValue, int expectedStatusCode)
+            throws ClientProtocolException, IOException {
+        HttpGet get = new HttpGet(fullURL + url);
+        get.addHeader(headerName, headerValue);
+        HttpResponse response = httpClient.execute(targetHost, get, context);
+        EntityUtils.consume(response.getEntity());
+
+        assertStatusCode(expectedStatusCode, response);
+        return response;
+    }
+
     public String doDelete(String url, int expectedStatusCode)
             throws ClientProtocolException, IOException {
         HttpDelete delete = new HttpDelete(fullURL + url);
@@ -470,6 +485,11 @@ public class RepositoryContext extends ExternalResource {
         return jsonReader.readValue(resultString, new TypeReference<List<Map<String, Object>>>() {});
     }
 
+    Map<String, Object> getChanges(String parameters) throws JsonParseException, JsonMappingException, IOException {
+        String resultString = doGet("/changes?" + parameters, 200);
+        return jsonReader.readValue(resultString, new TypeReference<Map<String, Object>>() {});
+    }
+
     void getBadAssetSummary(String parameters, int expectedRC) throws IOException {
         doGet("/assets/summary?" + parameters, expectedRC);
     }
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.security.PermitAll;
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+import com.ibm.ws.lars.rest.exceptions.RepositoryException;
+
+/**
+ * REST handler for operations which let an administrator see what the repository server is doing.
+ * <p>
+ * These operations are not part of the repository API used by clients and are only available to
+ * users with the Administrator role.
+ */
+@Path("/admin")
+@PermitAll
+public class AdminRESTResource {
+
+    private static final String ADMIN_ROLE = "Administrator";
+
+    private static final Logger logger = Logger.getLogger(AdminRESTResource.class.getCanonicalName());
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    @Inject
+    private AssetServiceLayer assetService;
+
+    @Inject
+    private Configuration configuration;
+
+    @Inject
+    private Metrics metrics;
+
+    @Inject
+    private SlowRequestLog slowRequestLog;
+
+    @Inject
+    private OrphanSweeper orphanSweeper;
+
+    @Inject
+    private JobManager jobManager;
+
+    /**
+     * Returns the hit, miss and eviction counts for each of the server's caches which is enabled.
+     */
+    @GET
+    @Path("/caches")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response getCacheStatistics() {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getCacheStatistics called");
+        }
+
+        Map<String, Object> statistics = assetService.getCacheStatistics();
+        return Response.ok(toJson(statistics)).build();
+    }
+
+    /**
+     * Returns the latency histograms and error counts of the REST endpoints and of the operations
+     * of the persistence layer, with the amount of attachment content served, in the Prometheus
+     * text format.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(Metrics.PROMETHEUS_TEXT)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response getMetrics() {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getMetrics called");
+        }
+
+        return Response.ok(metrics.toPrometheusText()).build();
+    }
+
+    /**
+     * Returns the most recent requests which took longer than lars/slowRequestThresholdMillis,
+     * newest first, with the time spent in each phase of the request and the shape of the database
+     * queries it made.
+     */
+    @GET
+    @Path("/slowRequests")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response getSlowRequests() {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getSlowRequests called");
+        }
+
+        return Response.ok(toJson(slowRequestLog.getSlowRequests())).build();
+    }
+
+    /**
+     * Returns the database's plan for the query that GET /assets would make with the same query
+     * parameters, which shows whether the query can use an index.
+     */
+    @GET
+    @Path("/explain/assets")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response explainAssets(@Context UriInfo info) throws InvalidParameterException {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("explainAssets called with query parameters: " + info.getRequestUri().getRawQuery());
+        }
+
+        AssetQueryParameters params = AssetQueryParameters.create(info);
+        String plan = assetService.explainAllAssets(params.getFilters(), params.getSearchTerm(), params.getPagination(), params.getSortOptions(),
+                                                    params.getProjection());
+        return Response.ok(plan).build();
+    }
+
+    /**
+     * Moves all attachment content held in GridFS into the filesystem content store, which must
+     * have been configured with lars/contentStoreDirectory. New content should be directed to the
+     * filesystem store by setting lars/contentStore before this is called.
+     * <p>
+     * Attachments can be read, added and deleted while the migration runs. The migration is run
+     * as a {@link Job}: the response has status 202 and gives the status of the job, whose result
+     * is the number of pieces of content which were moved.
+     */
+    @POST
+    @Path("/content/migrate")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response migrateAttachmentContent(@Context UriInfo info) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("migrateAttachmentContent called");
+        }
+
+        if (configuration.getContentStoreDirectory() == null) {
+            return Response.status(Status.CONFLICT)
+                    .entity(RepositoryClientExceptionMapper.getErrorJson(Status.CONFLICT, "lars/contentStoreDirectory is not configured"))
+                    .build();
+        }
+
+        return RepositoryRESTResource.submitJob(jobManager, new Job() {
+            @Override
+            public String getType() {
+                return "migrateContent";
+            }
+
+            @Override
+            public Map<String, Object> run(JobContext context) {
+                int migrated = assetService.migrateAttachmentContent();
+                logger.info("Moved " + migrated + " pieces of attachment content from GridFS to the filesystem");
+                return Collections.<String, Object> singletonMap("migrated", migrated);
+            }
+        }, configuration.getRestBaseUri(info));
+    }
+
+    /**
+     * Returns what the sweeps for orphaned attachments and attachment content have removed since
+     * the server started, including the number of bytes of content reclaimed, and the results of
+     * the last sweep.
+     */
+    @GET
+    @Path("/orphans")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response getOrphanSweepStatistics() {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getOrphanSweepStatistics called");
+        }
+
+        return Response.ok(toJson(orphanSweeper.getStatistics())).build();
+    }
+
+    /**
+     * Starts a sweep for orphaned attachments and attachment content as a {@link Job}. The
+     * response has status 202 and gives the status of the job, whose result is the summary of the
+     * sweep, which can also be seen with GET /admin/orphans once it has finished.
+     */
+    @POST
+    @Path("/orphans/sweep")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response sweepOrphans(@Context UriInfo info) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("sweepOrphans called");
+        }
+
+        if (orphanSweeper.isSweeping()) {
+            return Response.status(Status.CONFLICT)
+                    .entity(RepositoryClientExceptionMapper.getErrorJson(Status.CONFLICT, "A sweep for orphaned attachments is already running"))
+                    .build();
+        }
+        return RepositoryRESTResource.submitJob(jobManager, orphanSweeper.createSweepJob(), configuration.getRestBaseUri(info));
+    }
+
+    private static String toJson(Object value) {
+        try {
+            return jsonMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RepositoryException("Could not serialize result", e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import com.ibm.ws.lars.rest.model.Asset;
+
+/**
+ * A cache of assets, including their attachments, keyed on the asset id.
+ * <p>
+ * The cached assets must not be modified, callers should copy an asset before changing it.
+ */
+class AssetCache extends LruCache<String, Asset> {
+
+    /**
+     * @param maxSize the approximate maximum number of bytes of heap to use
+     */
+    AssetCache(long maxSize) {
+        super(maxSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long weigh(Asset asset) {
+        return estimateSize(asset.getProperties());
+    }
+
+}
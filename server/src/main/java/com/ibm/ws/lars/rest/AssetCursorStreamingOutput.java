@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
+
+/**
+ * Implementation of {@link StreamingOutput} which writes the assets from an {@link AssetCursor}
+ * onto the output stream as a JSON array.
+ * <p>
+ * Each asset is serialized as soon as it is read from the cursor, so only one asset needs to be held
+ * in memory at a time, however large the result. The cursor is closed once it has been written.
+ * <p>
+ * The time spent reading from the cursor and serializing the assets is recorded in the
+ * {@link RequestTrace} of the request.
+ */
+class AssetCursorStreamingOutput implements StreamingOutput {
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    /**
+     * By default, the generator is flushed after every value is written, which would send each
+     * asset to the client as a separate write. Let the generator buffer them instead.
+     */
+    private static final ObjectWriter assetWriter = jsonMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final AssetCursor cursor;
+
+    AssetCursorStreamingOutput(AssetCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void write(OutputStream os) throws IOException {
+        long count = 0;
+        try {
+            JsonGenerator generator = jsonMapper.getFactory().createGenerator(RequestTrace.trace(os));
+            // The container owns the output stream, so it mustn't be closed here
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            while (true) {
+                Asset asset;
+                RequestTrace.enter(RequestTrace.Phase.QUERY);
+                try {
+                    asset = cursor.hasNext() ? cursor.next() : null;
+                } finally {
+                    RequestTrace.exit();
+                }
+                if (asset == null) {
+                    break;
+                }
+                RequestTrace.enter(RequestTrace.Phase.SERIALIZE);
+                try {
+                    assetWriter.writeValue(generator, asset.getProperties());
+                } finally {
+                    RequestTrace.exit();
+                }
+                count++;
+            }
+            RequestTrace.enter(RequestTrace.Phase.SERIALIZE);
+            try {
+                generator.writeEndArray();
+                generator.close();
+            } finally {
+                RequestTrace.exit();
+            }
+        } finally {
+            RequestTrace.resultsWritten(count);
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The record that an asset has been deleted, which is kept so that clients reading the changes to
+ * the repository learn of the deletion.
+ */
+public class AssetDeletion {
+
+    /**
+     * How long the record of a deletion is kept. A client which has not read the changes for
+     * longer than this may have missed deletions, so is sent all the assets again.
+     */
+    public static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private final String assetId;
+    private final long changeSequence;
+    private final long changeTime;
+
+    public AssetDeletion(String assetId, long changeSequence, long changeTime) {
+        this.assetId = assetId;
+        this.changeSequence = changeSequence;
+        this.changeTime = changeTime;
+    }
+
+    public String getAssetId() {
+        return assetId;
+    }
+
+    /**
+     * @return the number the deletion took from the change sequence
+     */
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which the deletion took its number
+     */
+    public long getChangeTime() {
+        return changeTime;
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.lars.rest;
+
+/**
+ * An event which tells subscribers that an asset has been written. Events are published by
+ * {@link ChangeBroadcaster} and sent to clients by {@link ChangeEventServlet} as server-sent
+ * events.
+ */
+final class AssetEvent {
+
+    /**
+     * The kinds of change to an asset. Changes to the attachments of an asset are reported as
+     * updates to the asset.
+     */
+    enum Type {
+        CREATED("created"), UPDATED("updated"), STATE_CHANGED("stateChanged"), DELETED("deleted");
+
+        private final String eventName;
+
+        Type(String eventName) {
+            this.eventName = eventName;
+        }
+
+        /**
+         * @return the name the event is sent with
+         */
+        String getEventName() {
+            return eventName;
+        }
+    }
+
+    private final long id;
+    private final Type type;
+    private final String assetId;
+    private final long changeSequence;
+
+    AssetEvent(long id, Type type, String assetId, long changeSequence) {
+        this.id = id;
+        this.type = type;
+        this.assetId = assetId;
+        this.changeSequence = changeSequence;
+    }
+
+    /**
+     * @return the id of the event, which is one more than the id of the event published before it
+     */
+    long getId() {
+        return id;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getAssetId() {
+        return assetId;
+    }
+
+    /**
+     * @return the sequence number the change was given in the change feed
+     */
+    long getChangeSequence() {
+        return changeSequence;
+    }
+
+    /**
+     * Formats the event as a server-sent event. The data is a JSON object holding the asset id and
+     * the change sequence number, so that a client can read the change from the change feed.
+     */
+    String toEventStream() {
+        // Asset ids are hex strings, so they never need escaping
+        return "id: " + id + "\nevent: " + type.getEventName() + "\ndata: {\"assetId\":\"" + assetId + "\",\"changeSequence\":\"" + changeSequence
+               + "\"}\n\n";
+    }
+
+    @Override
+    public String toString() {
+        return "AssetEvent " + id + " " + type.getEventName() + " " + assetId;
+    }
+}
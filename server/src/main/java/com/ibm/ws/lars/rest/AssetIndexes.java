@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.ibm.ws.lars.rest.model.Asset;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * The catalogue of indexes which {@link PersistenceBean} creates on the assets collection, in
+ * addition to the text index used for searching.
+ * <p>
+ * The filter indexes are matched to the queries that the repository client makes. A query for the
+ * assets that apply to a product filters on the type, the product id and the minimum product
+ * version, so these are indexed together in that order, which also serves queries on the type
+ * alone or on the type and product id. The client's other filters each match very few assets, so
+ * they only need an index on their own field.
+ * <p>
+ * The change sequence is indexed so that the change feed can find the assets which have changed
+ * since a client last read it without scanning the whole collection.
+ * <p>
+ * Each sort index also includes the id, which is the second sort key of a paginated query. An
+ * index can be read in either direction, so one index serves both sort orders.
+ */
+final class AssetIndexes {
+
+    static final String TYPE = "type";
+    static final String PRODUCT_ID = "wlpInformation.appliesToFilterInfo.productId";
+    static final String MIN_VERSION = "wlpInformation.appliesToFilterInfo.minVersion.value";
+    static final String PROVIDE_FEATURE = "wlpInformation.provideFeature";
+    static final String SHORT_NAME = "wlpInformation.shortName";
+    static final String LOWER_CASE_SHORT_NAME = "wlpInformation.lowerCaseShortName";
+    static final String VANITY_URL = "wlpInformation.vanityRelativeURL";
+
+    /** The fields which are always given a sort index, whether or not any more are configured */
+    static final List<String> DEFAULT_SORT_FIELDS = Collections.singletonList("name");
+
+    private static final String SORT_INDEX_PREFIX = "lars_sort_";
+
+    private static final List<IndexDefinition> FILTER_INDEXES;
+    static {
+        List<IndexDefinition> indexes = new ArrayList<>();
+        indexes.add(new IndexDefinition("lars_type_productId_minVersion", new BasicDBObject(TYPE, 1).append(PRODUCT_ID, 1).append(MIN_VERSION, 1)));
+        indexes.add(new IndexDefinition("lars_productId_minVersion", new BasicDBObject(PRODUCT_ID, 1).append(MIN_VERSION, 1)));
+        indexes.add(new IndexDefinition("lars_provideFeature", new BasicDBObject(PROVIDE_FEATURE, 1)));
+        indexes.add(new IndexDefinition("lars_shortName", new BasicDBObject(SHORT_NAME, 1)));
+        indexes.add(new IndexDefinition("lars_lowerCaseShortName", new BasicDBObject(LOWER_CASE_SHORT_NAME, 1)));
+        indexes.add(new IndexDefinition("lars_vanityRelativeURL", new BasicDBObject(VANITY_URL, 1)));
+        indexes.add(new IndexDefinition("lars_changeSequence", new BasicDBObject(Asset.CHANGE_SEQUENCE, 1)));
+        FILTER_INDEXES = Collections.unmodifiableList(indexes);
+    }
+
+    private AssetIndexes() {
+        // static methods only
+    }
+
+    /**
+     * Returns every index which should exist on the assets collection.
+     *
+     * @param sortFields any fields which should be given a sort index as well as the
+     *            {@link #DEFAULT_SORT_FIELDS}
+     */
+    static List<IndexDefinition> getIndexes(Collection<String> sortFields) {
+        List<IndexDefinition> indexes = new ArrayList<>(FILTER_INDEXES);
+
+        Set<String> allSortFields = new LinkedHashSet<>(DEFAULT_SORT_FIELDS);
+        allSortFields.addAll(sortFields);
+        for (String field : allSortFields) {
+            indexes.add(new IndexDefinition(SORT_INDEX_PREFIX + field, new BasicDBObject(field, 1).append("_id", 1)));
+        }
+        return indexes;
+    }
+
+    /**
+     * An index with a name and the fields it holds, in the form used by
+     * {@link com.mongodb.DBCollection#createIndex(DBObject, DBObject)}.
+     */
+    static final class IndexDefinition {
+
+        private final String name;
+        private final DBObject keys;
+
+        IndexDefinition(String name, DBObject keys) {
+            this.name = name;
+            this.keys = keys;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        DBObject getKeys() {
+            return keys;
+        }
+
+        /**
+         * Returns the options to create the index with. The index is built in the background, so
+         * that the collection can still be read and written while an index is built on a large
+         * repository.
+         */
+        DBObject getOptions() {
+            return new BasicDBObject("name", name).append("background", true);
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + keys;
+        }
+    }
+}
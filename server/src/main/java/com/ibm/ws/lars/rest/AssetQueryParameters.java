@@ -46,18 +46,22 @@ public class AssetQueryParameters {
 
     private static final String LIMIT_PARAM = "limit";
     private static final String OFFSET_PARAM = "offset";
+    static final String AFTER_PARAM = "after";
     private static final String FIELDS_PARAM = "fields";
     private static final String APIKEY_PARAM = "apiKey";
     private static final String SEARCH_PARAM = "q";
     private static final String SORT_ORDER_PARAM = "sortOrder";
     private static final String SORT_BY_PARAM = "sortBy";
+    private static final String INCLUDE_ATTACHMENTS_PARAM = "includeAttachments";
+    private static final String INCLUDE_COUNTS_PARAM = "includeCounts";
 
     // Permitted values for the SORT_BY parameter
     private static final String SORT_BY_ASC = "ASC";
     private static final String SORT_BY_DESC = "DESC";
 
     private static final Set<String> NON_QUERY_PARAMS = new HashSet<>(
-            Arrays.asList(LIMIT_PARAM, OFFSET_PARAM, FIELDS_PARAM, APIKEY_PARAM, SEARCH_PARAM, SORT_ORDER_PARAM, SORT_BY_PARAM));
+            Arrays.asList(LIMIT_PARAM, OFFSET_PARAM, AFTER_PARAM, FIELDS_PARAM, APIKEY_PARAM, SEARCH_PARAM, SORT_ORDER_PARAM, SORT_BY_PARAM,
+                          INCLUDE_ATTACHMENTS_PARAM, INCLUDE_COUNTS_PARAM));
 
     private AssetQueryParameters(Map<String, String> params) {
         this.params = params;
@@ -165,6 +169,9 @@ public class AssetQueryParameters {
      * <p>
      * If both parameters are present but are not both integers, an InvalidParameterException is
      * thrown
+     * <p>
+     * Instead of an offset, the after parameter may be given with a page token from the Link header
+     * of the previous page. The token must have come from a request with the same sort options.
      *
      * @return a PaginationOptions if both limit and offset parameters are provided, otherwise null
      * @throws InvalidParameterException if limit and offset parameters are provided but are not
@@ -173,6 +180,11 @@ public class AssetQueryParameters {
     public PaginationOptions getPagination() throws InvalidParameterException {
         String limitString = params.get(LIMIT_PARAM);
         String offsetString = params.get(OFFSET_PARAM);
+        String afterString = params.get(AFTER_PARAM);
+
+        if (afterString != null) {
+            return getPaginationAfter(limitString, offsetString, afterString);
+        }
 
         if (limitString == null && offsetString == null) {
             return null;
@@ -200,6 +212,34 @@ public class AssetQueryParameters {
         return new PaginationOptions(offset, limit);
     }
 
+    private PaginationOptions getPaginationAfter(String limitString, String offsetString, String afterString) throws InvalidParameterException {
+        if (offsetString != null) {
+            throw new InvalidParameterException(OFFSET_PARAM + " and " + AFTER_PARAM + " must not both be provided");
+        }
+        if (limitString == null) {
+            throw new InvalidParameterException("If " + AFTER_PARAM + " is provided then " + LIMIT_PARAM + " must be provided");
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(limitString);
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException(LIMIT_PARAM + " must be an integer");
+        }
+
+        SortOptions sortOptions = getSortOptions();
+        if (!PageToken.isSupported(getSearchTerm(), sortOptions)) {
+            throw new InvalidParameterException(AFTER_PARAM + " may only be provided with " + SEARCH_PARAM + " if " + SORT_BY_PARAM + " is also provided");
+        }
+
+        PageToken after = PageToken.parse(afterString);
+        if (!after.matches(sortOptions)) {
+            throw new InvalidParameterException(AFTER_PARAM + " must be used with the same " + SORT_BY_PARAM + " and " + SORT_ORDER_PARAM
+                                                + " as the request it came from");
+        }
+        return new PaginationOptions(0, limit, after);
+    }
+
     /**
      * @return the search term parameter, or null if it was not set or is blank
      */
@@ -213,6 +253,32 @@ public class AssetQueryParameters {
         }
     }
 
+    /**
+     * @return true if the assets should be returned with their attachments
+     */
+    public boolean getIncludeAttachments() {
+        return Boolean.parseBoolean(params.get(INCLUDE_ATTACHMENTS_PARAM));
+    }
+
+    /**
+     * @return true if a summary should include the number of assets which hold each value
+     */
+    public boolean getIncludeCounts() {
+        return Boolean.parseBoolean(params.get(INCLUDE_COUNTS_PARAM));
+    }
+
+    /**
+     * Parses the fields parameter as a list of the fields which should be returned for each asset.
+     *
+     * @return the fields to return, or null if the parameter was not set and every field should be
+     *         returned
+     * @throws InvalidParameterException if any of the field names are not valid
+     * @see FieldProjection#parse(String)
+     */
+    public List<String> getProjection() throws InvalidParameterException {
+        return FieldProjection.parse(params.get(FIELDS_PARAM));
+    }
+
     /**
      * @return the fields param
      */
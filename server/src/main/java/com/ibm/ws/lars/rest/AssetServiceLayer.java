@@ -18,24 +18,38 @@ package com.ibm.ws.lars.rest;
 
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.net.URLEncoder;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import com.ibm.ws.lars.rest.exceptions.AssetPersistenceException;
 import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
-import com.ibm.ws.lars.rest.exceptions.RepositoryException;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
@@ -53,12 +67,94 @@ import com.ibm.ws.lars.rest.model.RepositoryResourceLifecycleException;
 @ApplicationScoped
 public class AssetServiceLayer {
 
+    /**
+     * The number of assets whose attachments are read with a single query by
+     * {@link #withAttachments(AssetCursor, UriInfo)}
+     */
+    static final int ATTACHMENT_BATCH_SIZE = 1000;
+
+    /**
+     * For each state action, the states it moves an asset into, each mapped to the states it
+     * moves an asset into that state from
+     */
+    private static final Map<Asset.StateAction, Map<Asset.State, Set<Asset.State>>> STATE_TRANSITIONS = createStateTransitions();
+
+    /** The largest number of operations which can be made by one call to {@link #bulkWrite} */
+    static final int MAX_BULK_OPERATIONS = 1000;
+
+    /** The number of assets which {@link #deleteAssets(Collection)} deletes at a time */
+    static final int DELETE_BATCH_SIZE = 100;
+
+    // These status codes are not in the JAX-RS 1.1 Response.Status enum
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_FAILED_DEPENDENCY = 424;
+
     @Inject
     private Persistor persistenceBean;
 
     @Inject
     private Configuration configuration;
 
+    /** Tells subscribers about changes to assets. Null if changes are not broadcast. */
+    @Inject
+    private ChangeBroadcaster changeBroadcaster;
+
+    /**
+     * Cache of assets, with their attachments, as they are stored in the database. Null if the cache
+     * is disabled.
+     */
+    private AssetCache assetCache;
+
+    /**
+     * Cache of the results of queries, shared by the asset list, count and summary operations.
+     * Null if the cache is disabled.
+     */
+    private QueryCache queryCache;
+
+    /**
+     * How long a gap in the change sequence is waited on before the change feed moves past it.
+     * Only changed by tests.
+     */
+    private long changeSettleMillis = ChangePosition.SETTLE_MILLIS;
+
+    @PostConstruct
+    public void createCaches() {
+        long assetCacheSize = configuration.getAssetCacheSize();
+        if (assetCacheSize > 0) {
+            assetCache = new AssetCache(assetCacheSize);
+        }
+
+        long queryCacheSize = configuration.getQueryCacheSize();
+        if (queryCacheSize > 0) {
+            queryCache = new QueryCache(queryCacheSize);
+        }
+    }
+
+    /**
+     * Moves all attachment content held in GridFS into the filesystem content store.
+     *
+     * @return the number of pieces of content which were moved
+     * @throws IllegalStateException if no directory has been configured for the filesystem store
+     */
+    public int migrateAttachmentContent() {
+        return persistenceBean.migrateAttachmentContent();
+    }
+
+    /**
+     * Returns the statistics for each of the caches which is enabled, keyed by the name of the
+     * cache.
+     */
+    public Map<String, Object> getCacheStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        if (assetCache != null) {
+            statistics.put("assets", assetCache.getStatistics());
+        }
+        if (queryCache != null) {
+            statistics.put("queries", queryCache.getStatistics());
+        }
+        return statistics;
+    }
+
     /**
      * @see Persistor#retrieveAllAssets()
      */
@@ -70,21 +166,136 @@ public class AssetServiceLayer {
      * @see Persistor#retrieveAllAssets(Collection,String, PaginationOptions, SortOptions)
      */
     public AssetList retrieveAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions) {
-        return persistenceBean.retrieveAllAssets(filters, searchTerm, pagination, sortOptions);
+        if (queryCache == null) {
+            return persistenceBean.retrieveAllAssets(filters, searchTerm, pagination, sortOptions);
+        }
+
+        boolean cacheable = checkQueryCache();
+        QueryCacheKey key = QueryCacheKey.forAssets(filters, searchTerm, pagination, sortOptions, null);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> cached = (List<Map<String, Object>>) queryCache.get(key);
+        if (cached != null) {
+            return AssetList.createAssetListFromMaps(copyMaps(cached));
+        }
+
+        long generation = queryCache.getGeneration();
+        AssetList assets = persistenceBean.retrieveAllAssets(filters, searchTerm, pagination, sortOptions);
+        if (cacheable) {
+            queryCache.put(key, copyMaps(assets.getState()), generation);
+        }
+        return assets;
+    }
+
+    /**
+     * @see Persistor#streamAllAssets(Collection, String, PaginationOptions, SortOptions, Collection)
+     */
+    public AssetCursor streamAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                       Collection<String> fields) {
+        if (queryCache == null) {
+            return persistenceBean.streamAllAssets(filters, searchTerm, pagination, sortOptions, fields);
+        }
+
+        boolean cacheable = checkQueryCache();
+        QueryCacheKey key = QueryCacheKey.forAssets(filters, searchTerm, pagination, sortOptions, fields);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> cached = (List<Map<String, Object>>) queryCache.get(key);
+        if (cached != null) {
+            return new ListAssetCursor(cached);
+        }
+
+        long generation = queryCache.getGeneration();
+        AssetCursor cursor = persistenceBean.streamAllAssets(filters, searchTerm, pagination, sortOptions, fields);
+        return cacheable ? new CachingAssetCursor(cursor, queryCache, key, generation) : cursor;
+    }
+
+    /**
+     * The query plan is always read from the store, as the query cache is not involved in it.
+     *
+     * @see Persistor#explainAllAssets(Collection, String, PaginationOptions, SortOptions, Collection)
+     */
+    public String explainAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> fields) {
+        return persistenceBean.explainAllAssets(filters, searchTerm, pagination, sortOptions, fields);
+    }
+
+    /**
+     * Wraps a cursor so that each asset it returns includes its attachments, with their URLs set
+     * for the current request.
+     * <p>
+     * The attachments are read for up to {@link #ATTACHMENT_BATCH_SIZE} assets at a time with a
+     * single query, rather than with one query per asset. The assets returned are copies, so the
+     * assets from the cursor are not changed.
+     */
+    public AssetCursor withAttachments(AssetCursor assets, UriInfo uriInfo) {
+        return new AttachmentJoiningAssetCursor(assets, uriInfo);
     }
 
     /**
      * @see Persistor#countAllAssets(Collection, String)
      */
     public int countAllAssets(Collection<AssetFilter> filters, String searchTerm) {
-        return persistenceBean.countAllAssets(filters, searchTerm);
+        if (queryCache == null) {
+            return persistenceBean.countAllAssets(filters, searchTerm);
+        }
+
+        boolean cacheable = checkQueryCache();
+        QueryCacheKey key = QueryCacheKey.forCount(filters, searchTerm);
+        Integer cached = (Integer) queryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = queryCache.getGeneration();
+        int count = persistenceBean.countAllAssets(filters, searchTerm);
+        if (cacheable) {
+            queryCache.put(key, count, generation);
+        }
+        return count;
+    }
+
+    /**
+     * @see Persistor#summarizeAssets(Collection, Collection, String)
+     */
+    private Map<String, Map<Object, Integer>> getSummary(List<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+        if (queryCache == null) {
+            return persistenceBean.summarizeAssets(fields, filters, searchTerm);
+        }
+
+        boolean cacheable = checkQueryCache();
+        QueryCacheKey key = QueryCacheKey.forSummary(fields, filters, searchTerm);
+        @SuppressWarnings("unchecked")
+        Map<String, Map<Object, Integer>> cached = (Map<String, Map<Object, Integer>>) queryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = queryCache.getGeneration();
+        Map<String, Map<Object, Integer>> summary = persistenceBean.summarizeAssets(fields, filters, searchTerm);
+        if (cacheable) {
+            queryCache.put(key, summary, generation);
+        }
+        return summary;
+    }
+
+    /**
+     * Makes a shallow copy of each map in a list, so that a list of assets can be put in or taken
+     * out of the query cache without the caller being able to change the cached copy.
+     */
+    private static List<Map<String, Object>> copyMaps(List<Map<String, Object>> maps) {
+        List<Map<String, Object>> copy = new ArrayList<>(maps.size());
+        for (Map<String, Object> map : maps) {
+            copy.add(new HashMap<>(map));
+        }
+        return copy;
     }
 
     /**
      * Summarizes a list of fields from the assets matched by the given filters and search term.
      * <p>
      * For each field, the result is the list of unique values that are stored in that field, across
-     * all of the assets matched by the filters and searchTerm.
+     * all of the assets matched by the filters and searchTerm, with the values held by the most
+     * assets first. If counts are requested, the result also has the number of assets which hold
+     * each value, in the same order as the values.
      * <p>
      * This result is put into a map of the following form:
      *
@@ -92,6 +303,7 @@ public class AssetServiceLayer {
      * {
      *   "filterName": fieldName
      *   "filterValue": listOfDistinctValues
+     *   "filterValueCounts": listOfCounts
      * }
      * </pre>
      * <p>
@@ -101,22 +313,125 @@ public class AssetServiceLayer {
      * @param fields a list of fields to summarize
      * @param filters a list of filters, which may be empty
      * @param searchTerm a term to search for, which may be null
+     * @param includeCounts true if the number of assets holding each value should be included
      * @return a list of result maps, one for each field
      */
-    public List<Map<String, Object>> summarizeAssets(List<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+    public List<Map<String, Object>> summarizeAssets(List<String> fields, Collection<AssetFilter> filters, String searchTerm, boolean includeCounts) {
+        Map<String, Map<Object, Integer>> summary = getSummary(fields, filters, searchTerm);
         List<Map<String, Object>> result = new ArrayList<>();
 
         for (String field : fields) {
-            List<Object> values = persistenceBean.getDistinctValues(field, filters, searchTerm);
+            Map<Object, Integer> counts = summary.get(field);
             Map<String, Object> resultMap = new HashMap<>();
             resultMap.put("filterName", field);
-            resultMap.put("filterValue", values);
+            resultMap.put("filterValue", new ArrayList<>(counts.keySet()));
+            if (includeCounts) {
+                resultMap.put("filterValueCounts", new ArrayList<>(counts.values()));
+            }
             result.add(resultMap);
         }
 
         return result;
     }
 
+    /**
+     * Reads the changes made to the repository since a position in the change feed, so that a
+     * client which holds a copy of the assets can bring it up to date by reading only the assets
+     * which have changed.
+     * <p>
+     * The changes are put into a map of the following form:
+     *
+     * <pre>
+     * {
+     *   "assets": listOfChangedAssets
+     *   "deletedAssetIds": listOfIdsOfDeletedAssets
+     *   "next": positionToReadTheFollowingChangesFrom
+     *   "more": trueIfThereAreMoreChangesAfterNext
+     * }
+     * </pre>
+     * <p>
+     * Each changed asset includes its attachments. An asset which has changed more than once is
+     * only returned once, in its current form.
+     * <p>
+     * Each change takes its sequence number just before it is written, so for a short time a
+     * change with a lower number may not be visible yet while one with a higher number is. The
+     * changes are returned in order up to the first gap in the sequence which is younger than
+     * {@link ChangePosition#SETTLE_MILLIS}, so that the position never moves past a change which
+     * has not been written yet. If the changes stop at such a gap, <code>more</code> is false,
+     * and the client should read the changes again a few seconds later.
+     * <p>
+     * If the position is older than the record of deleted assets is kept, the changes are read
+     * from the start, and the map also holds <code>"reset": true</code> to tell the client to
+     * discard the assets it holds.
+     *
+     * @param since the position to read changes from, which is {@link ChangePosition#START} to
+     *            read every asset
+     * @param limit the largest number of changes to return
+     * @return the changes
+     */
+    public Map<String, Object> retrieveChangesSince(ChangePosition since, int limit, UriInfo uriInfo) {
+        long now = System.currentTimeMillis();
+        boolean reset = since.isExpired(now);
+        long position = reset ? 0 : since.getSequence();
+
+        // One more than the limit is read, to find out whether there are more changes to read
+        Iterator<Asset> changed = persistenceBean.retrieveAssetsChangedSince(position, limit + 1).iterator();
+        Iterator<AssetDeletion> deleted = persistenceBean.retrieveDeletionsSince(position, limit + 1).iterator();
+
+        List<Map<String, Object>> assets = new ArrayList<>();
+        List<String> deletedAssetIds = new ArrayList<>();
+        long next = position;
+        boolean unsettled = false;
+
+        Asset asset = changed.hasNext() ? changed.next() : null;
+        AssetDeletion deletion = deleted.hasNext() ? deleted.next() : null;
+        while ((asset != null || deletion != null) && assets.size() + deletedAssetIds.size() < limit) {
+            boolean isAsset = deletion == null || (asset != null && asset.getChangeSequence() < deletion.getChangeSequence());
+            long sequence = isAsset ? asset.getChangeSequence() : deletion.getChangeSequence();
+            long changeTime = isAsset ? asset.getChangeTime() : deletion.getChangeTime();
+            if (sequence != next + 1 && now - changeTime < changeSettleMillis) {
+                // A change which took one of the missing numbers may not be visible yet
+                unsettled = true;
+                break;
+            }
+
+            next = sequence;
+            if (isAsset) {
+                assets.add(asset.getProperties());
+                asset = changed.hasNext() ? changed.next() : null;
+            } else {
+                deletedAssetIds.add(deletion.getAssetId());
+                deletion = deleted.hasNext() ? deleted.next() : null;
+            }
+        }
+
+        // If there are more changes, the position must expire before the first of them does
+        long issued = now;
+        if (!unsettled && asset != null) {
+            issued = Math.min(issued, asset.getChangeTime());
+        }
+        if (!unsettled && deletion != null) {
+            issued = Math.min(issued, deletion.getChangeTime());
+        }
+
+        List<Map<String, Object>> assetsWithAttachments = new ArrayList<>(assets.size());
+        try (AssetCursor cursor = withAttachments(new ListAssetCursor(assets), uriInfo)) {
+            while (cursor.hasNext()) {
+                assetsWithAttachments.add(cursor.next().getProperties());
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("assets", assetsWithAttachments);
+        result.put("deletedAssetIds", deletedAssetIds);
+        result.put("next", ChangePosition.at(next, issued).encode());
+        result.put("more", !unsettled && (asset != null || deletion != null));
+        if (reset) {
+            result.put("reset", true);
+        }
+        return result;
+    }
+
     /**
      * @param asset
      * @param creatorName The name of the user who is creating the asset. Must not be null.
@@ -133,7 +448,9 @@ public class AssetServiceLayer {
         newAsset.setCreatedBy(creatorName);
         newAsset.getProperties().put("state", Asset.State.DRAFT.getValue());
 
-        return persistenceBean.createAsset(newAsset);
+        Asset createdAsset = persistenceBean.createAsset(newAsset);
+        assetChanged(createdAsset, AssetEvent.Type.CREATED);
+        return createdAsset;
     }
 
     /**
@@ -142,18 +459,177 @@ public class AssetServiceLayer {
      * @throws NonExistentArtefactException
      */
     public Asset retrieveAsset(String assetId, UriInfo uriInfo) throws NonExistentArtefactException {
-        Asset asset = persistenceBean.retrieveAsset(assetId);
+        if (assetCache == null) {
+            return copyWithAttachmentURLs(loadAsset(assetId), uriInfo);
+        }
 
-        AttachmentList attachments = persistenceBean.findAttachmentsForAsset(assetId);
-        for (Attachment attachment : attachments) {
-            computeAttachmentURL(attachment, uriInfo);
+        // As with the query cache, changes made through other servers are found through the
+        // repository generation
+        boolean cacheable = assetCache.checkRepositoryGeneration(persistenceBean.getRepositoryGeneration());
+        Asset asset = assetCache.get(assetId);
+        if (asset == null) {
+            long generation = assetCache.getGeneration();
+            asset = loadAsset(assetId);
+            if (cacheable) {
+                assetCache.put(assetId, asset, generation);
+            }
         }
 
-        asset.setAttachments(attachments);
+        return copyWithAttachmentURLs(asset, uriInfo);
+    }
 
+    /**
+     * Reads an asset and its attachments from the database.
+     */
+    private Asset loadAsset(String assetId) throws NonExistentArtefactException {
+        Asset asset = persistenceBean.retrieveAsset(assetId);
+        asset.setAttachments(persistenceBean.findAttachmentsForAsset(assetId));
         return asset;
     }
 
+    /**
+     * Copies an asset which has been loaded with {@link #loadAsset(String)}, and sets the URLs of
+     * the copied attachments for the current request.
+     * <p>
+     * The original asset is not changed, so it is safe to share between requests.
+     */
+    private Asset copyWithAttachmentURLs(Asset asset, UriInfo uriInfo) {
+        List<Map<String, Object>> attachments = new ArrayList<>();
+        for (Attachment attachment : asset.getAttachments()) {
+            Attachment copy = new Attachment(attachment);
+            computeAttachmentURL(copy, uriInfo);
+            attachments.add(copy.getProperties());
+        }
+
+        Asset copy = new Asset(asset);
+        copy.setAttachments(AttachmentList.createAttachmentListFromMaps(attachments));
+        return copy;
+    }
+
+    /**
+     * Must be called after an asset has been written to the database. The write gave the asset
+     * its change sequence number, and the change is broadcast to any subscribers.
+     *
+     * @param asset the asset as it was written
+     */
+    private void assetChanged(Asset asset, AssetEvent.Type type) {
+        assetWritten(asset.get_id());
+        if (changeBroadcaster != null) {
+            changeBroadcaster.publish(type, asset.get_id(), asset.getChangeSequence());
+        }
+    }
+
+    /**
+     * Must be called after the attachments of an asset have been changed in the database. The
+     * change is recorded against the asset so that it appears in the change feed, and is broadcast
+     * to any subscribers.
+     */
+    private void attachmentsChanged(String assetId) {
+        long changeSequence = persistenceBean.recordAssetChange(assetId);
+        assetWritten(assetId);
+        if (changeBroadcaster != null) {
+            changeBroadcaster.publish(AssetEvent.Type.UPDATED, assetId, changeSequence);
+        }
+    }
+
+    /**
+     * Must be called after an asset has been deleted from the database. The deletion is recorded
+     * so that it appears in the change feed, and is broadcast to any subscribers.
+     */
+    private void assetDeleted(String assetId) {
+        long changeSequence = persistenceBean.recordAssetDeletion(assetId);
+        assetWritten(assetId);
+        if (changeBroadcaster != null) {
+            changeBroadcaster.publish(AssetEvent.Type.DELETED, assetId, changeSequence);
+        }
+    }
+
+    /**
+     * The equivalent of {@link #assetChanged(Asset, AssetEvent.Type)} for the writes to a number
+     * of assets which were applied by a bulk write.
+     */
+    private void assetsChanged(List<AssetWrite> writes, AssetEvent.Type type) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<String> assetIds = new ArrayList<>();
+        for (AssetWrite write : writes) {
+            assetIds.add(write.getAssetId());
+        }
+        assetsWritten(assetIds);
+        if (changeBroadcaster != null) {
+            for (AssetWrite write : writes) {
+                changeBroadcaster.publish(type, write.getAssetId(), write.getChangeSequence());
+            }
+        }
+    }
+
+    /**
+     * The equivalent of {@link #assetDeleted(String)} for a number of assets which were deleted
+     * by a bulk write.
+     */
+    private void assetsDeleted(List<String> assetIds) {
+        if (assetIds.isEmpty()) {
+            return;
+        }
+        List<Long> changeSequences = persistenceBean.recordAssetDeletions(assetIds);
+        assetsWritten(assetIds);
+        if (changeBroadcaster != null) {
+            for (int i = 0; i < assetIds.size(); i++) {
+                changeBroadcaster.publish(AssetEvent.Type.DELETED, assetIds.get(i), changeSequences.get(i));
+            }
+        }
+    }
+
+    private void assetsWritten(List<String> assetIds) {
+        if (assetCache != null) {
+            for (String assetId : assetIds) {
+                assetCache.invalidate(assetId);
+            }
+        }
+        repositoryChanged();
+    }
+
+    private void assetWritten(String assetId) {
+        if (assetCache != null) {
+            assetCache.invalidate(assetId);
+        }
+        repositoryChanged();
+    }
+
+    /**
+     * Must be called after any write to the database. Any cached query result may now be wrong,
+     * so all of them are discarded. This also moves the query cache on to a new generation, so a
+     * query which was already running when the write happened cannot add its result to the cache.
+     * <p>
+     * The repository generation in the database was moved on by the write itself, when it took
+     * its number from the change sequence.
+     */
+    private void repositoryChanged() {
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Discards the cached query results if the repository has been changed through any server
+     * since they were read, so that a server never serves results made stale by a write through
+     * another one. This costs a read of the repository generation from the database for each
+     * query, which is much cheaper than the query itself.
+     *
+     * @return true if the result of a query made now may be added to the cache
+     */
+    private boolean checkQueryCache() {
+        return queryCache.checkRepositoryGeneration(persistenceBean.getRepositoryGeneration());
+    }
+
+    /**
+     * @see Persistor#getRepositoryGeneration()
+     */
+    public RepositoryGeneration getRepositoryGeneration() {
+        return persistenceBean.getRepositoryGeneration();
+    }
+
     /**
      * @param assetId
      * @param asset
@@ -162,15 +638,19 @@ public class AssetServiceLayer {
      * @throws NonExistentArtefactException
      */
     public Asset updateAsset(String assetId, Asset asset) throws InvalidJsonAssetException, NonExistentArtefactException {
-        Asset existingAsset = persistenceBean.retrieveAsset(assetId);
-        if (existingAsset == null) {
-            throw new NonExistentArtefactException(assetId, "asset");
-        }
-        return persistenceBean.updateAsset(assetId, asset);
+        // The persistence layer reports an asset which doesn't exist, so there's no need to read it first
+        Asset updatedAsset = persistenceBean.updateAsset(assetId, asset);
+        assetChanged(updatedAsset, AssetEvent.Type.UPDATED);
+        return updatedAsset;
     }
 
     /**
      * Throws an exception if the state transition is invalid.
+     * <p>
+     * The state is changed with a conditional update, which only succeeds if the asset is still
+     * in a state the action can be performed from, so the asset is not read first and two
+     * requests can't both make the same transition. The asset is only read if the update fails,
+     * to find out why.
      *
      * @param action
      * @param id
@@ -178,20 +658,52 @@ public class AssetServiceLayer {
      * @throws RepositoryResourceLifecycleException
      */
     public void updateAssetState(Asset.StateAction action, String id) throws RepositoryResourceLifecycleException, NonExistentArtefactException {
-        Asset existingAsset = persistenceBean.retrieveAsset(id);
+        Map<Asset.State, Set<Asset.State>> transitions = STATE_TRANSITIONS.get(action);
+        while (true) {
+            String now = IsoDate.format(new Date());
+            for (Map.Entry<Asset.State, Set<Asset.State>> transition : transitions.entrySet()) {
+                Asset updated = persistenceBean.updateAssetState(id, transition.getValue(), transition.getKey(), now);
+                if (updated != null) {
+                    assetChanged(updated, AssetEvent.Type.STATE_CHANGED);
+                    return;
+                }
+            }
 
-        action.performAction(existingAsset);
-        existingAsset.setLastUpdatedOn(IsoDate.format(new Date()));
-
-        try {
-            persistenceBean.updateAsset(id, existingAsset);
-        } catch (InvalidJsonAssetException e) {
-            // This should never happen, as the asset was retrieved from the persistence layer,
-            // and the only changes were by us. Don't percolate the json exception, as that would
-            // make it look like user error.
-            throw new RepositoryException("JSON retrieved from asset store could not be save back again", e);
+            // Either the asset doesn't exist, or it's in a state the action can't be performed
+            // from, in which case this throws the exception. If neither is true, another request
+            // changed the state after the update was tried, so try again from the new state.
+            Asset existingAsset = persistenceBean.retrieveAsset(id);
+            action.performAction(existingAsset);
         }
+    }
 
+    /**
+     * Works out which states each action moves an asset between, by performing the action on an
+     * asset in each state. The result maps each action to a map from each state the action can
+     * move an asset into to the states it can move it from.
+     */
+    private static Map<Asset.StateAction, Map<Asset.State, Set<Asset.State>>> createStateTransitions() {
+        Map<Asset.StateAction, Map<Asset.State, Set<Asset.State>>> result = new EnumMap<>(Asset.StateAction.class);
+        for (Asset.StateAction action : Asset.StateAction.values()) {
+            Map<Asset.State, Set<Asset.State>> transitions = new EnumMap<>(Asset.State.class);
+            for (Asset.State from : Asset.State.values()) {
+                Asset asset = new Asset();
+                asset.getProperties().put(Asset.STATE, from.getValue());
+                try {
+                    action.performAction(asset);
+                } catch (RepositoryResourceLifecycleException e) {
+                    continue;
+                }
+                Set<Asset.State> fromStates = transitions.get(asset.getState());
+                if (fromStates == null) {
+                    fromStates = EnumSet.noneOf(Asset.State.class);
+                    transitions.put(asset.getState(), fromStates);
+                }
+                fromStates.add(from);
+            }
+            result.put(action, transitions);
+        }
+        return result;
     }
 
     /**
@@ -200,15 +712,311 @@ public class AssetServiceLayer {
      */
     public void deleteAsset(String assetId) throws NonExistentArtefactException {
 
-        // Delete all attachments belonging to the asset
-        Asset asset = persistenceBean.retrieveAsset(assetId);
+        // Check the asset exists
+        persistenceBean.retrieveAsset(assetId);
 
-        for (Attachment attachment : asset.getAttachments()) {
-            deleteAttachment(attachment.get_id());
-        }
+        // Delete all attachments belonging to the asset. The asset read from the store doesn't
+        // list its attachments, so they are found by their assetId.
+        persistenceBean.deleteAttachmentContents(persistenceBean.deleteAttachmentsForAssets(Collections.singleton(assetId)));
 
         // Delete the asset itself
         persistenceBean.deleteAsset(assetId);
+        assetDeleted(assetId);
+    }
+
+    /**
+     * Finds the ids of every asset which matches the given filters and search term.
+     *
+     * @see Persistor#streamAllAssets(Collection, String, PaginationOptions, SortOptions, Collection)
+     */
+    public List<String> findAssetIds(Collection<AssetFilter> filters, String searchTerm) {
+        List<String> ids = new ArrayList<>();
+        try (AssetCursor cursor = persistenceBean.streamAllAssets(filters, searchTerm, null, null, Collections.singletonList(Asset._ID))) {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().get_id());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes a number of assets, together with their attachments and the attachments' content.
+     * <p>
+     * The assets are deleted {@link #DELETE_BATCH_SIZE} at a time, with a few requests to the
+     * database for each batch rather than several for each asset. In each batch the attachments
+     * are deleted before the assets, as they are by {@link #deleteAsset(String)}, so an asset
+     * which is still there after a failure still has any attachments which were not deleted.
+     * Assets which don't exist are skipped.
+     *
+     * @param assetIds the ids of the assets, which must be valid
+     * @return the number of assets which were deleted
+     */
+    public int deleteAssets(Collection<String> assetIds) {
+        return deleteAssets(assetIds, null);
+    }
+
+    /**
+     * Deletes a number of assets as {@link #deleteAssets(Collection)} does, as part of a
+     * {@link Job}. The progress of the job is reported after each batch, and no more batches are
+     * deleted once the job has been cancelled.
+     *
+     * @param assetIds the ids of the assets, which must be valid
+     * @param context the context of the job, or null if the assets aren't being deleted by a job
+     * @return the number of assets which were deleted
+     */
+    public int deleteAssets(Collection<String> assetIds, JobContext context) {
+        List<String> remaining = new ArrayList<>(new LinkedHashSet<>(assetIds));
+        int deleted = 0;
+        for (int start = 0; start < remaining.size(); start += DELETE_BATCH_SIZE) {
+            if (context != null && context.isCancelled()) {
+                break;
+            }
+            List<String> batch = remaining.subList(start, Math.min(remaining.size(), start + DELETE_BATCH_SIZE));
+            persistenceBean.deleteAttachmentContents(persistenceBean.deleteAttachmentsForAssets(batch));
+            List<String> batchDeleted = persistenceBean.deleteAssets(batch);
+            assetsDeleted(batchDeleted);
+            deleted += batchDeleted.size();
+            if (context != null) {
+                context.setProgress(start + batch.size(), remaining.size());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Makes a list of changes to the assets, using as few requests to the database as possible.
+     * Each operation is a JSON object in one of these forms:
+     *
+     * <pre>
+     * {"op":"create", "asset":{...}}
+     * {"op":"state", "id":"...", "action":"publish"}
+     * {"op":"delete", "id":"..."}
+     * </pre>
+     *
+     * Each operation has the same effect as making the equivalent request on its own. As with
+     * those requests, assets cannot be updated, so an <code>update</code> operation is refused.
+     * <p>
+     * If ordered is true, the operations are made in order, and once an operation is found to be
+     * invalid, or is rejected by the database, no more are made. Operations which find that their
+     * asset does not exist, or is not in a state which allows the action, fail without stopping
+     * the rest. If ordered is false, the operations may be made in any order, and all of them are
+     * tried.
+     *
+     * @param operations the operations
+     * @param ordered whether the operations must be made in order
+     * @param creatorName the name of the user who is creating any new assets
+     * @return a result for each operation, in the same order. Each result holds the operation, the
+     *         HTTP status which the equivalent single request would have returned, the id of the
+     *         asset, and a message if the operation failed.
+     */
+    public List<Map<String, Object>> bulkWrite(List<?> operations, boolean ordered, String creatorName) {
+        String now = IsoDate.format(new Date());
+        List<BulkItem> items = new ArrayList<>();
+        List<AssetWrite> writes = new ArrayList<>();
+        boolean stopped = false;
+        for (Object operation : operations) {
+            BulkItem item = stopped ? BulkItem.notAttempted(operation) : createBulkItem(operation, now, creatorName);
+            items.add(item);
+            writes.addAll(item.writes);
+            stopped |= ordered && item.status != 0;
+        }
+
+        persistenceBean.writeAssets(writes, ordered);
+
+        List<AssetWrite> created = new ArrayList<>();
+        List<AssetWrite> stateChanged = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (BulkItem item : items) {
+            if (item.status == 0) {
+                finishBulkItem(item);
+                if (item.status == Response.Status.OK.getStatusCode()) {
+                    for (AssetWrite write : item.writes) {
+                        if (write.getOutcome() == AssetWrite.Outcome.APPLIED) {
+                            (item.op.equals("create") ? created : stateChanged).add(write);
+                        }
+                    }
+                } else if (item.status == Response.Status.NO_CONTENT.getStatusCode()) {
+                    deleted.add(item.assetId);
+                }
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            persistenceBean.deleteAttachmentContents(persistenceBean.deleteAttachmentsForAssets(deleted));
+        }
+        assetsChanged(created, AssetEvent.Type.CREATED);
+        assetsChanged(stateChanged, AssetEvent.Type.STATE_CHANGED);
+        assetsDeleted(deleted);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (BulkItem item : items) {
+            results.add(item.toMap());
+        }
+        return results;
+    }
+
+    /**
+     * Checks one operation of a bulk write, and works out the writes it needs.
+     */
+    private BulkItem createBulkItem(Object operation, String now, String creatorName) {
+        if (!(operation instanceof Map)) {
+            return BulkItem.failed(null, null, Response.Status.BAD_REQUEST.getStatusCode(), "Each operation must be a JSON object");
+        }
+        Map<?, ?> fields = (Map<?, ?>) operation;
+        String op = fields.get("op") instanceof String ? (String) fields.get("op") : null;
+        Object id = fields.get("id");
+        String assetId = id instanceof String ? (String) id : null;
+
+        if ("create".equals(op)) {
+            Object assetFields = fields.get("asset");
+            if (!(assetFields instanceof Map) || ((Map<?, ?>) assetFields).containsKey(Asset._ID)) {
+                return BulkItem.failed(op, null, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid asset definition");
+            }
+            @SuppressWarnings("unchecked")
+            Asset newAsset = Asset.createAssetFromMap(new LinkedHashMap<>((Map<String, Object>) assetFields));
+            newAsset.set_id(persistenceBean.allocateNewId());
+            newAsset.setCreatedOn(now);
+            newAsset.setLastUpdatedOn(now);
+            newAsset.setCreatedBy(creatorName);
+            newAsset.getProperties().put(Asset.STATE, Asset.State.DRAFT.getValue());
+            return new BulkItem(op, newAsset.get_id(), null, Collections.singletonList(AssetWrite.insert(newAsset)));
+        } else if ("update".equals(op)) {
+            return BulkItem.failed(op, assetId, HTTP_METHOD_NOT_ALLOWED, "Assets cannot be updated");
+        } else if (!"state".equals(op) && !"delete".equals(op)) {
+            return BulkItem.failed(op, assetId, Response.Status.BAD_REQUEST.getStatusCode(), "The op field must be one of create, state or delete");
+        }
+
+        if (assetId == null || !assetId.matches("[a-fA-F0-9]{24}")) {
+            return BulkItem.failed(op, assetId, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid asset id: " + id);
+        }
+
+        if ("delete".equals(op)) {
+            return new BulkItem(op, assetId, null, Collections.singletonList(AssetWrite.delete(assetId)));
+        }
+
+        Object actionValue = fields.get("action");
+        Asset.StateAction action = actionValue instanceof String ? Asset.StateAction.forValue((String) actionValue) : null;
+        if (action == null) {
+            return BulkItem.failed(op, assetId, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid state action: " + actionValue);
+        }
+        List<AssetWrite> writes = new ArrayList<>();
+        for (Map.Entry<Asset.State, Set<Asset.State>> transition : STATE_TRANSITIONS.get(action).entrySet()) {
+            writes.add(AssetWrite.setState(assetId, transition.getValue(), transition.getKey(), now));
+        }
+        return new BulkItem(op, assetId, action, writes);
+    }
+
+    /**
+     * Sets the status of an operation of a bulk write from the outcome of its writes.
+     */
+    private void finishBulkItem(BulkItem item) {
+        AssetWrite.Outcome outcome = AssetWrite.Outcome.NOT_MATCHED;
+        String message = null;
+        for (AssetWrite write : item.writes) {
+            if (write.getOutcome() == AssetWrite.Outcome.APPLIED || outcome == AssetWrite.Outcome.NOT_MATCHED) {
+                outcome = write.getOutcome();
+                message = write.getMessage();
+            }
+        }
+
+        switch (outcome) {
+            case APPLIED:
+                item.status = item.op.equals("delete") ? Response.Status.NO_CONTENT.getStatusCode() : Response.Status.OK.getStatusCode();
+                break;
+            case FAILED:
+                item.fail(Response.Status.BAD_REQUEST.getStatusCode(), "The database rejected the operation: " + message);
+                break;
+            case NOT_ATTEMPTED:
+                item.fail(HTTP_FAILED_DEPENDENCY, BulkItem.NOT_ATTEMPTED_MESSAGE);
+                break;
+            default:
+                explainNotMatched(item);
+                break;
+        }
+    }
+
+    /**
+     * Works out why an operation of a bulk write did not match its asset.
+     */
+    private void explainNotMatched(BulkItem item) {
+        if (item.action == null) {
+            item.fail(Response.Status.NOT_FOUND.getStatusCode(), new NonExistentArtefactException(item.assetId, "asset").getMessage());
+            return;
+        }
+        Asset asset;
+        try {
+            asset = persistenceBean.retrieveAsset(item.assetId);
+        } catch (NonExistentArtefactException e) {
+            item.fail(Response.Status.NOT_FOUND.getStatusCode(), e.getMessage());
+            return;
+        }
+        try {
+            item.action.performAction(asset);
+        } catch (RepositoryResourceLifecycleException e) {
+            item.fail(Response.Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+            return;
+        }
+        item.fail(Response.Status.CONFLICT.getStatusCode(), "The state of the asset was changed while the operation was being made");
+    }
+
+    /**
+     * One operation of a bulk write, and its result
+     */
+    private static class BulkItem {
+
+        static final String NOT_ATTEMPTED_MESSAGE = "The operation was not made, as an earlier operation failed";
+
+        final String op;
+        final String assetId;
+        final Asset.StateAction action;
+        final List<AssetWrite> writes;
+
+        /** The status of the result, or zero if the writes have not been made yet */
+        int status;
+        String message;
+
+        BulkItem(String op, String assetId, Asset.StateAction action, List<AssetWrite> writes) {
+            this.op = op;
+            this.assetId = assetId;
+            this.action = action;
+            this.writes = writes;
+        }
+
+        static BulkItem failed(String op, String assetId, int status, String message) {
+            BulkItem item = new BulkItem(op, assetId, null, Collections.<AssetWrite> emptyList());
+            item.fail(status, message);
+            return item;
+        }
+
+        static BulkItem notAttempted(Object operation) {
+            String op = null;
+            String assetId = null;
+            if (operation instanceof Map) {
+                Object opValue = ((Map<?, ?>) operation).get("op");
+                Object idValue = ((Map<?, ?>) operation).get("id");
+                op = opValue instanceof String ? (String) opValue : null;
+                assetId = idValue instanceof String ? (String) idValue : null;
+            }
+            return failed(op, assetId, HTTP_FAILED_DEPENDENCY, NOT_ATTEMPTED_MESSAGE);
+        }
+
+        void fail(int status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("op", op);
+            map.put("status", status);
+            if (assetId != null) {
+                map.put("id", assetId);
+            }
+            if (message != null) {
+                map.put("message", message);
+            }
+            return map;
+        }
     }
 
     public AttachmentList retrieveAttachmentsForAsset(String assetId, UriInfo uriInfo) {
@@ -220,7 +1028,8 @@ public class AssetServiceLayer {
     }
 
     private Attachment createAttachment(String assetId, String name, Attachment originalAttachmentMetadata, String contentType,
-                                        InputStream attachmentContentStream, UriInfo uriInfo) throws InvalidJsonAssetException, AssetPersistenceException, NonExistentArtefactException {
+                                        InputStream attachmentContentStream, String contentHash,
+                                        UriInfo uriInfo) throws InvalidJsonAssetException, AssetPersistenceException, NonExistentArtefactException {
 
         // Check that the parent exists
         try {
@@ -244,25 +1053,76 @@ public class AssetServiceLayer {
         attachmentMetadata.setName(name);
         attachmentMetadata.setUploadOn(IsoDate.format(new Date()));
 
-        // Create the attachment content
+        // Create the attachment content, or add a reference to existing content
+        AttachmentContentMetadata contentMetadata = null;
         if (attachmentContentStream != null) {
-            AttachmentContentMetadata contentMetadata = persistenceBean.createAttachmentContent(name, contentType, attachmentContentStream);
+            contentMetadata = storeAttachmentContent(name, contentType, attachmentContentStream);
+        } else if (contentHash != null) {
+            contentMetadata = persistenceBean.referenceExistingContent(contentHash);
+            if (contentMetadata == null) {
+                throw new NonExistentArtefactException("There is no attachment content with the SHA-256 hash " + contentHash + " in the repository.");
+            }
+            if (attachmentMetadata.getContentType() == null && contentMetadata.contentType != null) {
+                attachmentMetadata.setContentType(contentMetadata.contentType);
+            }
+        }
 
-            // TODO perhaps we should try to clean up after ourselves and delete the attachmentMetadata
-            // TODO seriously, this is one of the places where we reaslise that using a DB that doesn't
-            // support transactions means we don't get some of the guarantees that we might be used to.
+        if (contentMetadata != null) {
+            // MongoDB has no transactions, so if the metadata can't be stored the content is left
+            // without an attachment. The OrphanSweeper removes it once the grace period is over.
 
             attachmentMetadata.setGridFSId(contentMetadata.filename);
             attachmentMetadata.setSize(contentMetadata.length);
         }
 
         Attachment returnedAttachment = persistenceBean.createAttachmentMetadata(attachmentMetadata);
+        attachmentsChanged(assetId);
 
         computeAttachmentURL(returnedAttachment, uriInfo);
 
         return returnedAttachment;
     }
 
+    /**
+     * Stores attachment content, unless the same content is already stored, in which case a
+     * reference to the existing content is added instead.
+     * <p>
+     * The SHA-256 hash of the content is computed as it is stored, so the content is always
+     * stored first, and then deleted again if it turns out to be a duplicate. If the same content
+     * is uploaded twice at the same time, both copies may be kept, which wastes space but is
+     * otherwise harmless.
+     */
+    private AttachmentContentMetadata storeAttachmentContent(String name, String contentType, InputStream attachmentContentStream) throws AssetPersistenceException {
+        MessageDigest digest = createContentDigest();
+        AttachmentContentMetadata stored = persistenceBean.createAttachmentContent(name, contentType, new DigestInputStream(attachmentContentStream, digest));
+        String contentHash = toHex(digest.digest());
+
+        AttachmentContentMetadata existing = persistenceBean.referenceExistingContent(contentHash);
+        if (existing != null) {
+            persistenceBean.deleteAttachmentContent(stored.filename);
+            return existing;
+        }
+
+        persistenceBean.setContentHash(stored.filename, contentHash);
+        return stored;
+    }
+
+    private static MessageDigest createContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("This should never happen.", e);
+        }
+    }
+
+    /**
+     * Hex encodes a hash, including any leading zeros, so that clients which compute the same hash
+     * get the same string
+     */
+    static String toHex(byte[] hash) {
+        return String.format("%0" + (hash.length * 2) + "x", new BigInteger(1, hash));
+    }
+
     public Attachment createAttachmentWithContent(String assetId, String name, Attachment attachmentMetadata, String contentType,
                                                   InputStream attachmentContentStream, UriInfo uriInfo) throws InvalidJsonAssetException, AssetPersistenceException, NonExistentArtefactException {
 
@@ -279,7 +1139,30 @@ public class AssetServiceLayer {
             throw new InvalidJsonAssetException("The link type must not be set for an attachment with content");
         }
 
-        return createAttachment(assetId, name, attachmentMetadata, contentType, attachmentContentStream, uriInfo);
+        return createAttachment(assetId, name, attachmentMetadata, contentType, attachmentContentStream, null, uriInfo);
+    }
+
+    /**
+     * Create an attachment whose content is already stored in the repository, as the content of
+     * another attachment. This lets a client avoid uploading content which the repository already
+     * has. The new attachment holds a reference to the content, so it is not deleted until all of
+     * the attachments using it have been deleted.
+     *
+     * @param contentHash the hex encoded SHA-256 hash of the content
+     * @throws NonExistentArtefactException if there is no content with the hash in the repository,
+     *             in which case the client must upload the content
+     */
+    public Attachment createAttachmentWithExistingContent(String assetId, String name, Attachment attachmentMetadata, String contentHash,
+                                                          UriInfo uriInfo) throws InvalidJsonAssetException, AssetPersistenceException, NonExistentArtefactException {
+        if (attachmentMetadata.getUrl() != null) {
+            throw new InvalidJsonAssetException("An attachment should not have the URL set if it is created with content");
+        }
+
+        if (attachmentMetadata.getLinkType() != null) {
+            throw new InvalidJsonAssetException("The link type must not be set for an attachment with content");
+        }
+
+        return createAttachment(assetId, name, attachmentMetadata, null, null, contentHash.toLowerCase(Locale.ROOT), uriInfo);
     }
 
     /**
@@ -315,13 +1198,29 @@ public class AssetServiceLayer {
             throw new InvalidJsonAssetException("The link type for the attachment was set to an invalid value: " + stringType);
         }
 
-        return createAttachment(assetId, name, attachmentMetadata, null, null, uriInfo);
+        return createAttachment(assetId, name, attachmentMetadata, null, null, null, uriInfo);
 
     }
 
     public void deleteAttachment(String attachmentId) {
+        String assetId = null;
+        String gridFSId = null;
+        try {
+            Attachment attachment = persistenceBean.retrieveAttachmentMetadata(attachmentId);
+            assetId = attachment.getAssetId();
+            gridFSId = attachment.getGridFSId();
+        } catch (NonExistentArtefactException e) {
+            // Nothing to invalidate, but carry on and make sure everything is cleaned up
+        }
+
         persistenceBean.deleteAttachmentMetadata(attachmentId);
-        persistenceBean.deleteAttachmentContent(attachmentId);
+        if (gridFSId != null) {
+            persistenceBean.deleteAttachmentContent(gridFSId);
+        }
+
+        if (assetId != null) {
+            attachmentsChanged(assetId);
+        }
     }
 
     public Attachment retrieveAttachmentMetadata(String assetId, String attachmentId, UriInfo uriInfo) throws NonExistentArtefactException {
@@ -343,7 +1242,16 @@ public class AssetServiceLayer {
 
         String gridFSId = attachmentMetadata.getGridFSId();
 
-        return persistenceBean.retrieveAttachmentContent(gridFSId);
+        AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(gridFSId);
+
+        // The content may be shared with other attachments, which were uploaded with a different
+        // content type, so use the type of this attachment
+        String contentType = attachmentMetadata.getContentType();
+        if (contentType != null && !contentType.equals(response.getContentType())) {
+            response = new AttachmentContentResponse(response.getContentStream(), contentType, response.getMD5(), response.getUploadDate(),
+                                                     response.getLength(), response.getChunkSize());
+        }
+        return response;
     }
 
     /**
@@ -370,6 +1278,17 @@ public class AssetServiceLayer {
      * @param uriInfo the UriInfo from the current request
      */
     private void computeAttachmentURL(Attachment attachment, UriInfo uriInfo) {
+        computeAttachmentURL(attachment, configuration.getRestBaseUri(uriInfo));
+    }
+
+    /**
+     * Computes and sets the URL for an attachment if the attachment's content is stored in lars.
+     *
+     * @param attachment the attachment for which to update and set the URL
+     * @param restBaseUri the base URL of the REST application
+     * @see #computeAttachmentURL(Attachment, UriInfo)
+     */
+    private static void computeAttachmentURL(Attachment attachment, String restBaseUri) {
         // LinkType != null -> asset is not stored in LARS
         // Therefore there should be an external URL in the attachment
         if (attachment.getLinkType() != null) {
@@ -384,8 +1303,186 @@ public class AssetServiceLayer {
             throw new AssertionError("This should never happen.", e);
         }
 
-        String url = configuration.getRestBaseUri(uriInfo) + "assets/" + attachment.getAssetId() + "/attachments/" + attachment.get_id() + "/" + encodedName;
+        String url = restBaseUri + "assets/" + attachment.getAssetId() + "/attachments/" + attachment.get_id() + "/" + encodedName;
         attachment.setUrl(url);
     }
 
+    /**
+     * A cursor which reads the assets from another cursor in batches, and adds the attachments to
+     * each batch using a single query.
+     * <p>
+     * The base URL of the attachments is worked out when the cursor is created, as the cursor may
+     * be read by a thread which is not handling the request.
+     */
+    private class AttachmentJoiningAssetCursor implements AssetCursor {
+
+        private final AssetCursor cursor;
+        private final String restBaseUri;
+        private Iterator<Asset> batch = Collections.emptyIterator();
+
+        AttachmentJoiningAssetCursor(AssetCursor cursor, UriInfo uriInfo) {
+            this.cursor = cursor;
+            this.restBaseUri = configuration.getRestBaseUri(uriInfo);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            return batch.hasNext() || cursor.hasNext();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Asset next() {
+            if (!batch.hasNext()) {
+                batch = readBatch().iterator();
+            }
+            return batch.next();
+        }
+
+        private List<Asset> readBatch() {
+            List<Asset> assets = new ArrayList<>();
+            List<String> assetIds = new ArrayList<>();
+            while (cursor.hasNext() && assets.size() < ATTACHMENT_BATCH_SIZE) {
+                Asset asset = cursor.next();
+                assets.add(asset);
+                assetIds.add(asset.get_id());
+            }
+
+            Map<String, AttachmentList> attachments = persistenceBean.findAttachmentsForAssets(assetIds);
+            List<Asset> joined = new ArrayList<>(assets.size());
+            for (Asset asset : assets) {
+                List<Map<String, Object>> assetAttachments = new ArrayList<>();
+                AttachmentList found = attachments.get(asset.get_id());
+                if (found != null) {
+                    for (Attachment attachment : found) {
+                        computeAttachmentURL(attachment, restBaseUri);
+                        assetAttachments.add(attachment.getProperties());
+                    }
+                }
+
+                Asset copy = new Asset(asset);
+                copy.setAttachments(AttachmentList.createAttachmentListFromMaps(assetAttachments));
+                joined.add(copy);
+            }
+            return joined;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    /**
+     * A cursor over asset property maps taken from the query cache.
+     * <p>
+     * The assets share their properties with the cache, so they must only be read.
+     */
+    private static class ListAssetCursor implements AssetCursor {
+
+        private final Iterator<Map<String, Object>> iterator;
+
+        ListAssetCursor(List<Map<String, Object>> assets) {
+            iterator = assets.iterator();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Asset next() {
+            return Asset.createAssetFromMap(iterator.next());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * A cursor which keeps the assets read from another cursor, and adds them to the query cache
+     * once the cursor has been read to the end and closed.
+     * <p>
+     * If the results grow too large to fit in the cache, they are dropped as soon as that is
+     * known, so that streaming a large result does not hold it all in memory. The assets
+     * returned are kept in the cache, so they must only be read.
+     */
+    private static class CachingAssetCursor implements AssetCursor {
+
+        private final AssetCursor cursor;
+        private final QueryCache cache;
+        private final QueryCacheKey key;
+        private final long generation;
+
+        /** The assets read so far, or null if they are too large to cache */
+        private List<Map<String, Object>> assets = new ArrayList<>();
+        private long weight = 0;
+
+        CachingAssetCursor(AssetCursor cursor, QueryCache cache, QueryCacheKey key, long generation) {
+            this.cursor = cursor;
+            this.cache = cache;
+            this.key = key;
+            this.generation = generation;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Asset next() {
+            Asset asset = cursor.next();
+            if (assets != null) {
+                weight += LruCache.estimateSize(asset.getProperties());
+                if (weight > cache.getMaxWeight()) {
+                    assets = null;
+                } else {
+                    assets.add(asset.getProperties());
+                }
+            }
+            return asset;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            try {
+                // Only a complete result can be cached
+                if (assets != null && !cursor.hasNext()) {
+                    cache.put(key, assets, generation);
+                }
+            } finally {
+                assets = null;
+                cursor.close();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import com.ibm.ws.lars.rest.model.Asset;
+
+/**
+ * One write to the assets collection, made as part of a bulk write by
+ * {@link Persistor#writeAssets(java.util.List, boolean)}. Once the bulk write has been made, the
+ * write holds its {@link Outcome}.
+ */
+public class AssetWrite {
+
+    /** The kinds of write */
+    public enum Type {
+        /** Insert a new asset */
+        INSERT,
+        /** Change the state of an asset, if it is in one of the expected states */
+        SET_STATE,
+        /** Delete an asset */
+        DELETE
+    }
+
+    /** What happened to a write */
+    public enum Outcome {
+        /** The write has not been made yet */
+        PENDING,
+        /** The write was made */
+        APPLIED,
+        /** The write was not made as the asset doesn't exist, or is not in an expected state */
+        NOT_MATCHED,
+        /** The database rejected the write */
+        FAILED,
+        /** The write was not tried, as an earlier write in an ordered bulk write failed */
+        NOT_ATTEMPTED
+    }
+
+    private final Type type;
+    private final String assetId;
+    private final Asset asset;
+    private final Collection<Asset.State> fromStates;
+    private final Asset.State toState;
+    private final String lastUpdatedOn;
+
+    private Outcome outcome = Outcome.PENDING;
+    private String message;
+    private long changeSequence = -1;
+
+    private AssetWrite(Type type, String assetId, Asset asset, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn) {
+        this.type = type;
+        this.assetId = assetId;
+        this.asset = asset;
+        this.fromStates = fromStates;
+        this.toState = toState;
+        this.lastUpdatedOn = lastUpdatedOn;
+    }
+
+    /**
+     * @param asset the asset to insert, which must already have its id set
+     */
+    public static AssetWrite insert(Asset asset) {
+        return new AssetWrite(Type.INSERT, asset.get_id(), asset, null, null, null);
+    }
+
+    /**
+     * @see Persistor#updateAssetState(String, Collection, Asset.State, String)
+     */
+    public static AssetWrite setState(String assetId, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn) {
+        return new AssetWrite(Type.SET_STATE, assetId, null, Collections.unmodifiableSet(EnumSet.copyOf(fromStates)), toState, lastUpdatedOn);
+    }
+
+    public static AssetWrite delete(String assetId) {
+        return new AssetWrite(Type.DELETE, assetId, null, null, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getAssetId() {
+        return assetId;
+    }
+
+    /**
+     * @return the asset to insert, for an {@link Type#INSERT}
+     */
+    public Asset getAsset() {
+        return asset;
+    }
+
+    /**
+     * @return the states the asset must be in, for a {@link Type#SET_STATE}
+     */
+    public Collection<Asset.State> getFromStates() {
+        return fromStates;
+    }
+
+    /**
+     * @return the state to move the asset to, for a {@link Type#SET_STATE}
+     */
+    public Asset.State getToState() {
+        return toState;
+    }
+
+    /**
+     * @return the new last updated date of the asset, for a {@link Type#SET_STATE}
+     */
+    public String getLastUpdatedOn() {
+        return lastUpdatedOn;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the reason the database gave for rejecting the write, if the outcome is
+     *         {@link Outcome#FAILED}
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the number the write took from the change sequence, or -1 if it is a
+     *         {@link Type#DELETE} or was not sent to the database
+     */
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    void setChangeSequence(long changeSequence) {
+        this.changeSequence = changeSequence;
+    }
+
+    void setOutcome(Outcome outcome) {
+        setOutcome(outcome, null);
+    }
+
+    void setOutcome(Outcome outcome, String message) {
+        this.outcome = outcome;
+        this.message = message;
+    }
+}
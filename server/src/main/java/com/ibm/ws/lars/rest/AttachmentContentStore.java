@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.InputStream;
+import java.util.List;
+
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.mongodb.gridfs.GridFSDBFile;
+
+/**
+ * Somewhere that {@link PersistenceBean} can keep the content of attachments.
+ * <p>
+ * Wherever the content itself is kept, its metadata is held as a document in the GridFS files
+ * collection, so that content can be found by its id or its hash, and shared between
+ * attachments, in the same way whichever store holds it. The {@link #STORE} field of the document
+ * names the store which holds the content.
+ */
+interface AttachmentContentStore {
+
+    /**
+     * The field of a GridFS file which holds the name of the store which holds its content. Content
+     * without this field is held in GridFS.
+     */
+    String STORE = "store";
+
+    /**
+     * Stores new content, together with a GridFS file which holds its metadata.
+     *
+     * @param contentType the content type, may be null
+     * @param contentStream the content
+     * @return the metadata of the new content
+     */
+    AttachmentContentMetadata createContent(String contentType, InputStream contentStream);
+
+    /**
+     * Opens some content which is held in this store
+     *
+     * @param file the GridFS file which holds the metadata of the content
+     */
+    AttachmentContentResponse retrieveContent(GridFSDBFile file);
+
+    /**
+     * Removes some content which is held in this store, together with its metadata
+     *
+     * @param file the GridFS file which holds the metadata of the content
+     */
+    void removeContent(GridFSDBFile file);
+
+    /**
+     * Removes several pieces of content which are held in this store, together with their
+     * metadata, using as few requests to the database as possible
+     *
+     * @param files the GridFS files which hold the metadata of the content
+     */
+    void removeContents(List<GridFSDBFile> files);
+}
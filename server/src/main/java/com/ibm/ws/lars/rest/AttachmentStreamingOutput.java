@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Implementation of {@link StreamingOutput} which writes the content of an attachment, or a range
+ * of it, onto the output stream.
+ * <p>
+ * The content is copied through a buffer the size of one GridFS chunk. A GridFS stream never
+ * returns more than the rest of the current chunk from a single read, so after the first read
+ * each read returns a whole chunk, which is written to the output stream in one call. The input
+ * stream is closed once it has been written.
+ * <p>
+ * Content held in a file is read from the file's channel at the position it is needed from,
+ * rather than by skipping through the stream.
+ * <p>
+ * If it is given {@link Metrics}, the output records the number of bytes it writes, and how long
+ * each read of a chunk from GridFS takes. The reads and writes are also timed in the
+ * {@link RequestTrace} of the request.
+ */
+class AttachmentStreamingOutput implements StreamingOutput {
+
+    /**
+     * The size of buffer used if the chunk size of the content is not known, which is the default
+     * GridFS chunk size
+     */
+    static final int DEFAULT_BUFFER_SIZE = 255 * 1024;
+
+    private final InputStream contentInputStream;
+    private final long offset;
+    private final long length;
+    private final int bufferSize;
+    private final Metrics metrics;
+
+    /**
+     * @param contentInputStream the content
+     * @param offset the number of bytes to skip before writing
+     * @param length the number of bytes to write, or -1 to write everything after the offset
+     * @param chunkSize the size of the chunks the content is stored in, or -1 if it is not known
+     */
+    AttachmentStreamingOutput(InputStream contentInputStream, long offset, long length, int chunkSize) {
+        this(contentInputStream, offset, length, chunkSize, null);
+    }
+
+    /**
+     * @param contentInputStream the content
+     * @param offset the number of bytes to skip before writing
+     * @param length the number of bytes to write, or -1 to write everything after the offset
+     * @param chunkSize the size of the chunks the content is stored in, or -1 if it is not known
+     * @param metrics where to record what is written, or null if it should not be recorded
+     */
+    AttachmentStreamingOutput(InputStream contentInputStream, long offset, long length, int chunkSize, Metrics metrics) {
+        this.contentInputStream = contentInputStream;
+        this.offset = offset;
+        this.length = length;
+        this.bufferSize = chunkSize > 0 ? chunkSize : DEFAULT_BUFFER_SIZE;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        OutputStream os = RequestTrace.trace(out);
+        try {
+            if (contentInputStream instanceof FileInputStream) {
+                writeFromChannel(((FileInputStream) contentInputStream).getChannel(), os);
+                return;
+            }
+
+            // Skipping a GridFS stream moves straight to the right chunk, without reading the
+            // chunks before it
+            long toSkip = offset;
+            while (toSkip > 0) {
+                long skipped = contentInputStream.skip(toSkip);
+                if (skipped <= 0) {
+                    if (contentInputStream.read() == -1) {
+                        return;
+                    }
+                    skipped = 1;
+                }
+                toSkip -= skipped;
+            }
+
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(bufferSize, length < 0 ? bufferSize : length))];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            int len;
+            long readStart = metrics == null ? 0 : System.nanoTime();
+            while (remaining > 0 && (len = readChunk(buffer, (int) Math.min(buffer.length, remaining))) != -1) {
+                if (metrics != null) {
+                    metrics.gridFSChunkRead(readStart);
+                }
+                os.write(buffer, 0, len);
+                remaining -= len;
+                if (metrics != null) {
+                    metrics.attachmentBytesWritten(len);
+                    readStart = System.nanoTime();
+                }
+            }
+        } finally {
+            contentInputStream.close();
+        }
+    }
+
+    /**
+     * Reads the next chunk of content from GridFS, which counts as time spent waiting for the
+     * database in the request's trace.
+     */
+    private int readChunk(byte[] buffer, int len) throws IOException {
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return contentInputStream.read(buffer, 0, len);
+        } finally {
+            RequestTrace.exit();
+        }
+    }
+
+    /**
+     * Writes content held in a file, reading each buffer from its position in the file so that
+     * nothing before the offset is read.
+     * <p>
+     * {@link FileChannel#transferTo} is not used because the output stream is not a channel, and
+     * transferring to an arbitrary channel copies through a much smaller buffer than this one.
+     */
+    private void writeFromChannel(FileChannel channel, OutputStream os) throws IOException {
+        long end = length < 0 ? channel.size() : Math.min(channel.size(), offset + length);
+        long position = offset;
+        byte[] buffer = new byte[(int) Math.max(1, Math.min(bufferSize, end - position))];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        while (position < end) {
+            byteBuffer.clear().limit((int) Math.min(buffer.length, end - position));
+            int len = channel.read(byteBuffer, position);
+            if (len == -1) {
+                return;
+            }
+            os.write(buffer, 0, len);
+            position += len;
+            if (metrics != null) {
+                metrics.attachmentBytesWritten(len);
+            }
+        }
+    }
+}
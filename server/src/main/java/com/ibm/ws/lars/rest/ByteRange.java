@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * A single range of bytes, parsed from the Range header of a request.
+ * <p>
+ * Only a single range is supported. A request for multiple ranges is treated as if it had no
+ * Range header, and the whole content is returned, which the HTTP specification allows.
+ */
+final class ByteRange {
+
+    /**
+     * Returned by {@link #parse(String, long)} if the requested range does not overlap the
+     * content at all
+     */
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a Range header.
+     *
+     * @param header the value of the Range header, may be null
+     * @param length the length of the whole content
+     * @return the requested range, {@link #UNSATISFIABLE} if none of the requested bytes exist,
+     *         or null if the whole content should be returned
+     */
+    static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            if (dash == 0) {
+                // A suffix range, giving the number of bytes at the end of the content
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffixLength), length - 1);
+            }
+
+            long first = Long.parseLong(spec.substring(0, dash));
+            String lastString = spec.substring(dash + 1);
+            long last = lastString.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastString);
+            if (first < 0 || last < first) {
+                // Syntactically invalid, so the header must be ignored
+                return null;
+            }
+            if (first >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(first, Math.min(last, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the If-Range header of a request, which says that a Range should only be honoured if
+     * the content has not changed since the client read the first part of it.
+     *
+     * @param header the value of the If-Range header, may be null
+     * @param etag the current entity tag of the content, may be null
+     * @param lastModified the current last modified time of the content, may be null
+     * @return true if the Range header should be honoured
+     */
+    static boolean ifRangeMatches(String header, EntityTag etag, Date lastModified) {
+        if (header == null) {
+            return true;
+        }
+
+        header = header.trim();
+        if (header.startsWith("W/")) {
+            // Only a strong comparison is allowed
+            return false;
+        } else if (header.startsWith("\"")) {
+            return etag != null && header.equals("\"" + etag.getValue() + "\"");
+        } else {
+            if (lastModified == null) {
+                return false;
+            }
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return format.parse(header).getTime() == lastModified.getTime();
+            } catch (ParseException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the offset of the first byte in the range
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the offset of the last byte in the range
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes in the range
+     */
+    long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header for a response containing this range.
+     *
+     * @param totalLength the length of the whole content
+     */
+    String toContentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.lars.rest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Broadcasts the {@link AssetEvent}s for the changes made through this server to any number of
+ * subscribers.
+ * <p>
+ * The events are held in a fixed size ring buffer. Publishing an event never blocks and never
+ * waits for a subscriber: it claims the next id, writes the event into its slot, and tells each
+ * subscriber that there are events to read. Each subscriber reads from the buffer at its own pace,
+ * keeping track of the id of the next event it wants. A subscriber which falls so far behind that
+ * the events it has not read have been overwritten finds out when it next reads, and must then
+ * start again from the change feed, as some events have been lost.
+ * <p>
+ * Event ids start from the time the broadcaster was created, so that the ids used after the server
+ * is restarted do not repeat those used before, and a client which resumes with an id from before
+ * the restart is told that it has missed events.
+ */
+@ApplicationScoped
+public class ChangeBroadcaster {
+
+    /** The number of events held in the buffer, which must be a power of two */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Told when events are published. This is called on the thread publishing the event, so it
+     * must return quickly, without blocking.
+     */
+    interface Subscriber {
+        void eventsPublished();
+    }
+
+    private final AtomicReferenceArray<AssetEvent> events;
+    private final int mask;
+    private final long firstId;
+    private final AtomicLong nextId;
+    private final Set<Subscriber> subscribers = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+
+    public ChangeBroadcaster() {
+        this(DEFAULT_CAPACITY, System.currentTimeMillis());
+    }
+
+    ChangeBroadcaster(int capacity, long firstId) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        this.events = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.firstId = firstId;
+        this.nextId = new AtomicLong(firstId);
+    }
+
+    /**
+     * Publishes an event to every subscriber.
+     */
+    public AssetEvent publish(AssetEvent.Type type, String assetId, long changeSequence) {
+        long id = nextId.getAndIncrement();
+        AssetEvent event = new AssetEvent(id, type, assetId, changeSequence);
+        events.set(index(id), event);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.eventsPublished();
+        }
+        return event;
+    }
+
+    void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return the id the next event to be published will be given
+     */
+    long getNextId() {
+        return nextId.get();
+    }
+
+    /**
+     * Checks whether a subscriber can start reading from an event, which is true if the event has
+     * not been published yet or is still held in the buffer.
+     */
+    boolean canReadFrom(long id) {
+        long next = nextId.get();
+        return id >= firstId && id <= next && id >= next - events.length();
+    }
+
+    /**
+     * Reads events from the buffer, starting with the event with the given id.
+     * <p>
+     * Reading stops at the first event which has not been published yet. An event which has been
+     * given an id but not yet written to the buffer is treated in the same way, and is read by a
+     * later call once the publisher has told the subscribers about it.
+     *
+     * @param from the id of the first event to read
+     * @param result the list to add the events to
+     * @param max the largest number of events to add to the list
+     * @return the id of the next event to read, or -1 if the events from <code>from</code> onwards
+     *         have been overwritten before they could be read
+     */
+    long read(long from, List<AssetEvent> result, int max) {
+        long id = from;
+        int added = 0;
+        while (added < max && id < nextId.get()) {
+            AssetEvent event = events.get(index(id));
+            if (event == null || event.getId() < id) {
+                // Not written yet
+                break;
+            }
+            if (event.getId() > id) {
+                return -1;
+            }
+            result.add(event);
+            added++;
+            id++;
+        }
+        return id;
+    }
+
+    private int index(long id) {
+        return (int) (id & mask);
+    }
+}
@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Streams the changes made to assets through this server to clients as server-sent events, so
+ * that a client holding assets can find out when they change without polling.
+ * <p>
+ * Each event names the asset and gives the sequence number of the change in the change feed. A
+ * <code>reset</code> event means that the client may have missed events, for instance because it
+ * fell too far behind or the server was restarted, and should catch up by reading the change feed.
+ * Changes made through other servers sharing the same database are not streamed, so a client of a
+ * cluster should read the change feed now and then as well.
+ * <p>
+ * The request is handled asynchronously, so a subscriber does not hold a request thread while it
+ * waits for events. Events are written by a small pool of delivery threads, at most one at a time
+ * for each subscriber. A subscriber which is slow to read does not hold up the writes which
+ * publish events; it falls behind in the {@link ChangeBroadcaster}'s buffer and is sent a
+ * <code>reset</code> event and disconnected if it falls too far behind. A subscriber which stops
+ * reading altogether would hold a delivery thread in a blocked write, so a subscription whose
+ * write has not finished within {@link #WRITE_TIMEOUT} is closed. The heartbeats and that check
+ * are run by a thread of their own, so that they still run when every delivery thread is blocked.
+ */
+@SuppressWarnings("serial")
+@WebServlet(urlPatterns = "/ma/v1/events", asyncSupported = true)
+public class ChangeEventServlet extends HttpServlet {
+
+    private static final Logger logger = Logger.getLogger(ChangeEventServlet.class.getCanonicalName());
+
+    static final String EVENT_STREAM = "text/event-stream";
+
+    /** The largest number of clients which may subscribe at once */
+    static final int MAX_SUBSCRIBERS = 1000;
+
+    /**
+     * How long a subscription lasts before the server ends it. The client reconnects, resuming
+     * from the last event it received, so this only limits how long a dead connection can last.
+     */
+    private static final long SUBSCRIPTION_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    /** How often a comment is written to each subscriber when there are no events */
+    private static final long HEARTBEAT_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /** How long a client should wait before reconnecting */
+    private static final int RETRY_MILLIS = 5000;
+
+    /** How long a write to a subscriber may take before the subscription is closed */
+    static final long WRITE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    /** How often the subscriptions are checked for writes which have taken too long */
+    private static final long WRITE_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    private static final int DELIVERY_THREADS = 4;
+
+    private static final int MAX_EVENTS_PER_WRITE = 100;
+
+    private static final String RESET_EVENT = "event: reset\ndata: {}\n\n";
+
+    @Inject
+    @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "CDI normal scoped injected field")
+    private ChangeBroadcaster broadcaster;
+
+    private transient ScheduledExecutorService executor;
+
+    /** Runs the heartbeats and the write check, apart from the delivery threads */
+    private transient ScheduledExecutorService monitor;
+
+    private final Set<Subscription> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+
+    /**
+     * The number of subscriptions, including those still being set up. A slot is reserved here
+     * before a subscription is set up, and given up when it is closed.
+     */
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    /** Only changed by tests */
+    int maxSubscribers = MAX_SUBSCRIBERS;
+
+    @Override
+    public void init() throws ServletException {
+        executor = Executors.newScheduledThreadPool(DELIVERY_THREADS, new DaemonThreadFactory("LARS change events"));
+        monitor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("LARS change event monitor"));
+
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Subscription subscription : subscriptions) {
+                    subscription.heartbeat();
+                }
+            }
+        }, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeStalledSubscriptions(System.currentTimeMillis());
+            }
+        }, WRITE_CHECK_INTERVAL, WRITE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        monitor.shutdownNow();
+        executor.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many clients are subscribed to events");
+            return;
+        }
+
+        // Until the subscription is created, which gives up the slot when it is closed
+        boolean reserved = true;
+        try {
+            subscribe(req, resp);
+            reserved = false;
+        } finally {
+            if (reserved) {
+                subscriberCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void subscribe(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String lastEventId = req.getHeader("Last-Event-ID");
+        if (lastEventId == null) {
+            lastEventId = req.getParameter("lastEventId");
+        }
+
+        long from = broadcaster.getNextId();
+        boolean reset = false;
+        if (lastEventId != null) {
+            try {
+                long next = Long.parseLong(lastEventId.trim()) + 1;
+                if (broadcaster.canReadFrom(next)) {
+                    from = next;
+                } else {
+                    reset = true;
+                }
+            } catch (NumberFormatException e) {
+                reset = true;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Subscribing to events from " + from + (reset ? " after a reset" : ""));
+        }
+
+        resp.setContentType(EVENT_STREAM);
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext context = req.startAsync();
+        context.setTimeout(SUBSCRIPTION_TIMEOUT);
+        Subscription subscription = new Subscription(context, from);
+        context.addListener(subscription);
+        subscriptions.add(subscription);
+
+        try {
+            subscription.write("retry: " + RETRY_MILLIS + "\n\n" + (reset ? RESET_EVENT : ""));
+        } catch (IOException e) {
+            subscription.close();
+            throw e;
+        }
+
+        broadcaster.subscribe(subscription);
+        // Deliver anything published since the subscription started
+        subscription.eventsPublished();
+    }
+
+    /**
+     * Closes the subscriptions with a write which started more than {@link #WRITE_TIMEOUT} before
+     * the given time. Completing the request ends the connection, so the blocked write fails and
+     * the delivery thread is given back.
+     */
+    void closeStalledSubscriptions(long now) {
+        for (Subscription subscription : subscriptions) {
+            long started = subscription.writeStarted;
+            if (started != 0 && now - started > WRITE_TIMEOUT) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Dropping a subscriber which has not read a write for " + (now - started) + "ms");
+                }
+                subscription.close();
+            }
+        }
+    }
+
+    /** The number of subscriptions which hold a slot */
+    int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * A client's subscription to events, which writes the events published to the client.
+     */
+    private class Subscription implements ChangeBroadcaster.Subscriber, AsyncListener, Runnable {
+
+        private final AsyncContext context;
+
+        /** The id of the next event to write, only used by the delivery thread */
+        private long next;
+
+        /** True while the subscription is waiting for, or being run by, a delivery thread */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private volatile boolean heartbeatDue = false;
+
+        /** When the write in progress started, or 0 when there is no write in progress */
+        volatile long writeStarted = 0;
+
+        Subscription(AsyncContext context, long next) {
+            this.context = context;
+            this.next = next;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void eventsPublished() {
+            if (!closed.get() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // The servlet is being destroyed
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        void heartbeat() {
+            heartbeatDue = true;
+            eventsPublished();
+        }
+
+        /**
+         * Writes the events which have been published. If more are published while this runs, it
+         * runs again, so that there is never more than one thread writing to the client.
+         */
+        @Override
+        public void run() {
+            do {
+                deliver();
+                scheduled.set(false);
+            } while (!closed.get() && (next < broadcaster.getNextId() || heartbeatDue) && scheduled.compareAndSet(false, true));
+        }
+
+        private void deliver() {
+            try {
+                List<AssetEvent> events = new ArrayList<>();
+                boolean written = false;
+                do {
+                    events.clear();
+                    long read = broadcaster.read(next, events, MAX_EVENTS_PER_WRITE);
+                    if (read == -1) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("Dropping a subscriber which fell behind at event " + next);
+                        }
+                        write(RESET_EVENT);
+                        close();
+                        return;
+                    }
+
+                    StringBuilder data = new StringBuilder();
+                    for (AssetEvent event : events) {
+                        data.append(event.toEventStream());
+                    }
+                    if (data.length() > 0) {
+                        write(data.toString());
+                        written = true;
+                    }
+                    next = read;
+                } while (events.size() == MAX_EVENTS_PER_WRITE);
+
+                if (heartbeatDue) {
+                    heartbeatDue = false;
+                    if (!written) {
+                        write(":\n\n");
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client has gone away, or the request has already completed
+                close();
+            }
+        }
+
+        void write(String data) throws IOException {
+            writeStarted = System.currentTimeMillis();
+            try {
+                context.getResponse().getOutputStream().write(data.getBytes(StandardCharsets.UTF_8));
+                context.getResponse().flushBuffer();
+            } finally {
+                writeStarted = 0;
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                broadcaster.unsubscribe(this);
+                subscriptions.remove(this);
+                subscriberCount.decrementAndGet();
+                try {
+                    context.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+    }
+}
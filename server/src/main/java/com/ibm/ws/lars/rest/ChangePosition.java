@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+
+/**
+ * A client's position in the changes to the repository, which is sent to it as the
+ * <code>next</code> value of each page of changes and sent back to read the changes which follow.
+ * <p>
+ * Each change takes its number from the change sequence just before it is written, so for a short
+ * time a change with a lower number may not be visible yet while one with a higher number is. A
+ * gap in the sequence is only passed over once it is older than {@link #SETTLE_MILLIS}; numbers are
+ * also skipped for good, when a write fails or an asset changes again, so gaps are common. The
+ * servers sharing a store are assumed to keep their clocks in step to well within this time.
+ * <p>
+ * The position also holds the time it was issued, so that a client which has not read the changes
+ * for longer than deletions are kept can be told to start again.
+ */
+public final class ChangePosition {
+
+    /** How long a number taken from the change sequence may take to become visible */
+    public static final long SETTLE_MILLIS = 5000;
+
+    /** The position before any change */
+    public static final ChangePosition START = new ChangePosition(0, 0);
+
+    private final long sequence;
+    private final long issued;
+
+    private ChangePosition(long sequence, long issued) {
+        this.sequence = sequence;
+        this.issued = issued;
+    }
+
+    /**
+     * @param sequence the number of the last change the client has seen
+     * @param issued the time the position is given to the client
+     */
+    public static ChangePosition at(long sequence, long issued) {
+        return new ChangePosition(sequence, issued);
+    }
+
+    /**
+     * Parses a position which was previously returned by {@link #encode()}. A plain sequence
+     * number, as returned by older versions of the repository, is accepted but is treated as
+     * expired.
+     *
+     * @throws InvalidParameterException if the position is not valid
+     */
+    public static ChangePosition parse(String position) throws InvalidParameterException {
+        int dot = position.indexOf('.');
+        try {
+            long sequence = Long.parseLong(dot < 0 ? position : position.substring(0, dot));
+            long issued = dot < 0 ? -1 : Long.parseLong(position.substring(dot + 1));
+            if (sequence < 0 || (dot >= 0 && issued < 0)) {
+                throw new InvalidParameterException("since must be a value returned as next by a previous request");
+            }
+            return new ChangePosition(sequence, issued);
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException("since must be a value returned as next by a previous request");
+        }
+    }
+
+    /**
+     * @return the position as a string which can be sent to a client
+     */
+    public String encode() {
+        return sequence + "." + issued;
+    }
+
+    /**
+     * @return the number of the last change the client has seen
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns whether deletions which followed this position may no longer be recorded, so that a
+     * client holding it must read all the assets again.
+     *
+     * @param now the current time
+     */
+    public boolean isExpired(long now) {
+        return sequence > 0 && now - issued > AssetDeletion.RETENTION_MILLIS - SETTLE_MILLIS;
+    }
+}
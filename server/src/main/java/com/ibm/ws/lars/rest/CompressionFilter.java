@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses responses with gzip or deflate when the client says it accepts them.
+ * <p>
+ * Only successful, complete responses with a textual content type, such as JSON or the text of a
+ * license, are compressed. The first {@link #MIN_COMPRESSED_SIZE} bytes of a response are held
+ * back, and a response which is shorter than that is sent as it is, as compressing it would save
+ * very little. Once a response is known to be long enough, it is compressed as it is written, so
+ * that the client can start reading it straight away.
+ * <p>
+ * A compressed response is a different representation from the uncompressed one, so the encoding
+ * is added to its entity tag. The encoding is removed again from the tags in the conditional
+ * headers of a request, so that the resources only ever see the tags they created.
+ * <p>
+ * A response whose content type is not compressible is not held back, so event streams, which
+ * are never compressed, reach the client as each event is written. A request which is handled
+ * asynchronously is left to complete its response after the filter has returned.
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class CompressionFilter implements Filter {
+
+    static final int MIN_COMPRESSED_SIZE = 1024;
+
+    static final String GZIP = "gzip";
+
+    static final String DEFLATE = "deflate";
+
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList("application/json", "application/xml",
+                                                                                      "application/javascript"));
+
+    private static final List<String> CONDITIONAL_HEADERS = Arrays.asList("If-Match", "If-None-Match", "If-Range");
+
+    /** {@inheritDoc} */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /** {@inheritDoc} */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String encoding = selectEncoding(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || httpRequest.getHeader("Range") != null) {
+            // Byte ranges are always served from the uncompressed content
+            chain.doFilter(new TagDecodingRequest(httpRequest), response);
+            return;
+        }
+
+        CompressingResponse compressingResponse = new CompressingResponse((HttpServletResponse) response, encoding);
+        chain.doFilter(new TagDecodingRequest(httpRequest), compressingResponse);
+        if (!request.isAsyncStarted()) {
+            compressingResponse.finish();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void destroy() {}
+
+    /**
+     * Chooses the encoding to compress a response with from the value of the Accept-Encoding
+     * header, preferring gzip.
+     *
+     * @return {@link #GZIP}, {@link #DEFLATE} or null if the response should not be compressed
+     */
+    static String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            if (getQuality(parts) <= 0) {
+                continue;
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip") || coding.equals("*")) {
+                gzip = true;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    private static double getQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns true if responses of the given content type are worth compressing
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon == -1 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ENGLISH);
+        if (type.equals(ChangeEventServlet.EVENT_STREAM)) {
+            return false;
+        }
+        return type.startsWith("text/") || COMPRESSIBLE_TYPES.contains(type) || type.endsWith("+json") || type.endsWith("+xml");
+    }
+
+    /**
+     * Adds an encoding to an entity tag, such as <code>"abc"</code>, giving
+     * <code>"abc-gzip"</code>
+     */
+    static String encodeTag(String tag, String encoding) {
+        if (tag.endsWith("\"")) {
+            return tag.substring(0, tag.length() - 1) + "-" + encoding + "\"";
+        }
+        return tag;
+    }
+
+    /**
+     * Removes any encoding added by {@link #encodeTag(String, String)} from each of the entity tags
+     * in the value of a conditional request header.
+     */
+    static String decodeTags(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.replace("-" + GZIP + "\"", "\"").replace("-" + DEFLATE + "\"", "\"");
+    }
+
+    /**
+     * A request whose conditional headers have had any content encoding removed from their entity
+     * tags.
+     */
+    private static class TagDecodingRequest extends HttpServletRequestWrapper {
+
+        private TagDecodingRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        private static boolean isConditional(String name) {
+            for (String header : CONDITIONAL_HEADERS) {
+                if (header.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            String value = super.getHeader(name);
+            return isConditional(name) ? decodeTags(value) : value;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            Enumeration<String> values = super.getHeaders(name);
+            if (!isConditional(name) || values == null) {
+                return values;
+            }
+            List<String> decoded = new ArrayList<>();
+            while (values.hasMoreElements()) {
+                decoded.add(decodeTags(values.nextElement()));
+            }
+            return Collections.enumeration(decoded);
+        }
+    }
+
+    /**
+     * A response which decides whether to compress its body once the first
+     * {@link CompressionFilter#MIN_COMPRESSED_SIZE} bytes have been written, or once it is finished
+     * if it is shorter than that.
+     * <p>
+     * Any content length set by the resource is held back until the decision is made, as it does
+     * not apply to a compressed body.
+     */
+    static class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final String encoding;
+
+        /** The start of the body, held back until the response is known to be long enough */
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(MIN_COMPRESSED_SIZE);
+
+        /** Where the body is written once the decision has been made */
+        private OutputStream out;
+
+        private String contentLength;
+
+        private boolean compressing;
+
+        private ServletOutputStream outputStream;
+
+        private PrintWriter writer;
+
+        private boolean finished;
+
+        CompressingResponse(HttpServletResponse response, String encoding) {
+            super(response);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setHeader("Content-Length", Integer.toString(len));
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!holdContentLength(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!holdContentLength(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        /**
+         * @return true if the header is a content length which should not be passed on yet, or
+         *         at all if the body is being compressed
+         */
+        private boolean holdContentLength(String name, String value) {
+            if (!"Content-Length".equalsIgnoreCase(name)) {
+                return false;
+            }
+            if (buffer != null) {
+                contentLength = value;
+                return true;
+            }
+            return compressing;
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            setHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            addHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter has already been called");
+            }
+            if (outputStream == null) {
+                outputStream = createOutputStream();
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (outputStream != null) {
+                throw new IllegalStateException("getOutputStream has already been called");
+            }
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(createOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        private ServletOutputStream createOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    CompressingResponse.this.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    CompressingResponse.this.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            };
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (buffer != null && !isCompressible(getContentType())) {
+                start(false);
+            }
+            flush();
+            // Committing the response before the decision is made would send the headers without
+            // the Content-Encoding, which is only set once the body is known to be long enough.
+            // An offloaded response is flushed by the runtime on the container's thread before
+            // any of its body has been written.
+            if (buffer == null) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (buffer != null) {
+                buffer.reset();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (buffer != null) {
+                buffer.reset();
+                contentLength = null;
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (buffer != null && !isCompressible(getContentType())) {
+                // There is no need to hold back a body which will not be compressed
+                start(false);
+            }
+            if (buffer != null) {
+                buffer.write(b, off, len);
+                if (buffer.size() >= MIN_COMPRESSED_SIZE) {
+                    start(true);
+                }
+            } else if (out != null) {
+                out.write(b, off, len);
+            }
+        }
+
+        private void flush() throws IOException {
+            // Until the decision is made, at most a small amount of the body is held back
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        /**
+         * Decides whether to compress the body, sets the headers to match and writes out the part
+         * of the body which was held back.
+         *
+         * @param longEnough true if the body is long enough to be worth compressing
+         */
+        private void start(boolean longEnough) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            boolean compressible = response.getStatus() == HttpServletResponse.SC_OK && isCompressible(response.getContentType())
+                                   && !response.containsHeader("Content-Encoding");
+            if (compressible) {
+                response.addHeader("Vary", "Accept-Encoding");
+            }
+
+            if (compressible && longEnough) {
+                compressing = true;
+                response.setHeader("Content-Encoding", encoding);
+                String etag = response.getHeader("ETag");
+                if (etag != null) {
+                    response.setHeader("ETag", encodeTag(etag, encoding));
+                }
+                if (response.containsHeader("Accept-Ranges")) {
+                    response.setHeader("Accept-Ranges", "none");
+                }
+                OutputStream stream = response.getOutputStream();
+                out = GZIP.equals(encoding) ? new GZIPOutputStream(stream, 8192, true) : new DeflaterOutputStream(stream, true);
+            } else {
+                if (contentLength != null) {
+                    response.setHeader("Content-Length", contentLength);
+                }
+                out = buffer.size() > 0 || !finished ? response.getOutputStream() : null;
+            }
+
+            if (out != null) {
+                buffer.writeTo(out);
+            }
+            buffer = null;
+        }
+
+        /**
+         * Writes out anything which is still held back and completes the compressed body. This is
+         * called when the resource closes the output stream, and again once the request has been
+         * handled.
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+
+            if (writer != null) {
+                writer.flush();
+            }
+            if (buffer != null) {
+                start(false);
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+}
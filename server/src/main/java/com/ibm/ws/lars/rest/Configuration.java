@@ -16,19 +16,58 @@
 
 package com.ibm.ws.lars.rest;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.ws.rs.core.UriInfo;
 
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+
 /**
  * Holds configuration options for the application
  */
 @ApplicationScoped
 public class Configuration {
 
+    private static final Logger logger = Logger.getLogger(Configuration.class.getCanonicalName());
+
+    /** The value of lars/contentStore which stores attachment content in GridFS */
+    public static final String GRIDFS_CONTENT_STORE = "gridfs";
+
+    /** The value of lars/contentStore which stores attachment content in lars/contentStoreDirectory */
+    public static final String FILESYSTEM_CONTENT_STORE = "filesystem";
+
+    /** How long a request takes before it is logged as slow, unless the user configures it */
+    static final long DEFAULT_SLOW_REQUEST_THRESHOLD = 1000;
+
+    /** How many minutes apart sweeps for orphaned attachments and content start, unless the user configures it */
+    static final long DEFAULT_ORPHAN_SWEEP_INTERVAL = 24 * 60;
+
+    /** How many minutes old orphaned data must be before it is removed, unless the user configures it */
+    static final long DEFAULT_ORPHAN_GRACE_PERIOD = 24 * 60;
+
     private final String urlBase;
 
+    private final long assetCacheSize;
+
+    private final long queryCacheSize;
+
+    private final String contentStore;
+
+    private final String contentStoreDirectory;
+
+    private final List<String> indexedSortFields;
+
+    private final long slowRequestThreshold;
+
+    private final long orphanSweepInterval;
+
+    private final long orphanGracePeriod;
+
     public Configuration() {
         String urlBase = null;
         try {
@@ -39,6 +78,27 @@ public class Configuration {
         }
 
         this.urlBase = urlBase;
+        this.assetCacheSize = lookupSizeInMB("lars/assetCacheSizeMB");
+        this.queryCacheSize = lookupSizeInMB("lars/queryCacheSizeMB");
+        this.contentStoreDirectory = lookupString("lars/contentStoreDirectory");
+
+        String contentStore = lookupString("lars/contentStore");
+        if (contentStore == null) {
+            contentStore = GRIDFS_CONTENT_STORE;
+        } else if (!contentStore.equals(GRIDFS_CONTENT_STORE) && !contentStore.equals(FILESYSTEM_CONTENT_STORE)) {
+            logger.warning("The value of lars/contentStore must be " + GRIDFS_CONTENT_STORE + " or " + FILESYSTEM_CONTENT_STORE
+                           + " and will be ignored: " + contentStore);
+            contentStore = GRIDFS_CONTENT_STORE;
+        } else if (contentStore.equals(FILESYSTEM_CONTENT_STORE) && contentStoreDirectory == null) {
+            logger.warning("lars/contentStore is " + FILESYSTEM_CONTENT_STORE + " but lars/contentStoreDirectory is not set, "
+                           + "so attachment content will be stored in " + GRIDFS_CONTENT_STORE);
+            contentStore = GRIDFS_CONTENT_STORE;
+        }
+        this.contentStore = contentStore;
+        this.indexedSortFields = parseFieldList("lars/indexedSortFields", lookupString("lars/indexedSortFields"));
+        this.slowRequestThreshold = lookupMillis("lars/slowRequestThresholdMillis", DEFAULT_SLOW_REQUEST_THRESHOLD);
+        this.orphanSweepInterval = lookupMinutes("lars/orphanSweepIntervalMinutes", DEFAULT_ORPHAN_SWEEP_INTERVAL);
+        this.orphanGracePeriod = lookupMinutes("lars/orphanGracePeriodMinutes", DEFAULT_ORPHAN_GRACE_PERIOD);
     }
 
     /**
@@ -60,6 +120,200 @@ public class Configuration {
         }
     }
 
+    /**
+     * Returns the maximum size of the asset cache in bytes, or zero if assets should not be cached.
+     * <p>
+     * The cache is disabled unless the user has configured a size with lars/assetCacheSizeMB.
+     */
+    public long getAssetCacheSize() {
+        return assetCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the query result cache in bytes, or zero if query results should
+     * not be cached.
+     * <p>
+     * The cache is disabled unless the user has configured a size with lars/queryCacheSizeMB.
+     */
+    public long getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    /**
+     * Returns where new attachment content is stored, either {@link #GRIDFS_CONTENT_STORE} or
+     * {@link #FILESYSTEM_CONTENT_STORE}.
+     * <p>
+     * Content is stored in GridFS unless the user has set lars/contentStore to filesystem and
+     * configured a directory with lars/contentStoreDirectory.
+     */
+    public String getContentStore() {
+        return contentStore;
+    }
+
+    /**
+     * Returns the directory which attachment content is stored in when the filesystem content
+     * store is used, or null if the user has not configured one.
+     * <p>
+     * Content which is already in this directory can still be read when new content is stored in
+     * GridFS.
+     */
+    public String getContentStoreDirectory() {
+        return contentStoreDirectory;
+    }
+
+    /**
+     * Returns the fields, other than those which are always indexed, which the assets should be
+     * indexed on so that they can be sorted on efficiently. These are configured as a comma
+     * separated list with lars/indexedSortFields.
+     */
+    public List<String> getIndexedSortFields() {
+        return indexedSortFields;
+    }
+
+    /**
+     * Returns how long, in milliseconds, a request has to take before it is recorded in the log of
+     * slow requests, or zero if slow requests should not be recorded.
+     * <p>
+     * The threshold is one second unless the user has configured it with
+     * lars/slowRequestThresholdMillis.
+     */
+    public long getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    /**
+     * Returns how many minutes apart the sweeps for orphaned attachments and attachment content
+     * start, or zero if the sweeps should only be run when an administrator asks for one.
+     * <p>
+     * A sweep starts once a day unless the user has configured it with
+     * lars/orphanSweepIntervalMinutes.
+     */
+    public long getOrphanSweepInterval() {
+        return orphanSweepInterval;
+    }
+
+    /**
+     * Returns how many minutes old an orphaned attachment or piece of content must be before a
+     * sweep removes it, which should be longer than any upload takes.
+     * <p>
+     * The grace period is one day unless the user has configured it with
+     * lars/orphanGracePeriodMinutes.
+     */
+    public long getOrphanGracePeriod() {
+        return orphanGracePeriod;
+    }
+
+    /**
+     * Parses a comma separated list of asset field names.
+     *
+     * @param jndiName the name the list was looked up with, to use in any warning
+     * @param value the list, may be null
+     * @return the field names, or an empty list if the setting is not present or not valid
+     */
+    private static List<String> parseFieldList(String jndiName, String value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return Collections.unmodifiableList(FieldProjection.parse(value));
+        } catch (InvalidParameterException e) {
+            logger.warning("The value of " + jndiName + " is not a valid list of field names and will be ignored: " + value);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Look up an optional string from JNDI.
+     *
+     * @param jndiName the name to look up
+     * @return the trimmed value, or null if the setting is not present or is empty
+     */
+    private static String lookupString(String jndiName) {
+        Object value;
+        try {
+            value = new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            return null;
+        }
+
+        String string = String.valueOf(value).trim();
+        return string.isEmpty() ? null : string;
+    }
+
+    /**
+     * Look up an optional size, given in megabytes, from JNDI.
+     * <p>
+     * Depending on how it is written in the server.xml, the value of a jndiEntry may be bound as a
+     * String or as a Number, so either is accepted.
+     *
+     * @param jndiName the name to look up
+     * @return the size in bytes, or zero if the setting is not present or not valid
+     */
+    private static long lookupSizeInMB(String jndiName) {
+        Object value;
+        try {
+            value = new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            // All size settings are optional
+            return 0;
+        }
+
+        try {
+            long sizeInMB = Long.parseLong(String.valueOf(value).trim());
+            return Math.max(sizeInMB, 0) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            logger.warning("The value of " + jndiName + " is not a whole number of megabytes and will be ignored: " + value);
+            return 0;
+        }
+    }
+
+    /**
+     * Look up an optional length of time, given in milliseconds, from JNDI.
+     *
+     * @param jndiName the name to look up
+     * @param defaultValue the value to use if the setting is not present or not valid
+     * @return the time in milliseconds, or zero if the setting is zero or negative
+     */
+    private static long lookupMillis(String jndiName, long defaultValue) {
+        return lookupWholeNumber(jndiName, "milliseconds", defaultValue);
+    }
+
+    /**
+     * Look up an optional length of time, given in minutes, from JNDI.
+     *
+     * @param jndiName the name to look up
+     * @param defaultValue the value to use if the setting is not present or not valid
+     * @return the time in minutes, or zero if the setting is zero or negative
+     */
+    private static long lookupMinutes(String jndiName, long defaultValue) {
+        return lookupWholeNumber(jndiName, "minutes", defaultValue);
+    }
+
+    /**
+     * Look up an optional whole number of some unit from JNDI.
+     *
+     * @param jndiName the name to look up
+     * @param units the name of the unit, to use in any warning
+     * @param defaultValue the value to use if the setting is not present or not valid
+     * @return the value, or zero if the setting is zero or negative
+     */
+    private static long lookupWholeNumber(String jndiName, String units, long defaultValue) {
+        Object value;
+        try {
+            value = new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            return defaultValue;
+        }
+
+        try {
+            return Math.max(Long.parseLong(String.valueOf(value).trim()), 0);
+        } catch (NumberFormatException e) {
+            logger.warning("The value of " + jndiName + " is not a whole number of " + units + " and will be ignored: " + value);
+            return defaultValue;
+        }
+    }
+
     /**
      * Given a URLBase that the user has provided, compute the corresponding BaseUri for the JAX-RS
      * application.
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+import javax.ws.rs.core.EntityTag;
+
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.Attachment;
+
+/**
+ * Computes the strong entity tags which the REST resources use to answer conditional requests.
+ * <p>
+ * Each tag is computed from values which change whenever the representation changes, so that a
+ * client's cached copy can be validated without the server having to build the response body.
+ */
+final class EntityTags {
+
+    private EntityTags() {
+        // static methods only
+    }
+
+    /**
+     * Computes the tag for a single asset, from its id, state and last update time, together with
+     * the id, upload time and URL of each of its attachments.
+     * <p>
+     * The attachments are included because they are part of the asset's representation but
+     * adding or removing one does not change the asset's last update time.
+     */
+    static EntityTag forAsset(Asset asset) {
+        return forAsset(asset, null);
+    }
+
+    /**
+     * Computes the tag for some of the fields of a single asset. The tag is computed as in
+     * {@link #forAsset(Asset)}, together with the names of the fields, so that each selection of
+     * fields from the same asset has a different tag.
+     *
+     * @param asset the whole asset
+     * @param fields the fields which are returned, or null if the whole asset is returned
+     */
+    static EntityTag forAsset(Asset asset, Collection<String> fields) {
+        MessageDigest digest = createDigest();
+        update(digest, asset.get_id());
+        update(digest, asset.getLastUpdatedOn());
+        update(digest, asset.getState() == null ? null : asset.getState().getValue());
+        for (Attachment attachment : asset.getAttachments()) {
+            update(digest, attachment.get_id());
+            update(digest, attachment.getUploadOn());
+            update(digest, attachment.getUrl());
+        }
+        if (fields != null) {
+            // Separate the fields from the attachments, in case there are none
+            update(digest, "fields");
+            for (String field : fields) {
+                update(digest, field);
+            }
+        }
+        return new EntityTag(new BigInteger(1, digest.digest()).toString(16));
+    }
+
+    /**
+     * Computes the tag for a list of assets, or any other result of a query, read while the
+     * repository was at the given generation.
+     */
+    static EntityTag forQuery(long generation) {
+        return new EntityTag("g" + Long.toHexString(generation));
+    }
+
+    /**
+     * Computes the tag for the content of an attachment from the MD5 digest of the content.
+     *
+     * @return the tag, or null if the digest is not known
+     */
+    static EntityTag forAttachmentContent(String md5) {
+        if (md5 == null) {
+            return null;
+        }
+        return new EntityTag(md5);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("This should never happen.", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // Separate each value so that the boundaries between them are part of the digest
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+import com.ibm.ws.lars.rest.model.RepositoryObject;
+
+/**
+ * Selects which fields of an asset are returned, given as a comma separated list of field names
+ * in the <code>fields</code> query parameter.
+ * <p>
+ * A field name may refer to a field inside an object using dots, such as
+ * <code>wlpInformation.provideFeature</code>. The id is always returned. This follows the rules
+ * of a MongoDB inclusion projection, so that a list of fields can either be sent to the database
+ * or applied to an asset which has already been read.
+ */
+final class FieldProjection {
+
+    private FieldProjection() {
+        // static methods only
+    }
+
+    /**
+     * Parses the value of the fields parameter.
+     *
+     * @param fieldsParam the parameter value, may be null
+     * @return the field names in the form returned by {@link #normalize(Collection)}, or null if
+     *         the parameter was not given and all fields should be returned
+     * @throws InvalidParameterException if any of the field names are not valid
+     */
+    static List<String> parse(String fieldsParam) throws InvalidParameterException {
+        if (fieldsParam == null) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>();
+        // -1 keeps any trailing empty names, so that they are rejected
+        for (String field : fieldsParam.split(",", -1)) {
+            field = field.trim();
+            checkFieldName(field);
+            fields.add(field);
+        }
+        return normalize(fields);
+    }
+
+    /**
+     * Checks that a name given in the fields parameter can be used as the name of a field in a
+     * database query.
+     *
+     * @throws InvalidParameterException if the name is not valid
+     */
+    static void checkFieldName(String field) throws InvalidParameterException {
+        if (field.isEmpty() || field.startsWith("$") || field.startsWith(".") || field.endsWith(".") || field.contains("..")) {
+            throw new InvalidParameterException("Invalid field name in fields parameter: '" + field + "'");
+        }
+    }
+
+    /**
+     * Sorts a list of field names and removes any which are repeated or which are inside another
+     * field in the list, as the database rejects a projection where one field contains another.
+     */
+    static List<String> normalize(Collection<String> fields) {
+        List<String> result = new ArrayList<>();
+        // Sorting puts each field before any fields inside it
+        for (String field : new TreeSet<>(fields)) {
+            if (!isCovered(field, result)) {
+                result.add(field);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static boolean isCovered(String field, List<String> fields) {
+        for (String other : fields) {
+            if (field.equals(other) || field.startsWith(other + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the given fields of an asset, or any other object read from the database, into a
+     * new map. Values are not copied, so they are shared with the original object.
+     * <p>
+     * As in the database, a field inside an array of objects selects that field from each object
+     * in the array, and an object which doesn't contain the field is returned empty.
+     *
+     * @param properties the properties of the object
+     * @param fields the fields to include, as returned by {@link #normalize(Collection)}
+     * @return a new map of the selected properties
+     */
+    static Map<String, Object> project(Map<String, Object> properties, Collection<String> fields) {
+        Map<String, Object> result = new HashMap<>();
+        if (properties.containsKey(RepositoryObject._ID)) {
+            result.put(RepositoryObject._ID, properties.get(RepositoryObject._ID));
+        }
+        for (String field : fields) {
+            copyField(properties, result, field.split("\\."), 0);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void copyField(Map<String, Object> source, Map<String, Object> target, String[] path, int index) {
+        String key = path[index];
+        if (!source.containsKey(key)) {
+            return;
+        }
+
+        Object value = source.get(key);
+        if (index == path.length - 1) {
+            target.put(key, value);
+        } else if (value instanceof Map) {
+            Map<String, Object> child = (Map<String, Object>) target.get(key);
+            if (child == null) {
+                child = new HashMap<>();
+                target.put(key, child);
+            }
+            copyField((Map<String, Object>) value, child, path, index + 1);
+        } else if (value instanceof List) {
+            // Only the objects in the array are kept, and each one holds the fields selected from
+            // the object at the same position in the original array
+            List<Map<String, Object>> children = (List<Map<String, Object>>) target.get(key);
+            if (children == null) {
+                children = new ArrayList<>();
+                for (Object element : (List<Object>) value) {
+                    if (element instanceof Map) {
+                        children.add(new HashMap<String, Object>());
+                    }
+                }
+                target.put(key, children);
+            }
+            int i = 0;
+            for (Object element : (List<Object>) value) {
+                if (element instanceof Map) {
+                    copyField((Map<String, Object>) element, children.get(i++), path, index + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import com.ibm.ws.lars.rest.exceptions.RepositoryException;
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFSDBFile;
+
+/**
+ * Keeps attachment content as files in a directory on the local filesystem.
+ * <p>
+ * Each piece of content is kept in a file named after its id, two directories down, so that no
+ * single directory holds too many files. The directories are named after the last four hex digits
+ * of the id, which come from the counter part of the ObjectId and so are spread evenly.
+ * <p>
+ * The content is written to a temporary file, which is forced to disk and then renamed. The
+ * metadata is only added to the GridFS files collection after that, so a document in the files
+ * collection always refers to a complete file.
+ */
+class FileSystemContentStore implements AttachmentContentStore {
+
+    private static final Logger logger = Logger.getLogger(FileSystemContentStore.class.getCanonicalName());
+
+    /** The value of the {@link AttachmentContentStore#STORE} field for content held in this store */
+    static final String NAME = "filesystem";
+
+    /** The size of the buffer used to write content */
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final DBCollection filesCollection;
+
+    /**
+     * @param directory the directory to keep the content in, which is created if it does not exist
+     * @param filesCollection the GridFS files collection, which holds the metadata of the content
+     */
+    FileSystemContentStore(File directory, DBCollection filesCollection) {
+        this.directory = directory;
+        this.filesCollection = filesCollection;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentMetadata createContent(String contentType, InputStream contentStream) {
+        ObjectId id = new ObjectId();
+        String filename = id.toString();
+        StoredFile stored = writeFile(filename, contentStream);
+
+        DBObject metadata = new BasicDBObject("_id", id)
+                        .append("filename", filename)
+                        .append("length", stored.length)
+                        .append("md5", stored.md5)
+                        .append("uploadDate", new Date())
+                        .append("contentType", contentType)
+                        .append(STORE, NAME);
+        try {
+            filesCollection.insert(metadata);
+        } catch (RuntimeException e) {
+            deleteFile(filename);
+            throw e;
+        }
+
+        return new AttachmentContentMetadata(filename, stored.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentResponse retrieveContent(GridFSDBFile file) {
+        File contentFile = getFile(file.getFilename());
+        FileInputStream contentStream;
+        try {
+            contentStream = new FileInputStream(contentFile);
+        } catch (FileNotFoundException e) {
+            throw new RepositoryException("The file holding attachment content " + file.getFilename() + " is missing: " + contentFile, e);
+        }
+        return new AttachmentContentResponse(contentStream, file.getContentType(), file.getMD5(), file.getUploadDate(), file.getLength(), -1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeContent(GridFSDBFile file) {
+        // Remove the metadata first, so that it never refers to a missing file
+        filesCollection.remove(new BasicDBObject("_id", file.getId()));
+        deleteFile(file.getFilename());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeContents(List<GridFSDBFile> files) {
+        List<Object> ids = new ArrayList<>();
+        for (GridFSDBFile file : files) {
+            ids.add(file.getId());
+        }
+        filesCollection.remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+        for (GridFSDBFile file : files) {
+            deleteFile(file.getFilename());
+        }
+    }
+
+    /**
+     * Copies content from GridFS into this store. Once the content has been written, the metadata
+     * of the GridFS file is updated to say that the content is in this store, unless the content
+     * has been deleted in the meantime. The caller is responsible for removing the GridFS chunks.
+     *
+     * @param file the GridFS file to copy
+     * @return true if the content was copied, false if it was deleted while it was being copied
+     */
+    boolean copyFromGridFS(GridFSDBFile file) {
+        String filename = file.getFilename();
+        StoredFile stored = writeFile(filename, file.getInputStream());
+        if (stored.length != file.getLength() || (file.getMD5() != null && !file.getMD5().equals(stored.md5))) {
+            deleteFile(filename);
+            throw new RepositoryException("The copy of attachment content " + filename + " does not match the content in GridFS");
+        }
+
+        DBObject query = new BasicDBObject("_id", file.getId()).append(STORE, new BasicDBObject("$exists", false));
+        DBObject update = new BasicDBObject("$set", new BasicDBObject(STORE, NAME));
+        if (filesCollection.findAndModify(query, update) == null) {
+            deleteFile(filename);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the file which holds, or will hold, the content with the given id
+     */
+    File getFile(String filename) {
+        int length = filename.length();
+        if (length < 4) {
+            return new File(directory, filename);
+        }
+        File parent = new File(new File(directory, filename.substring(length - 2)), filename.substring(length - 4, length - 2));
+        return new File(parent, filename);
+    }
+
+    /**
+     * Writes content to the file for the given id, replacing anything already there.
+     * <p>
+     * The content is written to a temporary file and forced to disk before being renamed, so that
+     * the file only ever holds complete content. The directory which holds the file, and any
+     * directory created for it, are then forced to disk too, so that once this returns, and the
+     * metadata which refers to the file is committed, the file is still there after a crash.
+     */
+    StoredFile writeFile(String filename, InputStream contentStream) {
+        File target = getFile(filename);
+        File temp = new File(target.getParentFile(), filename + TEMP_SUFFIX);
+        MessageDigest md5 = createMD5Digest();
+        long length = 0;
+        try {
+            createDirectories(target.getParentFile());
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int read;
+                while ((read = contentStream.read(buffer)) != -1) {
+                    md5.update(buffer, 0, read);
+                    byteBuffer.clear().limit(read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    length += read;
+                }
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory(target.getParentFile());
+        } catch (IOException e) {
+            temp.delete();
+            throw new RepositoryException("Attachment content could not be written to " + target, e);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("writeFile: wrote " + length + " bytes to " + target);
+        }
+        byte[] digest = md5.digest();
+        return new StoredFile(length, String.format("%0" + (digest.length * 2) + "x", new BigInteger(1, digest)));
+    }
+
+    /**
+     * Creates a directory and any of its parents which don't exist, forcing the entry for each new
+     * directory to disk.
+     */
+    private static void createDirectories(File dir) throws IOException {
+        if (dir.isDirectory()) {
+            return;
+        }
+        File parent = dir.getParentFile();
+        if (parent != null) {
+            createDirectories(parent);
+        }
+        Files.createDirectories(dir.toPath());
+        if (parent != null) {
+            forceDirectory(parent);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so that files created or renamed in it survive a
+     * crash. Some platforms, such as Windows, can't open a directory, and don't need this, so a
+     * directory which can't be opened is left alone.
+     */
+    private static void forceDirectory(File dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "The directory " + dir + " could not be opened to force it to disk", e);
+            }
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+    /**
+     * Deletes the file for the given id, if it exists
+     */
+    void deleteFile(String filename) {
+        File file = getFile(filename);
+        if (!file.delete() && file.exists()) {
+            logger.warning("The file holding attachment content " + filename + " could not be deleted: " + file);
+        }
+    }
+
+    private static MessageDigest createMD5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("This should never happen.", e);
+        }
+    }
+
+    /**
+     * The length and hex encoded MD5 digest of content which has been written to a file
+     */
+    static class StoredFile {
+        final long length;
+        final String md5;
+
+        StoredFile(long length, String md5) {
+            this.length = length;
+            this.md5 = md5;
+        }
+    }
+}
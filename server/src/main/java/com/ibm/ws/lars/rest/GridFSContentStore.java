@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+/**
+ * Keeps attachment content in GridFS, as chunks in the same database as the assets.
+ */
+class GridFSContentStore implements AttachmentContentStore {
+
+    private final GridFS gridFS;
+
+    GridFSContentStore(GridFS gridFS) {
+        this.gridFS = gridFS;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentMetadata createContent(String contentType, InputStream contentStream) {
+        // Do not specify a bucket (so the data will be stored in fs.files and fs.chunks)
+        GridFSInputFile gfsFile = gridFS.createFile(contentStream);
+        ObjectId id = new ObjectId();
+        gfsFile.setContentType(contentType);
+        gfsFile.setId(id);
+        String filename = id.toString();
+        gfsFile.setFilename(filename);
+        gfsFile.save();
+
+        return new AttachmentContentMetadata(gfsFile.getFilename(), gfsFile.getLength());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentResponse retrieveContent(GridFSDBFile file) {
+        return new AttachmentContentResponse(file.getInputStream(), file.getContentType(), file.getMD5(), file.getUploadDate(), file.getLength(),
+                                             (int) file.getChunkSize());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeContent(GridFSDBFile file) {
+        gridFS.remove(file.getFilename());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeContents(List<GridFSDBFile> files) {
+        List<Object> ids = new ArrayList<>();
+        for (GridFSDBFile file : files) {
+            ids.add(file.getId());
+        }
+        // Remove the metadata first, so that it never refers to missing chunks
+        DBObject in = new BasicDBObject("$in", ids);
+        gridFS.getDB().getCollection(gridFS.getBucketName() + ".files").remove(new BasicDBObject("_id", in));
+        gridFS.getDB().getCollection(gridFS.getBucketName() + ".chunks").remove(new BasicDBObject("files_id", in));
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.Map;
+
+/**
+ * A piece of work which takes longer than a request should stay open for, such as deleting a large
+ * number of assets, which is run in the background by the {@link JobManager}.
+ */
+public interface Job {
+
+    /**
+     * Returns the kind of job, such as <code>deleteAssets</code>, which is shown in its status
+     */
+    String getType();
+
+    /**
+     * Does the work of the job. A job which takes a long time should report its progress through
+     * the context, and should stop early, returning what it has done so far, once the context says
+     * that the job has been cancelled.
+     *
+     * @param context the context of this run of the job
+     * @return the result of the job, ready to be written as JSON, or null if it has none
+     * @throws Exception if the job fails
+     */
+    Map<String, Object> run(JobContext context) throws Exception;
+}
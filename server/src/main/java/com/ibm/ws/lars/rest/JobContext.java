@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+/**
+ * Lets a running {@link Job} report its progress and find out whether it has been cancelled.
+ * <p>
+ * The progress is saved in the job's record at most once every
+ * {@link JobManager#PROGRESS_INTERVAL_MILLIS}, and each save also reads whether the job has been
+ * cancelled, so a job can be cancelled through any server which shares the database. The context
+ * must only be used by the thread which runs the job.
+ */
+public class JobContext {
+
+    private final JobManager manager;
+    private final String jobId;
+
+    private volatile boolean cancelled;
+
+    private long done;
+    private long total = -1;
+    private long lastSaved = System.currentTimeMillis();
+
+    JobContext(JobManager manager, String jobId) {
+        this.manager = manager;
+        this.jobId = jobId;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Reports how much of its work the job has done.
+     *
+     * @param done the number of items which have been done
+     * @param total the number of items there are to do, or -1 if it is not known
+     */
+    public void setProgress(long done, long total) {
+        this.done = done;
+        this.total = total;
+        saveIfDue();
+    }
+
+    /**
+     * Returns true if the job has been cancelled, in which case it should stop as soon as it can.
+     */
+    public boolean isCancelled() {
+        saveIfDue();
+        return cancelled;
+    }
+
+    /**
+     * Marks the job as cancelled, from the thread which handles the request to cancel it
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void saveIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastSaved >= JobManager.PROGRESS_INTERVAL_MILLIS) {
+            lastSaved = now;
+            if (manager.saveProgress(jobId, done, total)) {
+                cancelled = true;
+            }
+        }
+    }
+}
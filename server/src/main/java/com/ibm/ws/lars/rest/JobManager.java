@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
+
+/**
+ * Runs {@link Job}s, which take longer than a request should stay open for, in the background, so
+ * that the request which starts a job can respond straight away with a link to the job's status.
+ * <p>
+ * Jobs are run by the pool of background threads held by {@link RequestExecutors}, which only
+ * runs a few at once and refuses new jobs once enough are waiting. The record of each job, with its
+ * state, progress and result, is kept in the database, so any server which shares the database can
+ * report on a job or cancel it. The database removes the record a week after the job finishes.
+ * <p>
+ * A job goes from {@link #QUEUED} to {@link #RUNNING}, and then to {@link #SUCCEEDED},
+ * {@link #FAILED} or {@link #CANCELLED}. A job which is cancelled while it is queued never runs. A
+ * running job is asked to stop through its {@link JobContext}, and is cancelled once it has
+ * stopped.
+ * <p>
+ * Each record names the server which runs the job, and the job's lastUpdated field is a heartbeat,
+ * saved every {@link #PROGRESS_INTERVAL_MILLIS} while the server holds the job, whether or not the
+ * job reports any progress. A server which crashes can't record that its jobs have failed, so a
+ * job which is still queued or running when its heartbeat is older than
+ * {@link #STALE_AFTER_MILLIS}, or which is not running on the server that owns it, is failed when
+ * its status is read, and when a server starts. The failed job then has a finish time, so the
+ * database removes its record like any other.
+ */
+@ApplicationScoped
+public class JobManager {
+
+    /** The state of a job which is waiting for a thread */
+    static final String QUEUED = "queued";
+
+    /** The state of a job which is running */
+    static final String RUNNING = "running";
+
+    /** The state of a job which finished successfully */
+    static final String SUCCEEDED = "succeeded";
+
+    /** The state of a job which failed */
+    static final String FAILED = "failed";
+
+    /** The state of a job which was cancelled */
+    static final String CANCELLED = "cancelled";
+
+    /** The field of a job's record which holds its state */
+    static final String STATE = "state";
+
+    /** The field of a job's record which holds when it finished */
+    static final String FINISHED = "finished";
+
+    private static final String ID = "_id";
+    private static final String TYPE = "type";
+    private static final String CREATED = "created";
+    private static final String STARTED = "started";
+    private static final String LAST_UPDATED = "lastUpdated";
+    private static final String PROGRESS = "progress";
+    private static final String RESULT = "result";
+    private static final String MESSAGE = "message";
+    private static final String CANCEL_REQUESTED = "cancelRequested";
+    private static final String OWNER = "owner";
+
+    /**
+     * How often a running job saves its progress, and checks whether it has been cancelled, and
+     * how often the heartbeat of each job held by this server is saved
+     */
+    static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    /**
+     * How long a queued or running job's heartbeat can go unsaved before the job is taken to have
+     * been left behind by a server which stopped. This is well above the heartbeat interval, so
+     * that a long pause in a live server, or a difference between the servers' clocks, doesn't
+     * fail its jobs.
+     */
+    static final long STALE_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final String ORPHANED_MESSAGE = "The server running the job stopped before the job finished";
+
+    private static final Collection<String> UNFINISHED = Arrays.asList(QUEUED, RUNNING);
+
+    private static final Logger logger = Logger.getLogger(JobManager.class.getCanonicalName());
+
+    @Inject
+    private Persistor persistor;
+
+    @Inject
+    private RequestExecutors requestExecutors;
+
+    /** The contexts of the jobs started by this server which have not finished */
+    private final Map<String, JobContext> activeJobs = new ConcurrentHashMap<>();
+
+    /** Names this server in the records of the jobs it runs, which tests change */
+    String serverId = localServerId();
+
+    private ScheduledExecutorService heartbeat;
+
+    /**
+     * Fails the jobs left behind by servers which have stopped, including this one before it was
+     * restarted, and starts saving the heartbeats of the jobs this server runs. Calling this again
+     * does nothing.
+     */
+    public synchronized void start() {
+        if (heartbeat != null) {
+            return;
+        }
+
+        try {
+            for (Map<String, Object> record : persistor.retrieveJobs(UNFINISHED)) {
+                failIfOrphaned(record, System.currentTimeMillis());
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "The jobs left behind by stopped servers could not be failed", e);
+        }
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LARS job heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                saveHeartbeats();
+            }
+        }, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the heartbeat of each job held by this server. A job whose record shows that it has
+     * finished, for instance because another server took it to have been left behind, or that it
+     * has been cancelled, is told to stop.
+     */
+    void saveHeartbeats() {
+        for (Map.Entry<String, JobContext> job : activeJobs.entrySet()) {
+            try {
+                Map<String, Object> record = persistor.updateJob(job.getKey(), UNFINISHED, Collections.<String, Object> singletonMap(LAST_UPDATED, new Date()));
+                if (record == null || Boolean.TRUE.equals(record.get(CANCEL_REQUESTED))) {
+                    job.getValue().cancel();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "The heartbeat of job " + job.getKey() + " could not be saved", e);
+            }
+        }
+    }
+
+    /**
+     * Fails a job which was left behind by a server that stopped.
+     *
+     * @return the updated record, or the record as it was if the job was not left behind
+     */
+    private Map<String, Object> failIfOrphaned(Map<String, Object> record, long now) {
+        String id = (String) record.get(ID);
+        Object state = record.get(STATE);
+        if (!UNFINISHED.contains(state) || activeJobs.containsKey(id)) {
+            return record;
+        }
+
+        // Jobs recorded before there were heartbeats only have the time they were created
+        Object lastBeat = record.get(LAST_UPDATED) != null ? record.get(LAST_UPDATED) : record.get(CREATED);
+        boolean stale = lastBeat instanceof Date && now - ((Date) lastBeat).getTime() > STALE_AFTER_MILLIS;
+        if (!stale && !serverId.equals(record.get(OWNER))) {
+            return record;
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("failIfOrphaned: failing " + state + " job " + id + " owned by " + record.get(OWNER));
+        }
+        Map<String, Object> failed = finish(id, (String) state, FAILED, null, ORPHANED_MESSAGE);
+        return failed != null ? failed : record;
+    }
+
+    /**
+     * Queues a job to be run in the background.
+     *
+     * @param job the job
+     * @return the status of the job, ready to be written as JSON
+     * @throws RejectedExecutionException if too many jobs are waiting to run already, in which case
+     *             the job is recorded as failed
+     */
+    public Map<String, Object> submit(final Job job) {
+        String id = persistor.allocateNewId();
+        Map<String, Object> record = new HashMap<>();
+        record.put(ID, id);
+        record.put(TYPE, job.getType());
+        record.put(STATE, QUEUED);
+        record.put(CREATED, new Date());
+        record.put(LAST_UPDATED, new Date());
+        record.put(OWNER, serverId);
+        record.put(CANCEL_REQUESTED, false);
+
+        // Held before the record is written, so that the job is never seen as left behind
+        final JobContext context = new JobContext(this, id);
+        activeJobs.put(id, context);
+        try {
+            persistor.createJob(record);
+        } catch (RuntimeException e) {
+            activeJobs.remove(id);
+            throw e;
+        }
+
+        try {
+            requestExecutors.getBackgroundTasks().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runJob(job, context);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            activeJobs.remove(id);
+            finish(id, QUEUED, FAILED, null, "Too many jobs are waiting to run");
+            throw e;
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("submit: queued " + job.getType() + " job " + id);
+        }
+        return toStatus(record);
+    }
+
+    private void runJob(Job job, JobContext context) {
+        String id = context.getJobId();
+        try {
+            Map<String, Object> started = new HashMap<>();
+            started.put(STATE, RUNNING);
+            started.put(STARTED, new Date());
+            started.put(LAST_UPDATED, new Date());
+            if (persistor.updateJob(id, Collections.singleton(QUEUED), started) == null) {
+                // The job was cancelled while it was queued
+                return;
+            }
+
+            Map<String, Object> result;
+            try {
+                result = job.run(context);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "The " + job.getType() + " job " + id + " failed", e);
+                finish(id, RUNNING, FAILED, null, e.getMessage() != null ? e.getMessage() : e.toString());
+                return;
+            }
+            finish(id, RUNNING, context.isCancelled() ? CANCELLED : SUCCEEDED, result, null);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "The record of the " + job.getType() + " job " + id + " could not be updated", e);
+        } finally {
+            activeJobs.remove(id);
+        }
+    }
+
+    /**
+     * Records that a job has finished, if it is still in the expected state.
+     *
+     * @return the updated record, or null if the job was not in the expected state
+     */
+    private Map<String, Object> finish(String id, String fromState, String state, Map<String, Object> result, String message) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(STATE, state);
+        fields.put(FINISHED, new Date());
+        fields.put(LAST_UPDATED, new Date());
+        if (result != null) {
+            fields.put(RESULT, result);
+        }
+        if (message != null) {
+            fields.put(MESSAGE, message);
+        }
+        return persistor.updateJob(id, Collections.singleton(fromState), fields);
+    }
+
+    /**
+     * Saves the progress of a running job.
+     *
+     * @return true if the job has been cancelled
+     */
+    boolean saveProgress(String id, long done, long total) {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("done", done);
+        progress.put("total", total);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(PROGRESS, progress);
+        fields.put(LAST_UPDATED, new Date());
+        Map<String, Object> record = persistor.updateJob(id, Collections.singleton(RUNNING), fields);
+        return record != null && Boolean.TRUE.equals(record.get(CANCEL_REQUESTED));
+    }
+
+    /**
+     * Returns the status of a job, ready to be written as JSON. A job which was left behind by a
+     * server that stopped is failed first.
+     *
+     * @param id the id of the job
+     * @throws NonExistentArtefactException if there is no record of the job
+     */
+    public Map<String, Object> getStatus(String id) throws NonExistentArtefactException {
+        return toStatus(failIfOrphaned(persistor.retrieveJob(id), System.currentTimeMillis()));
+    }
+
+    /**
+     * Cancels a job. A queued job is cancelled straight away, and a running job is asked to stop.
+     *
+     * @param id the id of the job
+     * @return the status of the job, or null if it had already finished
+     * @throws NonExistentArtefactException if there is no record of the job
+     */
+    public Map<String, Object> cancel(String id) throws NonExistentArtefactException {
+        Map<String, Object> cancelled = new HashMap<>();
+        cancelled.put(STATE, CANCELLED);
+        cancelled.put(CANCEL_REQUESTED, true);
+        cancelled.put(FINISHED, new Date());
+        cancelled.put(LAST_UPDATED, new Date());
+        Map<String, Object> record = persistor.updateJob(id, Collections.singleton(QUEUED), cancelled);
+        if (record == null) {
+            record = persistor.updateJob(id, Collections.singleton(RUNNING), Collections.<String, Object> singletonMap(CANCEL_REQUESTED, true));
+        }
+
+        JobContext context = activeJobs.get(id);
+        if (context != null) {
+            context.cancel();
+        }
+
+        if (record == null) {
+            // Throws if there is no such job, otherwise it has already finished
+            persistor.retrieveJob(id);
+            return null;
+        }
+        return toStatus(record);
+    }
+
+    /**
+     * Turns the record of a job into its status, in the form which is written as JSON
+     */
+    private static Map<String, Object> toStatus(Map<String, Object> record) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", record.get(ID));
+        status.put(TYPE, record.get(TYPE));
+        status.put(STATE, record.get(STATE));
+        for (String field : Arrays.asList(CREATED, STARTED, FINISHED, LAST_UPDATED)) {
+            Object value = record.get(field);
+            if (value instanceof Date) {
+                status.put(field, IsoDate.format((Date) value));
+            }
+        }
+        for (String field : Arrays.asList(PROGRESS, RESULT, MESSAGE)) {
+            if (record.get(field) != null) {
+                status.put(field, record.get(field));
+            }
+        }
+        status.put(CANCEL_REQUESTED, Boolean.TRUE.equals(record.get(CANCEL_REQUESTED)));
+        return status;
+    }
+
+    /**
+     * Records that the jobs started by this server, which will not be finished now that it is
+     * stopping, have failed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (heartbeat != null) {
+                heartbeat.shutdownNow();
+            }
+        }
+        for (String id : activeJobs.keySet()) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(STATE, FAILED);
+            fields.put(FINISHED, new Date());
+            fields.put(LAST_UPDATED, new Date());
+            fields.put(MESSAGE, "The server stopped before the job finished");
+            try {
+                persistor.updateJob(id, UNFINISHED, fields);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "The record of job " + id + " could not be updated", e);
+            }
+        }
+    }
+
+    /**
+     * Returns a name for this server which stays the same when it is restarted, so that it can
+     * recognise the jobs it held before a restart as left behind.
+     */
+    private static String localServerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + "/" + System.getProperty("wlp.server.name", "lars");
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, measured in nanoseconds, which can be recorded by many threads at once
+ * without locking.
+ * <p>
+ * As in HdrHistogram, the buckets are log-linear: each power of two is split into
+ * {@link #SUB_BUCKETS} buckets of equal width, so every duration is counted in a bucket no more
+ * than one eighth wider than the duration itself, however long the duration is.
+ * Recording a duration only works out its bucket with a few shifts and increments two atomic
+ * counters, so it is cheap enough to do on every request.
+ * <p>
+ * The counts are read without stopping recording, so a {@link Snapshot} may include a duration in
+ * its count but not yet in its sum, or the other way round.
+ */
+final class LatencyHistogram {
+
+    /** log2 of the number of buckets each power of two is split into */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below SUB_BUCKETS each have a bucket to themselves, then each power of two from
+     * SUB_BUCKETS up to 2^62 has SUB_BUCKETS buckets
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds. A negative duration, which System.nanoTime() can
+     *            give if the clock is adjusted, is recorded as zero.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        sum.addAndGet(value);
+    }
+
+    /**
+     * Records the time since the given start time.
+     *
+     * @param startNanos the start time, from System.nanoTime()
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return a copy of the current counts
+     */
+    Snapshot getSnapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value which is counted in the given bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * The counts of a histogram at one moment
+     */
+    static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * @return the number of durations recorded
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total of the durations recorded, in nanoseconds
+         */
+        long getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the number of durations which were no longer than the given limit. Durations in
+         * the bucket which the limit falls in are not counted, so the result may be low by the
+         * number of durations within one eighth of the limit.
+         *
+         * @param limit the limit in nanoseconds
+         */
+        long countAtOrBelow(long limit) {
+            long total = 0;
+            for (int i = 0; i < counts.length && highestValueIn(i) <= limit; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        /**
+         * Returns a value which the given percentage of the durations were no longer than. The
+         * value is the highest value of a bucket, so it may be up to one eighth too high.
+         *
+         * @param percentile the percentage, from 0 to 100
+         * @return the value in nanoseconds, or zero if no durations have been recorded
+         */
+        long getValueAtPercentile(double percentile) {
+            long wanted = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                if (total >= wanted && total > 0) {
+                    return highestValueIn(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe, least recently used cache.
+ * <p>
+ * The cache is bounded by the total weight of the values it holds, rather than by the number of
+ * entries. Subclasses define how much each value weighs, typically an estimate of its size in
+ * bytes. When adding a value would take the cache over its maximum weight, the least recently used
+ * entries are evicted.
+ * <p>
+ * To avoid a stale value being added to the cache after it has been invalidated, callers should
+ * read {@link #getGeneration()} before loading a value and pass it to
+ * {@link #put(Object, Object, long)}. If the cache has been invalidated in the meantime, the value
+ * is not added.
+ * <p>
+ * Changes made through other servers sharing the database are found through the repository
+ * generation: callers pass it to {@link #checkRepositoryGeneration(RepositoryGeneration)} before
+ * each lookup, and if it has moved on since the cache last saw it, the whole cache is invalidated.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public abstract class LruCache<K, V> {
+
+    private final long maxWeight;
+
+    /** Access ordered, so iteration starts at the least recently used entry */
+    private final LinkedHashMap<K, WeighedValue<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight = 0;
+    private long generation = 0;
+
+    /** The repository generation which the entries in the cache were read at */
+    private long repositoryGeneration = -1;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxWeight the maximum total weight of the values held in the cache
+     */
+    protected LruCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the weight of a value. This must not change while the value is in the cache.
+     */
+    protected abstract long weigh(V value);
+
+    /**
+     * Invalidates the whole cache if the repository has changed since the entries in it were read.
+     * This must be called with a generation read from the database before each lookup, and the
+     * generation of the cache must be read afterwards, so that a value read before the change
+     * can't be added to the cache after it.
+     *
+     * @param generation the current generation of the repository
+     * @return true if values read now may be added to the cache, which is only so once the
+     *         generation has settled
+     */
+    public synchronized boolean checkRepositoryGeneration(RepositoryGeneration generation) {
+        if (generation.getValue() != repositoryGeneration) {
+            invalidateAll();
+            repositoryGeneration = generation.getValue();
+        }
+        return generation.isSettled();
+    }
+
+    /**
+     * Returns the value for the given key, or null if it is not in the cache.
+     */
+    public synchronized V get(K key) {
+        WeighedValue<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Returns the maximum total weight of the values held in the cache.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Returns the current generation of the cache. The generation changes whenever an entry is
+     * invalidated.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Adds a value to the cache, provided nothing has been invalidated since
+     * <code>expectedGeneration</code> was read from {@link #getGeneration()}.
+     * <p>
+     * A value which weighs more than the maximum weight of the whole cache is never added.
+     *
+     * @return true if the value was added to the cache
+     */
+    public synchronized boolean put(K key, V value, long expectedGeneration) {
+        if (expectedGeneration != generation) {
+            return false;
+        }
+
+        long weight = weigh(value);
+        if (weight > maxWeight) {
+            return false;
+        }
+
+        WeighedValue<V> previous = entries.put(key, new WeighedValue<>(value, weight));
+        if (previous != null) {
+            totalWeight -= previous.weight;
+        }
+        totalWeight += weight;
+
+        Iterator<WeighedValue<V>> iterator = entries.values().iterator();
+        while (totalWeight > maxWeight) {
+            WeighedValue<V> eldest = iterator.next();
+            iterator.remove();
+            totalWeight -= eldest.weight;
+            evictions++;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the given key from the cache.
+     */
+    public synchronized void invalidate(K key) {
+        generation++;
+        WeighedValue<V> previous = entries.remove(key);
+        if (previous != null) {
+            totalWeight -= previous.weight;
+        }
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics, suitable for serializing as JSON.
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("entries", entries.size());
+        statistics.put("weight", totalWeight);
+        statistics.put("maxWeight", maxWeight);
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        statistics.put("evictions", evictions);
+        return statistics;
+    }
+
+    /**
+     * Estimates the number of bytes of heap used by a value read from JSON or from the database,
+     * i.e. a tree of maps, lists, strings, numbers and booleans.
+     * <p>
+     * This is only a rough estimate, intended for use by {@link #weigh(Object)}.
+     */
+    protected static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        } else if (value instanceof Map) {
+            long size = 64;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Iterable) {
+            long size = 40;
+            for (Object element : (Iterable<?>) value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        } else {
+            // Numbers, booleans, dates and ObjectIds are all small
+            return 24;
+        }
+    }
+
+    private static class WeighedValue<V> {
+        private final V value;
+        private final long weight;
+
+        private WeighedValue(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
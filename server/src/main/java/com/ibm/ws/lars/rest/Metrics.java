@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Holds measurements of how the server is performing: how long each operation of the
+ * {@link Persistor} and each REST endpoint takes, how many of them fail, how much attachment
+ * content has been sent to clients and how long reading each chunk of content from GridFS takes.
+ * <p>
+ * Measurements are recorded without locking, and can be read at any time in the Prometheus text
+ * format with {@link #toPrometheusText()}.
+ */
+@ApplicationScoped
+public class Metrics {
+
+    /** The content type of the Prometheus text format */
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The upper bounds, in seconds, of the histogram buckets which are reported. Each bucket counts
+     * the durations no longer than its bound.
+     */
+    private static final double[] REPORTED_BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final ConcurrentMap<String, Operation> persistorOperations = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Operation> endpoints = new ConcurrentHashMap<>();
+
+    private final AtomicLong attachmentBytesWritten = new AtomicLong();
+
+    private final LatencyHistogram gridFSChunkReads = new LatencyHistogram();
+
+    /**
+     * Returns the measurements of an operation of the {@link Persistor}, creating them if the
+     * operation has not been measured before.
+     *
+     * @param name the name of the method
+     */
+    public Operation getPersistorOperation(String name) {
+        return getOperation(persistorOperations, name);
+    }
+
+    /**
+     * Returns the measurements of a REST endpoint, creating them if the endpoint has not been
+     * measured before.
+     *
+     * @param name the HTTP method and path template of the endpoint, such as
+     *            <code>GET /assets/{assetId}</code>
+     */
+    public Operation getEndpoint(String name) {
+        return getOperation(endpoints, name);
+    }
+
+    private static Operation getOperation(ConcurrentMap<String, Operation> operations, String name) {
+        Operation operation = operations.get(name);
+        if (operation == null) {
+            Operation created = new Operation();
+            operation = operations.putIfAbsent(name, created);
+            if (operation == null) {
+                operation = created;
+            }
+        }
+        return operation;
+    }
+
+    /**
+     * Records that some attachment content has been written to a client.
+     *
+     * @param bytes the number of bytes written
+     */
+    public void attachmentBytesWritten(long bytes) {
+        attachmentBytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Records how long it took to read a chunk of attachment content from GridFS.
+     *
+     * @param startNanos when the read started, from System.nanoTime()
+     */
+    public void gridFSChunkRead(long startNanos) {
+        gridFSChunkReads.recordSince(startNanos);
+    }
+
+    /**
+     * Writes out all the measurements in the Prometheus text exposition format.
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+
+        appendHeader(out, "lars_persistor_duration_seconds", "histogram", "Time taken by each operation of the persistence layer");
+        for (Map.Entry<String, Operation> entry : sorted(persistorOperations).entrySet()) {
+            appendHistogram(out, "lars_persistor_duration_seconds", "operation", entry.getKey(), entry.getValue().durations);
+        }
+        appendHeader(out, "lars_persistor_errors_total", "counter", "Operations of the persistence layer which failed unexpectedly");
+        for (Map.Entry<String, Operation> entry : sorted(persistorOperations).entrySet()) {
+            appendSample(out, "lars_persistor_errors_total", "operation", entry.getKey(), entry.getValue().errors.get());
+        }
+
+        appendHeader(out, "lars_http_request_duration_seconds", "histogram", "Time taken to handle each REST endpoint, including writing the response");
+        for (Map.Entry<String, Operation> entry : sorted(endpoints).entrySet()) {
+            appendHistogram(out, "lars_http_request_duration_seconds", "endpoint", entry.getKey(), entry.getValue().durations);
+        }
+        appendHeader(out, "lars_http_errors_total", "counter", "Requests to each REST endpoint which failed with a server error");
+        for (Map.Entry<String, Operation> entry : sorted(endpoints).entrySet()) {
+            appendSample(out, "lars_http_errors_total", "endpoint", entry.getKey(), entry.getValue().errors.get());
+        }
+
+        appendHeader(out, "lars_attachment_bytes_written_total", "counter", "Bytes of attachment content written to clients");
+        appendSample(out, "lars_attachment_bytes_written_total", null, null, attachmentBytesWritten.get());
+
+        appendHeader(out, "lars_gridfs_chunk_read_seconds", "histogram", "Time taken to read each chunk of attachment content from GridFS");
+        appendHistogram(out, "lars_gridfs_chunk_read_seconds", null, null, gridFSChunkReads);
+
+        return out.toString();
+    }
+
+    private static <T> Map<String, T> sorted(Map<String, T> map) {
+        return new TreeMap<>(map);
+    }
+
+    private static void appendHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labelName, String labelValue, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        String labels = labelName == null ? "" : labelName + "=\"" + escape(labelValue) + "\",";
+        for (double bound : REPORTED_BOUNDS) {
+            long count = snapshot.countAtOrBelow((long) (bound * NANOS_PER_SECOND));
+            String le = BigDecimal.valueOf(bound).toPlainString();
+            out.append(name).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ").append(count).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+        appendSample(out, name + "_sum", labelName, labelValue, snapshot.getSum() / NANOS_PER_SECOND);
+        appendSample(out, name + "_count", labelName, labelValue, snapshot.getCount());
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labelName, String labelValue, Object value) {
+        out.append(name);
+        if (labelName != null) {
+            out.append('{').append(labelName).append("=\"").append(escape(labelValue)).append("\"}");
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escapes a label value as the Prometheus text format requires.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * The measurements of one operation or endpoint
+     */
+    public static class Operation {
+
+        private final LatencyHistogram durations = new LatencyHistogram();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Records that the operation has finished.
+         *
+         * @param startNanos when the operation started, from System.nanoTime()
+         */
+        public void finished(long startNanos) {
+            durations.recordSince(startNanos);
+        }
+
+        /**
+         * Records that the operation failed. {@link #finished(long)} should still be called.
+         */
+        public void failed() {
+            errors.incrementAndGet();
+        }
+
+        LatencyHistogram.Snapshot getDurations() {
+            return durations.getSnapshot();
+        }
+
+        long getErrors() {
+            return errors.get();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records how long each request to the REST API takes, and whether it fails with a server error, in
+ * the {@link Metrics}.
+ * <p>
+ * Requests are grouped by endpoint, named by the HTTP method and the path template of the resource,
+ * such as <code>GET /assets/{assetId}</code>, so that the ids in the paths don't create a new
+ * group for every asset. The time includes writing the response, even when the response is
+ * written after an asynchronous request has left the filter. The event stream is not measured, as
+ * its requests last for as long as the client is subscribed.
+ * <p>
+ * If the {@link SlowRequestLog} is enabled, the filter also starts a {@link RequestTrace} for each
+ * request, and hands it to the log once the response has been written.
+ */
+@WebFilter(urlPatterns = "/ma/v1/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+    private static final String API_PATH = "/ma/v1";
+
+    /** The paths which are not measured */
+    private static final Set<String> UNMEASURED = new HashSet<>(Arrays.asList("/events"));
+
+    /** The endpoints under /assets/{assetId} which don't take any more parameters */
+    private static final Set<String> ASSET_SUBRESOURCES = new HashSet<>(Arrays.asList("attachments", "state", "assetreviews"));
+
+    /** A segment of a fixed path, such as <code>repository.config</code> */
+    private static final Pattern FIXED_SEGMENT = Pattern.compile("[a-z][a-zA-Z.]*");
+
+    @Inject
+    private Metrics metrics;
+
+    @Inject
+    private SlowRequestLog slowRequestLog;
+
+    /** {@inheritDoc} */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /** {@inheritDoc} */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        if (!path.startsWith(API_PATH) || UNMEASURED.contains(path.substring(API_PATH.length()))) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String endpointName = httpRequest.getMethod() + " " + getPathTemplate(path.substring(API_PATH.length()));
+        final Metrics.Operation endpoint = metrics.getEndpoint(endpointName);
+        final RequestTrace trace = slowRequestLog.isEnabled() ? RequestTrace.begin(endpointName, httpRequest) : null;
+        final long start = System.nanoTime();
+        boolean async = false;
+        boolean failed = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                async = true;
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    /** Set if writing the response fails, which is recorded once the request completes */
+                    private volatile boolean error = false;
+
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        finished(endpoint, start, error || isServerError(httpResponse), trace);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {}
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        error = true;
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {}
+                });
+            }
+        } catch (IOException | ServletException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (!async) {
+                finished(endpoint, start, failed || isServerError(httpResponse), trace);
+            }
+        }
+    }
+
+    private static boolean isServerError(HttpServletResponse response) {
+        return response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Records a request which has finished. This is the only place a failure is recorded, so a
+     * request which both throws and sets an error status is counted once.
+     */
+    private void finished(Metrics.Operation endpoint, long start, boolean failed, RequestTrace trace) {
+        if (failed) {
+            endpoint.failed();
+        }
+        endpoint.finished(start);
+        if (trace != null) {
+            slowRequestLog.finished(trace);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void destroy() {}
+
+    /**
+     * Works out the path template of the resource which a request is for, by replacing the ids and
+     * names in the path with the names of the parameters of the resource. Paths which don't match
+     * a known form are all given the template <code>other</code>, so that requests for paths that
+     * don't exist can't create any number of endpoints. MetricsFilterTest checks that every path
+     * declared by the resources maps to its own template, so a new resource must be added here.
+     *
+     * @param path the path of the request, relative to the REST application
+     * @return the template
+     */
+    static String getPathTemplate(String path) {
+        String[] segments = path.startsWith("/") ? path.substring(1).split("/", -1) : path.split("/", -1);
+        if (segments.length == 1 && segments[0].isEmpty()) {
+            return "/";
+        }
+
+        if (segments[0].equals("assets")) {
+            if (segments.length == 1 || (segments.length == 2 && (segments[1].equals("summary") || segments[1].equals("bulk") || segments[1].equals("delete")))) {
+                return path;
+            }
+            StringBuilder template = new StringBuilder("/assets/{assetId}");
+            if (segments.length == 2) {
+                return template.toString();
+            }
+            if (!ASSET_SUBRESOURCES.contains(segments[2])) {
+                return "other";
+            }
+            template.append('/').append(segments[2]);
+            if (segments.length == 3) {
+                return template.toString();
+            }
+            if (!segments[2].equals("attachments") || segments.length > 5) {
+                return "other";
+            }
+            template.append("/{attachmentId}");
+            if (segments.length == 5) {
+                template.append("/{name}");
+            }
+            return template.toString();
+        }
+
+        if (segments[0].equals("jobs")) {
+            return segments.length == 2 ? "/jobs/{jobId}" : "other";
+        }
+
+        // The other resources have fixed paths
+        if (segments.length <= 3) {
+            for (String segment : segments) {
+                if (!FIXED_SEGMENT.matcher(segment).matches()) {
+                    return "other";
+                }
+            }
+            return path.startsWith("/") ? path : "/" + path;
+        }
+        return "other";
+    }
+}
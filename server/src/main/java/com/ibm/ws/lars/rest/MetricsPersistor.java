@@ -0,0 +1,776 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.decorator.Decorator;
+import javax.decorator.Delegate;
+import javax.enterprise.inject.Any;
+import javax.inject.Inject;
+
+import com.ibm.ws.lars.rest.exceptions.AssetPersistenceException;
+import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
+import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
+import com.ibm.ws.lars.rest.model.AssetList;
+import com.ibm.ws.lars.rest.model.Attachment;
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.ibm.ws.lars.rest.model.AttachmentList;
+
+/**
+ * Decorates the {@link Persistor} to record how long each of its operations takes, and how many of
+ * them fail with an unexpected exception, in the {@link Metrics}. The time is also counted in the
+ * {@link RequestTrace.Phase#QUERY} phase of the request being traced, if there is one.
+ * <p>
+ * Checked exceptions, such as {@link NonExistentArtefactException}, are part of the normal
+ * behaviour of an operation and are not counted as failures. The time taken by an operation which
+ * returns a cursor does not include reading from the cursor.
+ */
+@Decorator
+public class MetricsPersistor implements Persistor {
+
+    @Inject
+    @Delegate
+    @Any
+    private Persistor delegate;
+
+    @Inject
+    private Metrics metrics;
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetList retrieveAllAssets() {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAllAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAllAssets();
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetList retrieveAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions) {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAllAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAllAssets(filters, searchTerm, pagination, sortOptions);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetCursor streamAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                       Collection<String> fields) {
+        Metrics.Operation operation = metrics.getPersistorOperation("streamAllAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.streamAllAssets(filters, searchTerm, pagination, sortOptions, fields);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String explainAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> fields) {
+        Metrics.Operation operation = metrics.getPersistorOperation("explainAllAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.explainAllAssets(filters, searchTerm, pagination, sortOptions, fields);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int countAllAssets(Collection<AssetFilter> filters, String searchTerm) {
+        Metrics.Operation operation = metrics.getPersistorOperation("countAllAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.countAllAssets(filters, searchTerm);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Object> getDistinctValues(String field, Collection<AssetFilter> filters, String searchTerm) {
+        Metrics.Operation operation = metrics.getPersistorOperation("getDistinctValues");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.getDistinctValues(field, filters, searchTerm);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Map<Object, Integer>> summarizeAssets(Collection<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+        Metrics.Operation operation = metrics.getPersistorOperation("summarizeAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.summarizeAssets(fields, filters, searchTerm);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Asset retrieveAsset(String assetId) throws NonExistentArtefactException {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAsset");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAsset(assetId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Asset createAsset(Asset newAsset) throws InvalidJsonAssetException {
+        Metrics.Operation operation = metrics.getPersistorOperation("createAsset");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.createAsset(newAsset);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Asset updateAsset(String assetId, Asset asset) throws InvalidJsonAssetException, NonExistentArtefactException {
+        Metrics.Operation operation = metrics.getPersistorOperation("updateAsset");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.updateAsset(assetId, asset);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Asset updateAssetState(String assetId, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn) {
+        Metrics.Operation operation = metrics.getPersistorOperation("updateAssetState");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.updateAssetState(assetId, fromStates, toState, lastUpdatedOn);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteAsset(String assetId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAsset");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.deleteAsset(assetId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> deleteAssets(Collection<String> assetIds) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.deleteAssets(assetIds);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeAssets(List<AssetWrite> writes, boolean ordered) {
+        Metrics.Operation operation = metrics.getPersistorOperation("writeAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.writeAssets(writes, ordered);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentList findAttachmentsForAsset(String assetId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("findAttachmentsForAsset");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.findAttachmentsForAsset(assetId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, AttachmentList> findAttachmentsForAssets(Collection<String> assetIds) {
+        Metrics.Operation operation = metrics.getPersistorOperation("findAttachmentsForAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.findAttachmentsForAssets(assetIds);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentMetadata createAttachmentContent(String name, String contentType,
+                                                             InputStream attachmentContentStream) throws AssetPersistenceException {
+        Metrics.Operation operation = metrics.getPersistorOperation("createAttachmentContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.createAttachmentContent(name, contentType, attachmentContentStream);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Attachment createAttachmentMetadata(Attachment attachment) {
+        Metrics.Operation operation = metrics.getPersistorOperation("createAttachmentMetadata");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.createAttachmentMetadata(attachment);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Attachment retrieveAttachmentMetadata(String attachmentId) throws NonExistentArtefactException {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAttachmentMetadata");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAttachmentMetadata(attachmentId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setContentHash(String gridFSId, String sha256) {
+        Metrics.Operation operation = metrics.getPersistorOperation("setContentHash");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.setContentHash(gridFSId, sha256);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentMetadata referenceExistingContent(String sha256) {
+        Metrics.Operation operation = metrics.getPersistorOperation("referenceExistingContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.referenceExistingContent(sha256);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteAttachmentContent(String gridFSId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAttachmentContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.deleteAttachmentContent(gridFSId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteAttachmentMetadata(String attachmentId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAttachmentMetadata");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.deleteAttachmentMetadata(attachmentId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> deleteAttachmentsForAssets(Collection<String> assetIds) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAttachmentsForAssets");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.deleteAttachmentsForAssets(assetIds);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteAttachmentContents(Collection<String> gridFSIds) {
+        Metrics.Operation operation = metrics.getPersistorOperation("deleteAttachmentContents");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.deleteAttachmentContents(gridFSIds);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentResponse retrieveAttachmentContent(String gridFSId) throws NonExistentArtefactException {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAttachmentContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAttachmentContent(gridFSId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int migrateAttachmentContent() {
+        Metrics.Operation operation = metrics.getPersistorOperation("migrateAttachmentContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.migrateAttachmentContent();
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedAttachments(String after, Date cutoff, int limit) {
+        Metrics.Operation operation = metrics.getPersistorOperation("sweepOrphanedAttachments");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.sweepOrphanedAttachments(after, cutoff, limit);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedContent(String after, Date cutoff, int limit) {
+        Metrics.Operation operation = metrics.getPersistorOperation("sweepOrphanedContent");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.sweepOrphanedContent(after, cutoff, limit);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedChunks(String after, Date cutoff, int limit) {
+        Metrics.Operation operation = metrics.getPersistorOperation("sweepOrphanedChunks");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.sweepOrphanedChunks(after, cutoff, limit);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createJob(Map<String, Object> job) {
+        Metrics.Operation operation = metrics.getPersistorOperation("createJob");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.createJob(job);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> retrieveJob(String jobId) throws NonExistentArtefactException {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveJob");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveJob(jobId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> updateJob(String jobId, Collection<String> fromStates, Map<String, Object> fields) {
+        Metrics.Operation operation = metrics.getPersistorOperation("updateJob");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.updateJob(jobId, fromStates, fields);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Map<String, Object>> retrieveJobs(Collection<String> states) {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveJobs");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveJobs(states);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String allocateNewId() {
+        Metrics.Operation operation = metrics.getPersistorOperation("allocateNewId");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.allocateNewId();
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RepositoryGeneration getRepositoryGeneration() {
+        Metrics.Operation operation = metrics.getPersistorOperation("getRepositoryGeneration");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.getRepositoryGeneration();
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetChange(String assetId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("recordAssetChange");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.recordAssetChange(assetId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetDeletion(String assetId) {
+        Metrics.Operation operation = metrics.getPersistorOperation("recordAssetDeletion");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.recordAssetDeletion(assetId);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Long> recordAssetDeletions(List<String> assetIds) {
+        Metrics.Operation operation = metrics.getPersistorOperation("recordAssetDeletions");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.recordAssetDeletions(assetIds);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetList retrieveAssetsChangedSince(long sequence, int limit) {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveAssetsChangedSince");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveAssetsChangedSince(sequence, limit);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<AssetDeletion> retrieveDeletionsSince(long sequence, int limit) {
+        Metrics.Operation operation = metrics.getPersistorOperation("retrieveDeletionsSince");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            return delegate.retrieveDeletionsSince(sequence, limit);
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void initialize() {
+        Metrics.Operation operation = metrics.getPersistorOperation("initialize");
+        long start = System.nanoTime();
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        try {
+            delegate.initialize();
+        } catch (RuntimeException e) {
+            operation.failed();
+            throw e;
+        } finally {
+            RequestTrace.exit();
+            operation.finished(start);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Starts writing the bodies of responses which are written by an {@link OffloadedStreamingOutput},
+ * once the JAX-RS runtime has finished with the response.
+ * <p>
+ * The filter is mapped to the JAX-RS servlet by name, so it runs inside the filters which are
+ * mapped by URL, and the response it hands on is the one that those filters see. The runtime is
+ * given a response whose output stream can't be closed, so that the runtime can flush the headers
+ * and close its stream as it would for any other response, and the body can still be written
+ * afterwards.
+ */
+@WebFilter(servletNames = "com.ibm.ws.lars.rest.RESTApplication", asyncSupported = true)
+public class OffloadFilter implements Filter {
+
+    /**
+     * The request attribute which is set while the filter is handling a request, so that responses
+     * are only offloaded when the filter is there to start them
+     */
+    static final String ACTIVE_ATTRIBUTE = OffloadFilter.class.getName();
+
+    /** {@inheritDoc} */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /** {@inheritDoc} */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        request.setAttribute(ACTIVE_ATTRIBUTE, Boolean.TRUE);
+        boolean handled = false;
+        try {
+            chain.doFilter(request, new UnclosableResponse((HttpServletResponse) response));
+            handled = true;
+        } finally {
+            request.removeAttribute(ACTIVE_ATTRIBUTE);
+            OffloadedStreamingOutput output = (OffloadedStreamingOutput) request.getAttribute(OffloadedStreamingOutput.REQUEST_ATTRIBUTE);
+            if (output != null) {
+                request.removeAttribute(OffloadedStreamingOutput.REQUEST_ATTRIBUTE);
+                if (handled) {
+                    output.start(request, response);
+                } else {
+                    output.discard();
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void destroy() {}
+
+    /**
+     * A response whose output stream passes on everything but {@link ServletOutputStream#close()},
+     * which only flushes it
+     */
+    static class UnclosableResponse extends HttpServletResponseWrapper {
+
+        private ServletOutputStream outputStream;
+
+        UnclosableResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream out = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        out.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.flush();
+                    }
+                };
+            }
+            return outputStream;
+        }
+    }
+}
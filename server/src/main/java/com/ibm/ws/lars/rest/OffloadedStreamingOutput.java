@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Implementation of {@link StreamingOutput} which has another {@link StreamingOutput} written by
+ * one of the threads of a {@link ResponseWriters} pool, so that the container's thread can return
+ * as soon as the headers of the response have been sent.
+ * <p>
+ * The JAX-RS runtime owns the stream it passes to {@link #write(OutputStream)}, and carries on
+ * using it after that method returns, so nothing is written to it. Instead, the output is left on
+ * the request, and once the runtime has finished with the response, the {@link OffloadFilter}
+ * calls {@link #start(ServletRequest, ServletResponse)}. That makes the request asynchronous, and
+ * the body is written to the response of the {@link AsyncContext} by the thread reserved for it,
+ * which completes the request once it is done. The container's thread never touches the response
+ * again.
+ */
+class OffloadedStreamingOutput implements StreamingOutput {
+
+    /** The request attribute which holds the output until the filter starts it */
+    static final String REQUEST_ATTRIBUTE = OffloadedStreamingOutput.class.getName();
+
+    private static final Logger logger = Logger.getLogger(OffloadedStreamingOutput.class.getCanonicalName());
+
+    private final StreamingOutput output;
+    private final ResponseWriters writers;
+
+    /** Whether the runtime wants the body to be written, which it does not for a HEAD request */
+    private boolean requested;
+
+    /**
+     * Creates the output and leaves it on the request for the filter.
+     *
+     * @param output the output to write
+     * @param request the request being responded to, which must be passing through the
+     *            {@link OffloadFilter}
+     * @param writers the pool to write the output with, in which a thread must have been reserved
+     *            with {@link ResponseWriters#tryReserve()}
+     */
+    OffloadedStreamingOutput(StreamingOutput output, HttpServletRequest request, ResponseWriters writers) {
+        this.output = output;
+        this.writers = writers;
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    /**
+     * Records that the body should be written, without writing anything to the runtime's stream.
+     */
+    @Override
+    public void write(OutputStream os) {
+        requested = true;
+    }
+
+    /**
+     * Gives up the thread reserved for the output, which will not be written.
+     */
+    void discard() {
+        writers.release();
+    }
+
+    /**
+     * Starts writing the body on the reserved thread, or gives the thread up if the runtime didn't
+     * ask for the body. This is called on the container's thread once the runtime has finished
+     * with the response.
+     *
+     * @param request the request
+     * @param response the response, which the body is written to
+     */
+    void start(ServletRequest request, ServletResponse response) {
+        if (!requested) {
+            discard();
+            return;
+        }
+
+        // The rest of the request is traced on the writer's thread
+        final RequestTrace trace = RequestTrace.detach();
+        final AsyncContext context = request.startAsync(request, response);
+        // The response takes as long as the client takes to read it
+        context.setTimeout(0);
+        final String uri = request instanceof HttpServletRequest ? ((HttpServletRequest) request).getRequestURI() : null;
+        Runnable writer = new Runnable() {
+            @Override
+            public void run() {
+                RequestTrace.attach(trace);
+                try {
+                    OutputStream os = context.getResponse().getOutputStream();
+                    output.write(os);
+                    // Closing the stream lets any filters finish the response
+                    os.close();
+                } catch (IOException e) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.log(Level.FINE, "Could not write the response to " + uri, e);
+                    }
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Failed to write the response to " + uri, e);
+                } finally {
+                    RequestTrace.detach();
+                    context.complete();
+                }
+            }
+        };
+
+        try {
+            writers.execute(writer);
+        } catch (RejectedExecutionException e) {
+            // The application is stopping, so the body won't be written
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+/**
+ * The result of removing one batch of orphaned data with one of the sweep methods of
+ * {@link Persistor}, such as {@link Persistor#sweepOrphanedAttachments(String, java.util.Date, int)}.
+ * <p>
+ * Each sweep method scans its collection in order of id, so a batch also says where the next
+ * batch should carry on from.
+ */
+public class OrphanBatch {
+
+    private final String next;
+    private final int scanned;
+    private final int removed;
+    private final long bytesReclaimed;
+
+    /**
+     * @param next the id to carry on scanning after, or null if the end of the collection was
+     *            reached
+     * @param scanned the number of items which were looked at
+     * @param removed the number of items which were found to be orphaned and removed
+     * @param bytesReclaimed the number of bytes of attachment content which were removed
+     */
+    public OrphanBatch(String next, int scanned, int removed, long bytesReclaimed) {
+        this.next = next;
+        this.scanned = scanned;
+        this.removed = removed;
+        this.bytesReclaimed = bytesReclaimed;
+    }
+
+    /**
+     * Returns the id to pass to the next call to carry on scanning, or null if the end of the
+     * collection was reached.
+     */
+    public String getNext() {
+        return next;
+    }
+
+    public int getScanned() {
+        return scanned;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Removes attachments and attachment content which have been left behind by requests which
+ * failed part way through.
+ * <p>
+ * MongoDB has no transactions, so an upload which fails after its content has been stored can
+ * leave content which no attachment refers to, or chunks which belong to no GridFS file, and a
+ * delete which fails part way through can leave attachments whose asset no longer exists. A sweep
+ * looks for each of these in turn, using the sweep methods of {@link Persistor}, and removes what
+ * it finds.
+ * <p>
+ * A sweep reads its collections in batches of {@link #BATCH_SIZE}, pausing between batches so
+ * that it does not compete with requests for the database. Nothing newer than the grace period set
+ * by lars/orphanGracePeriodMinutes is removed, so uploads which are still in progress are left
+ * alone. Sweeps run every lars/orphanSweepIntervalMinutes on a thread of their own, and can also
+ * be started by an administrator, as a {@link Job} which can be followed and cancelled. Only one
+ * sweep runs at a time.
+ */
+@ApplicationScoped
+public class OrphanSweeper {
+
+    /** The largest number of items a sweep reads from the database at once */
+    static final int BATCH_SIZE = 100;
+
+    /** How long a sweep waits between batches */
+    static final long BATCH_PAUSE_MILLIS = 200;
+
+    private static final Logger logger = Logger.getLogger(OrphanSweeper.class.getCanonicalName());
+
+    /** The kinds of orphaned data, in the order they are swept */
+    private enum Kind {
+        /** Attachments whose asset doesn't exist */
+        ATTACHMENTS,
+        /** Attachment content which no attachment refers to */
+        CONTENT,
+        /** GridFS chunks which belong to no file */
+        CHUNKS
+    }
+
+    @Inject
+    private Persistor persistor;
+
+    @Inject
+    private Configuration configuration;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    // The statistics are guarded by this
+    private long sweeps;
+    private final long[] totalRemoved = new long[Kind.values().length];
+    private long totalBytesReclaimed;
+    private Date currentSweepStarted;
+    private Map<String, Object> lastSweep;
+
+    /**
+     * Starts the thread which sweeps for orphaned data, and schedules the regular sweeps unless they
+     * have been turned off. Calling this again does nothing.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LARS orphan sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long interval = configuration.getOrphanSweepInterval();
+        if (interval > 0) {
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (sweeping.compareAndSet(false, true)) {
+                        runSweep();
+                    }
+                }
+            }, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Returns whether a sweep is running.
+     */
+    public boolean isSweeping() {
+        return sweeping.get();
+    }
+
+    /**
+     * Creates a job which runs a sweep, for an administrator who wants one straight away. The job
+     * reports the kinds of orphaned data it has swept as its progress, can be cancelled between
+     * batches, and fails if another sweep is already running when it starts. Its result is the
+     * summary which {@link #getStatistics()} gives as lastSweep.
+     */
+    public Job createSweepJob() {
+        return new Job() {
+            @Override
+            public String getType() {
+                return "sweepOrphans";
+            }
+
+            @Override
+            public Map<String, Object> run(JobContext context) throws InterruptedException {
+                if (!sweeping.compareAndSet(false, true)) {
+                    throw new IllegalStateException("A sweep for orphaned attachments is already running");
+                }
+                try {
+                    return sweep(getCutoff(), context);
+                } finally {
+                    sweepFinished();
+                }
+            }
+        };
+    }
+
+    private void runSweep() {
+        try {
+            sweep(getCutoff());
+        } catch (InterruptedException e) {
+            // The application is stopping
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "The sweep for orphaned attachments and attachment content failed", e);
+        } finally {
+            sweepFinished();
+        }
+    }
+
+    private Date getCutoff() {
+        return new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(configuration.getOrphanGracePeriod()));
+    }
+
+    private void sweepFinished() {
+        synchronized (this) {
+            currentSweepStarted = null;
+        }
+        sweeping.set(false);
+    }
+
+    /**
+     * Sweeps each kind of orphaned data in turn, on the current thread.
+     *
+     * @param cutoff data which is newer than this is not removed
+     */
+    void sweep(Date cutoff) throws InterruptedException {
+        sweep(cutoff, null);
+    }
+
+    /**
+     * Sweeps each kind of orphaned data in turn, on the current thread, as part of a job. Once the
+     * job has been cancelled, no more batches are read.
+     *
+     * @param cutoff data which is newer than this is not removed
+     * @param context the context of the job, or null if the sweep isn't being run by a job
+     * @return the summary of the sweep
+     */
+    Map<String, Object> sweep(Date cutoff, JobContext context) throws InterruptedException {
+        Date started = new Date();
+        synchronized (this) {
+            currentSweepStarted = started;
+        }
+
+        OrphanBatch[] results = new OrphanBatch[Kind.values().length];
+        long bytesReclaimed = 0;
+        for (Kind kind : Kind.values()) {
+            results[kind.ordinal()] = sweepAll(kind, cutoff, context);
+            bytesReclaimed += results[kind.ordinal()].getBytesReclaimed();
+            if (context != null) {
+                context.setProgress(kind.ordinal() + 1, Kind.values().length);
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("started", IsoDate.format(started));
+        summary.put("finished", IsoDate.format(new Date()));
+        summary.put("cutoff", IsoDate.format(cutoff));
+        for (Kind kind : Kind.values()) {
+            String name = kind.name().toLowerCase();
+            summary.put(name + "Scanned", results[kind.ordinal()].getScanned());
+            summary.put(name + "Removed", results[kind.ordinal()].getRemoved());
+        }
+        summary.put("bytesReclaimed", bytesReclaimed);
+
+        synchronized (this) {
+            sweeps++;
+            for (Kind kind : Kind.values()) {
+                totalRemoved[kind.ordinal()] += results[kind.ordinal()].getRemoved();
+            }
+            totalBytesReclaimed += bytesReclaimed;
+            lastSweep = summary;
+        }
+
+        int attachments = results[Kind.ATTACHMENTS.ordinal()].getRemoved();
+        int content = results[Kind.CONTENT.ordinal()].getRemoved();
+        int chunks = results[Kind.CHUNKS.ordinal()].getRemoved();
+        if (attachments > 0 || content > 0 || chunks > 0) {
+            logger.info("Removed " + attachments + " orphaned attachments, " + content + " pieces of orphaned attachment content and the chunks of "
+                        + chunks + " missing GridFS files, reclaiming " + bytesReclaimed + " bytes");
+        }
+        return summary;
+    }
+
+    /**
+     * Sweeps one kind of orphaned data, a batch at a time.
+     *
+     * @return the totals for every batch
+     */
+    private OrphanBatch sweepAll(Kind kind, Date cutoff, JobContext context) throws InterruptedException {
+        String next = null;
+        int scanned = 0;
+        int removed = 0;
+        long bytesReclaimed = 0;
+        do {
+            OrphanBatch batch = sweepBatch(kind, next, cutoff);
+            scanned += batch.getScanned();
+            removed += batch.getRemoved();
+            bytesReclaimed += batch.getBytesReclaimed();
+            next = batch.getNext();
+            if (context != null && context.isCancelled()) {
+                break;
+            }
+            if (next != null) {
+                Thread.sleep(BATCH_PAUSE_MILLIS);
+            }
+        } while (next != null);
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("sweepAll: looked at " + scanned + " and removed " + removed + " " + kind.name().toLowerCase());
+        }
+        return new OrphanBatch(null, scanned, removed, bytesReclaimed);
+    }
+
+    private OrphanBatch sweepBatch(Kind kind, String after, Date cutoff) {
+        switch (kind) {
+            case ATTACHMENTS:
+                return persistor.sweepOrphanedAttachments(after, cutoff, BATCH_SIZE);
+            case CONTENT:
+                return persistor.sweepOrphanedContent(after, cutoff, BATCH_SIZE);
+            case CHUNKS:
+                return persistor.sweepOrphanedChunks(after, cutoff, BATCH_SIZE);
+            default:
+                throw new AssertionError("Unknown kind of orphaned data: " + kind);
+        }
+    }
+
+    /**
+     * Returns what the sweeps have removed since the server started, and the results of the last
+     * sweep, ready to be written as JSON.
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("intervalMinutes", configuration.getOrphanSweepInterval());
+        statistics.put("gracePeriodMinutes", configuration.getOrphanGracePeriod());
+        statistics.put("sweeping", sweeping.get());
+        if (currentSweepStarted != null) {
+            statistics.put("currentSweepStarted", IsoDate.format(currentSweepStarted));
+        }
+        statistics.put("sweeps", sweeps);
+        for (Kind kind : Kind.values()) {
+            statistics.put(kind.name().toLowerCase() + "Removed", totalRemoved[kind.ordinal()]);
+        }
+        statistics.put("bytesReclaimed", totalBytesReclaimed);
+        if (lastSweep != null) {
+            statistics.put("lastSweep", lastSweep);
+        }
+        return statistics;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
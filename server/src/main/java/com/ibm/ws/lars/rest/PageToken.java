@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.ws.lars.rest.SortOptions.SortOrder;
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+import com.ibm.ws.lars.rest.model.Asset;
+
+/**
+ * Marks the position of the last asset on a page of results, so that the next page can be read by
+ * asking for the assets which sort after it, rather than by skipping over all the earlier pages.
+ * <p>
+ * The token holds the value of the sort field and the id of the last asset, together with the sort
+ * field and order it was created for. Assets are sorted on their id after the sort field, so that
+ * the position is exact even when several assets have the same value in the sort field.
+ * <p>
+ * The token is sent to clients as an opaque URL safe string.
+ */
+public final class PageToken {
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    private static final String FIELD_KEY = "f";
+    private static final String ORDER_KEY = "o";
+    private static final String VALUE_KEY = "v";
+    private static final String ID_KEY = "id";
+
+    private final String field;
+    private final SortOrder sortOrder;
+    private final Object value;
+    private final String id;
+
+    private PageToken(String field, SortOrder sortOrder, Object value, String id) {
+        this.field = field;
+        this.sortOrder = sortOrder;
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * Returns whether a page of results for the given query can be followed by a token.
+     * <p>
+     * Results which are sorted on their relevance to a search term can't be, as the relevance is
+     * not stored in the asset.
+     */
+    static boolean isSupported(String searchTerm, SortOptions sortOptions) {
+        return searchTerm == null || sortOptions != null;
+    }
+
+    /**
+     * Creates the token for the page which follows the given asset.
+     *
+     * @param asset the last asset on a page
+     * @param sortOptions the sort options used to read the page, may be null
+     * @return the token, or null if the asset has no id or its sort field holds an array or
+     *         object, as the position of such an asset in the results can't be found again
+     */
+    static PageToken after(Asset asset, SortOptions sortOptions) {
+        String id = asset.get_id();
+        if (id == null || !ObjectId.isValid(id)) {
+            return null;
+        }
+        if (sortOptions == null) {
+            return new PageToken(null, SortOrder.ASCENDING, null, id);
+        }
+
+        Object value = getValue(asset.getProperties(), sortOptions.getField());
+        if (value instanceof Map || value instanceof List) {
+            return null;
+        }
+        return new PageToken(sortOptions.getField(), sortOptions.getSortOrder(), value, id);
+    }
+
+    /**
+     * Reads the value of a field, which may be nested inside other fields using the same dotted
+     * notation as MongoDB
+     *
+     * @return the value, or null if the field is not present
+     */
+    private static Object getValue(Map<String, Object> properties, String field) {
+        Object value = properties;
+        for (String part : field.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(part);
+        }
+        return value;
+    }
+
+    /**
+     * Parses a token which was previously returned by {@link #encode()}
+     *
+     * @throws InvalidParameterException if the token is not valid
+     */
+    public static PageToken parse(String token) throws InvalidParameterException {
+        Map<?, ?> map;
+        try {
+            String base64 = token.replace('-', '+').replace('_', '/');
+            while (base64.length() % 4 != 0) {
+                base64 += "=";
+            }
+            map = jsonMapper.readValue(DatatypeConverter.parseBase64Binary(base64), Map.class);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidParameterException("The page token is not valid");
+        }
+
+        Object field = map.get(FIELD_KEY);
+        Object order = map.get(ORDER_KEY);
+        Object id = map.get(ID_KEY);
+        Object value = map.get(VALUE_KEY);
+        if ((field != null && !(field instanceof String)) || !(id instanceof String) || !ObjectId.isValid((String) id)
+            || value instanceof Map || value instanceof List) {
+            throw new InvalidParameterException("The page token is not valid");
+        }
+
+        SortOrder sortOrder;
+        try {
+            sortOrder = SortOrder.valueOf(String.valueOf(order));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("The page token is not valid");
+        }
+        return new PageToken((String) field, sortOrder, value, (String) id);
+    }
+
+    /**
+     * @return the token as a URL safe string
+     */
+    public String encode() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(FIELD_KEY, field);
+        map.put(ORDER_KEY, sortOrder.name());
+        map.put(VALUE_KEY, value);
+        map.put(ID_KEY, id);
+        byte[] json;
+        try {
+            json = jsonMapper.writeValueAsBytes(map);
+        } catch (IOException e) {
+            throw new AssertionError("A map of strings and simple values can always be written as JSON", e);
+        }
+        String base64 = DatatypeConverter.printBase64Binary(json);
+        int end = base64.length();
+        while (end > 0 && base64.charAt(end - 1) == '=') {
+            end--;
+        }
+        return base64.substring(0, end).replace('+', '-').replace('/', '_');
+    }
+
+    /**
+     * Returns whether this token was created for results sorted in the given way
+     *
+     * @param sortOptions the sort options, may be null
+     */
+    boolean matches(SortOptions sortOptions) {
+        if (sortOptions == null) {
+            return field == null;
+        }
+        return sortOptions.getField().equals(field) && sortOptions.getSortOrder() == sortOrder;
+    }
+
+    /**
+     * @return the sort field the token was created for, or null if the results were not sorted on
+     *         a field
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return the order of the results the token was created for
+     */
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * @return the value of the sort field in the last asset of the previous page, may be null
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @return the id of the last asset of the previous page
+     */
+    public String getId() {
+        return id;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return Objects.hash(field, sortOrder, value, id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        PageToken other = (PageToken) obj;
+        return Objects.equals(field, other.field) && sortOrder == other.sortOrder && Objects.equals(value, other.value) && Objects.equals(id, other.id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "field = " + field + ", sortOrder = " + sortOrder + ", value = " + value + ", id = " + id;
+    }
+}
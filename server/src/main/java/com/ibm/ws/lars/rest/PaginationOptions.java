@@ -25,6 +25,7 @@ public class PaginationOptions {
 
     private final int offset;
     private final int limit;
+    private final PageToken after;
 
     /**
      * Create a new PaginationOptions with the given offset and limit parameters.
@@ -33,9 +34,23 @@ public class PaginationOptions {
      * @param limit
      */
     public PaginationOptions(int offset, int limit) {
+        this(offset, limit, null);
+    }
+
+    /**
+     * Create a new PaginationOptions with the given offset and limit parameters, which returns
+     * results after the position marked by a page token.
+     *
+     * @param offset
+     * @param limit
+     * @param after the token for the last result of the previous page, or null to start at the
+     *            beginning
+     */
+    public PaginationOptions(int offset, int limit, PageToken after) {
         super();
         this.offset = offset;
         this.limit = limit;
+        this.after = after;
     }
 
     /**
@@ -52,10 +67,18 @@ public class PaginationOptions {
         return limit;
     }
 
+    /**
+     * @return the token for the last result of the previous page, or null if the results start at
+     *         the beginning
+     */
+    public PageToken getAfter() {
+        return after;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
-        return "limit = " + limit + ", offset = " + offset;
+        return "limit = " + limit + ", offset = " + offset + ", after = " + after;
     }
 
     /** {@inheritDoc} */
@@ -63,6 +86,7 @@ public class PaginationOptions {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((after == null) ? 0 : after.hashCode());
         result = prime * result + limit;
         result = prime * result + offset;
         return result;
@@ -78,6 +102,11 @@ public class PaginationOptions {
         if (getClass() != obj.getClass())
             return false;
         PaginationOptions other = (PaginationOptions) obj;
+        if (after == null) {
+            if (other.after != null)
+                return false;
+        } else if (!after.equals(other.after))
+            return false;
         if (limit != other.limit)
             return false;
         if (offset != other.offset)
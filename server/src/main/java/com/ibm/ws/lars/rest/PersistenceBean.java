@@ -16,41 +16,60 @@
 
 package com.ibm.ws.lars.rest;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 import org.bson.types.ObjectId;
 
+import com.ibm.ws.lars.rest.AssetIndexes.IndexDefinition;
 import com.ibm.ws.lars.rest.SortOptions.SortOrder;
 import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.exceptions.RepositoryException;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
 import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
 import com.ibm.ws.lars.rest.model.AttachmentList;
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.Cursor;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
-import com.mongodb.gridfs.GridFSInputFile;
+import com.mongodb.util.JSON;
 
 /**
  * Bean through which supports CRUD operations. All accesses to the database should go through this
@@ -74,9 +93,50 @@ public class PersistenceBean implements Persistor {
 
     private static final String ATTACHMENTS_COLLECTION = "attachments";
 
+    private static final String COUNTERS_COLLECTION = "counters";
+
+    /** Holds the id and change sequence number of each asset which has been deleted */
+    private static final String DELETED_ASSETS_COLLECTION = "deletedAssets";
+
+    /** The field of a deleted asset record which holds the date it was deleted, used to expire it */
+    private static final String DELETED_ON = "deletedOn";
+
+    /** Holds the record of each job run by the {@link JobManager} */
+    private static final String JOBS_COLLECTION = "jobs";
+
+    /** How long the record of a job is kept after the job finishes */
+    private static final long JOB_RECORD_LIFETIME_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    /**
+     * The _id of the document in the counters collection which holds the last change sequence,
+     * which is also the repository generation
+     */
+    private static final String CHANGE_SEQUENCE_COUNTER = "changeSequence";
+
+    /** The field of a counter which holds the time its last number was taken */
+    private static final String COUNTER_CHANGE_TIME = "changeTime";
+
     private static final List<String> searchIndexFields =
             Arrays.asList(new String[] { "name", "description", "shortDescription", "tags" });
 
+    /** The field of a GridFS file which holds the id LARS uses for the content */
+    private static final String FILENAME = "filename";
+
+    /** The field of a GridFS file which holds the hex encoded SHA-256 hash of the content */
+    private static final String CONTENT_HASH = "sha256";
+
+    /** The field of a GridFS file which holds the number of attachments using the content */
+    private static final String REFERENCE_COUNT = "refCount";
+
+    /**
+     * The field of a GridFS file which holds when the content was first found to be referred to by
+     * no attachment, see {@link #sweepOrphanedContent(String, Date, int)}
+     */
+    private static final String ORPHANED_AT = "orphanedAt";
+
+    /** The field of a GridFS chunk which holds the _id of the file it belongs to */
+    private static final String FILES_ID = "files_id";
+
     /** The _id field of a MongoDB object */
     private static String ID = "_id";
 
@@ -85,11 +145,31 @@ public class PersistenceBean implements Persistor {
     @Resource(lookup = DB_NAME)
     private com.mongodb.DB db;
 
+    @Inject
+    private Configuration configuration;
+
     private GridFS gridFS;
 
+    private GridFSContentStore gridFSContentStore;
+
+    /** The store for content in the filesystem, or null if no directory has been configured */
+    private FileSystemContentStore fileSystemContentStore;
+
+    /** The store that new content is written to */
+    private AttachmentContentStore newContentStore;
+
     @PostConstruct
     public void createGridFS() {
         gridFS = new GridFS(db);
+        gridFSContentStore = new GridFSContentStore(gridFS);
+        newContentStore = gridFSContentStore;
+
+        if (configuration != null && configuration.getContentStoreDirectory() != null) {
+            fileSystemContentStore = new FileSystemContentStore(new File(configuration.getContentStoreDirectory()), getContentFilesCollection());
+            if (Configuration.FILESYSTEM_CONTENT_STORE.equals(configuration.getContentStore())) {
+                newContentStore = fileSystemContentStore;
+            }
+        }
     }
 
     private DBCollection getAssetCollection() {
@@ -100,6 +180,20 @@ public class PersistenceBean implements Persistor {
         return db.getCollection(ATTACHMENTS_COLLECTION);
     }
 
+    /**
+     * @return the collection which GridFS uses to hold the metadata of each file
+     */
+    private DBCollection getContentFilesCollection() {
+        return db.getCollection(GridFS.DEFAULT_BUCKET + ".files");
+    }
+
+    /**
+     * @return the collection which GridFS uses to hold the content of each file
+     */
+    private DBCollection getContentChunksCollection() {
+        return db.getCollection(GridFS.DEFAULT_BUCKET + ".chunks");
+    }
+
     private DBObject makeQueryById(ObjectId id) {
         return new BasicDBObject(ID, id);
     }
@@ -150,24 +244,10 @@ public class PersistenceBean implements Persistor {
             return retrieveAllAssets();
         }
 
-        BasicDBObject filterObject = createFilterObject(filters, searchTerm);
-
-        DBObject sortObject = null;
-        DBObject projectionObject = null;
-        boolean textScoreAdded = false;
-
-        if (sortOptions != null) {
-            // If sort options are provided, use them to sort the results
-            int sortOrder = getMongoSortOrder(sortOptions.getSortOrder());
-            sortObject = new BasicDBObject(sortOptions.getField(), sortOrder);
-        } else {
-            // If no sort options are provided but there is a search term, sort on relevance to the search term
-            if (searchTerm != null) {
-                sortObject = new BasicDBObject("score", new BasicDBObject("$meta", "textScore"));
-                projectionObject = sortObject;
-                textScoreAdded = true;
-            }
-        }
+        DBObject filterObject = addPageFilter(createFilterObject(filters, searchTerm), pagination);
+        DBObject sortObject = createSortObject(searchTerm, sortOptions, pagination);
+        DBObject projectionObject = createProjectionObject(searchTerm, sortOptions, null);
+        boolean textScoreAdded = isSortedByTextScore(searchTerm, sortOptions);
 
         List<DBObject> results = query(filterObject, sortObject, projectionObject, pagination);
         List<Map<String, Object>> assets = new ArrayList<Map<String, Object>>();
@@ -184,6 +264,46 @@ public class PersistenceBean implements Persistor {
         return AssetList.createAssetListFromMaps(assets);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public AssetCursor streamAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                       Collection<String> fields) {
+        DBObject filterObject = addPageFilter(createFilterObject(filters, searchTerm), pagination);
+        DBObject sortObject = createSortObject(searchTerm, sortOptions, pagination);
+        DBObject projectionObject = createProjectionObject(searchTerm, sortOptions, fields);
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("streamAllAssets: Querying database with query object " + filterObject);
+            logger.fine("streamAllAssets: sort object " + sortObject);
+            logger.fine("streamAllAssets: projection object " + projectionObject);
+            logger.fine("streamAllAssets: pagination object " + pagination);
+        }
+
+        DBCursor cursor = createCursor(filterObject, sortObject, projectionObject, pagination);
+        try {
+            // Run the query now, so that any problem with it is reported
+            // before the caller starts writing out the results
+            cursor.hasNext();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        return new MongoAssetCursor(cursor, isSortedByTextScore(searchTerm, sortOptions));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String explainAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> fields) {
+        DBObject filterObject = addPageFilter(createFilterObject(filters, searchTerm), pagination);
+        DBObject sortObject = createSortObject(searchTerm, sortOptions, pagination);
+        DBObject projectionObject = createProjectionObject(searchTerm, sortOptions, fields);
+
+        try (DBCursor cursor = createCursor(filterObject, sortObject, projectionObject, pagination)) {
+            return JSON.serialize(cursor.explain());
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public int countAllAssets(Collection<AssetFilter> filters, String searchTerm) {
@@ -195,7 +315,83 @@ public class PersistenceBean implements Persistor {
     @SuppressWarnings("unchecked")
     @Override
     public List<Object> getDistinctValues(String field, Collection<AssetFilter> filters, String searchTerm) {
-        return getAssetCollection().distinct(field, createFilterObject(filters, searchTerm));
+        BasicDBObject filterObject = createFilterObject(filters, searchTerm);
+        RequestTrace.queryMade(filterObject, null, null);
+        return getAssetCollection().distinct(field, filterObject);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Map<Object, Integer>> summarizeAssets(Collection<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+        List<String> fieldList = new ArrayList<>(new LinkedHashSet<>(fields));
+        Map<String, Map<Object, Integer>> summary = new LinkedHashMap<>();
+        for (String field : fieldList) {
+            summary.put(field, new LinkedHashMap<Object, Integer>());
+        }
+        if (fieldList.isEmpty()) {
+            return summary;
+        }
+
+        BasicDBObject filterObject = createFilterObject(filters, searchTerm);
+        RequestTrace.queryMade(filterObject, null, null);
+        List<DBObject> pipeline = createSummaryPipeline(fieldList, filterObject);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("summarizeAssets: aggregating with pipeline " + pipeline);
+        }
+
+        AggregationOptions options = AggregationOptions.builder()
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .allowDiskUse(true)
+                .build();
+        try (Cursor cursor = getAssetCollection().aggregate(pipeline, options)) {
+            while (cursor.hasNext()) {
+                DBObject result = cursor.next();
+                DBObject id = (DBObject) result.get(ID);
+                String field = fieldList.get(((Number) id.get("k")).intValue());
+                summary.get(field).put(id.get("v"), ((Number) result.get("count")).intValue());
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Creates the aggregation pipeline used by
+     * {@link #summarizeAssets(Collection, Collection, String)}.
+     * <p>
+     * Each matching asset is turned into a list of pairs, one for each field, of the field's
+     * position in the list and the field's value. Unwinding the pairs, and then any values which
+     * are arrays, gives one document for each value of each field in each asset. These are grouped
+     * by asset, field and value, so that an asset which repeats a value is only counted once, and
+     * then by field and value to count the assets.
+     */
+    private static List<DBObject> createSummaryPipeline(List<String> fields, BasicDBObject filterObject) {
+        List<DBObject> pipeline = new ArrayList<>();
+        if (!filterObject.isEmpty()) {
+            pipeline.add(new BasicDBObject("$match", filterObject));
+        }
+
+        // Selects the value of the field at position $$k, using one $cond for each field
+        BasicDBList positions = new BasicDBList();
+        Object value = "$" + fields.get(fields.size() - 1);
+        for (int i = fields.size() - 2; i >= 0; i--) {
+            BasicDBObject isField = new BasicDBObject("$eq", Arrays.<Object> asList("$$k", i));
+            value = new BasicDBObject("$cond", Arrays.asList(isField, "$" + fields.get(i), value));
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            positions.add(i);
+        }
+        BasicDBObject pairs = new BasicDBObject("$map", new BasicDBObject("input", new BasicDBObject("$literal", positions))
+                .append("as", "k")
+                .append("in", new BasicDBObject("k", "$$k").append("v", value)));
+
+        pipeline.add(new BasicDBObject("$project", new BasicDBObject("pairs", pairs)));
+        pipeline.add(new BasicDBObject("$unwind", "$pairs"));
+        pipeline.add(new BasicDBObject("$unwind", "$pairs.v"));
+        pipeline.add(new BasicDBObject("$group", new BasicDBObject(ID, new BasicDBObject("asset", "$" + ID).append("k", "$pairs.k").append("v", "$pairs.v"))));
+        pipeline.add(new BasicDBObject("$group", new BasicDBObject(ID, new BasicDBObject("k", "$" + ID + ".k").append("v", "$" + ID + ".v"))
+                .append("count", new BasicDBObject("$sum", 1))));
+        pipeline.add(new BasicDBObject("$sort", new BasicDBObject("count", -1).append(ID + ".v", 1)));
+        return pipeline;
     }
 
     /**
@@ -263,20 +459,11 @@ public class PersistenceBean implements Persistor {
         }
 
         List<DBObject> results = new ArrayList<DBObject>();
-        try (DBCursor cursor = getAssetCollection().find(filterObject, projectionObject)) {
+        try (DBCursor cursor = createCursor(filterObject, sortObject, projectionObject, pagination)) {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("query: found " + cursor.count() + " assets.");
             }
 
-            if (pagination != null) {
-                cursor.skip(pagination.getOffset());
-                cursor.limit(pagination.getLimit());
-            }
-
-            if (sortObject != null) {
-                cursor.sort(sortObject);
-            }
-
             for (DBObject obj : cursor) {
                 convertObjectIdToHexString(obj);
                 results.add(obj);
@@ -285,11 +472,147 @@ public class PersistenceBean implements Persistor {
         return results;
     }
 
+    /**
+     * Create a cursor over the assets collection. The query is not sent to the database until the
+     * cursor is first used.
+     */
+    private DBCursor createCursor(DBObject filterObject, DBObject sortObject, DBObject projectionObject, PaginationOptions pagination) {
+        RequestTrace.queryMade(filterObject, sortObject, projectionObject);
+        DBCursor cursor = getAssetCollection().find(filterObject, projectionObject);
+
+        if (pagination != null) {
+            cursor.skip(pagination.getOffset());
+            cursor.limit(pagination.getLimit());
+        }
+
+        if (sortObject != null) {
+            cursor.sort(sortObject);
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Create the sort object for a query. If no sort options are given but there is a search term,
+     * the results are sorted on their relevance to the search term.
+     * <p>
+     * If the results are paginated, they are also sorted on their id, so that each page starts
+     * exactly where the last one ended, as required by {@link PageToken}.
+     *
+     * @return the sort object, or null if the results should not be sorted
+     */
+    private DBObject createSortObject(String searchTerm, SortOptions sortOptions, PaginationOptions pagination) {
+        boolean paged = pagination != null && PageToken.isSupported(searchTerm, sortOptions);
+        if (sortOptions != null) {
+            int sortOrder = getMongoSortOrder(sortOptions.getSortOrder());
+            BasicDBObject sortObject = new BasicDBObject(sortOptions.getField(), sortOrder);
+            if (paged) {
+                sortObject.append(ID, sortOrder);
+            }
+            return sortObject;
+        } else if (searchTerm != null) {
+            return new BasicDBObject("score", new BasicDBObject("$meta", "textScore"));
+        } else if (paged) {
+            return new BasicDBObject(ID, 1);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a condition to a filter object which only matches the assets which sort after the
+     * position given by the page token in the pagination options, if there is one.
+     * <p>
+     * The condition relies on the sort field holding values of a single type, as MongoDB only
+     * compares values of the same type in a query. Assets which are missing the field sort as if
+     * it were null, which is before any other value.
+     *
+     * @return the new filter object
+     */
+    private DBObject addPageFilter(BasicDBObject filterObject, PaginationOptions pagination) {
+        if (pagination == null || pagination.getAfter() == null) {
+            return filterObject;
+        }
+
+        PageToken after = pagination.getAfter();
+        ObjectId afterId = new ObjectId(after.getId());
+        DBObject pageObject;
+        if (after.getField() == null) {
+            pageObject = new BasicDBObject(ID, new BasicDBObject("$gt", afterId));
+        } else {
+            String field = after.getField();
+            Object value = after.getValue();
+            boolean ascending = after.getSortOrder() == SortOrder.ASCENDING;
+            String comparison = ascending ? "$gt" : "$lt";
+
+            BasicDBList alternatives = new BasicDBList();
+            // Assets with the same value in the sort field, but a later id
+            alternatives.add(new BasicDBObject(field, value).append(ID, new BasicDBObject(comparison, afterId)));
+            if (value == null) {
+                if (ascending) {
+                    alternatives.add(new BasicDBObject(field, new BasicDBObject("$ne", null)));
+                }
+            } else {
+                alternatives.add(new BasicDBObject(field, new BasicDBObject(comparison, value)));
+                if (!ascending) {
+                    alternatives.add(new BasicDBObject(field, null));
+                }
+            }
+            pageObject = new BasicDBObject("$or", alternatives);
+        }
+
+        if (filterObject.isEmpty()) {
+            return pageObject;
+        }
+        BasicDBList both = new BasicDBList();
+        both.add(filterObject);
+        both.add(pageObject);
+        return new BasicDBObject("$and", both);
+    }
+
+    /**
+     * Create the projection object for a query. A projection is needed when only some fields are
+     * to be read, and when sorting on the text score, which then has to be removed from each
+     * result.
+     * <p>
+     * The field the results are sorted by is always included, so that a {@link PageToken} can be
+     * created from the last result on a page.
+     *
+     * @param fields the fields to read, or null to read every field
+     * @return the projection object, or null if all fields should be returned
+     */
+    private DBObject createProjectionObject(String searchTerm, SortOptions sortOptions, Collection<String> fields) {
+        BasicDBObject projection = null;
+        if (fields != null) {
+            List<String> included = new ArrayList<>(fields);
+            if (sortOptions != null) {
+                included.add(sortOptions.getField());
+            }
+            projection = new BasicDBObject();
+            for (String field : FieldProjection.normalize(included)) {
+                projection.put(field, 1);
+            }
+        }
+
+        if (isSortedByTextScore(searchTerm, sortOptions)) {
+            if (projection == null) {
+                projection = new BasicDBObject();
+            }
+            projection.put("score", new BasicDBObject("$meta", "textScore"));
+        }
+        return projection;
+    }
+
+    private static boolean isSortedByTextScore(String searchTerm, SortOptions sortOptions) {
+        return sortOptions == null && searchTerm != null;
+    }
+
     private int queryCount(DBObject filterObject) {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("queryCount: Querying database with query object " + filterObject);
         }
 
+        RequestTrace.queryMade(filterObject, null, null);
         DBCursor cursor = getAssetCollection().find(filterObject);
         int count = cursor.count();
 
@@ -328,11 +651,18 @@ public class PersistenceBean implements Persistor {
         if (resultObj == null) {
             throw new NonExistentArtefactException(assetId.toString(), "asset");
         }
-        convertObjectIdToHexString(resultObj);
+        return toAsset(resultObj);
+    }
+
+    /**
+     * Converts an asset document, as read from or written to the database, to an Asset.
+     */
+    private static Asset toAsset(DBObject obj) {
+        convertObjectIdToHexString(obj);
         // All entries in a Mongo document have string keys, this is part of
         // the BSON spec, so this should be safe. Not very nice though.
         @SuppressWarnings("unchecked")
-        Map<String, Object> asset = resultObj.toMap();
+        Map<String, Object> asset = obj.toMap();
         return Asset.createAssetFromMap(asset);
     }
 
@@ -348,17 +678,14 @@ public class PersistenceBean implements Persistor {
             logger.fine("createAsset: inserting object into the database: " + obj);
         }
 
-        coll.insert(obj);
-
-        Asset createdAsset = null;
-        try {
-            createdAsset = retrieveAsset((ObjectId) obj.get(ID));
-        } catch (NonExistentArtefactException e) {
-            // This should not happen. If it does it is a repository bug
-            throw new RepositoryException("Created asset could not be retrieved from the database.", e);
+        // The asset is given a new id, so the upsert always inserts it. Unlike a plain insert,
+        // this returns the stored document, without a second round trip to read it back.
+        if (obj.get(ID) == null) {
+            obj.put(ID, new ObjectId());
         }
-
-        return createdAsset;
+        setChange(obj, nextChangeSequence());
+        DBObject created = coll.findAndModify(new BasicDBObject(ID, obj.get(ID)), null, null, false, obj, true, true);
+        return toAsset(created);
     }
 
     @Override
@@ -380,9 +707,55 @@ public class PersistenceBean implements Persistor {
             logger.fine(msg);
         }
 
-        coll.update(query, obj);
+        setChange(obj, nextChangeSequence());
+
+        // Replace the asset and read back the new version in a single operation
+        DBObject updated = coll.findAndModify(query, null, null, false, obj, true, false);
+        if (updated == null) {
+            throw new NonExistentArtefactException(assetId, "asset");
+        }
+        return toAsset(updated);
+    }
 
-        return retrieveAsset(objId);
+    /** {@inheritDoc} */
+    @Override
+    public Asset updateAssetState(String assetId, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn) {
+        DBObject query = createStateQuery(new ObjectId(assetId), fromStates);
+        DBObject update = createStateUpdate(toState, lastUpdatedOn, nextChangeSequence());
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("updateAssetState: query object: " + query + "\nupdate:" + update);
+        }
+
+        DBObject updated = getAssetCollection().findAndModify(query, null, null, false, update, true, false);
+        return updated == null ? null : toAsset(updated);
+    }
+
+    /**
+     * Creates a query which matches an asset only if it is in one of the given states.
+     */
+    private static DBObject createStateQuery(ObjectId assetId, Collection<Asset.State> fromStates) {
+        List<String> fromValues = new ArrayList<>();
+        for (Asset.State state : fromStates) {
+            fromValues.add(state.getValue());
+        }
+        return new BasicDBObject(ID, assetId).append(Asset.STATE, new BasicDBObject("$in", fromValues));
+    }
+
+    private static DBObject createStateUpdate(Asset.State toState, String lastUpdatedOn, long changeSequence) {
+        DBObject fields = new BasicDBObject(Asset.STATE, toState.getValue()).append(Asset.LAST_UPDATED_ON, lastUpdatedOn);
+        setChange(fields, changeSequence);
+        return new BasicDBObject("$set", fields);
+    }
+
+    /**
+     * Sets the change sequence number and change time of an asset, or of the fields to set on an
+     * asset. The time is read after the number has been taken, so that the changes given lower
+     * numbers are known to have taken them no later than this time.
+     */
+    private static void setChange(DBObject obj, long changeSequence) {
+        obj.put(Asset.CHANGE_SEQUENCE, changeSequence);
+        obj.put(Asset.CHANGE_TIME, System.currentTimeMillis());
     }
 
     /**
@@ -395,22 +768,198 @@ public class PersistenceBean implements Persistor {
         coll.remove(query);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> deleteAssets(Collection<String> assetIds) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String assetId : assetIds) {
+            ids.add(new ObjectId(assetId));
+        }
+        DBCollection coll = getAssetCollection();
+        DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", ids));
+        DBObject projection = new BasicDBObject(ID, 1);
+        RequestTrace.queryMade(query, null, projection);
+
+        // Find which of the assets exist, so that only those are reported as deleted
+        List<ObjectId> existing = new ArrayList<>();
+        try (DBCursor cursor = coll.find(query, projection)) {
+            for (DBObject asset : cursor) {
+                existing.add((ObjectId) asset.get(ID));
+            }
+        }
+
+        List<String> deleted = new ArrayList<>();
+        if (!existing.isEmpty()) {
+            coll.remove(new BasicDBObject(ID, new BasicDBObject("$in", existing)));
+            for (ObjectId id : existing) {
+                deleted.add(id.toStringMongod());
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("deleteAssets: deleted " + deleted.size() + " of " + assetIds.size() + " assets");
+        }
+        return deleted;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeAssets(List<AssetWrite> writes, boolean ordered) {
+        DBCollection coll = getAssetCollection();
+
+        // The database only reports how many documents the updates and deletes matched in total,
+        // so read the assets they are for first, to know which of them will match. Those which
+        // won't are left out of the bulk write. The states are updated as each write is added, as
+        // there may be more than one write for the same asset.
+        Map<ObjectId, String> states = new HashMap<>();
+        List<ObjectId> ids = new ArrayList<>();
+        for (AssetWrite write : writes) {
+            if (write.getType() != AssetWrite.Type.INSERT) {
+                ids.add(new ObjectId(write.getAssetId()));
+            }
+        }
+        if (!ids.isEmpty()) {
+            DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", ids));
+            try (DBCursor cursor = coll.find(query, new BasicDBObject(Asset.STATE, 1))) {
+                for (DBObject obj : cursor) {
+                    states.put((ObjectId) obj.get(ID), (String) obj.get(Asset.STATE));
+                }
+            }
+        }
+
+        List<AssetWrite> sent = new ArrayList<>();
+        int expectedMatches = 0;
+        int changes = 0;
+        for (AssetWrite write : writes) {
+            switch (write.getType()) {
+                case INSERT:
+                    states.put(new ObjectId(write.getAssetId()), (String) write.getAsset().getProperties().get(Asset.STATE));
+                    changes++;
+                    break;
+                case SET_STATE: {
+                    ObjectId id = new ObjectId(write.getAssetId());
+                    if (!states.containsKey(id) || !write.getFromStates().contains(Asset.State.forValue(states.get(id)))) {
+                        write.setOutcome(AssetWrite.Outcome.NOT_MATCHED);
+                        continue;
+                    }
+                    states.put(id, write.getToState().getValue());
+                    expectedMatches++;
+                    changes++;
+                    break;
+                }
+                case DELETE: {
+                    ObjectId id = new ObjectId(write.getAssetId());
+                    if (!states.containsKey(id)) {
+                        write.setOutcome(AssetWrite.Outcome.NOT_MATCHED);
+                        continue;
+                    }
+                    states.remove(id);
+                    expectedMatches++;
+                    break;
+                }
+            }
+            sent.add(write);
+        }
+        if (sent.isEmpty()) {
+            return;
+        }
+
+        // Take the change sequence numbers before writing, so that each write carries its number
+        long changeSequence = changes == 0 ? -1 : nextChangeSequences(changes);
+        BulkWriteOperation bulk = ordered ? coll.initializeOrderedBulkOperation() : coll.initializeUnorderedBulkOperation();
+        for (AssetWrite write : sent) {
+            switch (write.getType()) {
+                case INSERT:
+                    DBObject obj = new BasicDBObject(write.getAsset().getProperties());
+                    convertHexIdToObjectId(obj);
+                    setChange(obj, changeSequence);
+                    bulk.insert(obj);
+                    write.setChangeSequence(changeSequence++);
+                    break;
+                case SET_STATE:
+                    DBObject query = createStateQuery(new ObjectId(write.getAssetId()), write.getFromStates());
+                    bulk.find(query).updateOne(createStateUpdate(write.getToState(), write.getLastUpdatedOn(), changeSequence));
+                    write.setChangeSequence(changeSequence++);
+                    break;
+                case DELETE:
+                    bulk.find(new BasicDBObject(ID, new ObjectId(write.getAssetId()))).removeOne();
+                    break;
+            }
+        }
+
+        BulkWriteResult result;
+        Map<Integer, String> errors = new HashMap<>();
+        try {
+            result = bulk.execute();
+        } catch (BulkWriteException e) {
+            result = e.getWriteResult();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error.getMessage());
+            }
+        }
+
+        boolean stopped = false;
+        for (int i = 0; i < sent.size(); i++) {
+            AssetWrite write = sent.get(i);
+            if (stopped) {
+                write.setOutcome(AssetWrite.Outcome.NOT_ATTEMPTED);
+            } else if (errors.containsKey(i)) {
+                write.setOutcome(AssetWrite.Outcome.FAILED, errors.get(i));
+                stopped = ordered;
+            } else {
+                write.setOutcome(AssetWrite.Outcome.APPLIED);
+            }
+        }
+
+        // Another request may have changed or deleted some of the assets since they were read, in
+        // which case read them again to find out which writes didn't match
+        if (result.getMatchedCount() + result.getRemovedCount() < expectedMatches) {
+            checkWritesMatched(sent);
+        }
+    }
+
+    /**
+     * Reads the assets which the updates and deletes in a bulk write were for, and changes the
+     * outcome of those which don't seem to have been applied to {@link AssetWrite.Outcome#NOT_MATCHED}.
+     */
+    private void checkWritesMatched(List<AssetWrite> writes) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (AssetWrite write : writes) {
+            if (write.getType() != AssetWrite.Type.INSERT) {
+                ids.add(new ObjectId(write.getAssetId()));
+            }
+        }
+        Map<String, String> states = new HashMap<>();
+        DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", ids));
+        try (DBCursor cursor = getAssetCollection().find(query, new BasicDBObject(Asset.STATE, 1))) {
+            for (DBObject obj : cursor) {
+                states.put(obj.get(ID).toString(), (String) obj.get(Asset.STATE));
+            }
+        }
+
+        for (AssetWrite write : writes) {
+            if (write.getOutcome() != AssetWrite.Outcome.APPLIED) {
+                continue;
+            }
+            boolean applied;
+            if (write.getType() == AssetWrite.Type.SET_STATE) {
+                applied = write.getToState().getValue().equals(states.get(write.getAssetId()));
+            } else {
+                applied = write.getType() == AssetWrite.Type.INSERT || !states.containsKey(write.getAssetId());
+            }
+            if (!applied) {
+                write.setOutcome(AssetWrite.Outcome.NOT_MATCHED);
+            }
+        }
+    }
+
     /**
      * @param attachmentContentStream
      * @return
      */
     @Override
     public AttachmentContentMetadata createAttachmentContent(String name, String contentType, InputStream attachmentContentStream) {
-        // Do not specify a bucket (so the data will be stored in fs.files and fs.chunks)
-        GridFSInputFile gfsFile = gridFS.createFile(attachmentContentStream);
-        ObjectId id = new ObjectId();
-        gfsFile.setContentType(contentType);
-        gfsFile.setId(id);
-        String filename = id.toString();
-        gfsFile.setFilename(filename);
-        gfsFile.save();
-
-        return new AttachmentContentMetadata(gfsFile.getFilename(), gfsFile.getLength());
+        return newContentStore.createContent(contentType, attachmentContentStream);
     }
 
     /**
@@ -460,8 +1009,60 @@ public class PersistenceBean implements Persistor {
     }
 
     @Override
-    public void deleteAttachmentContent(String attachmentId) {
-        gridFS.remove(attachmentId);
+    public void deleteAttachmentContent(String gridFSId) {
+        DBCollection files = getContentFilesCollection();
+        DBObject decrement = new BasicDBObject("$inc", new BasicDBObject(REFERENCE_COUNT, -1));
+        DBObject release = new BasicDBObject("$set", new BasicDBObject(REFERENCE_COUNT, 0));
+        while (true) {
+            // If other attachments still refer to the content, just remove this reference
+            DBObject sharedQuery = new BasicDBObject(FILENAME, gridFSId).append(REFERENCE_COUNT, new BasicDBObject("$gt", 1));
+            if (files.findAndModify(sharedQuery, decrement) != null) {
+                return;
+            }
+
+            // Otherwise this is the last reference, or the content was stored before references
+            // were counted. Setting the count to zero stops referenceExistingContent from finding
+            // the content while it is being removed.
+            DBObject lastQuery = new BasicDBObject(FILENAME, gridFSId).append(REFERENCE_COUNT, new BasicDBObject("$not", new BasicDBObject("$gt", 1)));
+            if (files.findAndModify(lastQuery, release) != null || files.count(new BasicDBObject(FILENAME, gridFSId)) == 0) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("deleteAttachmentContent: removing content " + gridFSId);
+                }
+                GridFSDBFile file = gridFS.findOne(gridFSId);
+                if (file != null) {
+                    getContentStore(file).removeContent(file);
+                }
+                return;
+            }
+
+            // A reference was added between the two updates, so try again
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setContentHash(String gridFSId, String sha256) {
+        DBObject query = new BasicDBObject(FILENAME, gridFSId);
+        DBObject update = new BasicDBObject("$set", new BasicDBObject(CONTENT_HASH, sha256).append(REFERENCE_COUNT, 1));
+        getContentFilesCollection().update(query, update);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AttachmentContentMetadata referenceExistingContent(String sha256) {
+        DBObject query = new BasicDBObject(CONTENT_HASH, sha256).append(REFERENCE_COUNT, new BasicDBObject("$gt", 0));
+        // Clearing the mark stops the sweeper from removing the content before the new attachment
+        // which refers to it has been stored
+        DBObject update = new BasicDBObject("$inc", new BasicDBObject(REFERENCE_COUNT, 1)).append("$unset", new BasicDBObject(ORPHANED_AT, ""));
+        DBObject file = getContentFilesCollection().findAndModify(query, update);
+        if (file == null) {
+            return null;
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("referenceExistingContent: reusing content " + file.get(FILENAME) + " for hash " + sha256);
+        }
+        return new AttachmentContentMetadata((String) file.get(FILENAME), ((Number) file.get("length")).longValue(), (String) file.get("contentType"));
     }
 
     @Override
@@ -470,6 +1071,115 @@ public class PersistenceBean implements Persistor {
         getAttachmentCollection().remove(query);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> deleteAttachmentsForAssets(Collection<String> assetIds) {
+        List<String> gridFSIds = new ArrayList<>();
+        if (assetIds.isEmpty()) {
+            return gridFSIds;
+        }
+
+        DBCollection coll = getAttachmentCollection();
+        DBObject query = new BasicDBObject(Attachment.ASSET_ID, new BasicDBObject("$in", new ArrayList<>(assetIds)));
+        DBObject projection = new BasicDBObject(Attachment.GRIDFS_ID, 1);
+        RequestTrace.queryMade(query, null, projection);
+
+        // Only the attachments which are found are removed, so that the content of every removed
+        // attachment is known. An attachment added while this runs is not removed.
+        List<ObjectId> ids = new ArrayList<>();
+        try (DBCursor cursor = coll.find(query, projection)) {
+            for (DBObject attachment : cursor) {
+                ids.add((ObjectId) attachment.get(ID));
+                Object gridFSId = attachment.get(Attachment.GRIDFS_ID);
+                if (gridFSId instanceof String) {
+                    gridFSIds.add((String) gridFSId);
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            coll.remove(new BasicDBObject(ID, new BasicDBObject("$in", ids)));
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("deleteAttachmentsForAssets: deleted " + ids.size() + " attachments for " + assetIds.size() + " assets");
+        }
+        return gridFSIds;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteAttachmentContents(Collection<String> gridFSIds) {
+        releaseContents(gridFSIds);
+    }
+
+    /**
+     * Removes references to content as described by {@link #deleteAttachmentContents(Collection)}.
+     *
+     * @return the total length of the content which had no references left, and was removed
+     */
+    private long releaseContents(Collection<String> gridFSIds) {
+        if (gridFSIds.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Integer> references = new HashMap<>();
+        for (String gridFSId : gridFSIds) {
+            Integer count = references.get(gridFSId);
+            references.put(gridFSId, count == null ? 1 : count + 1);
+        }
+        Map<Integer, List<String>> idsByCount = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : references.entrySet()) {
+            List<String> ids = idsByCount.get(entry.getValue());
+            if (ids == null) {
+                ids = new ArrayList<>();
+                idsByCount.put(entry.getValue(), ids);
+            }
+            ids.add(entry.getKey());
+        }
+
+        // Content stored before references were counted has no count, so it ends up negative
+        DBCollection files = getContentFilesCollection();
+        for (Map.Entry<Integer, List<String>> entry : idsByCount.entrySet()) {
+            DBObject query = new BasicDBObject(FILENAME, new BasicDBObject("$in", entry.getValue()));
+            DBObject decrement = new BasicDBObject("$inc", new BasicDBObject(REFERENCE_COUNT, -entry.getKey()));
+            files.update(query, decrement, false, true);
+        }
+
+        // Once the count of some content has dropped to zero, referenceExistingContent can't find
+        // it any more, so it can be removed without anything else starting to use it
+        DBObject unreferenced = new BasicDBObject(FILENAME, new BasicDBObject("$in", new ArrayList<>(references.keySet())))
+                .append(REFERENCE_COUNT, new BasicDBObject("$lte", 0));
+        return removeContents(gridFS.find(unreferenced));
+    }
+
+    /**
+     * Removes some content from whichever stores hold it, using one request for each store.
+     *
+     * @param files the GridFS files which hold the metadata of the content
+     * @return the total length of the content which was removed
+     */
+    private long removeContents(List<GridFSDBFile> files) {
+        long length = 0;
+        Map<AttachmentContentStore, List<GridFSDBFile>> filesByStore = new HashMap<>();
+        for (GridFSDBFile file : files) {
+            AttachmentContentStore store = getContentStore(file);
+            List<GridFSDBFile> storeFiles = filesByStore.get(store);
+            if (storeFiles == null) {
+                storeFiles = new ArrayList<>();
+                filesByStore.put(store, storeFiles);
+            }
+            storeFiles.add(file);
+            length += file.getLength();
+        }
+        for (Map.Entry<AttachmentContentStore, List<GridFSDBFile>> entry : filesByStore.entrySet()) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("removeContents: removing " + entry.getValue().size() + " pieces of content");
+            }
+            entry.getKey().removeContents(entry.getValue());
+        }
+        return length;
+    }
+
     @Override
     public AttachmentList findAttachmentsForAsset(String assetId) {
         BasicDBObject query = new BasicDBObject("assetId", assetId);
@@ -490,6 +1200,43 @@ public class PersistenceBean implements Persistor {
         return AttachmentList.createAttachmentListFromMaps(results);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, AttachmentList> findAttachmentsForAssets(Collection<String> assetIds) {
+        if (assetIds.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        Map<String, List<Map<String, Object>>> results = new HashMap<>();
+        BasicDBObject query = new BasicDBObject("assetId", new BasicDBObject("$in", new ArrayList<>(assetIds)));
+        int count = 0;
+        try (DBCursor cursor = getAttachmentCollection().find(query)) {
+            for (DBObject attachment : cursor) {
+                convertObjectIdToHexString(attachment);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> oneResult = attachment.toMap();
+                String assetId = (String) oneResult.get("assetId");
+                List<Map<String, Object>> assetResults = results.get(assetId);
+                if (assetResults == null) {
+                    assetResults = new ArrayList<>();
+                    results.put(assetId, assetResults);
+                }
+                assetResults.add(oneResult);
+                count++;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("findAttachmentsForAssets: found " + count + " attachments for " + assetIds.size() + " assets");
+        }
+
+        Map<String, AttachmentList> attachments = new HashMap<>();
+        for (Map.Entry<String, List<Map<String, Object>>> entry : results.entrySet()) {
+            attachments.put(entry.getKey(), AttachmentList.createAttachmentListFromMaps(entry.getValue()));
+        }
+        return attachments;
+    }
+
     /**
      * Returns an InputStream of the content of the attachment or null if the attachment does not
      * exist.
@@ -501,20 +1248,463 @@ public class PersistenceBean implements Persistor {
         GridFSDBFile file = gridFS.findOne(gridFSId);
 
         if (file != null) {
-            InputStream contentStream = file.getInputStream();
-            String contentType = file.getContentType();
-            return new AttachmentContentResponse(contentStream, contentType);
+            return getContentStore(file).retrieveContent(file);
         } else {
             throw new NonExistentArtefactException();
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public int migrateAttachmentContent() {
+        if (fileSystemContentStore == null) {
+            throw new IllegalStateException("No content store directory has been configured");
+        }
+
+        int migrated = 0;
+        DBObject query = new BasicDBObject(AttachmentContentStore.STORE, new BasicDBObject("$exists", false));
+        DBObject projection = new BasicDBObject(ID, 1);
+        try (DBCursor cursor = getContentFilesCollection().find(query, projection)) {
+            for (DBObject found : cursor) {
+                GridFSDBFile file = gridFS.findOne(new BasicDBObject(ID, found.get(ID)));
+                if (file == null || !fileSystemContentStore.copyFromGridFS(file)) {
+                    // The content was deleted while we were migrating
+                    continue;
+                }
+
+                // The metadata now says the content is in the filesystem, so the chunks are no
+                // longer needed
+                getContentChunksCollection().remove(new BasicDBObject(FILES_ID, file.getId()));
+                migrated++;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("migrateAttachmentContent: moved content " + file.getFilename() + " to the filesystem");
+                }
+            }
+        }
+        return migrated;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedAttachments(String after, Date cutoff, int limit) {
+        DBCollection coll = getAttachmentCollection();
+        DBObject projection = new BasicDBObject(Attachment.ASSET_ID, 1).append(Attachment.GRIDFS_ID, 1);
+        List<DBObject> attachments = findSweepBatch(coll, after, cutoff, limit, projection);
+        if (attachments.isEmpty()) {
+            return new OrphanBatch(null, 0, 0, 0);
+        }
+
+        Set<ObjectId> assetIds = new HashSet<>();
+        for (DBObject attachment : attachments) {
+            Object assetId = attachment.get(Attachment.ASSET_ID);
+            if (assetId instanceof String && ObjectId.isValid((String) assetId)) {
+                assetIds.add(new ObjectId((String) assetId));
+            }
+        }
+        Set<String> existingAssets = new HashSet<>();
+        DBObject assetQuery = new BasicDBObject(ID, new BasicDBObject("$in", new ArrayList<>(assetIds)));
+        try (DBCursor cursor = getAssetCollection().find(assetQuery, new BasicDBObject(ID, 1))) {
+            for (DBObject asset : cursor) {
+                existingAssets.add(((ObjectId) asset.get(ID)).toStringMongod());
+            }
+        }
+
+        // Each orphan is removed on its own, so that if another server is sweeping at the same time,
+        // only the one which removes an attachment releases its content
+        int removed = 0;
+        List<String> gridFSIds = new ArrayList<>();
+        for (DBObject attachment : attachments) {
+            if (!existingAssets.contains(attachment.get(Attachment.ASSET_ID)) && coll.findAndRemove(new BasicDBObject(ID, attachment.get(ID))) != null) {
+                removed++;
+                Object gridFSId = attachment.get(Attachment.GRIDFS_ID);
+                if (gridFSId instanceof String) {
+                    gridFSIds.add((String) gridFSId);
+                }
+            }
+        }
+
+        if (removed > 0 && logger.isLoggable(Level.FINE)) {
+            logger.fine("sweepOrphanedAttachments: removed " + removed + " attachments whose assets do not exist");
+        }
+        long reclaimed = releaseContents(gridFSIds);
+        return new OrphanBatch(nextSweepId(attachments, limit), attachments.size(), removed, reclaimed);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedContent(String after, Date cutoff, int limit) {
+        DBCollection files = getContentFilesCollection();
+        DBObject projection = new BasicDBObject(FILENAME, 1).append(ORPHANED_AT, 1);
+        List<DBObject> found = findSweepBatch(files, after, cutoff, limit, projection);
+        if (found.isEmpty()) {
+            return new OrphanBatch(null, 0, 0, 0);
+        }
+
+        List<Object> filenames = new ArrayList<>();
+        for (DBObject file : found) {
+            filenames.add(file.get(FILENAME));
+        }
+        DBObject referenceQuery = new BasicDBObject(Attachment.GRIDFS_ID, new BasicDBObject("$in", filenames));
+        @SuppressWarnings("unchecked")
+        List<Object> referencedIds = getAttachmentCollection().distinct(Attachment.GRIDFS_ID, referenceQuery);
+        Set<Object> referenced = new HashSet<>(referencedIds);
+
+        List<Object> unmark = new ArrayList<>();
+        List<Object> mark = new ArrayList<>();
+        List<Object> expired = new ArrayList<>();
+        for (DBObject file : found) {
+            Date orphanedAt = (Date) file.get(ORPHANED_AT);
+            if (referenced.contains(file.get(FILENAME))) {
+                if (orphanedAt != null) {
+                    unmark.add(file.get(ID));
+                }
+            } else if (orphanedAt == null) {
+                mark.add(file.get(ID));
+            } else if (!orphanedAt.after(cutoff)) {
+                expired.add(file.get(ID));
+            }
+        }
+
+        if (!unmark.isEmpty()) {
+            DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", unmark));
+            files.update(query, new BasicDBObject("$unset", new BasicDBObject(ORPHANED_AT, "")), false, true);
+        }
+        if (!mark.isEmpty()) {
+            DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", mark));
+            files.update(query, new BasicDBObject("$set", new BasicDBObject(ORPHANED_AT, new Date())), false, true);
+        }
+
+        int removed = 0;
+        long reclaimed = 0;
+        if (!expired.isEmpty()) {
+            // Adding a reference clears the mark, so any content which is still marked has not been
+            // referred to since it was marked. Setting the count to zero stops
+            // referenceExistingContent from finding it while it is being removed.
+            DBObject claim = new BasicDBObject(ID, new BasicDBObject("$in", expired)).append(ORPHANED_AT, new BasicDBObject("$lte", cutoff));
+            files.update(claim, new BasicDBObject("$set", new BasicDBObject(REFERENCE_COUNT, 0)), false, true);
+            List<GridFSDBFile> claimed = gridFS.find(claim);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("sweepOrphanedContent: removing " + claimed.size() + " pieces of content which no attachment refers to");
+            }
+            reclaimed = removeContents(claimed);
+            removed = claimed.size();
+        }
+        return new OrphanBatch(nextSweepId(found, limit), found.size(), removed, reclaimed);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OrphanBatch sweepOrphanedChunks(String after, Date cutoff, int limit) {
+        DBCollection chunks = getContentChunksCollection();
+        ObjectId end = new ObjectId(cutoff, 0, 0);
+        List<Object> fileIds = new ArrayList<>();
+        Object last = after == null ? null : new ObjectId(after);
+        boolean finished = false;
+
+        // Step from the chunks of one file to the next along the index on files_id, rather than
+        // reading every chunk
+        DBObject fields = new BasicDBObject(FILES_ID, 1);
+        while (fileIds.size() < limit) {
+            BasicDBObject range = new BasicDBObject("$lt", end);
+            if (last != null) {
+                range.append("$gt", last);
+            }
+            DBObject chunk = chunks.findOne(new BasicDBObject(FILES_ID, range), fields, fields);
+            if (chunk == null) {
+                finished = true;
+                break;
+            }
+            last = chunk.get(FILES_ID);
+            fileIds.add(last);
+        }
+        if (fileIds.isEmpty()) {
+            return new OrphanBatch(null, 0, 0, 0);
+        }
+
+        // Chunks also belong to no file if their file has been moved to another store
+        Set<Object> gridFSFiles = new HashSet<>();
+        DBObject fileQuery = new BasicDBObject(ID, new BasicDBObject("$in", fileIds)).append(AttachmentContentStore.STORE,
+                                                                                            new BasicDBObject("$exists", false));
+        try (DBCursor cursor = getContentFilesCollection().find(fileQuery, new BasicDBObject(ID, 1))) {
+            for (DBObject file : cursor) {
+                gridFSFiles.add(file.get(ID));
+            }
+        }
+
+        List<Object> orphans = new ArrayList<>();
+        long reclaimed = 0;
+        for (Object fileId : fileIds) {
+            if (!gridFSFiles.contains(fileId)) {
+                orphans.add(fileId);
+                reclaimed += getChunksLength(chunks, fileId);
+            }
+        }
+        if (!orphans.isEmpty()) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("sweepOrphanedChunks: removing the chunks of " + orphans.size() + " files which do not exist");
+            }
+            chunks.remove(new BasicDBObject(FILES_ID, new BasicDBObject("$in", orphans)));
+        }
+        return new OrphanBatch(finished ? null : ((ObjectId) last).toStringMongod(), fileIds.size(), orphans.size(), reclaimed);
+    }
+
+    /**
+     * Reads the next batch of a sweep of a collection whose ids are ObjectIds, which are ordered
+     * by the time they were created.
+     *
+     * @return the objects after the given id, and created before the cutoff, in order of id
+     */
+    private static List<DBObject> findSweepBatch(DBCollection coll, String after, Date cutoff, int limit, DBObject projection) {
+        BasicDBObject range = new BasicDBObject("$lt", new ObjectId(cutoff, 0, 0));
+        if (after != null) {
+            range.append("$gt", new ObjectId(after));
+        }
+        DBObject query = new BasicDBObject(ID, range);
+        List<DBObject> batch = new ArrayList<>();
+        try (DBCursor cursor = coll.find(query, projection).sort(new BasicDBObject(ID, 1)).limit(limit)) {
+            for (DBObject found : cursor) {
+                batch.add(found);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the id to carry on a sweep from after the given batch, or null if the batch was the
+     *         last
+     */
+    private static String nextSweepId(List<DBObject> batch, int limit) {
+        if (batch.size() < limit) {
+            return null;
+        }
+        return ((ObjectId) batch.get(batch.size() - 1).get(ID)).toStringMongod();
+    }
+
+    /**
+     * Works out the length of a file from its first and last chunks, without reading the others.
+     * Every chunk of a file but the last is the same size.
+     */
+    private static long getChunksLength(DBCollection chunks, Object fileId) {
+        DBObject fields = new BasicDBObject("n", 1).append("data", 1);
+        DBObject first = chunks.findOne(new BasicDBObject(FILES_ID, fileId), fields, new BasicDBObject("n", 1));
+        DBObject last = chunks.findOne(new BasicDBObject(FILES_ID, fileId), fields, new BasicDBObject("n", -1));
+        if (first == null || last == null) {
+            return 0;
+        }
+        long chunkCount = ((Number) last.get("n")).longValue() - ((Number) first.get("n")).longValue();
+        return chunkCount * getDataLength(first) + getDataLength(last);
+    }
+
+    private static int getDataLength(DBObject chunk) {
+        Object data = chunk.get("data");
+        return data instanceof byte[] ? ((byte[]) data).length : 0;
+    }
+
+    /**
+     * Returns the store which holds the content described by a GridFS file
+     */
+    private AttachmentContentStore getContentStore(GridFSDBFile file) {
+        Object store = file.get(AttachmentContentStore.STORE);
+        if (store == null) {
+            return gridFSContentStore;
+        } else if (FileSystemContentStore.NAME.equals(store)) {
+            if (fileSystemContentStore == null) {
+                throw new RepositoryException("Attachment content " + file.getFilename()
+                                              + " is stored in the filesystem but lars/contentStoreDirectory is not configured");
+            }
+            return fileSystemContentStore;
+        } else {
+            throw new RepositoryException("Attachment content " + file.getFilename() + " is in an unknown store: " + store);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createJob(Map<String, Object> job) {
+        BasicDBObject state = new BasicDBObject(job);
+        convertHexIdToObjectId(state);
+        db.getCollection(JOBS_COLLECTION).insert(state);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> retrieveJob(String jobId) throws NonExistentArtefactException {
+        DBObject job = db.getCollection(JOBS_COLLECTION).findOne(new BasicDBObject(ID, new ObjectId(jobId)));
+        if (job == null) {
+            throw new NonExistentArtefactException(jobId, "job");
+        }
+        convertObjectIdToHexString(job);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = job.toMap();
+        return map;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> updateJob(String jobId, Collection<String> fromStates, Map<String, Object> fields) {
+        DBObject query = new BasicDBObject(ID, new ObjectId(jobId)).append(JobManager.STATE, new BasicDBObject("$in", new ArrayList<>(fromStates)));
+        DBObject update = new BasicDBObject("$set", new BasicDBObject(fields));
+        DBObject job = db.getCollection(JOBS_COLLECTION).findAndModify(query, null, null, false, update, true, false);
+        if (job == null) {
+            return null;
+        }
+        convertObjectIdToHexString(job);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = job.toMap();
+        return map;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Map<String, Object>> retrieveJobs(Collection<String> states) {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        DBObject query = new BasicDBObject(JobManager.STATE, new BasicDBObject("$in", new ArrayList<>(states)));
+        try (DBCursor cursor = db.getCollection(JOBS_COLLECTION).find(query)) {
+            for (DBObject job : cursor) {
+                convertObjectIdToHexString(job);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = job.toMap();
+                jobs.add(map);
+            }
+        }
+        return jobs;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String allocateNewId() {
         return new ObjectId().toStringMongod();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public RepositoryGeneration getRepositoryGeneration() {
+        DBObject counter = db.getCollection(COUNTERS_COLLECTION).findOne(new BasicDBObject(ID, CHANGE_SEQUENCE_COUNTER));
+        if (counter == null) {
+            return new RepositoryGeneration(0, true);
+        }
+        long value = ((Number) counter.get("value")).longValue();
+        Object changeTime = counter.get(COUNTER_CHANGE_TIME);
+        boolean settled = !(changeTime instanceof Number)
+                          || System.currentTimeMillis() - ((Number) changeTime).longValue() >= ChangePosition.SETTLE_MILLIS;
+        return new RepositoryGeneration(value, settled);
+    }
+
+    /**
+     * Takes the next number from the change sequence.
+     */
+    private long nextChangeSequence() {
+        return nextChangeSequences(1);
+    }
+
+    /**
+     * Takes a number of consecutive numbers from the change sequence.
+     *
+     * @return the first of the numbers
+     */
+    private long nextChangeSequences(int count) {
+        DBObject query = new BasicDBObject(ID, CHANGE_SEQUENCE_COUNTER);
+        DBObject update = new BasicDBObject("$inc", new BasicDBObject("value", (long) count))
+                .append("$max", new BasicDBObject(COUNTER_CHANGE_TIME, System.currentTimeMillis()));
+        DBObject counter = db.getCollection(COUNTERS_COLLECTION).findAndModify(query, null, null, false, update, true, true);
+        return ((Number) counter.get("value")).longValue() - count + 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetChange(String assetId) {
+        long sequence = nextChangeSequence();
+        DBObject query = new BasicDBObject(ID, new ObjectId(assetId));
+        DBObject fields = new BasicDBObject();
+        setChange(fields, sequence);
+        getAssetCollection().update(query, new BasicDBObject("$set", fields));
+        return sequence;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetDeletion(String assetId) {
+        return recordAssetDeletions(Collections.singletonList(assetId)).get(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Long> recordAssetDeletions(List<String> assetIds) {
+        List<Long> sequences = new ArrayList<>();
+        if (assetIds.isEmpty()) {
+            return sequences;
+        }
+
+        long sequence = nextChangeSequences(assetIds.size());
+        Date deletedOn = new Date();
+        DBCollection collection = db.getCollection(DELETED_ASSETS_COLLECTION);
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (String assetId : assetIds) {
+            DBObject query = new BasicDBObject(ID, new ObjectId(assetId));
+            DBObject fields = new BasicDBObject(DELETED_ON, deletedOn);
+            setChange(fields, sequence);
+            bulk.find(query).upsert().updateOne(new BasicDBObject("$set", fields));
+            sequences.add(sequence++);
+        }
+        bulk.execute();
+        return sequences;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetList retrieveAssetsChangedSince(long sequence, int limit) {
+        DBObject filterObject = new BasicDBObject(Asset.CHANGE_SEQUENCE, new BasicDBObject("$gt", sequence));
+        DBObject sortObject = new BasicDBObject(Asset.CHANGE_SEQUENCE, 1);
+
+        List<Map<String, Object>> assets = new ArrayList<>();
+        try (DBCursor cursor = getAssetCollection().find(filterObject).sort(sortObject).limit(limit)) {
+            for (DBObject obj : cursor) {
+                convertObjectIdToHexString(obj);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> asset = obj.toMap();
+                assets.add(asset);
+            }
+        }
+        return AssetList.createAssetListFromMaps(assets);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<AssetDeletion> retrieveDeletionsSince(long sequence, int limit) {
+        DBObject filterObject = new BasicDBObject(Asset.CHANGE_SEQUENCE, new BasicDBObject("$gt", sequence));
+        DBObject sortObject = new BasicDBObject(Asset.CHANGE_SEQUENCE, 1);
+
+        List<AssetDeletion> deletions = new ArrayList<>();
+        try (DBCursor cursor = db.getCollection(DELETED_ASSETS_COLLECTION).find(filterObject).sort(sortObject).limit(limit)) {
+            for (DBObject obj : cursor) {
+                Object changeTime = obj.get(Asset.CHANGE_TIME);
+                deletions.add(new AssetDeletion(((ObjectId) obj.get(ID)).toStringMongod(),
+                        ((Number) obj.get(Asset.CHANGE_SEQUENCE)).longValue(),
+                        changeTime instanceof Number ? ((Number) changeTime).longValue() : -1));
+            }
+        }
+        return deletions;
+    }
+
+    /**
+     * Gives a change sequence number to each asset which does not have one, such as the assets
+     * created before the repository recorded changes, so that they are included in the change feed.
+     */
+    private void addMissingChangeSequences() {
+        DBObject query = new BasicDBObject(Asset.CHANGE_SEQUENCE, new BasicDBObject("$exists", false));
+        DBObject projection = new BasicDBObject(ID, 1);
+        int count = 0;
+        try (DBCursor cursor = getAssetCollection().find(query, projection)) {
+            for (DBObject obj : cursor) {
+                recordAssetChange(((ObjectId) obj.get(ID)).toStringMongod());
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.info("Added a change sequence number to " + count + " assets");
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void initialize() {
@@ -529,7 +1719,99 @@ public class PersistenceBean implements Persistor {
         }
         assets.ensureIndex(textIndex.get());
 
+        // Add the indexes for the filters and sorts that clients use
+        List<String> sortFields = Collections.emptyList();
+        if (configuration != null) {
+            sortFields = configuration.getIndexedSortFields();
+        }
+        for (IndexDefinition index : AssetIndexes.getIndexes(sortFields)) {
+            createIndex(assets, index);
+        }
+
         // Add Attachment(assetId) index
         attachments.ensureIndex(new BasicDBObject("assetId", 1));
+
+        // Add index for finding attachment content by its hash
+        getContentFilesCollection().ensureIndex(new BasicDBObject(CONTENT_HASH, 1));
+
+        // Add index for finding the assets deleted since a change
+        DBCollection deletedAssets = db.getCollection(DELETED_ASSETS_COLLECTION);
+        deletedAssets.ensureIndex(new BasicDBObject(Asset.CHANGE_SEQUENCE, 1));
+
+        // Have MongoDB remove the record of each deletion once clients no longer need it. Records
+        // written before they held the date are dated now, so that they expire too.
+        deletedAssets.ensureIndex(new BasicDBObject(DELETED_ON, 1),
+                                  new BasicDBObject("expireAfterSeconds", TimeUnit.MILLISECONDS.toSeconds(AssetDeletion.RETENTION_MILLIS)));
+        deletedAssets.update(new BasicDBObject(DELETED_ON, new BasicDBObject("$exists", false)),
+                             new BasicDBObject("$set", new BasicDBObject(DELETED_ON, new Date())), false, true);
+
+        // Have MongoDB remove the record of each job a while after it finishes
+        db.getCollection(JOBS_COLLECTION).ensureIndex(new BasicDBObject(JobManager.FINISHED, 1),
+                                                      new BasicDBObject("expireAfterSeconds", JOB_RECORD_LIFETIME_SECONDS));
+
+        // Start the change sequence from the current time rather than zero, so that if the
+        // database is ever recreated, the generations it uses will not repeat those of the old
+        // one, and a client holding a position in the change feed of the old one does not skip
+        // changes
+        DBObject query = new BasicDBObject(ID, CHANGE_SEQUENCE_COUNTER);
+        DBObject update = new BasicDBObject("$setOnInsert", new BasicDBObject("value", System.currentTimeMillis()));
+        db.getCollection(COUNTERS_COLLECTION).update(query, update, true, false);
+        addMissingChangeSequences();
+    }
+
+    /**
+     * Creates an index if it does not already exist. If the index cannot be created, for instance
+     * because an administrator has already created an index on the same fields with another name,
+     * a warning is logged and the repository carries on without it.
+     */
+    private static void createIndex(DBCollection collection, IndexDefinition index) {
+        try {
+            collection.createIndex(index.getKeys(), index.getOptions());
+        } catch (MongoException e) {
+            logger.warning("Could not create index " + index + " on the " + collection.getName() + " collection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An {@link AssetCursor} which reads assets from a mongo {@link DBCursor} as it is advanced.
+     */
+    private static class MongoAssetCursor implements AssetCursor {
+
+        private final DBCursor cursor;
+        private final boolean textScoreAdded;
+
+        private MongoAssetCursor(DBCursor cursor, boolean textScoreAdded) {
+            this.cursor = cursor;
+            this.textScoreAdded = textScoreAdded;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public Asset next() {
+            DBObject obj = cursor.next();
+            convertObjectIdToHexString(obj);
+            if (textScoreAdded) {
+                obj.removeField("score");
+            }
+            // BSON spec says that all keys have to be strings
+            // so this should be safe.
+            @SuppressWarnings("unchecked")
+            Map<String, Object> assetMap = obj.toMap();
+            return Asset.createAssetFromMap(assetMap);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
     }
 }
@@ -18,12 +18,15 @@ package com.ibm.ws.lars.rest;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import com.ibm.ws.lars.rest.exceptions.AssetPersistenceException;
 import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
@@ -58,6 +61,40 @@ public interface Persistor {
      */
     public AssetList retrieveAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions);
 
+    /**
+     * Retrieve a cursor over the assets which match the given filters and search term.
+     * <p>
+     * The parameters have the same meaning as in
+     * {@link #retrieveAllAssets(Collection, String, PaginationOptions, SortOptions)}, but rather than
+     * reading every matching asset into memory, the assets are read from the store as the cursor is
+     * advanced. The caller is responsible for closing the returned cursor.
+     *
+     * @param filters filters to apply to the results, may be empty to not filter
+     * @param searchTerm search to match against the results, may be null to not search
+     * @param pagination pagination options to apply to the results, may be null to not apply
+     *            pagination
+     * @param sortOptions options describing how to sort the results, may be null if the results are
+     *            not to be sorted
+     * @param fields the fields of each asset to read, as returned by
+     *            {@link FieldProjection#normalize(Collection)}, or null to read every field. The id,
+     *            and the field the results are sorted by, are always read.
+     * @return a cursor over the matching assets
+     */
+    public AssetCursor streamAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                       Collection<String> fields);
+
+    /**
+     * Describes how the store would run the query made by
+     * {@link #streamAllAssets(Collection, String, PaginationOptions, SortOptions, Collection)} with
+     * the same parameters, including which indexes it would use. The query is run, but its results
+     * are not returned.
+     *
+     * @return the store's description of the query plan as a JSON object, in a format which
+     *         depends on the store
+     */
+    public String explainAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> fields);
+
     /**
      * Retrieve the number of assets which match the given set of filters.
      * <p>
@@ -89,6 +126,24 @@ public interface Persistor {
      */
     public List<Object> getDistinctValues(String field, Collection<AssetFilter> filters, String searchTerm);
 
+    /**
+     * Gets the distinct values of each of a list of fields in all assets which match the given
+     * filters and searchTerm, together with the number of those assets which hold each value. All
+     * of the fields are read in a single pass over the matching assets.
+     * <p>
+     * As with {@link #getDistinctValues(String, Collection, String)}, each element of a field which
+     * holds an array is treated as a separate value. An asset which holds the same value more than
+     * once in a field is only counted once for that value.
+     *
+     * @param fields the fields to look at
+     * @param filters the filters
+     * @param searchTerm the search term
+     * @return a map from each field to a map from each of its values to the number of assets with
+     *         that value, ordered by the number of assets, largest first. A field which is not held
+     *         by any of the assets maps to an empty map.
+     */
+    public Map<String, Map<Object, Integer>> summarizeAssets(Collection<String> fields, Collection<AssetFilter> filters, String searchTerm);
+
     /**
      * Retrieve a single asset by its id.
      *
@@ -99,31 +154,78 @@ public interface Persistor {
     /**
      * Create a single asset.
      *
-     * The id need not be set on the asset that is passed in.
+     * The id need not be set on the asset that is passed in. The asset is given the next number
+     * from the change sequence as part of the same write.
      *
      * @throws InvalidJsonAssetException
      */
     public Asset createAsset(Asset newAsset) throws InvalidJsonAssetException;
 
     /**
-     * Update an existing asset.
+     * Update an existing asset, giving it the next number from the change sequence as part of the
+     * same write.
      *
-     * @return the updated asset, or if the id didn't previously exist, returns null
+     * @return the updated asset
      * @throws InvalidJsonAssetException
-     * @throws NonExistentArtefactException
+     * @throws NonExistentArtefactException if the asset doesn't exist
      */
     public Asset updateAsset(String assetId, Asset asset) throws InvalidJsonAssetException, NonExistentArtefactException;
 
+    /**
+     * Moves an asset into a new state, but only if it is currently in one of the given states. The
+     * check and the change are made as a single atomic operation, so two requests which change the
+     * state of the same asset at once cannot both succeed from the same starting state. The asset
+     * is given the next number from the change sequence as part of the same write.
+     *
+     * @param assetId the id of the asset
+     * @param fromStates the states the asset must be in for it to be changed
+     * @param toState the state to move the asset to
+     * @param lastUpdatedOn the new value of the asset's {@link Asset#LAST_UPDATED_ON} field
+     * @return the asset after the change, or null if the asset doesn't exist or is not in one of
+     *         the given states
+     */
+    public Asset updateAssetState(String assetId, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn);
+
     /**
      * Delete the asset with the specified id.
      */
     public void deleteAsset(String assetId);
 
+    /**
+     * Deletes a number of assets in one request. Their attachments are not deleted.
+     *
+     * @param assetIds the ids of the assets
+     * @return the ids of the assets which existed and have been deleted
+     */
+    public List<String> deleteAssets(Collection<String> assetIds);
+
+    /**
+     * Makes a number of writes to the assets as a single bulk write, and sets the outcome of each
+     * write. A write which changes the state of or deletes an asset that doesn't exist, or is not
+     * in an expected state, is not an error, and does not stop an ordered bulk write. Each insert
+     * and change of state is given a number from the change sequence as part of the write, which
+     * is set on the write.
+     *
+     * @param writes the writes to make
+     * @param ordered if true, the writes are made in order, and no more are made once one fails.
+     *            If false, the writes may be made in any order, and all of them are tried.
+     */
+    public void writeAssets(List<AssetWrite> writes, boolean ordered);
+
     /**
      * Returns the list of all the attachments on the object with the specified assetId.
      */
     public AttachmentList findAttachmentsForAsset(String assetId);
 
+    /**
+     * Returns the attachments on each of a number of assets, read with a single query.
+     *
+     * @param assetIds the ids of the assets
+     * @return a map from asset id to the attachments on that asset. Assets which have no
+     *         attachments are not in the map.
+     */
+    public Map<String, AttachmentList> findAttachmentsForAssets(Collection<String> assetIds);
+
     /**
      * Creates attachment content (ie file contents) in the persistence store.
      *
@@ -144,10 +246,31 @@ public interface Persistor {
     public Attachment retrieveAttachmentMetadata(String attachmentId) throws NonExistentArtefactException;
 
     /**
-     * Deletes the content of the specified attachment. Caller should also delete the attachment
-     * metadata.
+     * Records the SHA-256 hash of some attachment content which has just been created, so that it
+     * can be found by {@link #referenceExistingContent(String)}. The content starts with a single
+     * reference.
+     *
+     * @param gridFSId the id of the content, as returned by {@link #createAttachmentContent}
+     * @param sha256 the hex encoded SHA-256 hash of the content
+     */
+    public void setContentHash(String gridFSId, String sha256);
+
+    /**
+     * Finds attachment content with the given SHA-256 hash and adds a reference to it, so that it
+     * will not be deleted until {@link #deleteAttachmentContent(String)} has been called once more.
+     *
+     * @param sha256 the hex encoded SHA-256 hash of the content
+     * @return the metadata of the content, or null if no content with the hash is stored
      */
-    public void deleteAttachmentContent(String attachmentId);
+    public AttachmentContentMetadata referenceExistingContent(String sha256);
+
+    /**
+     * Removes a reference to some attachment content, and deletes the content if that was the last
+     * reference. Caller should also delete the attachment metadata.
+     *
+     * @param gridFSId the id of the content, from the attachment's gridFSId field
+     */
+    public void deleteAttachmentContent(String gridFSId);
 
     /**
      * Deletes the metadata for the specified attachment. Callers should have already deleted
@@ -155,6 +278,26 @@ public interface Persistor {
      */
     public void deleteAttachmentMetadata(String attachmentId);
 
+    /**
+     * Deletes the metadata of every attachment which belongs to one of the given assets. Callers
+     * should pass the result to {@link #deleteAttachmentContents(Collection)} so that the content
+     * of the attachments is deleted too.
+     *
+     * @param assetIds the ids of the assets
+     * @return the gridFSId of each deleted attachment which had content, with an entry for each
+     *         attachment even if some of them shared their content
+     */
+    public List<String> deleteAttachmentsForAssets(Collection<String> assetIds);
+
+    /**
+     * Removes a reference to each piece of attachment content, in the same way as
+     * {@link #deleteAttachmentContent(String)}, using as few requests as possible. Content whose
+     * id is given more than once has that many references removed.
+     *
+     * @param gridFSIds the ids of the content
+     */
+    public void deleteAttachmentContents(Collection<String> gridFSIds);
+
     /**
      * Returns an input stream of the content of the specified attachment.
      *
@@ -162,12 +305,150 @@ public interface Persistor {
      */
     public AttachmentContentResponse retrieveAttachmentContent(String gridFSId) throws NonExistentArtefactException;
 
+    /**
+     * Moves all attachment content which is held in GridFS into the filesystem content store.
+     * Content which is added or deleted while the migration runs is handled safely.
+     *
+     * @return the number of pieces of content which were moved
+     * @throws IllegalStateException if no directory has been configured for the filesystem store
+     */
+    public int migrateAttachmentContent();
+
+    /**
+     * Removes the metadata of attachments whose asset no longer exists, together with their
+     * references to attachment content, looking at one batch of attachments.
+     *
+     * @param after the id of the last attachment looked at by the previous batch, or null to start
+     *            from the beginning
+     * @param cutoff attachments uploaded after this time are not looked at
+     * @param limit the largest number of attachments to look at
+     * @return what the batch removed, and where the next batch should start
+     */
+    public OrphanBatch sweepOrphanedAttachments(String after, Date cutoff, int limit);
+
+    /**
+     * Removes attachment content which no attachment refers to, looking at one batch of content.
+     * <p>
+     * Content which was stored before the cutoff, and which no attachment refers to, is marked as
+     * orphaned. It is removed by a later sweep if it was marked before that sweep's cutoff and is
+     * still not referred to. Adding a reference to the content clears the mark, so content which
+     * is still being attached when it is first seen is not removed.
+     *
+     * @param after the id of the last content looked at by the previous batch, or null to start
+     *            from the beginning
+     * @param cutoff content stored or marked after this time is left alone
+     * @param limit the largest number of pieces of content to look at
+     * @return what the batch removed, and where the next batch should start
+     */
+    public OrphanBatch sweepOrphanedContent(String after, Date cutoff, int limit);
+
+    /**
+     * Removes GridFS chunks which belong to no GridFS file, such as those left by an upload which
+     * failed part way through, looking at the chunks of one batch of files.
+     *
+     * @param after the id of the last file looked at by the previous batch, or null to start from
+     *            the beginning
+     * @param cutoff chunks written after this time are not looked at
+     * @param limit the largest number of files to look at
+     * @return what the batch removed, and where the next batch should start
+     */
+    public OrphanBatch sweepOrphanedChunks(String after, Date cutoff, int limit);
+
+    /**
+     * Stores the record of a new job. The record must hold the job's id, from
+     * {@link #allocateNewId()}, in its _id field. Values which are Dates are stored as dates.
+     *
+     * @param job the record of the job
+     */
+    public void createJob(Map<String, Object> job);
+
+    /**
+     * Retrieves the record of a job.
+     *
+     * @param jobId the id of the job
+     * @return the record of the job
+     * @throws NonExistentArtefactException if there is no record of the job
+     */
+    public Map<String, Object> retrieveJob(String jobId) throws NonExistentArtefactException;
+
+    /**
+     * Sets some of the fields of the record of a job, if the job is in one of the given states. The
+     * check and the update are made in one operation, so only one of several updates which expect
+     * the same state can be made.
+     *
+     * @param jobId the id of the job
+     * @param fromStates the states the job must be in, as held in its state field
+     * @param fields the fields to set
+     * @return the updated record, or null if there is no record of the job or it is not in one of
+     *         the states
+     */
+    public Map<String, Object> updateJob(String jobId, Collection<String> fromStates, Map<String, Object> fields);
+
+    /**
+     * Retrieves the records of the jobs which are in any of the given states.
+     *
+     * @param states the states, as held in the jobs' state field
+     * @return the records of the jobs
+     */
+    public List<Map<String, Object>> retrieveJobs(Collection<String> states);
+
     /**
      * Allocates and returns a new unique id. This is useful if the id of an object has to be set
      * before creating it in the persistence store.
      */
     public String allocateNewId();
 
+    /**
+     * Returns the current generation of the repository, which is read from the change sequence,
+     * so that it changes with every write which takes a number from the sequence.
+     */
+    public RepositoryGeneration getRepositoryGeneration();
+
+    /**
+     * Records that the attachments of an asset have changed, by setting the
+     * {@link Asset#CHANGE_SEQUENCE} and {@link Asset#CHANGE_TIME} fields of the asset to a new
+     * value from a sequence which only increases. The methods which write an asset record the
+     * change to it as part of the write, so need not call this.
+     *
+     * @return the sequence number given to the change
+     */
+    public long recordAssetChange(String assetId);
+
+    /**
+     * Records that an asset has been deleted, so that clients reading the changes to the repository
+     * learn of the deletion. The deletion takes a number from the same sequence as the changes to
+     * the assets, and the record of it is kept for {@link AssetDeletion#RETENTION_MILLIS}.
+     *
+     * @return the sequence number given to the deletion
+     */
+    public long recordAssetDeletion(String assetId);
+
+    /**
+     * Records that a number of assets have been deleted, in the same way as
+     * {@link #recordAssetDeletion(String)}, but with a single bulk write.
+     *
+     * @return the sequence number given to each deletion, in the same order as the ids
+     */
+    public List<Long> recordAssetDeletions(List<String> assetIds);
+
+    /**
+     * Retrieve the assets which have changed since the given sequence number, in the order in which
+     * they were changed. Each asset appears once, with its latest change.
+     *
+     * @param sequence only assets with a higher {@link Asset#CHANGE_SEQUENCE} are returned
+     * @param limit the maximum number of assets to return
+     */
+    public AssetList retrieveAssetsChangedSince(long sequence, int limit);
+
+    /**
+     * Retrieve the assets which have been deleted since the given sequence number, in the order in
+     * which they were deleted.
+     *
+     * @param sequence only deletions with a higher sequence number are returned
+     * @param limit the maximum number of deletions to return
+     */
+    public List<AssetDeletion> retrieveDeletionsSince(long sequence, int limit);
+
     /**
      * Do any work that should be done to initialize any data stores
      */
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+/**
+ * A cache of the results of queries against the repository.
+ * <p>
+ * Depending on the operation in the {@link QueryCacheKey}, a value is either a list of asset
+ * property maps, an Integer count or a list of distinct field values. Cached values must not be
+ * modified.
+ * <p>
+ * A change to any asset can change the result of any query, so the whole cache is invalidated
+ * on every write to the repository. Writes made through other servers are found through the
+ * repository generation held in the database, which every write moves on: the generation is passed
+ * to {@link #checkRepositoryGeneration(RepositoryGeneration)} before the cache is used, and if it
+ * has moved on since the cache last saw it, the whole cache is invalidated.
+ */
+class QueryCache extends LruCache<QueryCacheKey, Object> {
+
+    /** Allowance for the key and the map entry which holds each value */
+    private static final long ENTRY_OVERHEAD = 512;
+
+    /**
+     * @param maxSize the approximate maximum number of bytes of heap to use
+     */
+    QueryCache(long maxSize) {
+        super(maxSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long weigh(Object value) {
+        return ENTRY_OVERHEAD + estimateSize(value);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * The key of an entry in the {@link QueryCache}.
+ * <p>
+ * The filters are held in a canonical form, so that two queries which differ only in the order
+ * of their parameters, or the order of the values given for a parameter, share the same entry.
+ */
+final class QueryCacheKey {
+
+    /**
+     * The kind of result which is cached
+     */
+    enum Operation {
+        /** The list of assets matching the query */
+        ASSETS,
+        /** The number of assets matching the query */
+        COUNT,
+        /** The distinct values of some fields, and their counts, across the assets matching the query */
+        SUMMARY
+    }
+
+    private final Operation operation;
+    private final List<AssetFilter> filters;
+    private final String searchTerm;
+    private final PaginationOptions pagination;
+    private final SortOptions sortOptions;
+    /** The fields summarized, or null if this is not a summary */
+    private final List<String> summaryFields;
+    /** The fields read from each asset, or null if every field is read */
+    private final List<String> projection;
+
+    private QueryCacheKey(Operation operation, Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                          Collection<String> summaryFields, Collection<String> projection) {
+        this.operation = operation;
+        this.filters = canonicalize(filters);
+        this.searchTerm = searchTerm;
+        this.pagination = pagination;
+        this.sortOptions = sortOptions;
+        this.summaryFields = summaryFields == null ? null : new ArrayList<>(new TreeSet<>(summaryFields));
+        this.projection = projection == null ? null : FieldProjection.normalize(projection);
+    }
+
+    static QueryCacheKey forAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> projection) {
+        return new QueryCacheKey(Operation.ASSETS, filters, searchTerm, pagination, sortOptions, null, projection);
+    }
+
+    static QueryCacheKey forCount(Collection<AssetFilter> filters, String searchTerm) {
+        return new QueryCacheKey(Operation.COUNT, filters, searchTerm, null, null, null, null);
+    }
+
+    static QueryCacheKey forSummary(Collection<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+        return new QueryCacheKey(Operation.SUMMARY, filters, searchTerm, null, null, fields, null);
+    }
+
+    /**
+     * Copies a collection of filters, sorting the filters by key and the conditions of each
+     * filter by operation and value.
+     * <p>
+     * The persistence layer ANDs together all of the filters and ORs together the conditions of a
+     * single filter, so neither order changes the result of the query. The filters passed in are
+     * not modified.
+     */
+    private static List<AssetFilter> canonicalize(Collection<AssetFilter> filters) {
+        List<AssetFilter> result = new ArrayList<>();
+        if (filters == null) {
+            return result;
+        }
+
+        for (AssetFilter filter : filters) {
+            List<Condition> conditions = new ArrayList<>();
+            if (filter.getConditions() != null) {
+                conditions.addAll(filter.getConditions());
+                Collections.sort(conditions, CONDITION_ORDER);
+            }
+            result.add(new AssetFilter(filter.getKey(), conditions));
+        }
+        Collections.sort(result, FILTER_ORDER);
+        return result;
+    }
+
+    private static final Comparator<AssetFilter> FILTER_ORDER = new Comparator<AssetFilter>() {
+        @Override
+        public int compare(AssetFilter o1, AssetFilter o2) {
+            return compareNullable(o1.getKey(), o2.getKey());
+        }
+    };
+
+    private static final Comparator<Condition> CONDITION_ORDER = new Comparator<Condition>() {
+        @Override
+        public int compare(Condition o1, Condition o2) {
+            int result = compareNullable(o1.getOperation(), o2.getOperation());
+            if (result == 0) {
+                result = compareNullable(o1.getValue(), o2.getValue());
+            }
+            return result;
+        }
+    };
+
+    private static <T extends Comparable<T>> int compareNullable(T a, T b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        } else if (b == null) {
+            return 1;
+        }
+        return a.compareTo(b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return Objects.hash(operation, filters, searchTerm, pagination, sortOptions, summaryFields, projection);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        QueryCacheKey other = (QueryCacheKey) obj;
+        return operation == other.operation
+               && Objects.equals(filters, other.filters)
+               && Objects.equals(searchTerm, other.searchTerm)
+               && Objects.equals(pagination, other.pagination)
+               && Objects.equals(sortOptions, other.sortOptions)
+               && Objects.equals(summaryFields, other.summaryFields)
+               && Objects.equals(projection, other.projection);
+    }
+}
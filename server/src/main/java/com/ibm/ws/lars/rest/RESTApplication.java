@@ -24,8 +24,10 @@ import javax.ws.rs.core.Application;
 public class RESTApplication extends Application {
 
     @Inject
-    RESTApplication(Persistor persistor) {
+    RESTApplication(Persistor persistor, OrphanSweeper orphanSweeper, JobManager jobManager) {
         persistor.initialize();
+        orphanSweeper.start();
+        jobManager.start();
     }
 
 }
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+/**
+ * The generation of the repository, which is the last number taken from the change sequence. It is
+ * shared by every server using the same store, and changes with every write to the assets or
+ * attachments, so two reads which see the same settled generation saw the same content.
+ * <p>
+ * A write takes its number before it is made, so for a short time after a number is taken the
+ * content may still change without the generation changing. The generation is only settled once
+ * the last number was taken longer ago than {@link ChangePosition#SETTLE_MILLIS}, and until then a
+ * result read from the store must not be cached or tagged with it.
+ */
+public final class RepositoryGeneration {
+
+    private final long value;
+    private final boolean settled;
+
+    public RepositoryGeneration(long value, boolean settled) {
+        this.value = value;
+        this.settled = settled;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return true if every write which took a number up to this generation has been made
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+}
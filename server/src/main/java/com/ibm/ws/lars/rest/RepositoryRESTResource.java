@@ -18,12 +18,17 @@ package com.ibm.ws.lars.rest;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,13 +49,17 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
-import org.apache.wink.common.model.multipart.BufferedInMultiPart;
+import org.apache.wink.common.model.multipart.InMultiPart;
 import org.apache.wink.common.model.multipart.InPart;
 
 import com.fasterxml.jackson.core.JsonParseException;
@@ -65,7 +74,7 @@ import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.exceptions.RepositoryException;
 import com.ibm.ws.lars.rest.model.Asset;
-import com.ibm.ws.lars.rest.model.AssetList;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
 import com.ibm.ws.lars.rest.model.AttachmentList;
@@ -92,17 +101,45 @@ public class RepositoryRESTResource {
 
     private static final Logger logger = Logger.getLogger(RepositoryRESTResource.class.getCanonicalName());
 
+    /**
+     * The largest page of assets for which a link to the next page is returned, as the page has to
+     * be held in memory while the link is made
+     */
+    private static final int MAX_LINKED_PAGE_SIZE = 1000;
+
+    /** The largest number of changes returned by one request for the change feed */
+    private static final int MAX_CHANGES_PAGE_SIZE = 1000;
+
+    // These status codes are not in the JAX-RS 1.1 Response.Status enum
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /** How long a client which is turned away because the server is busy should wait */
+    private static final int BUSY_RETRY_SECONDS = 10;
+
     private static final ObjectMapper jsonMapper = new ObjectMapper();
 
     @Inject
     private AssetServiceLayer assetService;
 
+    @Inject
+    private Configuration configuration;
+
+    @Inject
+    private RequestExecutors requestExecutors;
+
+    @Inject
+    private Metrics metrics;
+
+    @Inject
+    private JobManager jobManager;
+
     public RepositoryRESTResource() {
         // constructor left intentionally blank
     }
 
     enum ArtefactType {
-        ASSET("asset"), ATTACHMENT("attachment");
+        ASSET("asset"), ATTACHMENT("attachment"), JOB("job");
         String value;
 
         ArtefactType(String value) {
@@ -118,17 +155,102 @@ public class RepositoryRESTResource {
     @GET
     @Path("/assets")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAssets(@Context UriInfo info) throws JsonProcessingException, InvalidParameterException {
+    public Response getAssets(@Context UriInfo info, @Context Request request, @Context HttpServletRequest httpRequest) throws InvalidParameterException {
 
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("getAssets called with query parameters: " + info.getRequestUri().getRawQuery());
         }
 
-        AssetQueryParameters params = AssetQueryParameters.create(info);
+        // Parse all of the parameters up front, so that the time taken is traced as one phase
+        AssetQueryParameters params;
+        Collection<AssetFilter> filters;
+        PaginationOptions pagination;
+        SortOptions sortOptions;
+        List<String> projection;
+        RequestTrace.enter(RequestTrace.Phase.PARSE);
+        try {
+            params = AssetQueryParameters.create(info);
+            filters = params.getFilters();
+            pagination = params.getPagination();
+            sortOptions = params.getSortOptions();
+            projection = params.getProjection();
+        } finally {
+            RequestTrace.exit();
+        }
+
+        // Read the generation before running the query, so that if the repository changes while
+        // the query runs, the client is given a tag which will not match the next time it asks.
+        // Until the generation has settled, a write may still be in progress, so no tag is given.
+        RepositoryGeneration generation = assetService.getRepositoryGeneration();
+        EntityTag etag = generation.isSettled() ? EntityTags.forQuery(generation.getValue()) : null;
+        ResponseBuilder notModified = evaluatePreconditions(request, null, etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        // The assets are written out as they are read from the database, rather than
+        // building the whole response in memory, as the result could be very large.
+        AssetCursor assets = assetService.streamAllAssets(filters, params.getSearchTerm(), pagination, sortOptions, projection);
+        if (params.getIncludeAttachments()) {
+            assets = assetService.withAttachments(assets, info);
+        }
 
-        AssetList assets = assetService.retrieveAllAssets(params.getFilters(), params.getSearchTerm(), params.getPagination(), params.getSortOptions());
-        String json = assets.toJson();
-        return Response.ok(json).build();
+        // A page of a limited size is read before it is written, so that the link to the next
+        // page, which has to go in the headers, can be made from the last asset on the page
+        String nextPageLink = null;
+        if (pagination != null && pagination.getLimit() > 0 && pagination.getLimit() <= MAX_LINKED_PAGE_SIZE
+            && PageToken.isSupported(params.getSearchTerm(), sortOptions)) {
+            List<Asset> page = new ArrayList<>();
+            try {
+                while (assets.hasNext()) {
+                    page.add(assets.next());
+                }
+            } finally {
+                assets.close();
+            }
+
+            if (page.size() == pagination.getLimit()) {
+                PageToken next = PageToken.after(page.get(page.size() - 1), sortOptions);
+                if (next != null) {
+                    nextPageLink = "<" + createNextPageUri(info, next) + ">; rel=\"next\"";
+                }
+            }
+            assets = new PageAssetCursor(page);
+        }
+
+        StreamingOutput output = offload(new AssetCursorStreamingOutput(assets), httpRequest, requestExecutors.getQueryWriters());
+        if (output == null) {
+            assets.close();
+            String body = getErrorJson(Response.Status.SERVICE_UNAVAILABLE, "Too many lists of assets are being sent, please try again later");
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(body).header("Retry-After", BUSY_RETRY_SECONDS).build();
+        }
+        ResponseBuilder builder = Response.ok(output);
+        if (etag != null) {
+            builder.tag(etag);
+        }
+        if (nextPageLink != null) {
+            builder.header("Link", nextPageLink);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates the URI of the page which follows the current one, which has the same query
+     * parameters as the current request, except that the offset is replaced by the page token.
+     */
+    private String createNextPageUri(UriInfo info, PageToken next) {
+        StringBuilder uri = new StringBuilder(configuration.getRestBaseUri(info)).append("assets?");
+        String rawQuery = info.getRequestUri().getRawQuery();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                String name = param.split("=", 2)[0];
+                if (!param.isEmpty() && !name.equals("offset") && !name.equals(AssetQueryParameters.AFTER_PARAM)) {
+                    uri.append(param).append('&');
+                }
+            }
+        }
+        uri.append(AssetQueryParameters.AFTER_PARAM).append('=').append(next.encode());
+        return uri.toString();
     }
 
     @HEAD
@@ -171,20 +293,206 @@ public class RepositoryRESTResource {
         return Response.ok(asset.toJson()).build();
     }
 
+    /**
+     * Makes several asset writes in one request. The body is an object holding a list of
+     * <code>operations</code>, each of which creates an asset, changes the state of an asset or
+     * deletes an asset, and an optional <code>ordered</code> flag, which defaults to true.
+     * <p>
+     * The response always has status 200, and holds a result for each operation with the status
+     * that the equivalent single request would have returned.
+     *
+     * @see AssetServiceLayer#bulkWrite(List, boolean, String)
+     */
+    @POST
+    @Path("/assets/bulk")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response bulkWriteAssets(String bulkJSON, @Context SecurityContext context) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("bulkWriteAssets called with json content:\n" + bulkJSON);
+        }
+
+        Map<String, Object> request;
+        try {
+            request = jsonMapper.readValue(bulkJSON, new TypeReference<Map<String, Object>>() {});
+        } catch (IOException e) {
+            request = null;
+        }
+        Object operations = request == null ? null : request.get("operations");
+        Object ordered = request == null ? null : request.get("ordered");
+        if (!(operations instanceof List) || (ordered != null && !(ordered instanceof Boolean))) {
+            String body = getErrorJson(Response.Status.BAD_REQUEST, "The body must be an object with an 'operations' list and an optional boolean 'ordered' field");
+            return Response.status(Response.Status.BAD_REQUEST).entity(body).build();
+        }
+        if (((List<?>) operations).size() > AssetServiceLayer.MAX_BULK_OPERATIONS) {
+            String body = getErrorJson(Response.Status.BAD_REQUEST, "No more than " + AssetServiceLayer.MAX_BULK_OPERATIONS + " operations can be made in one request");
+            return Response.status(Response.Status.BAD_REQUEST).entity(body).build();
+        }
+
+        String name = "";
+        Principal principal = context.getUserPrincipal();
+        if (principal != null) {
+            name = principal.getName();
+        }
+
+        List<Map<String, Object>> results = assetService.bulkWrite((List<?>) operations, ordered == null || (Boolean) ordered, name);
+
+        String resultJson;
+        try {
+            resultJson = jsonMapper.writeValueAsString(Collections.singletonMap("results", results));
+        } catch (JsonProcessingException e) {
+            throw new RepositoryException("Could not serialize bulk write results", e);
+        }
+        return Response.ok(resultJson).build();
+    }
+
+    /**
+     * Deletes a number of assets, together with their attachments. The assets are either listed
+     * in the body, as <code>{"ids":["...", ...]}</code>, or, if there is no body, are those which
+     * match the filters and search term in the query parameters, which mean the same as they do
+     * for <code>GET /assets</code>. At least one filter or a search term must be given.
+     * <p>
+     * If there are no more than {@link AssetServiceLayer#DELETE_BATCH_SIZE} assets, they are
+     * deleted before the response is sent, and the response gives the number of assets deleted.
+     * Otherwise, the assets are deleted by a {@link Job}, and the response has status 202 and
+     * gives the status of the job, whose result is the number of assets deleted.
+     */
+    @POST
+    @Path("/assets/delete")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response deleteAssets(String idsJSON, @Context UriInfo info) throws InvalidParameterException, InvalidIdException {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("deleteAssets called with query parameters: " + info.getRequestUri().getRawQuery() + " and json content:\n" + idsJSON);
+        }
+
+        final List<String> ids;
+        if (idsJSON != null && !idsJSON.trim().isEmpty()) {
+            ids = getIdList(idsJSON);
+            if (ids == null) {
+                String body = getErrorJson(Response.Status.BAD_REQUEST, "The body must be an object with an 'ids' list of asset ids");
+                return Response.status(Response.Status.BAD_REQUEST).entity(body).build();
+            }
+            for (String id : ids) {
+                sanitiseId(id, ArtefactType.ASSET);
+            }
+        } else {
+            AssetQueryParameters params = AssetQueryParameters.create(info);
+            if (params.getFilters().isEmpty() && params.getSearchTerm() == null) {
+                String body = getErrorJson(Response.Status.BAD_REQUEST, "Either a list of asset ids, or at least one filter or search term, must be given");
+                return Response.status(Response.Status.BAD_REQUEST).entity(body).build();
+            }
+            ids = assetService.findAssetIds(params.getFilters(), params.getSearchTerm());
+        }
+
+        if (ids.size() <= AssetServiceLayer.DELETE_BATCH_SIZE) {
+            int deleted = assetService.deleteAssets(ids);
+            return Response.ok(toJson(Collections.singletonMap("deleted", deleted))).build();
+        }
+
+        return submitJob(jobManager, new Job() {
+            @Override
+            public String getType() {
+                return "deleteAssets";
+            }
+
+            @Override
+            public Map<String, Object> run(JobContext context) {
+                int deleted = assetService.deleteAssets(ids, context);
+                logger.info("Deleted " + deleted + " of " + ids.size() + " assets");
+                return Collections.<String, Object> singletonMap("deleted", deleted);
+            }
+        }, configuration.getRestBaseUri(info));
+    }
+
+    /**
+     * Starts a job in the background, and makes the response which points the client at it: 202
+     * with the job's status, and its URL in the Location header and the url field, or 503 if too
+     * many jobs are waiting already.
+     */
+    static Response submitJob(JobManager jobManager, Job job, String restBaseUri) {
+        Map<String, Object> status;
+        try {
+            status = jobManager.submit(job);
+        } catch (RejectedExecutionException e) {
+            String body = getErrorJson(Response.Status.SERVICE_UNAVAILABLE, "Too many jobs are waiting to run, please try again later");
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(body).header("Retry-After", BUSY_RETRY_SECONDS).build();
+        }
+        String url = restBaseUri + "jobs/" + status.get("id");
+        status.put("url", url);
+        return Response.status(Response.Status.ACCEPTED).entity(toJson(status)).header(HttpHeaders.LOCATION, url).build();
+    }
+
+    /**
+     * Returns the status of a job which was started by an earlier request, with its progress, and
+     * its result once it has finished.
+     */
+    @GET
+    @Path("/jobs/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response getJob(@PathParam("jobId") String jobId) throws InvalidIdException, NonExistentArtefactException {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getJob called with id of '" + jobId + "'");
+        }
+
+        sanitiseId(jobId, ArtefactType.JOB);
+        return Response.ok(toJson(jobManager.getStatus(jobId))).build();
+    }
+
+    /**
+     * Cancels a job. A job which is waiting to run is cancelled straight away. A running job is
+     * asked to stop, and the response gives its status, which says that cancellation has been
+     * requested; the job's state changes to cancelled once it has stopped.
+     */
+    @DELETE
+    @Path("/jobs/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(ADMIN_ROLE)
+    public Response cancelJob(@PathParam("jobId") String jobId) throws InvalidIdException, NonExistentArtefactException {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("cancelJob called with id of '" + jobId + "'");
+        }
+
+        sanitiseId(jobId, ArtefactType.JOB);
+        Map<String, Object> status = jobManager.cancel(jobId);
+        if (status == null) {
+            String body = getErrorJson(Response.Status.CONFLICT, "The job " + jobId + " has already finished");
+            return Response.status(Response.Status.CONFLICT).entity(body).build();
+        }
+        return Response.ok(toJson(status)).build();
+    }
+
     @GET
     @Path("/assets/{assetId}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAsset(@PathParam("assetId") String assetId, @Context UriInfo uriInfo) throws InvalidIdException, NonExistentArtefactException {
+    public Response getAsset(@PathParam("assetId") String assetId,
+                             @Context UriInfo uriInfo,
+                             @Context Request request) throws InvalidIdException, NonExistentArtefactException, InvalidParameterException {
 
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("getAsset called with id of '" + assetId + "'");
         }
 
         sanitiseId(assetId, ArtefactType.ASSET);
+        List<String> fields = AssetQueryParameters.create(uriInfo).getProjection();
 
         Asset asset = assetService.retrieveAsset(assetId, uriInfo);
 
-        return Response.ok(asset.toJson()).build();
+        EntityTag etag = EntityTags.forAsset(asset, fields);
+        ResponseBuilder notModified = evaluatePreconditions(request, null, etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        // The whole asset is usually cached already, so the fields are selected from it here
+        // rather than by reading only those fields from the database
+        if (fields != null) {
+            asset = Asset.createAssetFromMap(FieldProjection.project(asset.getProperties(), fields));
+        }
+
+        return Response.ok(asset.toJson()).tag(etag).build();
     }
 
     @DELETE
@@ -221,8 +529,11 @@ public class RepositoryRESTResource {
         }
 
         List<String> fields = Arrays.asList(fieldsString.split(","));
+        for (String field : fields) {
+            FieldProjection.checkFieldName(field);
+        }
 
-        List<Map<String, Object>> summary = assetService.summarizeAssets(fields, params.getFilters(), params.getSearchTerm());
+        List<Map<String, Object>> summary = assetService.summarizeAssets(fields, params.getFilters(), params.getSearchTerm(), params.getIncludeCounts());
 
         String resultJson;
         try {
@@ -234,6 +545,52 @@ public class RepositoryRESTResource {
         return Response.ok(resultJson).build();
     }
 
+    /**
+     * Returns the changes made to the assets since a position in the change feed. The position is
+     * the <code>next</code> value from the previous response, or is left out to read every asset.
+     * If <code>more</code> is true, there are more changes to be read from the new position
+     * straight away. If <code>reset</code> is true, the position was too old, and every asset has
+     * been read again from the start.
+     *
+     * @see AssetServiceLayer#retrieveChangesSince(ChangePosition, int, UriInfo)
+     */
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getChanges(@QueryParam("since") String sinceString,
+                               @QueryParam("limit") String limitString,
+                               @Context UriInfo uriInfo) throws InvalidParameterException {
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("getChanges called with query parameters: " + uriInfo.getRequestUri().getRawQuery());
+        }
+
+        ChangePosition since = sinceString == null ? ChangePosition.START : ChangePosition.parse(sinceString);
+
+        int limit = MAX_CHANGES_PAGE_SIZE;
+        if (limitString != null) {
+            try {
+                limit = Integer.parseInt(limitString);
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("limit must be an integer");
+            }
+            if (limit < 1 || limit > MAX_CHANGES_PAGE_SIZE) {
+                throw new InvalidParameterException("limit must be between 1 and " + MAX_CHANGES_PAGE_SIZE);
+            }
+        }
+
+        Map<String, Object> changes = assetService.retrieveChangesSince(since, limit, uriInfo);
+
+        String resultJson;
+        try {
+            resultJson = jsonMapper.writeValueAsString(changes);
+        } catch (JsonProcessingException e) {
+            throw new RepositoryException("Could not serialize changes", e);
+        }
+
+        return Response.ok(resultJson).build();
+    }
+
     @POST
     @Path("/assets/{assetId}/attachments")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -242,7 +599,7 @@ public class RepositoryRESTResource {
     public Response createAttachmentWithContent(@QueryParam("name") String name,
                                                 @PathParam("assetId") String assetId,
                                                 @Context HttpServletRequest request,
-                                                BufferedInMultiPart inMultiPart,
+                                                InMultiPart inMultiPart,
                                                 @Context UriInfo uriInfo
             ) throws InvalidJsonAssetException, InvalidIdException, AssetPersistenceException, NonExistentArtefactException {
 
@@ -252,27 +609,39 @@ public class RepositoryRESTResource {
 
         sanitiseId(assetId, ArtefactType.ASSET);
 
-        List<InPart> parts = inMultiPart.getParts();
-
-        Attachment attachmentMetadata = null;
-        InputStream contentStream = null;
-        String contentType = null;
-
-        for (InPart part : parts) {
-            String partName = part.getPartName();
-            if ("attachmentInfo".equals(partName)) {
-
-                attachmentMetadata = Attachment.jsonToAttachment(part.getInputStream());
-            } else if (partName != null && partName.equals(name)) {
-                contentType = part.getContentType();
+        // The upload is read on this thread, so limit how many are read at once, or a few
+        // clients on slow links could hold every thread the server has
+        if (!requestExecutors.tryStartUpload()) {
+            String body = getErrorJson(Response.Status.SERVICE_UNAVAILABLE, "Too many attachments are being uploaded, please try again later");
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(body).header("Retry-After", BUSY_RETRY_SECONDS).build();
+        }
 
-                contentStream = part.getInputStream();
+        try {
+            // The parts are read from the request as they arrive, rather than being buffered in
+            // memory first, so the content has to be stored before moving on to the next part.
+            Attachment attachmentMetadata = null;
+            Attachment result = null;
+            while (result == null && inMultiPart.hasNext()) {
+                InPart part = inMultiPart.next();
+                String partName = part.getPartName();
+                if ("attachmentInfo".equals(partName)) {
+                    attachmentMetadata = Attachment.jsonToAttachment(part.getInputStream());
+                } else if (partName != null && partName.equals(name)) {
+                    if (attachmentMetadata == null) {
+                        throw new InvalidJsonAssetException("The attachmentInfo part must come before the attachment content");
+                    }
+                    result = assetService.createAttachmentWithContent(assetId, name, attachmentMetadata, part.getContentType(), part.getInputStream(), uriInfo);
+                }
             }
-        }
 
-        Attachment result = assetService.createAttachmentWithContent(assetId, name, attachmentMetadata, contentType, contentStream, uriInfo);
+            if (result == null) {
+                result = assetService.createAttachmentWithContent(assetId, name, attachmentMetadata, null, null, uriInfo);
+            }
 
-        return Response.ok(result.toJson()).build();
+            return Response.ok(result.toJson()).build();
+        } finally {
+            requestExecutors.uploadFinished();
+        }
     }
 
     @POST
@@ -282,6 +651,7 @@ public class RepositoryRESTResource {
     @RolesAllowed(ADMIN_ROLE)
     public Response createAttachmentNoContent(@QueryParam("name") String name,
                                               @PathParam("assetId") String assetId,
+                                              @QueryParam("sha256") String contentHash,
                                               @Context HttpServletRequest request,
                                               String bodyJSON,
                                               @Context UriInfo uriInfo) throws InvalidJsonAssetException, InvalidIdException, AssetPersistenceException, NonExistentArtefactException {
@@ -295,7 +665,14 @@ public class RepositoryRESTResource {
 
         Attachment attachmentMetadata = Attachment.jsonToAttachment(bodyJSON);
 
-        Attachment result = assetService.createAttachmentNoContent(assetId, name, attachmentMetadata, uriInfo);
+        // If the client gives the hash of the content, the attachment uses content which is
+        // already in the repository, and the client only has to upload it if that fails
+        Attachment result;
+        if (contentHash != null) {
+            result = assetService.createAttachmentWithExistingContent(assetId, name, attachmentMetadata, contentHash, uriInfo);
+        } else {
+            result = assetService.createAttachmentNoContent(assetId, name, attachmentMetadata, uriInfo);
+        }
 
         return Response.ok(result.toJson()).build();
     }
@@ -341,7 +718,10 @@ public class RepositoryRESTResource {
     public Response getAttachmentContent(@PathParam("assetId") String assetId,
                                          @PathParam("attachmentId") String attachmentId,
                                          @PathParam("name") String name,
-                                         @Context UriInfo uriInfo) throws InvalidIdException, NonExistentArtefactException {
+                                         @Context UriInfo uriInfo,
+                                         @Context Request request,
+                                         @Context HttpHeaders headers,
+                                         @Context HttpServletRequest httpRequest) throws InvalidIdException, NonExistentArtefactException {
 
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("getAttachmentContent called for assetId: " + assetId
@@ -354,10 +734,64 @@ public class RepositoryRESTResource {
         AttachmentContentResponse contentResponse = assetService.retrieveAttachmentContent(assetId, attachmentId, name, uriInfo);
         if (contentResponse != null) {
             final InputStream contentInputStream = contentResponse.getContentStream();
-            StreamingOutput stream = new InputStreamStreamingOutput(contentInputStream);
 
-            return Response.ok(stream)
-                    .header("Content-Type", contentResponse.getContentType())
+            EntityTag etag = EntityTags.forAttachmentContent(contentResponse.getMD5());
+            Date lastModified = toHttpDate(contentResponse.getUploadDate());
+            ResponseBuilder notModified = evaluatePreconditions(request, lastModified, etag);
+            if (notModified != null) {
+                closeQuietly(contentInputStream);
+                return notModified.build();
+            }
+
+            // Ranges can only be served if the length of the content is known
+            long length = contentResponse.getLength();
+            ByteRange range = null;
+            if (length >= 0 && ByteRange.ifRangeMatches(headers.getRequestHeaders().getFirst("If-Range"), etag, lastModified)) {
+                range = ByteRange.parse(headers.getRequestHeaders().getFirst("Range"), length);
+            }
+
+            if (range == ByteRange.UNSATISFIABLE) {
+                closeQuietly(contentInputStream);
+                return Response.status(HTTP_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + length)
+                        .header("Accept-Ranges", "bytes")
+                        .build();
+            }
+
+            StreamingOutput stream;
+            if (range != null) {
+                stream = offload(new AttachmentStreamingOutput(contentInputStream, range.getStart(), range.getLength(), contentResponse.getChunkSize(), metrics),
+                                 httpRequest, requestExecutors.getContentWriters());
+            } else {
+                stream = offload(new AttachmentStreamingOutput(contentInputStream, 0, length, contentResponse.getChunkSize(), metrics),
+                                 httpRequest, requestExecutors.getContentWriters());
+            }
+            if (stream == null) {
+                closeQuietly(contentInputStream);
+                String body = getErrorJson(Response.Status.SERVICE_UNAVAILABLE, "Too many attachments are being downloaded, please try again later");
+                return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(body).header("Retry-After", BUSY_RETRY_SECONDS).build();
+            }
+
+            ResponseBuilder builder;
+            if (range != null) {
+                builder = Response.status(HTTP_PARTIAL_CONTENT)
+                        .entity(stream)
+                        .header("Content-Range", range.toContentRange(length))
+                        .header("Content-Length", range.getLength());
+            } else {
+                builder = Response.ok(stream);
+                if (length >= 0) {
+                    builder.header("Content-Length", length);
+                }
+            }
+
+            if (length >= 0) {
+                builder.header("Accept-Ranges", "bytes");
+            }
+
+            return builder.header("Content-Type", contentResponse.getContentType())
+                    .tag(etag)
+                    .lastModified(lastModified)
                     .build();
         } else {
             String body = getErrorJson(Response.Status.NOT_FOUND, "Could not find attachment for id " + attachmentId);
@@ -452,12 +886,112 @@ public class RepositoryRESTResource {
         return error;
     }
 
+    /** Serializes the body of a response, such as a map or a list of maps, as JSON */
+    private static String toJson(Object value) {
+        try {
+            return jsonMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RepositoryException("Could not serialize the response", e);
+        }
+    }
+
+    /**
+     * Checks the conditional headers of a request against the current validators of a resource.
+     * <p>
+     * Either validator may be null if the resource does not have one.
+     *
+     * @return null if the request should be processed, or a response builder for the response
+     *         which should be returned instead, e.g. 304 Not Modified
+     */
+    private static ResponseBuilder evaluatePreconditions(Request request, Date lastModified, EntityTag etag) {
+        ResponseBuilder builder;
+        if (lastModified == null && etag == null) {
+            return null;
+        } else if (lastModified == null) {
+            builder = request.evaluatePreconditions(etag);
+        } else if (etag == null) {
+            builder = request.evaluatePreconditions(lastModified);
+        } else {
+            builder = request.evaluatePreconditions(lastModified, etag);
+        }
+
+        if (builder != null) {
+            // A 304 response must repeat the validators that would have been sent with a 200
+            builder.tag(etag).lastModified(lastModified);
+        }
+        return builder;
+    }
+
+    /**
+     * Arranges for the body of a response to be written by one of the given writers, rather than
+     * the container's thread, so that the container's thread is not held while a slow client
+     * reads it.
+     *
+     * @param output the body of the response
+     * @param httpRequest the request, or null if it is not known, in which case the body is written
+     *            by the container's thread, as it is if the request isn't passing through the
+     *            {@link OffloadFilter}
+     * @param writers the writers to write the body with
+     * @return the body to respond with, or null if every writer is busy, in which case the caller
+     *         must close whatever the output would have read from and turn the request away
+     */
+    private static StreamingOutput offload(StreamingOutput output, HttpServletRequest httpRequest, ResponseWriters writers) {
+        if (httpRequest == null || httpRequest.getAttribute(OffloadFilter.ACTIVE_ATTRIBUTE) == null || !httpRequest.isAsyncSupported()) {
+            return output;
+        }
+        if (!writers.tryReserve()) {
+            return null;
+        }
+        return new OffloadedStreamingOutput(output, httpRequest, writers);
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // Nothing was read, so there is nothing to clean up
+        }
+    }
+
+    /**
+     * HTTP dates only have a precision of one second, so a date must be truncated before it is
+     * compared with an If-Modified-Since header or sent as a Last-Modified header.
+     */
+    private static Date toHttpDate(Date date) {
+        if (date == null) {
+            return null;
+        }
+        return new Date(date.getTime() / 1000 * 1000);
+    }
+
     private static void sanitiseId(String id, ArtefactType typeOfId) throws InvalidIdException {
         if (!validId(id)) {
             throw new InvalidIdException(typeOfId.getValue(), id);
         }
     }
 
+    /**
+     * Retrieve a list of ids from some json input, which should look like:<br>
+     *
+     * <pre>
+     * {"ids":["...", "..."]}
+     * </pre>
+     *
+     * Returns null if the JSON isn't in the required form.
+     */
+    static List<String> getIdList(String input) {
+        Map<String, List<String>> inputMap;
+        try {
+            inputMap = jsonMapper.readValue(input, new TypeReference<Map<String, List<String>>>() {});
+        } catch (IOException e) {
+            return null;
+        }
+        if (inputMap == null || inputMap.size() != 1 || inputMap.get("ids") == null || inputMap.get("ids").contains(null)) {
+            return null;
+        }
+        return inputMap.get("ids");
+    }
+
     /**
      * Retrieve a state action from some json input. The expected json should look like:<br>
      *
@@ -483,31 +1017,36 @@ public class RepositoryRESTResource {
     }
 
     /**
-     * Implementation of {@link StreamingOutput} to put the input stream onto the output stream.
+     * A cursor over a page of assets which has already been read into memory
      */
-    private static class InputStreamStreamingOutput implements StreamingOutput {
-        /**  */
-        private final InputStream contentInputStream;
+    private static class PageAssetCursor implements AssetCursor {
+
+        private final Iterator<Asset> iterator;
 
-        /**
-         * @param contentInputStream
-         */
-        private InputStreamStreamingOutput(InputStream contentInputStream) {
-            this.contentInputStream = contentInputStream;
+        PageAssetCursor(List<Asset> assets) {
+            iterator = assets.iterator();
         }
 
+        /** {@inheritDoc} */
         @Override
-        public void write(OutputStream os) throws IOException {
-            try {
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = contentInputStream.read(buffer)) != -1) {
-                    os.write(buffer, 0, len);
-                }
-            } finally {
-                contentInputStream.close();
-            }
+        public boolean hasNext() {
+            return iterator.hasNext();
         }
-    }
 
+        /** {@inheritDoc} */
+        @Override
+        public Asset next() {
+            return iterator.next();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {}
+    }
 }
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Holds the threads which do the slow parts of requests, so that the threads of the container are
+ * not held by them.
+ * <p>
+ * Writing an attachment or a large list of assets to a client on a slow link can take minutes, and
+ * the container has no non-blocking output before Servlet 3.1, so whichever thread writes the
+ * response is blocked until the client has read it. These responses are written by the pools held
+ * here instead, using an asynchronous request. This moves the cost of a slow client rather than
+ * removing it: each response still holds one blocked thread until its client has read it, but the
+ * thread is one of these, so a crowd of slow clients can only use up these pools, and the
+ * container's threads stay free to serve everyone else. When a pool is full, new responses of its
+ * kind are turned away with a 503 rather than waiting behind the slow clients, so the pools are
+ * sized for the number of downloads and asset lists a server is expected to send at once.
+ * <p>
+ * The threads are plain threads rather than ones from a managed executor, as a managed executor
+ * would take them from the container's own pool, which is what they are meant to protect. They
+ * have none of the container's context, such as the identity of the user, so they only write
+ * output which has been prepared on the container's thread, and don't use CDI or the security
+ * API. They do have the application's class loader as their context class loader, and the pools
+ * are created when the bean is, and shut down when it is destroyed.
+ * <p>
+ * Attachment content and asset lists are written by separate pools, so that downloads cannot hold
+ * up queries. The pool for asset lists, which read from Mongo as they are written, is kept smaller
+ * than the Mongo driver's connection pool, so that it cannot take every connection.
+ * <p>
+ * The body of an upload has to be read before its response can be made, so uploads are not moved
+ * off the container's threads. Instead, only a limited number of uploads are read at once.
+ * <p>
+ * Work which carries on after its response has been sent, such as deleting a large number of
+ * assets, is done by a small pool of its own, so that it can't compete with requests for the
+ * database.
+ */
+@ApplicationScoped
+public class RequestExecutors {
+
+    /** The largest number of attachments which are written to clients at once */
+    static final int CONTENT_WRITER_THREADS = 200;
+
+    /** The largest number of asset lists which are written to clients at once */
+    static final int QUERY_WRITER_THREADS = 50;
+
+    /** The largest number of background tasks which run at once */
+    static final int BACKGROUND_THREADS = 2;
+
+    /** The number of background tasks which may wait for a thread */
+    static final int MAX_WAITING_TASKS = 1000;
+
+    /** The largest number of uploads which are read at once */
+    static final int MAX_CONCURRENT_UPLOADS = 50;
+
+    private ResponseWriters contentWriters;
+
+    private ResponseWriters queryWriters;
+
+    private ThreadPoolExecutor backgroundTasks;
+
+    private final Semaphore uploads = new Semaphore(MAX_CONCURRENT_UPLOADS);
+
+    /**
+     * Creates the pools. This is called when the bean is created, rather than when the object is,
+     * so that no pools are created for the container's proxies of the bean.
+     */
+    @PostConstruct
+    public void start() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        contentWriters = new ResponseWriters(CONTENT_WRITER_THREADS, createThreadFactory("LARS attachment writer", classLoader));
+        queryWriters = new ResponseWriters(QUERY_WRITER_THREADS, createThreadFactory("LARS asset list writer", classLoader));
+        backgroundTasks = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_WAITING_TASKS), createThreadFactory("LARS background task", classLoader));
+        // The pool is idle most of the time, so don't keep the threads once they're done
+        backgroundTasks.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory createThreadFactory(final String name, final ClassLoader classLoader) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns the threads which write attachment content to clients.
+     */
+    ResponseWriters getContentWriters() {
+        return contentWriters;
+    }
+
+    /**
+     * Returns the threads which write lists of assets, read from the database, to clients.
+     */
+    ResponseWriters getQueryWriters() {
+        return queryWriters;
+    }
+
+    /**
+     * Returns the executor which runs work that carries on after its response has been sent, such
+     * as the {@link Job}s run by {@link JobManager}. The executor rejects work when it is full.
+     */
+    public Executor getBackgroundTasks() {
+        return backgroundTasks;
+    }
+
+    /**
+     * Reserves a place for an upload. Each successful call must be followed by a call to
+     * {@link #uploadFinished()}.
+     *
+     * @return true if the upload may go ahead, or false if too many uploads are being read already
+     */
+    public boolean tryStartUpload() {
+        return uploads.tryAcquire();
+    }
+
+    /**
+     * Gives up the place reserved by {@link #tryStartUpload()}.
+     */
+    public void uploadFinished() {
+        uploads.release();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (backgroundTasks != null) {
+            contentWriters.shutdown();
+            queryWriters.shutdown();
+            backgroundTasks.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.mongodb.DBObject;
+
+/**
+ * Records where the time goes while a request is handled, so that the request can be put in the
+ * {@link SlowRequestLog} if it turns out to be slow.
+ * <p>
+ * The code which handles a request marks the phases of its work, such as querying the database
+ * or writing the response, with {@link #enter(Phase)} and {@link #exit()}, and reports the
+ * database queries it makes with {@link #queryMade(DBObject, DBObject, DBObject)}. These static
+ * methods apply to the trace of the request being handled by the current thread, and do nothing if
+ * there isn't one. When one phase is entered inside another, the time is counted against the
+ * inner phase until it is exited, so the times of the phases do not overlap.
+ * <p>
+ * Each thread has a trace which is reused for every request it handles, and which only holds
+ * numbers and references to objects the request creates anyway, so tracing a request allocates
+ * nothing. The details of a request are only copied out of its trace if the request is slow. A
+ * request whose response is written by another thread takes its trace with it, using
+ * {@link #detach()} and {@link #attach(RequestTrace)}, and the thread which handled the request
+ * starts a new trace for its next request.
+ */
+final class RequestTrace {
+
+    /** The phases of handling a request which are timed */
+    enum Phase {
+        /** Reading the parameters of the request */
+        PARSE,
+        /** Waiting for the database */
+        QUERY,
+        /** Turning the results into JSON */
+        SERIALIZE,
+        /** Writing the response to the client */
+        WRITE
+    }
+
+    /** The number of queries whose details are kept for each request */
+    static final int MAX_QUERIES = 4;
+
+    /** The deepest that phases are tracked when one is entered inside another */
+    private static final int MAX_DEPTH = 8;
+
+    private static final ThreadLocal<RequestTrace> traces = new ThreadLocal<>();
+
+    private boolean active;
+    private String endpoint;
+    private HttpServletRequest request;
+    private long startNanos;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final Phase[] phases = new Phase[MAX_DEPTH];
+    private int depth;
+    private long phaseStartNanos;
+
+    private int queryCount;
+    private final DBObject[] filters = new DBObject[MAX_QUERIES];
+    private final DBObject[] sorts = new DBObject[MAX_QUERIES];
+    private final DBObject[] projections = new DBObject[MAX_QUERIES];
+
+    private long resultCount;
+    private long bytesWritten;
+
+    private final TracedOutputStream tracedOutput = new TracedOutputStream();
+
+    /**
+     * Starts tracing a request on the current thread.
+     *
+     * @param endpoint the endpoint the request is for
+     * @param request the request
+     * @return the trace, which should be passed to {@link SlowRequestLog#finished(RequestTrace)}
+     *         once the response has been written
+     */
+    static RequestTrace begin(String endpoint, HttpServletRequest request) {
+        RequestTrace trace = traces.get();
+        if (trace == null) {
+            trace = new RequestTrace();
+            traces.set(trace);
+        }
+        trace.reset(endpoint, request);
+        return trace;
+    }
+
+    private void reset(String endpoint, HttpServletRequest request) {
+        this.active = true;
+        this.endpoint = endpoint;
+        this.request = request;
+        this.startNanos = System.nanoTime();
+        Arrays.fill(phaseNanos, 0);
+        Arrays.fill(filters, null);
+        Arrays.fill(sorts, null);
+        Arrays.fill(projections, null);
+        this.depth = 0;
+        this.queryCount = 0;
+        this.resultCount = 0;
+        this.bytesWritten = 0;
+    }
+
+    /**
+     * Removes the trace of the current request from the current thread, so that it can be
+     * attached to the thread which carries on with the request.
+     *
+     * @return the trace, or null if the thread isn't tracing a request
+     */
+    static RequestTrace detach() {
+        RequestTrace trace = traces.get();
+        traces.remove();
+        return trace != null && trace.active ? trace : null;
+    }
+
+    /**
+     * Carries on tracing a request on the current thread.
+     *
+     * @param trace the trace from {@link #detach()}, which may be null
+     */
+    static void attach(RequestTrace trace) {
+        if (trace != null) {
+            traces.set(trace);
+        } else {
+            traces.remove();
+        }
+    }
+
+    private static RequestTrace current() {
+        RequestTrace trace = traces.get();
+        return trace != null && trace.active ? trace : null;
+    }
+
+    /**
+     * Starts a phase of the current request. Each call must be followed by a call to
+     * {@link #exit()}, in a finally block.
+     */
+    static void enter(Phase phase) {
+        RequestTrace trace = current();
+        if (trace != null) {
+            trace.push(phase);
+        }
+    }
+
+    /**
+     * Ends the phase most recently started by {@link #enter(Phase)}.
+     */
+    static void exit() {
+        RequestTrace trace = current();
+        if (trace != null) {
+            trace.pop();
+        }
+    }
+
+    private void push(Phase phase) {
+        long now = System.nanoTime();
+        if (depth > 0 && depth <= MAX_DEPTH) {
+            phaseNanos[phases[depth - 1].ordinal()] += now - phaseStartNanos;
+        }
+        if (depth < MAX_DEPTH) {
+            phases[depth] = phase;
+            phaseStartNanos = now;
+        }
+        depth++;
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (depth <= MAX_DEPTH) {
+            phaseNanos[phases[depth - 1].ordinal()] += now - phaseStartNanos;
+            phaseStartNanos = now;
+        }
+        depth--;
+    }
+
+    /**
+     * Records a query made by the current request. The objects must not be changed afterwards.
+     *
+     * @param filter the filter of the query
+     * @param sort the sort order of the query, may be null
+     * @param projection the projection of the query, may be null
+     */
+    static void queryMade(DBObject filter, DBObject sort, DBObject projection) {
+        RequestTrace trace = current();
+        if (trace != null) {
+            if (trace.queryCount < MAX_QUERIES) {
+                trace.filters[trace.queryCount] = filter;
+                trace.sorts[trace.queryCount] = sort;
+                trace.projections[trace.queryCount] = projection;
+            }
+            trace.queryCount++;
+        }
+    }
+
+    /**
+     * Records that some results, such as assets, have been written in the response to the current
+     * request.
+     */
+    static void resultsWritten(long count) {
+        RequestTrace trace = current();
+        if (trace != null) {
+            trace.resultCount += count;
+        }
+    }
+
+    /**
+     * Returns an output stream which writes to the given stream, counting the bytes written and
+     * timing the writes in the {@link Phase#WRITE} phase of the current request. The stream
+     * belongs to the trace and must only be used until the response has been written.
+     *
+     * @param out the stream to write to
+     * @return the traced stream, or out if the thread isn't tracing a request
+     */
+    static OutputStream trace(OutputStream out) {
+        RequestTrace trace = current();
+        if (trace == null) {
+            return out;
+        }
+        trace.tracedOutput.out = out;
+        return trace.tracedOutput;
+    }
+
+    /**
+     * Stops tracing the request.
+     *
+     * @return how long the request took, in nanoseconds
+     */
+    long end() {
+        active = false;
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Copies the details of the request out of the trace. This should be called after
+     * {@link #end()}.
+     *
+     * @param elapsedNanos how long the request took
+     */
+    SlowRequestLog.SlowRequest capture(long elapsedNanos) {
+        long[] phaseCopy = phaseNanos.clone();
+
+        int kept = Math.min(queryCount, MAX_QUERIES);
+        SlowRequestLog.Query[] queries = new SlowRequestLog.Query[kept];
+        for (int i = 0; i < kept; i++) {
+            queries[i] = new SlowRequestLog.Query(filters[i], sorts[i], projections[i]);
+        }
+
+        return new SlowRequestLog.SlowRequest(System.currentTimeMillis(), endpoint, request.getRequestURI(),
+                                              elapsedNanos, phaseCopy, queryCount, Arrays.asList(queries), resultCount, bytesWritten);
+    }
+
+    /**
+     * Drops the trace's references to the request and its queries, so that they can be garbage
+     * collected before the thread handles its next request.
+     */
+    void release() {
+        request = null;
+        Arrays.fill(filters, null);
+        Arrays.fill(sorts, null);
+        Arrays.fill(projections, null);
+        tracedOutput.out = null;
+    }
+
+    /**
+     * Counts and times the writes to another output stream
+     */
+    private class TracedOutputStream extends OutputStream {
+
+        private OutputStream out;
+
+        @Override
+        public void write(int b) throws IOException {
+            push(Phase.WRITE);
+            try {
+                out.write(b);
+                bytesWritten++;
+            } finally {
+                pop();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            push(Phase.WRITE);
+            try {
+                out.write(b, off, len);
+                bytesWritten += len;
+            } finally {
+                pop();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            push(Phase.WRITE);
+            try {
+                out.flush();
+            } finally {
+                pop();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
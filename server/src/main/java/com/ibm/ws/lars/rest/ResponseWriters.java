@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of threads which write the bodies of responses to clients.
+ * <p>
+ * Each thread writes one response at a time, and is blocked until the client has read it, so a
+ * slow client still holds a thread; the pool only moves that thread off the container. A response
+ * must reserve one of the threads with {@link #tryReserve()} before its status is decided. When
+ * every thread is taken the request can then be turned away straight away, rather than waiting
+ * behind slow clients for a thread, or being written by the container's thread.
+ */
+class ResponseWriters {
+
+    private final ThreadPoolExecutor pool;
+
+    private final Semaphore places;
+
+    /**
+     * @param threads the largest number of responses which are written at once
+     * @param threadFactory creates the threads of the pool
+     */
+    ResponseWriters(int threads, ThreadFactory threadFactory) {
+        // Every task has reserved a thread, so the queue only holds a task for the moment between
+        // one task finishing and its thread being free
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        // The pools are idle most of the time, so don't keep the threads once they're done
+        pool.allowCoreThreadTimeOut(true);
+        places = new Semaphore(threads);
+    }
+
+    /**
+     * Reserves a thread to write a response. Each successful call must be followed by a call to
+     * {@link #execute(Runnable)} or {@link #release()}.
+     *
+     * @return true if a thread was reserved, or false if every thread is taken
+     */
+    boolean tryReserve() {
+        return places.tryAcquire();
+    }
+
+    /**
+     * Gives up a thread reserved by {@link #tryReserve()} without using it.
+     */
+    void release() {
+        places.release();
+    }
+
+    /**
+     * Writes a response on the thread reserved for it by {@link #tryReserve()}, which is given up
+     * once the writer has finished.
+     *
+     * @param writer the writer
+     * @throws RejectedExecutionException if the pool has been shut down
+     */
+    void execute(final Runnable writer) {
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.run();
+                    } finally {
+                        places.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            places.release();
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+}
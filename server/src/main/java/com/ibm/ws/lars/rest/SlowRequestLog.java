@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * Keeps the details of the most recent requests which took longer than the threshold set by
+ * lars/slowRequestThresholdMillis, so that an administrator can see what made them slow.
+ * <p>
+ * For each slow request, the log holds how long each {@link RequestTrace.Phase} took, the shape
+ * of the database queries it made and how much it wrote. The values in the query filters are
+ * replaced with <code>?</code>, so that the log shows which combination of filters was used
+ * without holding what the clients searched for. For the same reason, the URI of the request is
+ * logged without its query string.
+ * <p>
+ * The log holds the last {@link #CAPACITY} slow requests in a ring, which is added to without
+ * locking.
+ */
+@ApplicationScoped
+public class SlowRequestLog {
+
+    /** The number of slow requests which are kept */
+    static final int CAPACITY = 100;
+
+    /** The value which stands in for each value in a query filter */
+    static final String PLACEHOLDER = "?";
+
+    @Inject
+    private Configuration configuration;
+
+    private long thresholdNanos;
+
+    private final AtomicReferenceArray<SlowRequest> requests = new AtomicReferenceArray<>(CAPACITY);
+
+    private final AtomicLong added = new AtomicLong();
+
+    @PostConstruct
+    public void readConfiguration() {
+        setThreshold(configuration.getSlowRequestThreshold());
+    }
+
+    /**
+     * @param thresholdMillis how long a request must take to be logged, or zero to log nothing
+     */
+    void setThreshold(long thresholdMillis) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * @return true if slow requests are being logged, so requests should be traced
+     */
+    public boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * Ends the trace of a request, and adds the request to the log if it was slow.
+     *
+     * @param trace the trace of the request
+     */
+    void finished(RequestTrace trace) {
+        long elapsedNanos = trace.end();
+        if (thresholdNanos > 0 && elapsedNanos >= thresholdNanos) {
+            SlowRequest request = trace.capture(elapsedNanos);
+            requests.set((int) (added.getAndIncrement() % CAPACITY), request);
+        }
+        trace.release();
+    }
+
+    /**
+     * Returns the slow requests in the log, most recent first, ready to be written as JSON.
+     */
+    public List<Map<String, Object>> getSlowRequests() {
+        long end = added.get();
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY; i--) {
+            SlowRequest request = requests.get((int) (i % CAPACITY));
+            if (request != null) {
+                result.add(request.toMap());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the values in a query filter with {@link #PLACEHOLDER}, keeping the fields and
+     * operators. A list of values, such as the operand of $in, is replaced by a single
+     * placeholder, but a list of conditions, such as the operand of $and, is kept.
+     */
+    static Object normalize(Object value) {
+        if (value instanceof List) {
+            List<Object> normalized = new ArrayList<>();
+            boolean hasConditions = false;
+            for (Object element : (List<?>) value) {
+                Object normalizedElement = normalize(element);
+                hasConditions |= normalizedElement != PLACEHOLDER;
+                normalized.add(normalizedElement);
+            }
+            return hasConditions ? normalized : PLACEHOLDER;
+        } else if (value instanceof DBObject) {
+            DBObject object = (DBObject) value;
+            BasicDBObject normalized = new BasicDBObject();
+            for (String key : object.keySet()) {
+                normalized.put(key, normalize(object.get(key)));
+            }
+            return normalized;
+        } else {
+            return PLACEHOLDER;
+        }
+    }
+
+    /**
+     * The shape of one database query
+     */
+    static final class Query {
+
+        private final String filter;
+        private final String sort;
+        private final String projection;
+
+        Query(DBObject filter, DBObject sort, DBObject projection) {
+            this.filter = filter == null ? null : JSON.serialize(normalize(filter));
+            this.sort = sort == null ? null : JSON.serialize(sort);
+            this.projection = projection == null ? null : JSON.serialize(projection);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("filter", filter);
+            map.put("sort", sort);
+            map.put("projection", projection);
+            return map;
+        }
+    }
+
+    /**
+     * The details of one slow request
+     */
+    static final class SlowRequest {
+
+        private final long time;
+        private final String endpoint;
+        private final String uri;
+        private final long elapsedNanos;
+        private final long[] phaseNanos;
+        private final int queryCount;
+        private final List<Query> queries;
+        private final long resultCount;
+        private final long bytesWritten;
+
+        SlowRequest(long time, String endpoint, String uri, long elapsedNanos, long[] phaseNanos, int queryCount, List<Query> queries, long resultCount,
+                    long bytesWritten) {
+            this.time = time;
+            this.endpoint = endpoint;
+            this.uri = uri;
+            this.elapsedNanos = elapsedNanos;
+            this.phaseNanos = phaseNanos;
+            this.queryCount = queryCount;
+            this.queries = Collections.unmodifiableList(queries);
+            this.resultCount = resultCount;
+            this.bytesWritten = bytesWritten;
+        }
+
+        long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        long getPhaseNanos(RequestTrace.Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        List<Query> getQueries() {
+            return queries;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("time", IsoDate.format(new Date(time)));
+            map.put("endpoint", endpoint);
+            map.put("uri", uri);
+            map.put("elapsedMillis", toMillis(elapsedNanos));
+            Map<String, Object> phases = new LinkedHashMap<>();
+            for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+                phases.put(phase.name().toLowerCase(Locale.ROOT), toMillis(phaseNanos[phase.ordinal()]));
+            }
+            map.put("phaseMillis", phases);
+            map.put("queryCount", queryCount);
+            List<Map<String, Object>> queryMaps = new ArrayList<>();
+            for (Query query : queries) {
+                queryMaps.add(query.toMap());
+            }
+            map.put("queries", queryMaps);
+            map.put("resultCount", resultCount);
+            map.put("bytesWritten", bytesWritten);
+            return map;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1000 / 1000.0;
+        }
+    }
+}
@@ -44,6 +44,15 @@ public class Asset extends RepositoryObject {
 
     public static final String NAME = "name";
 
+    /** The sequence number of the last change to the asset, which is set by the repository */
+    public static final String CHANGE_SEQUENCE = "changeSequence";
+
+    /**
+     * The time, in milliseconds since the epoch, at which the last change to the asset was given
+     * its sequence number, which is set by the repository
+     */
+    public static final String CHANGE_TIME = "changeTime";
+
     public Asset() {
         super();
     }
@@ -88,6 +97,29 @@ public class Asset extends RepositoryObject {
         put(LAST_UPDATED_ON, date);
     }
 
+    /**
+     * Returns the sequence number of the last change to the asset, or -1 if it has not been set.
+     */
+    public long getChangeSequence() {
+        Object sequence = properties.get(CHANGE_SEQUENCE);
+        if (sequence instanceof Number) {
+            return ((Number) sequence).longValue();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the time at which the last change to the asset was given its sequence number, or -1
+     * if it has not been set.
+     */
+    public long getChangeTime() {
+        Object time = properties.get(CHANGE_TIME);
+        if (time instanceof Number) {
+            return ((Number) time).longValue();
+        }
+        return -1;
+    }
+
     public String getCreatedBy() {
         String createdByName = null;
 
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest.model;
+
+import java.util.Iterator;
+
+/**
+ * A lazily evaluated sequence of assets, as returned from a query against the persistence store.
+ * <p>
+ * Unlike an {@link AssetList}, the assets are not all held in memory at once; each asset is read
+ * from the store as the cursor is advanced. A cursor must be closed once the caller has finished
+ * with it so that any resources held by the store can be released.
+ */
+public interface AssetCursor extends Iterator<Asset>, AutoCloseable {
+
+    /**
+     * Release any resources held by this cursor. Calling close more than once has no effect.
+     */
+    @Override
+    public void close();
+
+}
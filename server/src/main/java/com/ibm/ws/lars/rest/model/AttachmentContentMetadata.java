@@ -22,9 +22,15 @@ package com.ibm.ws.lars.rest.model;
 public class AttachmentContentMetadata {
     public String filename;
     public long length;
+    public String contentType;
 
     public AttachmentContentMetadata(String filename, long length) {
+        this(filename, length, null);
+    }
+
+    public AttachmentContentMetadata(String filename, long length, String contentType) {
         this.filename = filename;
         this.length = length;
+        this.contentType = contentType;
     }
 }
@@ -17,6 +17,7 @@
 package com.ibm.ws.lars.rest.model;
 
 import java.io.InputStream;
+import java.util.Date;
 
 /**
  *
@@ -24,10 +25,27 @@ import java.io.InputStream;
 public class AttachmentContentResponse implements AutoCloseable {
     private final InputStream contentStream;
     private final String contentType;
+    private final String md5;
+    private final Date uploadDate;
+    private final long length;
+    private final int chunkSize;
 
-    public AttachmentContentResponse(InputStream contentStream, String contentType) {
+    /**
+     * @param contentStream the content of the attachment
+     * @param contentType the content type, may be null
+     * @param md5 the hex encoded MD5 digest of the content, may be null if it is not known
+     * @param uploadDate the time the content was stored, may be null if it is not known
+     * @param length the length of the content in bytes, or -1 if it is not known
+     * @param chunkSize the size in bytes of the chunks the content is stored in, or -1 if it is
+     *            not stored in chunks
+     */
+    public AttachmentContentResponse(InputStream contentStream, String contentType, String md5, Date uploadDate, long length, int chunkSize) {
         this.contentStream = contentStream;
         this.contentType = contentType;
+        this.md5 = md5;
+        this.uploadDate = uploadDate;
+        this.length = length;
+        this.chunkSize = chunkSize;
     }
 
     public InputStream getContentStream() {
@@ -38,6 +56,22 @@ public class AttachmentContentResponse implements AutoCloseable {
         return contentType;
     }
 
+    public String getMD5() {
+        return md5;
+    }
+
+    public Date getUploadDate() {
+        return uploadDate;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void close() throws Exception {
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.AssetIndexes.IndexDefinition;
+import com.mongodb.BasicDBObject;
+
+/**
+ * Unit tests for the {@link AssetIndexes} class
+ */
+public class AssetIndexesTest {
+
+    @Test
+    public void testFilterIndexes() {
+        List<IndexDefinition> indexes = AssetIndexes.getIndexes(Collections.<String> emptyList());
+
+        // Each of the client's filters should be the first field of an index
+        List<String> leadingFields = new ArrayList<>();
+        for (IndexDefinition index : indexes) {
+            leadingFields.add(index.getKeys().keySet().iterator().next());
+        }
+        assertTrue(leadingFields.containsAll(Arrays.asList(AssetIndexes.TYPE, AssetIndexes.PRODUCT_ID, AssetIndexes.PROVIDE_FEATURE,
+                                                           AssetIndexes.SHORT_NAME, AssetIndexes.LOWER_CASE_SHORT_NAME, AssetIndexes.VANITY_URL)));
+
+        IndexDefinition product = indexes.get(0);
+        assertEquals(new BasicDBObject(AssetIndexes.TYPE, 1).append(AssetIndexes.PRODUCT_ID, 1).append(AssetIndexes.MIN_VERSION, 1), product.getKeys());
+        assertEquals(new BasicDBObject("name", product.getName()).append("background", true), product.getOptions());
+    }
+
+    @Test
+    public void testSortIndexes() {
+        List<IndexDefinition> defaults = AssetIndexes.getIndexes(Collections.<String> emptyList());
+        List<IndexDefinition> indexes = AssetIndexes.getIndexes(Arrays.asList("size", "name"));
+        assertEquals("Only the size index should have been added", defaults.size() + 1, indexes.size());
+
+        IndexDefinition size = indexes.get(indexes.size() - 1);
+        assertEquals("lars_sort_size", size.getName());
+        assertEquals(new BasicDBObject("size", 1).append("_id", 1), size.getKeys());
+
+        Set<String> names = new HashSet<>();
+        for (IndexDefinition index : indexes) {
+            assertTrue("Duplicate index name " + index.getName(), names.add(index.getName()));
+        }
+        assertTrue(names.contains("lars_sort_name"));
+    }
+}
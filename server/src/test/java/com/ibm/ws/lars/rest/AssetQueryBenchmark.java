@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.Condition.Operation;
+import com.ibm.ws.lars.rest.SortOptions.SortOrder;
+import com.ibm.ws.lars.rest.model.AssetCursor;
+import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+
+/**
+ * Compares the time taken by the queries which the repository client makes, with and without the
+ * indexes in {@link AssetIndexes}.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class AssetQueryBenchmark {
+
+    private static final String DB_NAME = "benchmarkdb";
+
+    private static final int TOTAL_ASSETS = 50000;
+
+    private static final String[] TYPES = { "com.ibm.websphere.Feature", "com.ibm.websphere.Sample", "com.ibm.websphere.Addon",
+                                           "com.ibm.websphere.Install" };
+
+    /** The number of products, which does not share a factor with the number of types or versions */
+    private static final int PRODUCTS = 25;
+
+    private static final int VERSIONS = 9;
+
+    /** How many times each query is timed. The median time is reported. */
+    private static final int REPEATS = 21;
+
+    private static MongoClient mongoClient;
+    private static DB db;
+    private static DBCollection assets;
+    private static PersistenceBean persistenceBean;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost:" + FatUtils.DB_PORT);
+        db = mongoClient.getDB(DB_NAME);
+        db.dropDatabase();
+
+        persistenceBean = new PersistenceBean();
+        Field dbField = PersistenceBean.class.getDeclaredField("db");
+        dbField.setAccessible(true);
+        dbField.set(persistenceBean, db);
+        persistenceBean.createGridFS();
+
+        assets = db.getCollection("assets");
+        List<DBObject> batch = new ArrayList<>();
+        for (int i = 0; i < TOTAL_ASSETS; i++) {
+            batch.add(createAsset(i));
+            if (batch.size() == 1000) {
+                assets.insert(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.dropDatabase();
+        mongoClient.close();
+    }
+
+    private static DBObject createAsset(int i) {
+        BasicDBObject asset = new BasicDBObject();
+        asset.put("name", "Benchmark asset " + i);
+        asset.put("type", TYPES[i % TYPES.length]);
+        asset.put("shortDescription", "An asset used to benchmark the repository, number " + i);
+        asset.put("state", "published");
+        BasicDBObject appliesTo = new BasicDBObject("productId", "com.ibm.product" + (i % PRODUCTS));
+        appliesTo.put("minVersion", new BasicDBObject("value", "8.5.5." + (i % VERSIONS)));
+        appliesTo.put("hasMaxVersion", "false");
+        BasicDBObject wlpInformation = new BasicDBObject();
+        wlpInformation.put("appliesToFilterInfo", Collections.singletonList(appliesTo));
+        wlpInformation.put("provideFeature", Collections.singletonList("benchmarkFeature-" + i));
+        wlpInformation.put("shortName", "benchmark" + i);
+        wlpInformation.put("lowerCaseShortName", "benchmark" + i);
+        wlpInformation.put("visibility", "PUBLIC");
+        asset.put("wlpInformation", wlpInformation);
+        return asset;
+    }
+
+    @Test
+    public void testQueryLatency() {
+        List<BenchmarkQuery> queries = new ArrayList<>();
+        queries.add(new BenchmarkQuery("type", false, filter("type", TYPES[1])));
+        queries.add(new BenchmarkQuery("type and productId", true,
+                filter("type", TYPES[1]), filter(AssetIndexes.PRODUCT_ID, "com.ibm.product5")));
+        queries.add(new BenchmarkQuery("type, productId and minVersion", true,
+                filter("type", TYPES[1]), filter(AssetIndexes.PRODUCT_ID, "com.ibm.product5"), filter(AssetIndexes.MIN_VERSION, "8.5.5.5"),
+                filter("wlpInformation.appliesToFilterInfo.hasMaxVersion", "false")));
+        queries.add(new BenchmarkQuery("provideFeature", true, filter(AssetIndexes.PROVIDE_FEATURE, "benchmarkFeature-31415")));
+        queries.add(new BenchmarkQuery("lowerCaseShortName", true, filter(AssetIndexes.LOWER_CASE_SHORT_NAME, "benchmark27182")));
+        BenchmarkQuery sorted = new BenchmarkQuery("first page sorted by name", true);
+        sorted.pagination = new PaginationOptions(0, 20);
+        sorted.sortOptions = new SortOptions("name", SortOrder.DESCENDING);
+        queries.add(sorted);
+
+        dropCatalogueIndexes();
+        long[] before = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            before[i] = time(queries.get(i));
+        }
+
+        persistenceBean.initialize();
+        long[] after = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            after[i] = time(queries.get(i));
+        }
+
+        for (int i = 0; i < queries.size(); i++) {
+            System.out.println("Query on " + queries.get(i).description + ": " + toMillis(before[i]) + "ms without indexes, "
+                               + toMillis(after[i]) + "ms with indexes");
+        }
+
+        // A selective query should be much quicker once it does not have to scan the collection
+        for (int i = 0; i < queries.size(); i++) {
+            if (queries.get(i).selective) {
+                assertTrue("Query on " + queries.get(i).description + " was not quicker with indexes", after[i] < before[i]);
+            }
+        }
+    }
+
+    private static void dropCatalogueIndexes() {
+        for (DBObject index : assets.getIndexInfo()) {
+            String name = (String) index.get("name");
+            if (name.startsWith("lars_")) {
+                assets.dropIndex(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the median time in nanoseconds to run a query and read all of its results.
+     */
+    private static long time(BenchmarkQuery query) {
+        // Warm up, and make sure the query finds what it should
+        assertTrue("Query on " + query.description + " found no assets", run(query) > 0);
+
+        long[] times = new long[REPEATS];
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            run(query);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[REPEATS / 2];
+    }
+
+    private static int run(BenchmarkQuery query) {
+        int results = 0;
+        try (AssetCursor cursor = persistenceBean.streamAllAssets(query.filters, null, query.pagination, query.sortOptions, null)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                results++;
+            }
+        }
+        return results;
+    }
+
+    private static AssetFilter filter(String field, String value) {
+        return new AssetFilter(field, Collections.singletonList(new Condition(Operation.EQUALS, value)));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 10000 / 100.0;
+    }
+
+    private static class BenchmarkQuery {
+        private final String description;
+        private final boolean selective;
+        private final List<AssetFilter> filters;
+        private PaginationOptions pagination;
+        private SortOptions sortOptions;
+
+        private BenchmarkQuery(String description, boolean selective, AssetFilter... filters) {
+            this.description = description;
+            this.selective = selective;
+            this.filters = Arrays.asList(filters);
+        }
+    }
+}
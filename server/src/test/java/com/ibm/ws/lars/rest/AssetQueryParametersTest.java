@@ -21,9 +21,12 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.core.UriInfo;
 
@@ -31,6 +34,7 @@ import org.junit.Test;
 
 import com.ibm.ws.lars.rest.SortOptions.SortOrder;
 import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+import com.ibm.ws.lars.rest.model.Asset;
 
 /**
  * Unit tests for the {@link AssetQueryParameters} class
@@ -102,6 +106,50 @@ public class AssetQueryParametersTest {
         AssetQueryParameters.create(uriInfo).getPagination();
     }
 
+    @Test
+    public void testGetPaginationAfter() throws Exception {
+        SortOptions sortOptions = new SortOptions("name", SortOrder.DESCENDING);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("_id", "56a8a1c2e4b0d8d9e1a2b3c4");
+        properties.put("name", "wibble");
+        PageToken token = PageToken.after(Asset.createAssetFromMap(properties), sortOptions);
+
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?limit=2&sortBy=name&sortOrder=DESC&after=" + token.encode());
+        AssetQueryParameters params = AssetQueryParameters.create(uriInfo);
+        assertEquals(new PaginationOptions(0, 2, token), params.getPagination());
+        assertTrue("The after parameter is not a filter", params.getFilters().isEmpty());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testGetPaginationAfterAndOffset() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?limit=2&offset=2&after=" + createUnsortedToken());
+        AssetQueryParameters.create(uriInfo).getPagination();
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testGetPaginationAfterNoLimit() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?after=" + createUnsortedToken());
+        AssetQueryParameters.create(uriInfo).getPagination();
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testGetPaginationAfterDifferentSort() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?limit=2&sortBy=name&after=" + createUnsortedToken());
+        AssetQueryParameters.create(uriInfo).getPagination();
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testGetPaginationAfterWithSearch() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?limit=2&q=wibble&after=" + createUnsortedToken());
+        AssetQueryParameters.create(uriInfo).getPagination();
+    }
+
+    private static String createUnsortedToken() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("_id", "56a8a1c2e4b0d8d9e1a2b3c4");
+        return PageToken.after(Asset.createAssetFromMap(properties), null).encode();
+    }
+
     @Test
     public void testGetSortOptions() throws Exception {
         // Valid options for sortOrder are "ASC" and "DESC" case insensitive
@@ -160,4 +208,22 @@ public class AssetQueryParametersTest {
         assertEquals("a,b,c", params.getFields());
     }
 
+    @Test
+    public void testGetProjection() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?fields=name,wlpInformation.provideFeature&type=foo");
+        AssetQueryParameters params = AssetQueryParameters.create(uriInfo);
+        assertEquals(asList("name", "wlpInformation.provideFeature"), params.getProjection());
+        assertThat("The fields parameter should not be a filter", params.getFilters(),
+                   containsInAnyOrder(new AssetFilter("type", asList(new Condition(EQUALS, "foo")))));
+
+        uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?type=foo");
+        assertEquals(null, AssetQueryParameters.create(uriInfo).getProjection());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testGetProjectionBadField() throws Exception {
+        UriInfo uriInfo = new DummyUriInfo("http://example.org/test", "/foobar?fields=name,%24where");
+        AssetQueryParameters.create(uriInfo).getProjection();
+    }
+
 }
@@ -25,10 +25,19 @@ import static org.junit.Assert.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.core.UriInfo;
 
+import mockit.Deencapsulation;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,8 +49,10 @@ import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.injection.AssetServiceLayerInjection;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
+import com.ibm.ws.lars.rest.model.AttachmentList;
 import com.ibm.ws.lars.rest.model.RepositoryObject;
 import com.ibm.ws.lars.rest.model.RepositoryResourceLifecycleException;
 
@@ -78,6 +89,9 @@ public class AssetServiceLayerTest {
         AssetServiceLayerInjection.setConfiguration(service, new Configuration());
         AssetServiceLayerInjection.setPersistenceBean(service, memoryPersistor);
 
+        // This is a @PostConstruct method so must call it
+        service.createCaches();
+
         dummyUriInfo = new DummyUriInfo(new URI("http://localhost:9080/ma/v1/"));
 
     }
@@ -320,6 +334,60 @@ public class AssetServiceLayerTest {
         service.createAttachmentNoContent("FFFFFFFFFFFFFFFF", "Mr Attachment", attachment, dummyUriInfo);
     }
 
+    /**
+     * Tests that identical content uploaded for two attachments is only stored once, and is only
+     * deleted when both attachments have been deleted.
+     */
+    @Test
+    public void testDuplicateContentIsStoredOnce() throws Exception {
+        MemoryPersistor persistor = (MemoryPersistor) memoryPersistor;
+        Asset firstAsset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset secondAsset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+
+        Attachment first = service.createAttachmentWithContent(firstAsset.get_id(), "LA_en", new Attachment(attachmentWithContent), "text/plain",
+                                                               new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        Attachment second = service.createAttachmentWithContent(secondAsset.get_id(), "LA_en", new Attachment(attachmentWithContent), "text/html",
+                                                                new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+
+        assertEquals("The attachments should share their content", first.getGridFSId(), second.getGridFSId());
+        assertEquals(1, persistor.getAttachmentContentCount());
+        assertEquals("Shared content should be returned with the type of the attachment", "text/html",
+                     service.retrieveAttachmentContent(secondAsset.get_id(), second.get_id(), "LA_en", dummyUriInfo).getContentType());
+
+        service.deleteAttachment(first.get_id());
+        assertEquals("Content should be kept while an attachment still uses it", 1, persistor.getAttachmentContentCount());
+        try (InputStream is = service.retrieveAttachmentContent(secondAsset.get_id(), second.get_id(), "LA_en", dummyUriInfo).getContentStream()) {
+            assertTrue(Arrays.equals(attachmentContent, TestUtils.slurp(is)));
+        }
+
+        service.deleteAttachment(second.get_id());
+        assertEquals("Content should be deleted with the last attachment which uses it", 0, persistor.getAttachmentContentCount());
+    }
+
+    /**
+     * Tests creating an attachment from the hash of content which is already in the repository.
+     */
+    @Test
+    public void testAddAttachmentWithExistingContent() throws Exception {
+        MemoryPersistor persistor = (MemoryPersistor) memoryPersistor;
+        Asset asset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Attachment uploaded = service.createAttachmentWithContent(asset.get_id(), "content.txt", new Attachment(attachmentWithContent), "text/plain",
+                                                                  new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+
+        String hash = AssetServiceLayer.toHex(MessageDigest.getInstance("SHA-256").digest(attachmentContent));
+        Attachment reused = service.createAttachmentWithExistingContent(asset.get_id(), "copy.txt", new Attachment(attachmentWithContent),
+                                                                        hash.toUpperCase(), dummyUriInfo);
+
+        assertEquals(uploaded.getGridFSId(), reused.getGridFSId());
+        assertEquals(attachmentContent.length, reused.getSize());
+        assertEquals("The content type should come from the stored content", "text/plain", reused.getContentType());
+        assertEquals(1, persistor.getAttachmentContentCount());
+
+        thrown.expect(NonExistentArtefactException.class);
+        service.createAttachmentWithExistingContent(asset.get_id(), "missing.txt", new Attachment(attachmentWithContent),
+                                                    AssetServiceLayer.toHex(new byte[32]), dummyUriInfo);
+    }
+
     /**
      * Verifies that an exception is thrown when we attempt to retrieve an asset that does not
      * exist.
@@ -342,4 +410,427 @@ public class AssetServiceLayerTest {
     public void testRetrieveNonExistentAttachmentContent() throws NonExistentArtefactException, InvalidIdException {
         service.retrieveAttachmentContent("01234", "67864", "a name that does not exist.", dummyUriInfo);
     }
+
+    /**
+     * Tests that cached assets are invalidated by each of the operations which change an asset or
+     * its attachments.
+     */
+    @Test
+    public void testAssetCache() throws Exception {
+        Deencapsulation.setField(service, "assetCache", new AssetCache(1024 * 1024));
+
+        String id = service.createAsset(simpleObject, TEST_USERNAME).get_id();
+
+        service.retrieveAsset(id, dummyUriInfo);
+        Asset cachedAsset = service.retrieveAsset(id, dummyUriInfo);
+        assertEquals("Wrong state", Asset.State.DRAFT, cachedAsset.getState());
+        Map<String, Object> statistics = getAssetCacheStatistics();
+        assertEquals("The first retrieve should have missed the cache", 1L, statistics.get("misses"));
+        assertEquals("The second retrieve should have hit the cache", 1L, statistics.get("hits"));
+
+        service.updateAssetState(Asset.StateAction.PUBLISH, id);
+        assertEquals("Wrong state after update", Asset.State.AWAITING_APPROVAL, service.retrieveAsset(id, dummyUriInfo).getState());
+
+        Attachment attachment = service.createAttachmentWithContent(id, "cached.txt", new Attachment(attachmentWithContent), "text/plain",
+                                                                    new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        Asset assetWithAttachment = service.retrieveAsset(id, dummyUriInfo);
+        assertEquals("The new attachment should be returned", 1, assetWithAttachment.getAttachments().size());
+        assertEquals("Wrong attachment URL", "http://localhost:9080/ma/v1/assets/" + id + "/attachments/" + attachment.get_id() + "/cached.txt",
+                     assetWithAttachment.getAttachments().get(0).getUrl());
+
+        // The attachment URLs should be computed for each request, not cached
+        UriInfo otherUriInfo = new DummyUriInfo(new URI("https://example.org/ma/v1/"));
+        assertEquals("Wrong attachment URL for a different request",
+                     "https://example.org/ma/v1/assets/" + id + "/attachments/" + attachment.get_id() + "/cached.txt",
+                     service.retrieveAsset(id, otherUriInfo).getAttachments().get(0).getUrl());
+
+        service.deleteAttachment(attachment.get_id());
+        assertEquals("The deleted attachment should not be returned", 0, service.retrieveAsset(id, dummyUriInfo).getAttachments().size());
+
+        service.deleteAsset(id);
+        thrown.expect(NonExistentArtefactException.class);
+        service.retrieveAsset(id, dummyUriInfo);
+    }
+
+    /**
+     * Tests that cached assets are discarded when the repository is changed through another server
+     * sharing the database.
+     */
+    @Test
+    public void testAssetCacheSeesChangesFromOtherServers() throws Exception {
+        Deencapsulation.setField(service, "assetCache", new AssetCache(1024 * 1024));
+
+        AssetServiceLayer otherServer = new AssetServiceLayer();
+        AssetServiceLayerInjection.setConfiguration(otherServer, new Configuration());
+        AssetServiceLayerInjection.setPersistenceBean(otherServer, memoryPersistor);
+        otherServer.createCaches();
+
+        String id = service.createAsset(simpleObject, TEST_USERNAME).get_id();
+        service.retrieveAsset(id, dummyUriInfo);
+        assertEquals("Wrong cached state", Asset.State.DRAFT, service.retrieveAsset(id, dummyUriInfo).getState());
+        assertEquals("The second retrieve should have hit the cache", 1L, getAssetCacheStatistics().get("hits"));
+
+        otherServer.updateAssetState(Asset.StateAction.PUBLISH, id);
+        assertEquals("A state change made through another server should invalidate the asset", Asset.State.AWAITING_APPROVAL,
+                     service.retrieveAsset(id, dummyUriInfo).getState());
+    }
+
+    /**
+     * Tests that cached query results are shared between equivalent queries and are discarded when
+     * the repository changes.
+     */
+    @Test
+    public void testQueryCache() throws Exception {
+        Deencapsulation.setField(service, "queryCache", new QueryCache(1024 * 1024));
+        Collection<AssetFilter> noFilters = Collections.emptyList();
+
+        assertEquals("Wrong initial count", 0, service.countAllAssets(noFilters, null));
+        assertEquals("Wrong cached count", 0, service.countAllAssets(noFilters, null));
+        Map<String, Object> statistics = getCacheStatistics("queries");
+        assertEquals("The first count should have missed the cache", 1L, statistics.get("misses"));
+        assertEquals("The second count should have hit the cache", 1L, statistics.get("hits"));
+
+        String id = service.createAsset(simpleObject, TEST_USERNAME).get_id();
+        assertEquals("Creating an asset should invalidate the count", 1, service.countAllAssets(noFilters, null));
+
+        service.updateAssetState(Asset.StateAction.PUBLISH, id);
+        assertEquals("Wrong number of entries after an update", 0, getCacheStatistics("queries").get("entries"));
+        service.countAllAssets(noFilters, null);
+
+        service.deleteAsset(id);
+        assertEquals("Deleting an asset should invalidate the count", 0, service.countAllAssets(noFilters, null));
+    }
+
+    /**
+     * Tests that cached query results are discarded when the repository is changed through another
+     * server sharing the database.
+     */
+    @Test
+    public void testQueryCacheSeesChangesFromOtherServers() throws Exception {
+        Deencapsulation.setField(service, "queryCache", new QueryCache(1024 * 1024));
+        Collection<AssetFilter> noFilters = Collections.emptyList();
+
+        AssetServiceLayer otherServer = new AssetServiceLayer();
+        AssetServiceLayerInjection.setConfiguration(otherServer, new Configuration());
+        AssetServiceLayerInjection.setPersistenceBean(otherServer, memoryPersistor);
+        otherServer.createCaches();
+
+        assertEquals("Wrong initial count", 0, service.countAllAssets(noFilters, null));
+        assertEquals("Wrong cached count", 0, service.countAllAssets(noFilters, null));
+        assertEquals("The second count should have hit the cache", 1L, getCacheStatistics("queries").get("hits"));
+
+        otherServer.createAsset(simpleObject, TEST_USERNAME);
+        assertEquals("An asset created through another server should invalidate the count", 1, service.countAllAssets(noFilters, null));
+        assertEquals("The count should be cached again", 1, service.countAllAssets(noFilters, null));
+        assertEquals(2L, getCacheStatistics("queries").get("hits"));
+    }
+
+    /**
+     * Tests that query results are not cached while a write which has taken its number from the
+     * change sequence may still be in progress.
+     */
+    @Test
+    public void testQueryCacheWaitsForGenerationToSettle() throws Exception {
+        Deencapsulation.setField(service, "queryCache", new QueryCache(1024 * 1024));
+        Collection<AssetFilter> noFilters = Collections.emptyList();
+        MemoryPersistor persistor = (MemoryPersistor) memoryPersistor;
+
+        persistor.setGenerationSettled(false);
+        service.countAllAssets(noFilters, null);
+        service.countAllAssets(noFilters, null);
+        assertEquals("Nothing should be cached before the generation settles", 0, getCacheStatistics("queries").get("entries"));
+
+        persistor.setGenerationSettled(true);
+        service.countAllAssets(noFilters, null);
+        service.countAllAssets(noFilters, null);
+        assertEquals("The count should be cached once the generation settles", 1L, getCacheStatistics("queries").get("hits"));
+    }
+
+    @Test
+    public void testWithAttachments() throws Exception {
+        Deencapsulation.setField(service, "queryCache", new QueryCache(1024 * 1024));
+        Collection<AssetFilter> noFilters = Collections.emptyList();
+
+        Asset withAttachment = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Attachment attachment = service.createAttachmentWithContent(withAttachment.get_id(), "AttachmentWithContent.txt", new Attachment(attachmentWithContent),
+                                                                    "text/plain", new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        Asset withoutAttachment = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+
+        Map<String, Asset> assets = readAll(service.withAttachments(service.streamAllAssets(noFilters, null, null, null, null), dummyUriInfo));
+        assertEquals("Wrong number of assets", 2, assets.size());
+
+        AttachmentList attachments = assets.get(withAttachment.get_id()).getAttachments();
+        assertEquals("Wrong number of attachments", 1, attachments.size());
+        assertEquals("Wrong attachment", attachment.get_id(), attachments.get(0).get_id());
+        assertEquals("Attachment should have its URL set", "http://localhost:9080/ma/v1/assets/" + withAttachment.get_id() + "/attachments/"
+                                                           + attachment.get_id() + "/AttachmentWithContent.txt",
+                     attachments.get(0).getUrl());
+        assertTrue("Asset with no attachments should have an empty list", assets.get(withoutAttachment.get_id()).getAttachments().isEmpty());
+
+        // The query result is now cached, and should not have been changed by adding the attachments
+        assets = readAll(service.streamAllAssets(noFilters, null, null, null, null));
+        assertEquals("The second query should have hit the cache", 1L, getCacheStatistics("queries").get("hits"));
+        assertNull("Cached asset should not include attachments", assets.get(withAttachment.get_id()).getProperties().get(Asset.ATTACHMENTS));
+    }
+
+    @Test
+    public void testRetrieveChangesSince() throws Exception {
+        // Every change is written at once, so there is no need to wait for gaps to settle
+        Deencapsulation.setField(service, "changeSettleMillis", 0L);
+        Asset published = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset deleted = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset withAttachment = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        service.updateAssetState(Asset.StateAction.PUBLISH, published.get_id());
+        service.deleteAsset(deleted.get_id());
+        service.createAttachmentWithContent(withAttachment.get_id(), "AttachmentWithContent.txt", new Attachment(attachmentWithContent),
+                                            "text/plain", new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+
+        Map<String, Object> changes = service.retrieveChangesSince(ChangePosition.START, 10, dummyUriInfo);
+        assertEquals("Wrong changed assets", Arrays.asList(published.get_id(), withAttachment.get_id()), getChangedAssetIds(changes));
+        assertEquals("Wrong deleted assets", Arrays.asList(deleted.get_id()), changes.get("deletedAssetIds"));
+        assertEquals("There should be no more changes", false, changes.get("more"));
+        String end = (String) changes.get("next");
+
+        // Read the same changes a page at a time
+        changes = service.retrieveChangesSince(ChangePosition.START, 2, dummyUriInfo);
+        assertEquals("Wrong changed assets in first page", Arrays.asList(published.get_id()), getChangedAssetIds(changes));
+        assertEquals("Wrong deleted assets in first page", Arrays.asList(deleted.get_id()), changes.get("deletedAssetIds"));
+        assertEquals("There should be more changes", true, changes.get("more"));
+
+        changes = service.retrieveChangesSince(ChangePosition.parse((String) changes.get("next")), 2, dummyUriInfo);
+        assertEquals("Wrong changed assets in second page", Arrays.asList(withAttachment.get_id()), getChangedAssetIds(changes));
+        assertEquals("Wrong deleted assets in second page", Collections.emptyList(), changes.get("deletedAssetIds"));
+        assertEquals("There should be no more changes after the second page", false, changes.get("more"));
+        assertEquals("Paging should end at the same position", getSequence(end), getSequence(changes.get("next")));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> changedAsset = ((List<Map<String, Object>>) changes.get("assets")).get(0);
+        assertEquals("The changed asset should include its attachment", 1, Asset.createAssetFromMap(changedAsset).getAttachments().size());
+
+        changes = service.retrieveChangesSince(ChangePosition.parse(end), 10, dummyUriInfo);
+        assertEquals("There should be no changes at the end of the feed", Collections.emptyList(), changes.get("assets"));
+        assertEquals("The position should not move when there are no changes", getSequence(end), getSequence(changes.get("next")));
+        assertNull("The changes should not have been reset", changes.get("reset"));
+    }
+
+    /**
+     * A change which follows a recent gap in the change sequence is held back, as the change which
+     * took the missing number may not have been written yet.
+     */
+    @Test
+    public void testRetrieveChangesSinceHoldsBackRecentGaps() throws Exception {
+        Asset first = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset second = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset third = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        // Changing the second asset again leaves a gap in the sequence where it was created
+        service.updateAssetState(Asset.StateAction.PUBLISH, second.get_id());
+
+        Map<String, Object> changes = service.retrieveChangesSince(ChangePosition.START, 10, dummyUriInfo);
+        assertEquals("Only the changes before the gap should be returned", Arrays.asList(first.get_id()), getChangedAssetIds(changes));
+        assertEquals("The changes after the gap should be read later, not straight away", false, changes.get("more"));
+
+        // Once the gap has settled, the rest of the changes are returned
+        Deencapsulation.setField(service, "changeSettleMillis", 0L);
+        changes = service.retrieveChangesSince(ChangePosition.parse((String) changes.get("next")), 10, dummyUriInfo);
+        assertEquals("Wrong changed assets after the gap", Arrays.asList(third.get_id(), second.get_id()), getChangedAssetIds(changes));
+    }
+
+    /**
+     * A position older than the record of deletions is kept, or from an older version of the
+     * repository, reads every asset again.
+     */
+    @Test
+    public void testRetrieveChangesSinceExpiredPosition() throws Exception {
+        Deencapsulation.setField(service, "changeSettleMillis", 0L);
+        Asset asset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        long sequence = getSequence(service.retrieveChangesSince(ChangePosition.START, 10, dummyUriInfo).get("next"));
+
+        long expired = System.currentTimeMillis() - AssetDeletion.RETENTION_MILLIS;
+        Map<String, Object> changes = service.retrieveChangesSince(ChangePosition.at(sequence, expired), 10, dummyUriInfo);
+        assertEquals("Every asset should be read again", Arrays.asList(asset.get_id()), getChangedAssetIds(changes));
+        assertEquals(true, changes.get("reset"));
+
+        changes = service.retrieveChangesSince(ChangePosition.parse(Long.toString(sequence)), 10, dummyUriInfo);
+        assertEquals("A plain sequence number should read every asset again", Arrays.asList(asset.get_id()), getChangedAssetIds(changes));
+        assertEquals(true, changes.get("reset"));
+    }
+
+    @Test
+    public void testChangesAreBroadcast() throws Exception {
+        ChangeBroadcaster broadcaster = new ChangeBroadcaster(16, 0);
+        Deencapsulation.setField(service, "changeBroadcaster", broadcaster);
+
+        Asset asset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        service.updateAssetState(Asset.StateAction.PUBLISH, asset.get_id());
+        service.deleteAsset(asset.get_id());
+
+        List<AssetEvent> events = new ArrayList<>();
+        broadcaster.read(0, events, 16);
+        assertEquals("Wrong number of events", 3, events.size());
+        assertEquals(AssetEvent.Type.CREATED, events.get(0).getType());
+        assertEquals(AssetEvent.Type.STATE_CHANGED, events.get(1).getType());
+        assertEquals(AssetEvent.Type.DELETED, events.get(2).getType());
+        assertEquals(asset.get_id(), events.get(2).getAssetId());
+
+        ChangePosition position = ChangePosition.at(events.get(1).getChangeSequence(), System.currentTimeMillis());
+        Map<String, Object> changes = service.retrieveChangesSince(position, 10, dummyUriInfo);
+        assertEquals("The deletion event should match the change feed", Arrays.asList(asset.get_id()), changes.get("deletedAssetIds"));
+    }
+
+    @Test
+    public void testDeleteAssetDeletesAttachments() throws Exception {
+        MemoryPersistor persistor = (MemoryPersistor) memoryPersistor;
+        Asset asset = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Attachment attachment = service.createAttachmentWithContent(asset.get_id(), "content.txt", new Attachment(attachmentWithContent), "text/plain",
+                                                                    new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        assertEquals(1, persistor.getAttachmentContentCount());
+
+        service.deleteAsset(asset.get_id());
+        assertEquals("The attachment's content should have been deleted", 0, persistor.getAttachmentContentCount());
+        thrown.expect(NonExistentArtefactException.class);
+        persistor.retrieveAttachmentMetadata(attachment.get_id());
+    }
+
+    @Test
+    public void testDeleteAssets() throws Exception {
+        MemoryPersistor persistor = (MemoryPersistor) memoryPersistor;
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < AssetServiceLayer.DELETE_BATCH_SIZE + 50; i++) {
+            ids.add(service.createAsset(new Asset(simpleObject), TEST_USERNAME).get_id());
+        }
+        Asset kept = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+
+        // The last asset to be deleted shares its attachment's content with the asset which is kept
+        service.createAttachmentWithContent(ids.get(ids.size() - 1), "LA_en", new Attachment(attachmentWithContent), "text/plain",
+                                            new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        Attachment keptAttachment = service.createAttachmentWithContent(kept.get_id(), "LA_en", new Attachment(attachmentWithContent), "text/plain",
+                                                                        new ByteArrayInputStream(attachmentContent), dummyUriInfo);
+        assertEquals(1, persistor.getAttachmentContentCount());
+
+        List<String> found = service.findAssetIds(Collections.<AssetFilter> emptyList(), null);
+        assertEquals(ids.size() + 1, found.size());
+        assertTrue(found.containsAll(ids));
+
+        List<String> toDelete = new ArrayList<>(ids);
+        toDelete.add("ffffffffffffffffffffffff");
+        assertEquals("Only the assets which exist should be counted", ids.size(), service.deleteAssets(toDelete));
+
+        assertEquals(Arrays.asList(kept.get_id()), service.findAssetIds(Collections.<AssetFilter> emptyList(), null));
+        assertEquals(1, service.retrieveAttachmentsForAsset(kept.get_id(), dummyUriInfo).size());
+        assertEquals("Content should be kept while an attachment still uses it", 1, persistor.getAttachmentContentCount());
+        try (InputStream is = service.retrieveAttachmentContent(kept.get_id(), keptAttachment.get_id(), "LA_en", dummyUriInfo).getContentStream()) {
+            assertTrue(Arrays.equals(attachmentContent, TestUtils.slurp(is)));
+        }
+    }
+
+    @Test
+    public void testBulkWrite() throws Exception {
+        Asset existing = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        Asset toDelete = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        service.createAttachmentNoContent(toDelete.get_id(), "link", Attachment.jsonToAttachment("{\"url\":\"http://example.com\", \"linkType\":\"direct\"}"), dummyUriInfo);
+
+        List<Map<String, Object>> operations = new ArrayList<>();
+        operations.add(bulkOperation("create", null, null));
+        operations.get(0).put("asset", Collections.singletonMap("name", "bar"));
+        operations.add(bulkOperation("state", existing.get_id(), "publish"));
+        operations.add(bulkOperation("state", existing.get_id(), "approve"));
+        operations.add(bulkOperation("delete", toDelete.get_id(), null));
+
+        List<Map<String, Object>> results = service.bulkWrite(operations, true, TEST_USERNAME);
+        assertEquals("Wrong number of results", 4, results.size());
+        assertEquals(200, results.get(0).get("status"));
+        assertEquals(200, results.get(1).get("status"));
+        assertEquals(200, results.get(2).get("status"));
+        assertEquals(204, results.get(3).get("status"));
+
+        Asset created = service.retrieveAsset((String) results.get(0).get("id"), dummyUriInfo);
+        assertEquals("bar", created.getProperty("name"));
+        assertEquals(Asset.State.DRAFT, created.getState());
+        assertEquals(TEST_USERNAME, created.getCreatedBy());
+        assertEquals(Asset.State.PUBLISHED, service.retrieveAsset(existing.get_id(), dummyUriInfo).getState());
+        assertEquals("The attachment of the deleted asset should have been deleted",
+                     0, service.retrieveAttachmentsForAsset(toDelete.get_id(), dummyUriInfo).size());
+
+        thrown.expect(NonExistentArtefactException.class);
+        service.retrieveAsset(toDelete.get_id(), dummyUriInfo);
+    }
+
+    @Test
+    public void testBulkWriteFailures() throws Exception {
+        Asset existing = service.createAsset(new Asset(simpleObject), TEST_USERNAME);
+        String missingId = "ffffffffffffffffffffffff";
+
+        List<Map<String, Object>> operations = new ArrayList<>();
+        operations.add(bulkOperation("delete", missingId, null));
+        operations.add(bulkOperation("state", existing.get_id(), "approve"));
+        operations.add(bulkOperation("update", existing.get_id(), null));
+        operations.add(bulkOperation("create", null, null));
+        operations.get(3).put("asset", Collections.singletonMap("name", "bar"));
+
+        List<Map<String, Object>> results = service.bulkWrite(operations, false, TEST_USERNAME);
+        assertEquals(404, results.get(0).get("status"));
+        assertEquals(400, results.get(1).get("status"));
+        assertEquals("Invalid action approve performed on the asset with state draft", results.get(1).get("message"));
+        assertEquals(405, results.get(2).get("status"));
+        assertEquals("Unordered writes should carry on after a failure", 200, results.get(3).get("status"));
+
+        operations.clear();
+        operations.add(bulkOperation("state", existing.get_id(), "publish"));
+        operations.add(bulkOperation("state", "not an id", "publish"));
+        operations.add(bulkOperation("delete", existing.get_id(), null));
+
+        results = service.bulkWrite(operations, true, TEST_USERNAME);
+        assertEquals(200, results.get(0).get("status"));
+        assertEquals(400, results.get(1).get("status"));
+        assertEquals("Ordered writes should stop at the first invalid operation", 424, results.get(2).get("status"));
+        assertEquals(Asset.State.AWAITING_APPROVAL, service.retrieveAsset(existing.get_id(), dummyUriInfo).getState());
+    }
+
+    private static Map<String, Object> bulkOperation(String op, String id, String action) {
+        Map<String, Object> operation = new HashMap<>();
+        operation.put("op", op);
+        if (id != null) {
+            operation.put("id", id);
+        }
+        if (action != null) {
+            operation.put("action", action);
+        }
+        return operation;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long getSequence(Object position) throws Exception {
+        return ChangePosition.parse((String) position).getSequence();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getChangedAssetIds(Map<String, Object> changes) {
+        List<String> ids = new ArrayList<>();
+        for (Map<String, Object> asset : (List<Map<String, Object>>) changes.get("assets")) {
+            ids.add((String) asset.get("_id"));
+        }
+        return ids;
+    }
+
+    private static Map<String, Asset> readAll(AssetCursor cursor) {
+        Map<String, Asset> assets = new HashMap<>();
+        try {
+            while (cursor.hasNext()) {
+                Asset asset = cursor.next();
+                assets.put(asset.get_id(), asset);
+            }
+        } finally {
+            cursor.close();
+        }
+        return assets;
+    }
+
+    private Map<String, Object> getAssetCacheStatistics() {
+        return getCacheStatistics("assets");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getCacheStatistics(String cacheName) {
+        return (Map<String, Object>) service.getCacheStatistics().get(cacheName);
+    }
 }
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.model.AssetList;
+import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+
+/**
+ * Compares the heap used when writing out the results of GET /assets with
+ * {@link AssetCursorStreamingOutput} against building the whole response with
+ * {@link AssetList#toJson()}.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class AssetStreamingBenchmark {
+
+    private static final String DB_NAME = "benchmarkdb";
+
+    private static final int TOTAL_ASSETS = 50000;
+
+    private static final int[] RESULT_SIZES = { 1000, 10000, TOTAL_ASSETS };
+
+    /** How many bytes of output to write between each sample of the heap */
+    private static final int SAMPLE_INTERVAL = 1024 * 1024;
+
+    private static MongoClient mongoClient;
+    private static DB db;
+    private static PersistenceBean persistenceBean;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost:" + FatUtils.DB_PORT);
+        db = mongoClient.getDB(DB_NAME);
+        db.dropDatabase();
+
+        persistenceBean = new PersistenceBean();
+        Field dbField = PersistenceBean.class.getDeclaredField("db");
+        dbField.setAccessible(true);
+        dbField.set(persistenceBean, db);
+        persistenceBean.createGridFS();
+        persistenceBean.initialize();
+
+        DBCollection assets = db.getCollection("assets");
+        List<DBObject> batch = new ArrayList<>();
+        for (int i = 0; i < TOTAL_ASSETS; i++) {
+            batch.add(createAsset(i));
+            if (batch.size() == 1000) {
+                assets.insert(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.dropDatabase();
+        mongoClient.close();
+    }
+
+    /**
+     * Create an asset of roughly the size of a typical feature asset
+     */
+    private static DBObject createAsset(int i) {
+        BasicDBObject asset = new BasicDBObject();
+        asset.put("name", "Benchmark feature " + i);
+        asset.put("type", "com.ibm.websphere.Feature");
+        asset.put("shortDescription", "A feature used to benchmark the repository, number " + i);
+        asset.put("description", String.format("%1000d", i));
+        asset.put("state", "published");
+        asset.put("index", i);
+        BasicDBObject wlpInformation = new BasicDBObject();
+        wlpInformation.put("provideFeature", Collections.singletonList("benchmarkFeature-" + i));
+        wlpInformation.put("appliesTo", "com.ibm.websphere.appserver; productVersion=8.5.5.9");
+        asset.put("wlpInformation", wlpInformation);
+        return asset;
+    }
+
+    private static PaginationOptions firstN(int n) {
+        return new PaginationOptions(0, n);
+    }
+
+    @Test
+    public void testStreamingHeapUse() throws IOException {
+        long[] peaks = new long[RESULT_SIZES.length];
+        for (int i = 0; i < RESULT_SIZES.length; i++) {
+            int size = RESULT_SIZES[i];
+            HeapSamplingOutputStream out = new HeapSamplingOutputStream();
+            List<AssetFilter> noFilters = Collections.emptyList();
+            new AssetCursorStreamingOutput(persistenceBean.streamAllAssets(noFilters, null, firstN(size), null, null)).write(out);
+            peaks[i] = out.getPeakHeapGrowth();
+            System.out.println("Streamed " + size + " assets (" + out.getBytesWritten() + " bytes), peak heap growth " + toMB(peaks[i]) + "MB");
+        }
+
+        // With streaming, the heap used should not depend on the size of the result
+        long allowedGrowth = peaks[0] + 16 * 1024 * 1024;
+        assertTrue("Heap growth when streaming " + TOTAL_ASSETS + " assets was " + toMB(peaks[peaks.length - 1]) + "MB",
+                   peaks[peaks.length - 1] < allowedGrowth);
+    }
+
+    @Test
+    public void testMaterializedHeapUse() throws IOException {
+        for (int size : RESULT_SIZES) {
+            HeapSamplingOutputStream out = new HeapSamplingOutputStream();
+            List<AssetFilter> noFilters = Collections.emptyList();
+            AssetList assets = persistenceBean.retrieveAllAssets(noFilters, null, firstN(size), null);
+            byte[] json = assets.toJson().getBytes("UTF-8");
+            assertEquals(size, assets.size());
+            out.write(json);
+            System.out.println("Materialized " + size + " assets (" + out.getBytesWritten() + " bytes), peak heap growth "
+                               + toMB(out.getPeakHeapGrowth()) + "MB");
+        }
+    }
+
+    private static long toMB(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    /**
+     * An output stream which discards its output, but records the largest amount of heap in use
+     * after a GC while the output is being written.
+     */
+    private static class HeapSamplingOutputStream extends OutputStream {
+
+        private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        private final long baseline;
+        private long peak;
+        private long bytesWritten;
+        private long nextSample = SAMPLE_INTERVAL;
+
+        private HeapSamplingOutputStream() {
+            baseline = usedHeap();
+        }
+
+        private long usedHeap() {
+            System.gc();
+            return memoryBean.getHeapMemoryUsage().getUsed();
+        }
+
+        @Override
+        public void write(int b) {
+            bytesWritten++;
+            sample();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytesWritten += len;
+            sample();
+        }
+
+        private void sample() {
+            if (bytesWritten >= nextSample) {
+                peak = Math.max(peak, usedHeap() - baseline);
+                nextSample = bytesWritten + SAMPLE_INTERVAL;
+            }
+        }
+
+        long getPeakHeapGrowth() {
+            return peak;
+        }
+
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+
+/**
+ * Measures the throughput of writing attachment content out of GridFS with
+ * {@link AttachmentStreamingOutput}, compared with copying it through a 1KB buffer.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class AttachmentStreamingBenchmark {
+
+    private static final String DB_NAME = "benchmarkdb";
+
+    private static final int CONTENT_SIZE = 256 * 1024 * 1024;
+
+    private static final int RUNS = 5;
+
+    private static MongoClient mongoClient;
+    private static DB db;
+    private static PersistenceBean persistenceBean;
+    private static String gridFSId;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost:" + FatUtils.DB_PORT);
+        db = mongoClient.getDB(DB_NAME);
+        db.dropDatabase();
+
+        persistenceBean = new PersistenceBean();
+        Field dbField = PersistenceBean.class.getDeclaredField("db");
+        dbField.setAccessible(true);
+        dbField.set(persistenceBean, db);
+        persistenceBean.createGridFS();
+        persistenceBean.initialize();
+
+        AttachmentContentMetadata metadata = persistenceBean.createAttachmentContent("benchmark", "application/octet-stream", new PatternInputStream(CONTENT_SIZE));
+        gridFSId = metadata.filename;
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.dropDatabase();
+        mongoClient.close();
+    }
+
+    @Test
+    public void testDownloadThroughput() throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            long smallBuffer = timeSmallBufferCopy();
+            long chunkBuffer = timeStreamingOutput();
+            System.out.println("Run " + run + ": 1KB buffer " + toMBPerSecond(smallBuffer) + "MB/s, chunk sized buffer "
+                               + toMBPerSecond(chunkBuffer) + "MB/s");
+        }
+    }
+
+    private long timeSmallBufferCopy() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        try (AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(gridFSId)) {
+            InputStream in = response.getContentStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(CONTENT_SIZE, out.count);
+        return elapsed;
+    }
+
+    private long timeStreamingOutput() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(gridFSId);
+        new AttachmentStreamingOutput(response.getContentStream(), 0, response.getLength(), response.getChunkSize()).write(out);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(CONTENT_SIZE, out.count);
+        return elapsed;
+    }
+
+    private static long toMBPerSecond(long nanos) {
+        return (CONTENT_SIZE * 1000L * 1000L * 1000L) / (nanos * 1024L * 1024L);
+    }
+
+    /**
+     * An output stream which discards its output, but counts the bytes written to it, as a
+     * stand-in for the servlet output stream
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
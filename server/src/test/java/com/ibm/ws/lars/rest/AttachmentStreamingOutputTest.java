@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AttachmentStreamingOutputTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * Behaves like a GridFS input stream, which never returns more than the rest of the current
+     * chunk from a single read
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        boolean closed = false;
+
+        ChunkedInputStream(byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, CHUNK_SIZE - (pos % CHUNK_SIZE)));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Records the size of every write
+     */
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+        final List<Integer> writes = new ArrayList<>();
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes.add(len);
+            super.write(b, off, len);
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    @Test
+    public void testWholeChunksAreWritten() throws Exception {
+        byte[] content = createContent(350);
+        ChunkedInputStream in = new ChunkedInputStream(content);
+        RecordingOutputStream out = new RecordingOutputStream();
+
+        new AttachmentStreamingOutput(in, 0, content.length, CHUNK_SIZE).write(out);
+
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(Arrays.asList(100, 100, 100, 50), out.writes);
+        assertTrue("The input stream should have been closed", in.closed);
+    }
+
+    @Test
+    public void testRangeIsWritten() throws Exception {
+        byte[] content = createContent(350);
+        RecordingOutputStream out = new RecordingOutputStream();
+
+        new AttachmentStreamingOutput(new ChunkedInputStream(content), 150, 120, CHUNK_SIZE).write(out);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 150, 270), out.toByteArray());
+        // The first read stops at the end of the chunk, after that the reads are chunk aligned
+        assertEquals(Arrays.asList(50, 70), out.writes);
+    }
+
+    @Test
+    public void testUnknownLengthAndChunkSize() throws Exception {
+        byte[] content = createContent(1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new AttachmentStreamingOutput(new ByteArrayInputStream(content), 0, -1, -1).write(out);
+
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void testRangeIsWrittenFromFile() throws Exception {
+        byte[] content = createContent(350);
+        File file = File.createTempFile("content", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            RecordingOutputStream out = new RecordingOutputStream();
+
+            new AttachmentStreamingOutput(new FileInputStream(file), 150, 120, CHUNK_SIZE).write(out);
+
+            assertArrayEquals(Arrays.copyOfRange(content, 150, 270), out.toByteArray());
+            // Reads from a file start at the offset, so aren't shortened to the end of a chunk
+            assertEquals(Arrays.asList(100, 20), out.writes);
+        } finally {
+            file.delete();
+        }
+    }
+}
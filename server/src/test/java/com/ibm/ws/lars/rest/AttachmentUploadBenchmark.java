@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.core.Response;
+
+import mockit.Deencapsulation;
+
+import org.apache.wink.common.internal.providers.multipart.MultiPartParser;
+import org.apache.wink.common.model.multipart.InMultiPart;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.injection.AssetServiceLayerInjection;
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+
+/**
+ * Uploads several large attachments at once through
+ * {@link RepositoryRESTResource#createAttachmentWithContent}, and checks that the heap used does
+ * not grow with the size or number of the uploads.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class AttachmentUploadBenchmark {
+
+    private static final String DB_NAME = "benchmarkdb";
+
+    private static final int CONTENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int CONCURRENT_UPLOADS = 8;
+
+    private static final String BOUNDARY = "benchmarkboundary";
+
+    /** How often to sample the heap while the uploads are running */
+    private static final long SAMPLE_INTERVAL_MS = 100;
+
+    private static MongoClient mongoClient;
+    private static DB db;
+    private static RepositoryRESTResource resource;
+    private static String assetId;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost:" + FatUtils.DB_PORT);
+        db = mongoClient.getDB(DB_NAME);
+        db.dropDatabase();
+
+        PersistenceBean persistenceBean = new PersistenceBean();
+        Field dbField = PersistenceBean.class.getDeclaredField("db");
+        dbField.setAccessible(true);
+        dbField.set(persistenceBean, db);
+        persistenceBean.createGridFS();
+        persistenceBean.initialize();
+
+        AssetServiceLayer service = new AssetServiceLayer();
+        AssetServiceLayerInjection.setConfiguration(service, new Configuration());
+        AssetServiceLayerInjection.setPersistenceBean(service, persistenceBean);
+        service.createCaches();
+
+        resource = new RepositoryRESTResource();
+        Deencapsulation.setField(resource, "assetService", service);
+        Deencapsulation.setField(resource, "requestExecutors", new RequestExecutors());
+
+        assetId = service.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"upload benchmark\"}"), "benchmark").get_id();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.dropDatabase();
+        mongoClient.close();
+    }
+
+    /**
+     * Creates the body of a multipart request in the same form as the one sent by the client
+     */
+    private static InputStream createRequestBody(String name) {
+        String start = "--" + BOUNDARY + "\r\n"
+                       + "Content-Disposition: form-data; name=\"attachmentInfo\"\r\n"
+                       + "Content-Type: application/json\r\n"
+                       + "\r\n"
+                       + "{\"type\":\"content\"}\r\n"
+                       + "--" + BOUNDARY + "\r\n"
+                       + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + name + "\"\r\n"
+                       + "Content-Type: application/binary\r\n"
+                       + "\r\n";
+        String end = "\r\n--" + BOUNDARY + "--\r\n";
+        InputStream startStream = new ByteArrayInputStream(start.getBytes(StandardCharsets.UTF_8));
+        InputStream endStream = new ByteArrayInputStream(end.getBytes(StandardCharsets.UTF_8));
+        return new SequenceInputStream(new SequenceInputStream(startStream, new PatternInputStream(CONTENT_SIZE)), endStream);
+    }
+
+    @Test
+    public void testConcurrentUploadHeapUse() throws Exception {
+        final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final long baseline = memoryBean.getHeapMemoryUsage().getUsed();
+
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_UPLOADS);
+        List<Future<Response>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < CONCURRENT_UPLOADS; i++) {
+            final String name = "upload" + i + ".esa";
+            results.add(executor.submit(new Callable<Response>() {
+                @Override
+                public Response call() throws Exception {
+                    InMultiPart multiPart = new InMultiPart(new MultiPartParser(createRequestBody(name), BOUNDARY));
+                    return resource.createAttachmentWithContent(name, assetId, null, multiPart, new DummyUriInfo(new URI("http://localhost:9080/ma/v1/")));
+                }
+            }));
+        }
+        executor.shutdown();
+
+        long peak = 0;
+        while (!executor.isTerminated()) {
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+            System.gc();
+            peak = Math.max(peak, memoryBean.getHeapMemoryUsage().getUsed() - baseline);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (Future<Response> result : results) {
+            assertEquals(200, result.get().getStatus());
+        }
+
+        long totalMB = (long) CONTENT_SIZE * CONCURRENT_UPLOADS / (1024 * 1024);
+        System.out.println("Uploaded " + CONCURRENT_UPLOADS + " attachments (" + totalMB + "MB) in " + (elapsed / 1000000) + "ms, peak heap growth "
+                           + (peak / (1024 * 1024)) + "MB");
+
+        // Each upload should only need a few buffers, so together they should use much less than
+        // the size of a single attachment
+        assertTrue("Heap growth during the uploads was " + (peak / (1024 * 1024)) + "MB", peak < CONTENT_SIZE);
+    }
+}
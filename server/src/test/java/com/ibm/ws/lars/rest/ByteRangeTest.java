@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testParse() {
+        assertEquals("bytes 0-99/1000", ByteRange.parse("bytes=0-99", 1000).toContentRange(1000));
+        assertEquals("bytes 500-999/1000", ByteRange.parse("bytes=500-", 1000).toContentRange(1000));
+        assertEquals("bytes 900-999/1000", ByteRange.parse("bytes=-100", 1000).toContentRange(1000));
+        assertEquals("The end should be limited to the content", "bytes 900-999/1000", ByteRange.parse("bytes=900-5000", 1000).toContentRange(1000));
+        assertEquals("bytes 0-999/1000", ByteRange.parse("bytes=-5000", 1000).toContentRange(1000));
+        assertEquals(100, ByteRange.parse("bytes=0-99", 1000).getLength());
+    }
+
+    @Test
+    public void testHeadersWhichAreIgnored() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull("Only byte ranges are supported", ByteRange.parse("lines=0-10", 1000));
+        assertNull("Multiple ranges are not supported", ByteRange.parse("bytes=0-10,20-30", 1000));
+        assertNull("An invalid range must be ignored", ByteRange.parse("bytes=20-10", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=1-x", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-10", 0));
+    }
+
+    @Test
+    public void testIfRange() {
+        EntityTag etag = new EntityTag("abc");
+        Date lastModified = new Date(1451606400000L); // 2016-01-01T00:00:00Z
+
+        assertTrue(ByteRange.ifRangeMatches(null, etag, lastModified));
+        assertTrue(ByteRange.ifRangeMatches("\"abc\"", etag, lastModified));
+        assertFalse(ByteRange.ifRangeMatches("\"def\"", etag, lastModified));
+        assertFalse("Weak tags never match", ByteRange.ifRangeMatches("W/\"abc\"", etag, lastModified));
+        assertTrue(ByteRange.ifRangeMatches("Fri, 01 Jan 2016 00:00:00 GMT", etag, lastModified));
+        assertFalse(ByteRange.ifRangeMatches("Fri, 01 Jan 2016 00:00:01 GMT", etag, lastModified));
+        assertFalse(ByteRange.ifRangeMatches("not a date", etag, lastModified));
+        assertFalse(ByteRange.ifRangeMatches("\"abc\"", null, lastModified));
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ChangeBroadcasterTest {
+
+    @Test
+    public void testReadEvents() {
+        ChangeBroadcaster broadcaster = new ChangeBroadcaster(8, 100);
+        assertEquals(100, broadcaster.getNextId());
+
+        broadcaster.publish(AssetEvent.Type.CREATED, "a", 1);
+        broadcaster.publish(AssetEvent.Type.UPDATED, "a", 2);
+        broadcaster.publish(AssetEvent.Type.DELETED, "b", 3);
+
+        List<AssetEvent> events = new ArrayList<>();
+        assertEquals(102, broadcaster.read(100, events, 2));
+        assertEquals(2, events.size());
+        assertEquals(AssetEvent.Type.CREATED, events.get(0).getType());
+        assertEquals(101, events.get(1).getId());
+
+        events.clear();
+        assertEquals(103, broadcaster.read(102, events, 10));
+        assertEquals(1, events.size());
+        assertEquals("b", events.get(0).getAssetId());
+
+        events.clear();
+        assertEquals("Reading at the end should return nothing", 103, broadcaster.read(103, events, 10));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testSlowReaderIsDetected() {
+        ChangeBroadcaster broadcaster = new ChangeBroadcaster(4, 0);
+        for (int i = 0; i < 6; i++) {
+            broadcaster.publish(AssetEvent.Type.UPDATED, "a", i);
+        }
+
+        assertEquals("Events 0 and 1 have been overwritten", -1, broadcaster.read(1, new ArrayList<AssetEvent>(), 10));
+        assertFalse(broadcaster.canReadFrom(1));
+
+        List<AssetEvent> events = new ArrayList<>();
+        assertTrue(broadcaster.canReadFrom(2));
+        assertEquals(6, broadcaster.read(2, events, 10));
+        assertEquals(4, events.size());
+
+        assertTrue("A reader may start at the next event", broadcaster.canReadFrom(6));
+        assertFalse("An event from the future can't be read", broadcaster.canReadFrom(7));
+    }
+
+    @Test
+    public void testSubscribersAreTold() {
+        ChangeBroadcaster broadcaster = new ChangeBroadcaster(4, 0);
+        final AtomicInteger told = new AtomicInteger();
+        ChangeBroadcaster.Subscriber subscriber = new ChangeBroadcaster.Subscriber() {
+            @Override
+            public void eventsPublished() {
+                told.incrementAndGet();
+            }
+        };
+
+        broadcaster.subscribe(subscriber);
+        assertEquals(1, broadcaster.getSubscriberCount());
+        broadcaster.publish(AssetEvent.Type.CREATED, "a", 1);
+        assertEquals(1, told.get());
+
+        broadcaster.unsubscribe(subscriber);
+        broadcaster.publish(AssetEvent.Type.UPDATED, "a", 2);
+        assertEquals(1, told.get());
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void testEventStreamFormat() {
+        AssetEvent event = new AssetEvent(42, AssetEvent.Type.STATE_CHANGED, "0123abcd", 7);
+        assertEquals("id: 42\nevent: stateChanged\ndata: {\"assetId\":\"0123abcd\",\"changeSequence\":\"7\"}\n\n", event.toEventStream());
+    }
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ChangeEventServlet}
+ */
+public class ChangeEventServletTest {
+
+    @Mocked
+    HttpServletRequest request;
+
+    @Mocked
+    HttpServletResponse mockResponse;
+
+    @Mocked
+    AsyncContext asyncContext;
+
+    private ChangeBroadcaster broadcaster;
+
+    private ChangeEventServlet servlet;
+
+    private TestResponse response;
+
+    @Before
+    public void setUp() throws Exception {
+        broadcaster = new ChangeBroadcaster(8, 0);
+        servlet = new ChangeEventServlet();
+        Deencapsulation.setField(servlet, "broadcaster", broadcaster);
+        servlet.init();
+        response = new TestResponse(mockResponse);
+    }
+
+    @After
+    public void tearDown() {
+        response.out.unblock();
+        servlet.destroy();
+    }
+
+    @Test
+    public void testEventsWritten() throws Exception {
+        expectSubscription();
+
+        servlet.doGet(request, response);
+        assertEquals(1, servlet.getSubscriberCount());
+        broadcaster.publish(AssetEvent.Type.CREATED, "a", 1);
+
+        response.out.awaitContent("event: created");
+        assertTrue(response.out.toString().startsWith("retry: "));
+    }
+
+    @Test
+    public void testStalledSubscriptionClosed() throws Exception {
+        expectSubscription();
+        new Expectations() {
+            {
+                asyncContext.complete();
+                times = 1;
+            }
+        };
+
+        servlet.doGet(request, response);
+        response.out.block();
+        broadcaster.publish(AssetEvent.Type.UPDATED, "a", 1);
+        assertTrue("The delivery thread should be writing", response.out.blocked.await(10, TimeUnit.SECONDS));
+
+        long now = System.currentTimeMillis();
+        servlet.closeStalledSubscriptions(now);
+        assertEquals("A write which has only just started should be left alone", 1, servlet.getSubscriberCount());
+
+        servlet.closeStalledSubscriptions(now + ChangeEventServlet.WRITE_TIMEOUT + 1);
+        assertEquals("The slot should be given up", 0, servlet.getSubscriberCount());
+    }
+
+    @Test
+    public void testTooManySubscribers() throws Exception {
+        expectSubscription();
+
+        servlet.maxSubscribers = 1;
+        servlet.doGet(request, response);
+
+        TestResponse rejected = new TestResponse(mockResponse);
+        servlet.doGet(request, rejected);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.status);
+        assertEquals(1, servlet.getSubscriberCount());
+    }
+
+    @Test
+    public void testSlotGivenUpWhenSubscribingFails() throws Exception {
+        new Expectations() {
+            {
+                request.startAsync();
+                result = new IllegalStateException("Async is not supported");
+            }
+        };
+
+        servlet.maxSubscribers = 1;
+        try {
+            servlet.doGet(request, response);
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(0, servlet.getSubscriberCount());
+    }
+
+    private void expectSubscription() {
+        new Expectations() {
+            {
+                request.startAsync();
+                result = asyncContext;
+                asyncContext.getResponse();
+                result = response;
+            }
+        };
+    }
+
+    private static class TestResponse extends HttpServletResponseWrapper {
+        final TestOutputStream out = new TestOutputStream();
+        int status;
+
+        TestResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void sendError(int sc, String msg) {
+            status = sc;
+        }
+    }
+
+    /**
+     * A stream which can be made to block its writer, like the stream of a client which has
+     * stopped reading
+     */
+    private static class TestOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile boolean blocking;
+
+        void block() {
+            blocking = true;
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (blocking) {
+                blocked.countDown();
+                try {
+                    unblocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Connection closed");
+            }
+            synchronized (bytes) {
+                bytes.write(b, off, len);
+                bytes.notifyAll();
+            }
+        }
+
+        void awaitContent(String content) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            synchronized (bytes) {
+                while (!toString().contains(content)) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new AssertionError("Expected " + content + " but was " + toString());
+                    }
+                    bytes.wait(wait);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (bytes) {
+                return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
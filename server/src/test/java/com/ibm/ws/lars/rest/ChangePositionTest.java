@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+
+/**
+ * Unit tests for the {@link ChangePosition} class
+ */
+public class ChangePositionTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        long now = System.currentTimeMillis();
+        ChangePosition position = ChangePosition.parse(ChangePosition.at(1234, now).encode());
+        assertEquals(1234, position.getSequence());
+        assertFalse(position.isExpired(now));
+        assertFalse(position.isExpired(now + AssetDeletion.RETENTION_MILLIS - ChangePosition.SETTLE_MILLIS));
+        assertTrue(position.isExpired(now + AssetDeletion.RETENTION_MILLIS));
+    }
+
+    @Test
+    public void testStart() {
+        assertEquals(0, ChangePosition.START.getSequence());
+        assertFalse("Reading from the start can't miss any deletions", ChangePosition.START.isExpired(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testPlainSequenceNumber() throws Exception {
+        ChangePosition position = ChangePosition.parse("1234");
+        assertEquals(1234, position.getSequence());
+        assertTrue("A position without the time it was issued should be expired", position.isExpired(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testInvalidPositions() {
+        for (String position : Arrays.asList("", "yesterday", "-1", "12.", "12.-5", "12.3.4")) {
+            try {
+                ChangePosition.parse(position);
+                fail("The position should not be valid: " + position);
+            } catch (InvalidParameterException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import mockit.Mocked;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.CompressionFilter.CompressingResponse;
+
+/**
+ * Unit tests for the {@link CompressionFilter} class
+ */
+public class CompressionFilterTest {
+
+    @Mocked
+    HttpServletResponse mockResponse;
+
+    @Test
+    public void testSelectEncoding() {
+        assertNull(CompressionFilter.selectEncoding(null));
+        assertNull(CompressionFilter.selectEncoding("identity"));
+        assertEquals("gzip", CompressionFilter.selectEncoding("gzip"));
+        assertEquals("gzip", CompressionFilter.selectEncoding("deflate, gzip;q=0.5"));
+        assertEquals("gzip", CompressionFilter.selectEncoding("*"));
+        assertEquals("deflate", CompressionFilter.selectEncoding("gzip;q=0, deflate"));
+        assertNull(CompressionFilter.selectEncoding("gzip; q=0, deflate;q=0.0"));
+    }
+
+    @Test
+    public void testIsCompressible() {
+        assertTrue(CompressionFilter.isCompressible("application/json"));
+        assertTrue(CompressionFilter.isCompressible("application/json; charset=UTF-8"));
+        assertTrue(CompressionFilter.isCompressible("text/html"));
+        assertTrue(CompressionFilter.isCompressible("application/vnd.example+json"));
+        assertFalse(CompressionFilter.isCompressible("application/octet-stream"));
+        assertFalse(CompressionFilter.isCompressible("application/zip"));
+        assertFalse(CompressionFilter.isCompressible("text/event-stream; charset=UTF-8"));
+        assertFalse(CompressionFilter.isCompressible(null));
+    }
+
+    @Test
+    public void testEntityTags() {
+        assertEquals("\"abc-gzip\"", CompressionFilter.encodeTag("\"abc\"", "gzip"));
+        assertEquals("\"abc\", \"def\"", CompressionFilter.decodeTags("\"abc-gzip\", \"def-deflate\""));
+        assertEquals("*", CompressionFilter.decodeTags("*"));
+        assertNull(CompressionFilter.decodeTags(null));
+    }
+
+    @Test
+    public void testLongResponseIsCompressed() throws IOException {
+        StubResponse stub = new StubResponse("application/json");
+        stub.setHeader("ETag", "\"abc\"");
+        CompressingResponse response = new CompressingResponse(stub, "gzip");
+        response.setHeader("Content-Length", "4096");
+
+        byte[] body = createBody(4096);
+        response.getOutputStream().write(body);
+        response.finish();
+
+        assertEquals("gzip", stub.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", stub.headers.get("Vary"));
+        assertEquals("\"abc-gzip\"", stub.headers.get("ETag"));
+        assertNull(stub.headers.get("Content-Length"));
+        assertTrue(stub.body.size() < body.length);
+        assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(stub.body.toByteArray()))));
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        StubResponse stub = new StubResponse("text/plain");
+        CompressingResponse response = new CompressingResponse(stub, "deflate");
+
+        byte[] body = createBody(2000);
+        response.getOutputStream().write(body);
+        response.getOutputStream().close();
+        response.finish();
+
+        assertEquals("deflate", stub.headers.get("Content-Encoding"));
+        assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(stub.body.toByteArray()))));
+    }
+
+    @Test
+    public void testShortResponseIsNotCompressed() throws IOException {
+        StubResponse stub = new StubResponse("application/json");
+        CompressingResponse response = new CompressingResponse(stub, "gzip");
+        response.setContentLength(100);
+
+        byte[] body = createBody(100);
+        response.getOutputStream().write(body);
+        response.finish();
+
+        assertNull(stub.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", stub.headers.get("Vary"));
+        assertEquals("100", stub.headers.get("Content-Length"));
+        assertArrayEquals(body, stub.body.toByteArray());
+    }
+
+    @Test
+    public void testBinaryResponseIsNotCompressed() throws IOException {
+        StubResponse stub = new StubResponse("application/octet-stream");
+        stub.setHeader("Accept-Ranges", "bytes");
+        CompressingResponse response = new CompressingResponse(stub, "gzip");
+        response.setHeader("Content-Length", "4096");
+
+        byte[] body = createBody(4096);
+        response.getOutputStream().write(body);
+        response.finish();
+
+        assertNull(stub.headers.get("Content-Encoding"));
+        assertNull(stub.headers.get("Vary"));
+        assertEquals("bytes", stub.headers.get("Accept-Ranges"));
+        assertEquals("4096", stub.headers.get("Content-Length"));
+        assertArrayEquals(body, stub.body.toByteArray());
+    }
+
+    @Test
+    public void testEventStreamIsNotHeldBack() throws IOException {
+        StubResponse stub = new StubResponse("text/event-stream");
+        CompressingResponse response = new CompressingResponse(stub, "gzip");
+
+        byte[] event = "event: created\n\n".getBytes(StandardCharsets.UTF_8);
+        response.getOutputStream().write(event);
+        response.flushBuffer();
+        assertArrayEquals("The event should be written straight away", event, stub.body.toByteArray());
+        assertNull(stub.headers.get("Content-Encoding"));
+    }
+
+    private static byte[] createBody(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 7);
+        }
+        return body;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A successful response which records its headers and body
+     */
+    private class StubResponse extends HttpServletResponseWrapper {
+
+        private final String contentType;
+        private final Map<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private StubResponse(String contentType) {
+            super(mockResponse);
+            this.contentType = contentType;
+        }
+
+        @Override
+        public int getStatus() {
+            return SC_OK;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            return headers.containsKey(name);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+            };
+        }
+    }
+}
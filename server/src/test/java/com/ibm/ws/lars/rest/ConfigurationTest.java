@@ -17,6 +17,17 @@ package com.ibm.ws.lars.rest;
 
 import static mockit.Deencapsulation.invoke;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import mockit.Expectations;
+import mockit.Mocked;
 
 import org.junit.Test;
 
@@ -34,4 +45,77 @@ public class ConfigurationTest {
         assertEquals("http://example.org/wibble/ma/v1/", invoke(Configuration.class, methodName, "http://example.org/wibble/"));
     }
 
+    @Test
+    public void testLookupSizeInMB(@Mocked final InitialContext context) throws NamingException {
+        new Expectations() {
+            {
+                context.lookup("size");
+                returns("64", 16, " 2 ", "lots", -1);
+                result = new NameNotFoundException();
+            }
+        };
+
+        assertEquals(64L * 1024 * 1024, lookupSizeInMB("size"));
+        assertEquals(16L * 1024 * 1024, lookupSizeInMB("size"));
+        assertEquals(2L * 1024 * 1024, lookupSizeInMB("size"));
+        assertEquals("An invalid size should disable the setting", 0L, lookupSizeInMB("size"));
+        assertEquals("A negative size should disable the setting", 0L, lookupSizeInMB("size"));
+        assertEquals("A missing size should disable the setting", 0L, lookupSizeInMB("size"));
+    }
+
+    /** Calls Configuration.lookupSizeInMB, returning a long so that assertEquals isn't ambiguous */
+    private static long lookupSizeInMB(String name) {
+        Long size = invoke(Configuration.class, "lookupSizeInMB", name);
+        return size;
+    }
+
+    @Test
+    public void testLookupMillis(@Mocked final InitialContext context) throws NamingException {
+        new Expectations() {
+            {
+                context.lookup("time");
+                returns("250", 0, "soon", -5);
+                result = new NameNotFoundException();
+            }
+        };
+
+        assertEquals(250L, lookupMillis("time", 1000L));
+        assertEquals("Zero should disable the setting", 0L, lookupMillis("time", 1000L));
+        assertEquals("An invalid time should be ignored", 1000L, lookupMillis("time", 1000L));
+        assertEquals("A negative time should disable the setting", 0L, lookupMillis("time", 1000L));
+        assertEquals("A missing time should give the default", 1000L, lookupMillis("time", 1000L));
+    }
+
+    /** Calls Configuration.lookupMillis, returning a long so that assertEquals isn't ambiguous */
+    private static long lookupMillis(String name, long defaultMillis) {
+        Long millis = invoke(Configuration.class, "lookupMillis", name, defaultMillis);
+        return millis;
+    }
+
+    @Test
+    public void testLookupString(@Mocked final InitialContext context) throws NamingException {
+        new Expectations() {
+            {
+                context.lookup("name");
+                returns("/var/lars", " filesystem ", "  ");
+                result = new NameNotFoundException();
+            }
+        };
+
+        String methodName = "lookupString";
+        assertEquals("/var/lars", invoke(Configuration.class, methodName, "name"));
+        assertEquals("filesystem", invoke(Configuration.class, methodName, "name"));
+        assertNull("An empty string should disable the setting", invoke(Configuration.class, methodName, "name"));
+        assertNull("A missing string should disable the setting", invoke(Configuration.class, methodName, "name"));
+    }
+
+    @Test
+    public void testParseFieldList() {
+        String methodName = "parseFieldList";
+        assertEquals(Arrays.asList("name", "size"), invoke(Configuration.class, methodName, "list", "size, name"));
+        assertEquals("An invalid field should disable the setting", Collections.emptyList(), invoke(Configuration.class, methodName, "list", "size,$where"));
+        assertEquals("A missing list should disable the setting", Collections.emptyList(),
+                     invoke(Configuration.class, methodName, "list", String.class));
+    }
+
 }
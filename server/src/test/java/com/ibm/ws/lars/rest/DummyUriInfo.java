@@ -163,6 +163,9 @@ public class DummyUriInfo implements UriInfo {
         MultivaluedMap<String, String> result = new MultivaluedMapImpl<String, String>();
 
         String query = fullUri.getRawQuery();
+        if (query == null) {
+            return result;
+        }
 
         for (String parameter : query.split("&")) {
             String[] parts = parameter.split("=", -1); //-1 => Do not trim trailing empty strings
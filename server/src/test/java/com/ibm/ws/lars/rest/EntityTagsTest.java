@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.Attachment;
+import com.ibm.ws.lars.rest.model.AttachmentList;
+
+public class EntityTagsTest {
+
+    @Test
+    public void testAssetTag() throws Exception {
+        Asset asset = Asset.deserializeAssetFromJson("{\"_id\":\"1234\",\"state\":\"draft\",\"lastUpdatedOn\":\"2016-01-01T00:00:00.000Z\"}");
+        asset.setAttachments(AttachmentList.createAttachmentListFromMaps(new ArrayList<Map<String, Object>>()));
+
+        assertEquals("Equal assets should have equal tags", EntityTags.forAsset(asset), EntityTags.forAsset(new Asset(asset)));
+        assertFalse("The tag must be strong", EntityTags.forAsset(asset).isWeak());
+
+        Asset updated = new Asset(asset);
+        updated.setLastUpdatedOn("2016-01-01T00:00:00.001Z");
+        assertNotEquals("An update should change the tag", EntityTags.forAsset(asset), EntityTags.forAsset(updated));
+
+        Asset published = new Asset(asset);
+        published.getProperties().put("state", Asset.State.PUBLISHED.getValue());
+        assertNotEquals("A state change should change the tag", EntityTags.forAsset(asset), EntityTags.forAsset(published));
+
+        Attachment attachment = Attachment.jsonToAttachment("{\"_id\":\"5678\",\"uploadOn\":\"2016-01-02T00:00:00.000Z\"}");
+        Asset withAttachment = new Asset(asset);
+        withAttachment.setAttachments(AttachmentList.createAttachmentListFromMaps(Arrays.asList(attachment.getProperties())));
+        assertNotEquals("Adding an attachment should change the tag", EntityTags.forAsset(asset), EntityTags.forAsset(withAttachment));
+    }
+
+    @Test
+    public void testProjectedAssetTag() throws Exception {
+        Asset asset = Asset.deserializeAssetFromJson("{\"_id\":\"1234\",\"state\":\"draft\",\"lastUpdatedOn\":\"2016-01-01T00:00:00.000Z\"}");
+        asset.setAttachments(AttachmentList.createAttachmentListFromMaps(new ArrayList<Map<String, Object>>()));
+
+        assertEquals(EntityTags.forAsset(asset), EntityTags.forAsset(asset, null));
+        assertEquals(EntityTags.forAsset(asset, Arrays.asList("name")), EntityTags.forAsset(new Asset(asset), Arrays.asList("name")));
+        assertNotEquals("Selecting fields should change the tag", EntityTags.forAsset(asset), EntityTags.forAsset(asset, Arrays.asList("name")));
+        assertNotEquals("Different fields should have different tags",
+                        EntityTags.forAsset(asset, Arrays.asList("name")), EntityTags.forAsset(asset, Arrays.asList("type")));
+    }
+
+    @Test
+    public void testQueryTag() {
+        assertEquals(EntityTags.forQuery(17), EntityTags.forQuery(17));
+        assertNotEquals(EntityTags.forQuery(17), EntityTags.forQuery(18));
+    }
+
+    @Test
+    public void testAttachmentContentTag() {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", EntityTags.forAttachmentContent("d41d8cd98f00b204e9800998ecf8427e").getValue());
+        assertNull("There should be no tag if the digest is not known", EntityTags.forAttachmentContent(null));
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+
+/**
+ * Unit tests for the {@link FieldProjection} class
+ */
+public class FieldProjectionTest {
+
+    @Test
+    public void testParse() throws Exception {
+        assertNull(FieldProjection.parse(null));
+        assertEquals(Arrays.asList("name", "type"), FieldProjection.parse("type, name,type"));
+        assertEquals("Fields inside another field should be dropped",
+                     Arrays.asList("wlpInformation", "wlpInformation2.visibility"),
+                     FieldProjection.parse("wlpInformation.provideFeature,wlpInformation2.visibility,wlpInformation"));
+
+        for (String invalid : Arrays.asList("", "name,", "$where", "a..b", ".a", "a.")) {
+            try {
+                FieldProjection.parse(invalid);
+                fail("Fields parameter should have been rejected: '" + invalid + "'");
+            } catch (InvalidParameterException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testProject() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("provideFeature", "com.example.feature");
+        info.put("shortName", "feature");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("_id", "1234");
+        properties.put("name", "Some name");
+        properties.put("description", "A long description");
+        properties.put("wlpInformation", info);
+
+        Map<String, Object> expectedInfo = new HashMap<>();
+        expectedInfo.put("provideFeature", "com.example.feature");
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("_id", "1234");
+        expected.put("name", "Some name");
+        expected.put("wlpInformation", expectedInfo);
+
+        assertEquals(expected, FieldProjection.project(properties, FieldProjection.normalize(Arrays.asList("name", "wlpInformation.provideFeature", "missing"))));
+        assertEquals("Only the id should be returned if no fields match",
+                     Collections.singletonMap("_id", "1234"), FieldProjection.project(properties, Arrays.asList("name.first")));
+    }
+
+    @Test
+    public void testProjectArray() {
+        Map<String, Object> first = new HashMap<>();
+        first.put("name", "first");
+        first.put("url", "http://example.com/first");
+        first.put("size", 10);
+        Map<String, Object> second = new HashMap<>();
+        second.put("url", "http://example.com/second");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("attachments", Arrays.asList(first, "not an object", second));
+
+        Map<String, Object> expectedFirst = new HashMap<>();
+        expectedFirst.put("name", "first");
+        expectedFirst.put("url", "http://example.com/first");
+        Map<String, Object> expectedSecond = new HashMap<>();
+        expectedSecond.put("url", "http://example.com/second");
+        List<Map<String, Object>> expectedAttachments = Arrays.asList(expectedFirst, expectedSecond);
+
+        Map<String, Object> projected = FieldProjection.project(properties, Arrays.asList("attachments.name", "attachments.url"));
+        assertEquals(Collections.singletonMap("attachments", expectedAttachments), projected);
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.FileSystemContentStore.StoredFile;
+import com.ibm.ws.lars.rest.exceptions.RepositoryException;
+
+/**
+ * Tests for the parts of {@link FileSystemContentStore} which only use the filesystem
+ */
+public class FileSystemContentStoreTest {
+
+    private File directory;
+    private FileSystemContentStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("contentStore").toFile();
+        store = new FileSystemContentStore(directory, null);
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testFilesAreSharded() {
+        File file = store.getFile("56a8a1c2e4b0d8d9e1a2b3c4");
+        assertEquals(new File(new File(new File(directory, "c4"), "b3"), "56a8a1c2e4b0d8d9e1a2b3c4"), file);
+    }
+
+    @Test
+    public void testWriteAndDelete() throws IOException {
+        // Bigger than the buffer, so that it's written in more than one piece
+        byte[] content = new byte[FileSystemContentStore.BUFFER_SIZE + 1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+
+        StoredFile stored = store.writeFile("56a8a1c2e4b0d8d9e1a2b3c4", new ByteArrayInputStream(content));
+        assertEquals(content.length, stored.length);
+
+        File file = store.getFile("56a8a1c2e4b0d8d9e1a2b3c4");
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals("The temporary file should have been renamed", 1, file.getParentFile().list().length);
+
+        store.deleteFile("56a8a1c2e4b0d8d9e1a2b3c4");
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testMD5() {
+        StoredFile stored = store.writeFile("56a8a1c2e4b0d8d9e1a2b3c4", new ByteArrayInputStream("Hello".getBytes()));
+        assertEquals("8b1a9953c4611296a827abf8c47804d7", stored.md5);
+
+        // This digest starts with a zero, which must not be lost
+        stored = store.writeFile("56a8a1c2e4b0d8d9e1a2b3c5", new ByteArrayInputStream("content 18".getBytes()));
+        assertEquals("0a41f7e30d9b962225f06204098f476c", stored.md5);
+    }
+
+    @Test
+    public void testFailedWriteLeavesNoFile() {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        try {
+            store.writeFile("56a8a1c2e4b0d8d9e1a2b3c4", failing);
+            fail("The write should have failed");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        File parent = store.getFile("56a8a1c2e4b0d8d9e1a2b3c4").getParentFile();
+        assertTrue("No file should have been left behind", parent.list().length == 0);
+    }
+}
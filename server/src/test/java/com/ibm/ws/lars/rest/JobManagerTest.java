@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Deencapsulation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
+
+/**
+ * Tests for {@link JobManager}
+ */
+public class JobManagerTest {
+
+    private JobManager jobManager;
+
+    private RequestExecutors requestExecutors;
+
+    private MemoryPersistor persistor;
+
+    @Before
+    public void setUp() {
+        jobManager = new JobManager();
+        jobManager.serverId = "thisServer";
+        requestExecutors = new RequestExecutors();
+        requestExecutors.start();
+        persistor = new MemoryPersistor();
+        Deencapsulation.setField(jobManager, "persistor", persistor);
+        Deencapsulation.setField(jobManager, "requestExecutors", requestExecutors);
+    }
+
+    @After
+    public void tearDown() {
+        jobManager.shutdown();
+        requestExecutors.shutdown();
+    }
+
+    @Test
+    public void testJobSucceeds() throws Exception {
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) {
+                return Collections.<String, Object> singletonMap("answer", 42);
+            }
+        });
+        assertEquals(JobManager.QUEUED, status.get("state"));
+        assertEquals("test", status.get("type"));
+        assertTrue(status.containsKey("created"));
+
+        status = waitForJob((String) status.get("id"));
+        assertEquals(JobManager.SUCCEEDED, status.get("state"));
+        assertEquals(Collections.singletonMap("answer", 42), status.get("result"));
+        assertTrue(status.containsKey("started"));
+        assertTrue(status.containsKey("finished"));
+        assertEquals(false, status.get("cancelRequested"));
+    }
+
+    @Test
+    public void testJobFails() throws Exception {
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) {
+                throw new IllegalStateException("Something went wrong");
+            }
+        });
+
+        status = waitForJob((String) status.get("id"));
+        assertEquals(JobManager.FAILED, status.get("state"));
+        assertEquals("Something went wrong", status.get("message"));
+        assertFalse(status.containsKey("result"));
+    }
+
+    @Test
+    public void testCancelRunningJob() throws Exception {
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) throws InterruptedException {
+                long done = 0;
+                while (!context.isCancelled()) {
+                    context.setProgress(++done, -1);
+                    Thread.sleep(10);
+                }
+                return Collections.<String, Object> singletonMap("done", done);
+            }
+        });
+        String id = (String) status.get("id");
+
+        // The progress is saved once a second
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!jobManager.getStatus(id).containsKey("progress") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> progress = (Map<String, Object>) jobManager.getStatus(id).get("progress");
+        assertTrue((Long) progress.get("done") > 0);
+        assertEquals(-1L, progress.get("total"));
+
+        status = jobManager.cancel(id);
+        assertEquals(JobManager.RUNNING, status.get("state"));
+        assertEquals(true, status.get("cancelRequested"));
+
+        status = waitForJob(id);
+        assertEquals(JobManager.CANCELLED, status.get("state"));
+        assertTrue(status.containsKey("result"));
+        assertNull("A finished job can't be cancelled", jobManager.cancel(id));
+    }
+
+    @Test
+    public void testCancelQueuedJob() throws Exception {
+        // Occupy every background thread, so that the next job has to wait
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < RequestExecutors.BACKGROUND_THREADS; i++) {
+            jobManager.submit(new TestJob() {
+                @Override
+                public Map<String, Object> run(JobContext context) throws InterruptedException {
+                    release.await(10, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+        }
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) {
+                ran.countDown();
+                return null;
+            }
+        });
+        String id = (String) status.get("id");
+
+        status = jobManager.cancel(id);
+        assertEquals(JobManager.CANCELLED, status.get("state"));
+        release.countDown();
+
+        assertFalse("A job cancelled while it was queued shouldn't run", ran.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(JobManager.CANCELLED, jobManager.getStatus(id).get("state"));
+    }
+
+    @Test
+    public void testOrphanedJobsFailedOnStart() throws Exception {
+        long now = System.currentTimeMillis();
+        long stale = now - JobManager.STALE_AFTER_MILLIS - 1000;
+        String staleRunning = createRecord(JobManager.RUNNING, "otherServer", stale);
+        String ownQueued = createRecord(JobManager.QUEUED, "thisServer", now);
+        String liveRunning = createRecord(JobManager.RUNNING, "otherServer", now);
+        String finished = createRecord(JobManager.SUCCEEDED, "thisServer", stale);
+
+        // A record from before there were heartbeats or owners
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put("_id", persistor.allocateNewId());
+        legacy.put("state", JobManager.QUEUED);
+        legacy.put("created", new Date(stale));
+        persistor.createJob(legacy);
+
+        jobManager.start();
+
+        Map<String, Object> status = persistor.retrieveJob(staleRunning);
+        assertEquals(JobManager.FAILED, status.get("state"));
+        assertTrue("A failed job needs a finish time to expire", status.get("finished") instanceof Date);
+        assertEquals("A job this server held before it restarted is left behind", JobManager.FAILED, persistor.retrieveJob(ownQueued).get("state"));
+        assertEquals(JobManager.FAILED, persistor.retrieveJob((String) legacy.get("_id")).get("state"));
+        assertEquals("Another server's job with a recent heartbeat is alive", JobManager.RUNNING, persistor.retrieveJob(liveRunning).get("state"));
+        assertEquals(JobManager.SUCCEEDED, persistor.retrieveJob(finished).get("state"));
+    }
+
+    @Test
+    public void testStaleJobFailedOnRead() throws Exception {
+        String id = createRecord(JobManager.RUNNING, "otherServer", System.currentTimeMillis() - JobManager.STALE_AFTER_MILLIS - 1000);
+
+        Map<String, Object> status = jobManager.getStatus(id);
+        assertEquals(JobManager.FAILED, status.get("state"));
+        assertTrue(status.containsKey("finished"));
+        assertTrue(status.containsKey("message"));
+    }
+
+    @Test
+    public void testHeartbeatSaved() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) throws InterruptedException {
+                // Reports nothing, like a job stuck in a long call
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        String id = (String) status.get("id");
+        assertEquals("thisServer", persistor.retrieveJob(id).get("owner"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Date old = new Date(System.currentTimeMillis() - JobManager.STALE_AFTER_MILLIS - 1000);
+        persistor.updateJob(id, Collections.singleton(JobManager.RUNNING), Collections.<String, Object> singletonMap("lastUpdated", old));
+        jobManager.saveHeartbeats();
+        assertTrue(((Date) persistor.retrieveJob(id).get("lastUpdated")).after(old));
+        assertEquals("A job held by this server is never left behind", JobManager.RUNNING, jobManager.getStatus(id).get("state"));
+
+        release.countDown();
+        assertEquals(JobManager.SUCCEEDED, waitForJob(id).get("state"));
+    }
+
+    @Test
+    public void testJobFailedElsewhereIsStopped() throws Exception {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Map<String, Object> status = jobManager.submit(new TestJob() {
+            @Override
+            public Map<String, Object> run(JobContext context) throws InterruptedException {
+                while (!context.isCancelled()) {
+                    Thread.sleep(10);
+                }
+                stopped.countDown();
+                return null;
+            }
+        });
+        String id = (String) status.get("id");
+        waitForState(id, JobManager.RUNNING);
+
+        // Another server took the job to have been left behind
+        persistor.updateJob(id, Collections.singleton(JobManager.RUNNING), Collections.<String, Object> singletonMap("state", JobManager.FAILED));
+        jobManager.saveHeartbeats();
+        assertTrue("The job should be told to stop", stopped.await(10, TimeUnit.SECONDS));
+        assertEquals(JobManager.FAILED, jobManager.getStatus(id).get("state"));
+    }
+
+    @Test(expected = NonExistentArtefactException.class)
+    public void testMissingJob() throws Exception {
+        jobManager.getStatus("123456789012345678901234");
+    }
+
+    private Map<String, Object> waitForJob(String id) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        Map<String, Object> status = jobManager.getStatus(id);
+        while ((JobManager.QUEUED.equals(status.get("state")) || JobManager.RUNNING.equals(status.get("state")))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            status = jobManager.getStatus(id);
+        }
+        return status;
+    }
+
+    private void waitForState(String id, String state) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!state.equals(jobManager.getStatus(id).get("state")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, jobManager.getStatus(id).get("state"));
+    }
+
+    private String createRecord(String state, String owner, long lastUpdated) {
+        Map<String, Object> record = new HashMap<>();
+        String id = persistor.allocateNewId();
+        record.put("_id", id);
+        record.put("type", "test");
+        record.put("state", state);
+        record.put("created", new Date(lastUpdated));
+        record.put("lastUpdated", new Date(lastUpdated));
+        record.put("owner", owner);
+        persistor.createJob(record);
+        return id;
+    }
+
+    private abstract static class TestJob implements Job {
+        @Override
+        public String getType() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Random random = new Random(1234);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue("Value " + value + " is above its bucket", value <= LatencyHistogram.highestValueIn(bucket));
+            if (bucket > 0) {
+                assertTrue("Value " + value + " is below its bucket", value > LatencyHistogram.highestValueIn(bucket - 1));
+            }
+        }
+
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(7, LatencyHistogram.bucketOf(7));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPrecision() {
+        for (long value = 1; value < Long.MAX_VALUE / 2; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+            assertTrue("Bucket of " + value + " is too wide", highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(5050 * 1000000L, snapshot.getSum());
+        assertEquals(1, snapshot.countAtOrBelow(0));
+        assertEquals(101, snapshot.countAtOrBelow(Long.MAX_VALUE));
+
+        // Durations within an eighth of the limit may not be counted
+        long below = snapshot.countAtOrBelow(50000000L);
+        assertTrue("Count at 50ms was " + below, below >= 45 && below <= 51);
+
+        long median = snapshot.getValueAtPercentile(50);
+        assertTrue("Median was " + median, median >= 50000000L && median <= 50000000L * 9 / 8);
+        assertEquals(0, new LatencyHistogram().getSnapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(4 * perThread, snapshot.getCount());
+        assertEquals(4L * perThread * (perThread - 1) / 2, snapshot.getSum());
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    /**
+     * A cache where the weight of each value is the length of the string
+     */
+    private static class StringCache extends LruCache<String, String> {
+        StringCache(long maxWeight) {
+            super(maxWeight);
+        }
+
+        @Override
+        protected long weigh(String value) {
+            return value.length();
+        }
+    }
+
+    @Test
+    public void testGetAndPut() {
+        StringCache cache = new StringCache(100);
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("a", "apple", cache.getGeneration()));
+        assertEquals("apple", cache.get("a"));
+
+        Map<String, Object> statistics = cache.getStatistics();
+        assertEquals(1, statistics.get("entries"));
+        assertEquals(5L, statistics.get("weight"));
+        assertEquals(1L, statistics.get("hits"));
+        assertEquals(1L, statistics.get("misses"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        StringCache cache = new StringCache(10);
+        cache.put("a", "aaaa", cache.getGeneration());
+        cache.put("b", "bbbb", cache.getGeneration());
+
+        // Use a, so b becomes the least recently used
+        cache.get("a");
+        cache.put("c", "cccc", cache.getGeneration());
+
+        assertEquals("aaaa", cache.get("a"));
+        assertNull("b should have been evicted", cache.get("b"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(1L, cache.getStatistics().get("evictions"));
+        assertEquals(8L, cache.getStatistics().get("weight"));
+    }
+
+    @Test
+    public void testReplaceUpdatesWeight() {
+        StringCache cache = new StringCache(10);
+        cache.put("a", "aaaaaaaa", cache.getGeneration());
+        cache.put("a", "aa", cache.getGeneration());
+        assertEquals(2L, cache.getStatistics().get("weight"));
+        assertEquals(0L, cache.getStatistics().get("evictions"));
+    }
+
+    @Test
+    public void testValueTooLargeIsNotCached() {
+        StringCache cache = new StringCache(10);
+        cache.put("a", "aaaa", cache.getGeneration());
+        assertFalse(cache.put("b", "bbbbbbbbbbbb", cache.getGeneration()));
+        assertNull(cache.get("b"));
+        assertEquals("A value which is too large should not evict anything", "aaaa", cache.get("a"));
+    }
+
+    @Test
+    public void testStaleValueIsNotCached() {
+        StringCache cache = new StringCache(100);
+        cache.put("a", "old", cache.getGeneration());
+
+        // Simulate a value being loaded while another thread changes it
+        long generation = cache.getGeneration();
+        cache.invalidate("a");
+        assertFalse(cache.put("a", "stale", generation));
+        assertNull(cache.get("a"));
+
+        assertTrue(cache.put("a", "new", cache.getGeneration()));
+        assertEquals("new", cache.get("a"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        StringCache cache = new StringCache(100);
+        cache.put("a", "aaaa", cache.getGeneration());
+        cache.put("b", "bbbb", cache.getGeneration());
+        cache.invalidateAll();
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(0L, cache.getStatistics().get("weight"));
+    }
+
+    @Test
+    public void testCheckRepositoryGeneration() {
+        StringCache cache = new StringCache(100);
+        assertTrue(cache.checkRepositoryGeneration(new RepositoryGeneration(1, true)));
+        cache.put("a", "aaaa", cache.getGeneration());
+
+        assertTrue(cache.checkRepositoryGeneration(new RepositoryGeneration(1, true)));
+        assertEquals("The same generation should keep the entries", "aaaa", cache.get("a"));
+
+        assertFalse("Values should not be cached until the generation settles", cache.checkRepositoryGeneration(new RepositoryGeneration(2, false)));
+        assertNull("A new generation should invalidate the entries", cache.get("a"));
+    }
+}
@@ -22,16 +22,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.ibm.ws.lars.rest.exceptions.AssetPersistenceException;
 import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
@@ -58,6 +67,15 @@ public class MemoryPersistor implements Persistor {
 
     private final Map<String, AttachmentContent> gridFS = new HashMap<>();
 
+    private long changeSequence = 0;
+
+    private boolean generationSettled = true;
+
+    private final SortedMap<Long, AssetDeletion> deletions = new TreeMap<>();
+
+    /** The records of jobs, which are used by the threads which run the jobs too */
+    private final Map<String, Map<String, Object>> jobs = new HashMap<>();
+
     /*
      * (non-Javadoc)
      *
@@ -74,14 +92,58 @@ public class MemoryPersistor implements Persistor {
         throw new UnsupportedOperationException("Filtering is not supported in this test facade");
     }
 
+    @Override
+    public AssetCursor streamAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                       final Collection<String> fields) {
+        if (!filters.isEmpty() || searchTerm != null || pagination != null || sortOptions != null) {
+            throw new UnsupportedOperationException("Filtering is not supported in this test facade");
+        }
+
+        final Iterator<Map<String, Object>> iterator = new ArrayList<>(assets.values()).iterator();
+        return new AssetCursor() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Asset next() {
+                Map<String, Object> state = iterator.next();
+                return Asset.createAssetFromMap(fields == null ? new HashMap<>(state) : FieldProjection.project(state, fields));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    @Override
+    public String explainAllAssets(Collection<AssetFilter> filters, String searchTerm, PaginationOptions pagination, SortOptions sortOptions,
+                                   Collection<String> fields) {
+        throw new UnsupportedOperationException("Query plans are not supported in this test facade");
+    }
+
     @Override
     public List<Object> getDistinctValues(String field, Collection<AssetFilter> filters, String searchTerm) {
         throw new UnsupportedOperationException("Filtering is not supported in this test facade");
     }
 
+    @Override
+    public Map<String, Map<Object, Integer>> summarizeAssets(Collection<String> fields, Collection<AssetFilter> filters, String searchTerm) {
+        throw new UnsupportedOperationException("Filtering is not supported in this test facade");
+    }
+
     /** {@inheritDoc} */
     @Override
     public int countAllAssets(Collection<AssetFilter> filters, String searchTerm) {
+        if (filters.isEmpty() && searchTerm == null) {
+            return assets.size();
+        }
         throw new UnsupportedOperationException("Filtering is not supported in this test facade");
     }
 
@@ -103,6 +165,7 @@ public class MemoryPersistor implements Persistor {
         Map<String, Object> props = newAsset.getProperties();
         String id = getNextId();
         props.put("_id", id);
+        setChange(props);
         assets.put(id, props);
         return Asset.createAssetFromMap(props);
     }
@@ -117,6 +180,47 @@ public class MemoryPersistor implements Persistor {
         assets.remove(assetId);
     }
 
+    @Override
+    public List<String> deleteAssets(Collection<String> assetIds) {
+        List<String> deleted = new ArrayList<>();
+        for (String assetId : assetIds) {
+            if (assets.remove(assetId) != null) {
+                deleted.add(assetId);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Makes the writes one at a time, in order. The ordered flag makes no difference, as none of
+     * the writes can fail.
+     */
+    @Override
+    public void writeAssets(List<AssetWrite> writes, boolean ordered) {
+        for (AssetWrite write : writes) {
+            boolean applied;
+            switch (write.getType()) {
+                case INSERT:
+                    Map<String, Object> props = new HashMap<>(write.getAsset().getProperties());
+                    write.setChangeSequence(setChange(props));
+                    assets.put(write.getAssetId(), props);
+                    applied = true;
+                    break;
+                case SET_STATE:
+                    Asset updated = updateAssetState(write.getAssetId(), write.getFromStates(), write.getToState(), write.getLastUpdatedOn());
+                    if (updated != null) {
+                        write.setChangeSequence(updated.getChangeSequence());
+                    }
+                    applied = updated != null;
+                    break;
+                default:
+                    applied = assets.remove(write.getAssetId()) != null;
+                    break;
+            }
+            write.setOutcome(applied ? AssetWrite.Outcome.APPLIED : AssetWrite.Outcome.NOT_MATCHED);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -125,10 +229,23 @@ public class MemoryPersistor implements Persistor {
      */
     @Override
     public Asset updateAsset(String assetId, Asset asset) throws InvalidJsonAssetException, NonExistentArtefactException {
+        setChange(asset.getProperties());
         assets.put(assetId, asset.getProperties());
         return asset;
     }
 
+    @Override
+    public Asset updateAssetState(String assetId, Collection<Asset.State> fromStates, Asset.State toState, String lastUpdatedOn) {
+        Map<String, Object> props = assets.get(assetId);
+        if (props == null || !fromStates.contains(Asset.State.forValue((String) props.get(Asset.STATE)))) {
+            return null;
+        }
+        props.put(Asset.STATE, toState.getValue());
+        props.put(Asset.LAST_UPDATED_ON, lastUpdatedOn);
+        setChange(props);
+        return Asset.createAssetFromMap(new HashMap<>(props));
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -147,6 +264,23 @@ public class MemoryPersistor implements Persistor {
         return AttachmentList.createAttachmentListFromMaps(resultList);
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.ibm.ws.lars.rest.Persistor#findAttachmentsForAssets(java.util.Collection)
+     */
+    @Override
+    public Map<String, AttachmentList> findAttachmentsForAssets(Collection<String> assetIds) {
+        Map<String, AttachmentList> result = new HashMap<>();
+        for (String assetId : assetIds) {
+            AttachmentList attachmentList = findAttachmentsForAsset(assetId);
+            if (!attachmentList.isEmpty()) {
+                result.put(assetId, attachmentList);
+            }
+        }
+        return result;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -218,8 +352,70 @@ public class MemoryPersistor implements Persistor {
      * @see com.ibm.ws.lars.rest.Persistor#deleteAttachmentContent(java.lang.String)
      */
     @Override
-    public void deleteAttachmentContent(String attachmentId) {
-        throw new RuntimeException("not implemented");
+    public void deleteAttachmentContent(String gridFSId) {
+        AttachmentContent content = gridFS.get(gridFSId);
+        if (content != null && --content.refCount <= 0) {
+            gridFS.remove(gridFSId);
+        }
+    }
+
+    @Override
+    public void deleteAttachmentContents(Collection<String> gridFSIds) {
+        for (String gridFSId : gridFSIds) {
+            deleteAttachmentContent(gridFSId);
+        }
+    }
+
+    @Override
+    public List<String> deleteAttachmentsForAssets(Collection<String> assetIds) {
+        List<String> gridFSIds = new ArrayList<>();
+        Iterator<Map<String, Object>> iterator = attachments.values().iterator();
+        while (iterator.hasNext()) {
+            Map<String, Object> attachmentState = iterator.next();
+            if (assetIds.contains(attachmentState.get(ASSET_ID))) {
+                iterator.remove();
+                if (attachmentState.get(Attachment.GRIDFS_ID) != null) {
+                    gridFSIds.add((String) attachmentState.get(Attachment.GRIDFS_ID));
+                }
+            }
+        }
+        return gridFSIds;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.ibm.ws.lars.rest.Persistor#setContentHash(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void setContentHash(String gridFSId, String sha256) {
+        AttachmentContent content = gridFS.get(gridFSId);
+        content.sha256 = sha256;
+        content.refCount = 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.ibm.ws.lars.rest.Persistor#referenceExistingContent(java.lang.String)
+     */
+    @Override
+    public AttachmentContentMetadata referenceExistingContent(String sha256) {
+        for (AttachmentContent content : gridFS.values()) {
+            if (sha256.equals(content.sha256) && content.refCount > 0) {
+                content.refCount++;
+                content.orphanedAt = null;
+                return new AttachmentContentMetadata(content.id, content.content.length, content.contentType);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of distinct pieces of attachment content which are stored
+     */
+    int getAttachmentContentCount() {
+        return gridFS.size();
     }
 
     /*
@@ -229,7 +425,7 @@ public class MemoryPersistor implements Persistor {
      */
     @Override
     public void deleteAttachmentMetadata(String attachmentId) {
-        throw new RuntimeException("not implemented");
+        attachments.remove(attachmentId);
     }
 
     /*
@@ -243,7 +439,163 @@ public class MemoryPersistor implements Persistor {
         AttachmentContent content = gridFS.get(gridFSId);
         InputStream contentStream = new ByteArrayInputStream(content.content);
         String contentType = content.contentType;
-        return new AttachmentContentResponse(contentStream, contentType);
+        return new AttachmentContentResponse(contentStream, contentType, null, null, content.content.length, -1);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.ibm.ws.lars.rest.Persistor#migrateAttachmentContent()
+     */
+    @Override
+    public int migrateAttachmentContent() {
+        // All content is held in memory, so there is nothing to migrate
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The ids used here don't hold the time they were made, so every attachment counts as
+     * uploaded before the cutoff.
+     */
+    @Override
+    public OrphanBatch sweepOrphanedAttachments(String after, Date cutoff, int limit) {
+        List<String> batch = getSweepBatch(attachments.keySet(), after, limit);
+        int removed = 0;
+        List<String> gridFSIds = new ArrayList<>();
+        for (String id : batch) {
+            Map<String, Object> attachmentState = attachments.get(id);
+            if (!assets.containsKey(attachmentState.get(ASSET_ID))) {
+                attachments.remove(id);
+                removed++;
+                if (attachmentState.get(Attachment.GRIDFS_ID) != null) {
+                    gridFSIds.add((String) attachmentState.get(Attachment.GRIDFS_ID));
+                }
+            }
+        }
+        long reclaimed = 0;
+        for (String gridFSId : gridFSIds) {
+            AttachmentContent content = gridFS.get(gridFSId);
+            if (content != null && --content.refCount <= 0) {
+                gridFS.remove(gridFSId);
+                reclaimed += content.content.length;
+            }
+        }
+        return new OrphanBatch(batch.size() < limit ? null : batch.get(batch.size() - 1), batch.size(), removed, reclaimed);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The ids used here don't hold the time they were made, so all content counts as stored
+     * before the cutoff.
+     */
+    @Override
+    public OrphanBatch sweepOrphanedContent(String after, Date cutoff, int limit) {
+        List<String> batch = getSweepBatch(gridFS.keySet(), after, limit);
+        Set<Object> referenced = new HashSet<>();
+        for (Map<String, Object> attachmentState : attachments.values()) {
+            referenced.add(attachmentState.get(Attachment.GRIDFS_ID));
+        }
+
+        int removed = 0;
+        long reclaimed = 0;
+        for (String id : batch) {
+            AttachmentContent content = gridFS.get(id);
+            if (referenced.contains(id)) {
+                content.orphanedAt = null;
+            } else if (content.orphanedAt == null) {
+                content.orphanedAt = new Date();
+            } else if (!content.orphanedAt.after(cutoff)) {
+                gridFS.remove(id);
+                removed++;
+                reclaimed += content.content.length;
+            }
+        }
+        return new OrphanBatch(batch.size() < limit ? null : batch.get(batch.size() - 1), batch.size(), removed, reclaimed);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Content is held here in one piece, so there are no chunks to sweep.
+     */
+    @Override
+    public OrphanBatch sweepOrphanedChunks(String after, Date cutoff, int limit) {
+        return new OrphanBatch(null, 0, 0, 0);
+    }
+
+    /**
+     * @return up to limit of the given ids which come after the given id, in order
+     */
+    private static List<String> getSweepBatch(Set<String> ids, String after, int limit) {
+        SortedSet<String> sorted = new TreeSet<>(ids);
+        if (after != null) {
+            sorted = sorted.tailSet(after + "\0");
+        }
+        List<String> batch = new ArrayList<>();
+        for (String id : sorted) {
+            if (batch.size() == limit) {
+                break;
+            }
+            batch.add(id);
+        }
+        return batch;
+    }
+
+    /**
+     * @return true if the attachment content with the given id is still stored
+     */
+    boolean hasAttachmentContent(String gridFSId) {
+        return gridFS.containsKey(gridFSId);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createJob(Map<String, Object> job) {
+        synchronized (jobs) {
+            jobs.put((String) job.get("_id"), new HashMap<>(job));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> retrieveJob(String jobId) throws NonExistentArtefactException {
+        synchronized (jobs) {
+            Map<String, Object> job = jobs.get(jobId);
+            if (job == null) {
+                throw new NonExistentArtefactException(jobId, "job");
+            }
+            return new HashMap<>(job);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Object> updateJob(String jobId, Collection<String> fromStates, Map<String, Object> fields) {
+        synchronized (jobs) {
+            Map<String, Object> job = jobs.get(jobId);
+            if (job == null || !fromStates.contains(job.get(JobManager.STATE))) {
+                return null;
+            }
+            job.putAll(fields);
+            return new HashMap<>(job);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Map<String, Object>> retrieveJobs(Collection<String> states) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (jobs) {
+            for (Map<String, Object> job : jobs.values()) {
+                if (states.contains(job.get(JobManager.STATE))) {
+                    result.add(new HashMap<>(job));
+                }
+            }
+        }
+        return result;
     }
 
     /*
@@ -256,6 +608,90 @@ public class MemoryPersistor implements Persistor {
         return getNextId();
     }
 
+    /**
+     * Each write is made as soon as it takes its number, so the generation is settled unless a
+     * test says otherwise with {@link #setGenerationSettled(boolean)}.
+     */
+    @Override
+    public RepositoryGeneration getRepositoryGeneration() {
+        return new RepositoryGeneration(changeSequence, generationSettled);
+    }
+
+    /**
+     * Sets whether the generation is reported as settled, to act as though a write through
+     * another server is in progress.
+     */
+    public void setGenerationSettled(boolean generationSettled) {
+        this.generationSettled = generationSettled;
+    }
+
+    /**
+     * Gives an asset the next number from the change sequence, as the real persistor does when
+     * the asset is written.
+     */
+    private long setChange(Map<String, Object> asset) {
+        changeSequence++;
+        asset.put(Asset.CHANGE_SEQUENCE, changeSequence);
+        asset.put(Asset.CHANGE_TIME, System.currentTimeMillis());
+        return changeSequence;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetChange(String assetId) {
+        Map<String, Object> asset = assets.get(assetId);
+        if (asset == null) {
+            return ++changeSequence;
+        }
+        return setChange(asset);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long recordAssetDeletion(String assetId) {
+        changeSequence++;
+        Iterator<AssetDeletion> existing = deletions.values().iterator();
+        while (existing.hasNext()) {
+            if (existing.next().getAssetId().equals(assetId)) {
+                existing.remove();
+            }
+        }
+        deletions.put(changeSequence, new AssetDeletion(assetId, changeSequence, System.currentTimeMillis()));
+        return changeSequence;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Long> recordAssetDeletions(List<String> assetIds) {
+        List<Long> sequences = new ArrayList<>();
+        for (String assetId : assetIds) {
+            sequences.add(recordAssetDeletion(assetId));
+        }
+        return sequences;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AssetList retrieveAssetsChangedSince(long sequence, int limit) {
+        SortedMap<Long, Map<String, Object>> changed = new TreeMap<>();
+        for (Map<String, Object> asset : assets.values()) {
+            Object assetSequence = asset.get(Asset.CHANGE_SEQUENCE);
+            if (assetSequence != null && (Long) assetSequence > sequence) {
+                changed.put((Long) assetSequence, new HashMap<>(asset));
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(changed.values());
+        return AssetList.createAssetListFromMaps(result.subList(0, Math.min(limit, result.size())));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<AssetDeletion> retrieveDeletionsSince(long sequence, int limit) {
+        List<AssetDeletion> result = new ArrayList<>(deletions.tailMap(sequence + 1).values());
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
     /** {@inheritDoc} */
     @Override
     public void initialize() {
@@ -269,6 +705,9 @@ class AttachmentContent {
     String contentType;
     String id;
     byte[] content;
+    String sha256;
+    int refCount = 1;
+    Date orphanedAt;
 
     public AttachmentContent(String name, String contentType, String id, byte[] content) {
         this.name = name;
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Measures the cost of recording an operation in the {@link Metrics}, which is paid on every call
+ * to the persistence layer and every request, from one thread and from many threads recording
+ * the same operation at once.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class MetricsBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 1000000;
+
+    private static final int ITERATIONS = 10000000;
+
+    private static final int THREADS = 8;
+
+    /** The most that recording an operation may cost, well below the cost of any database call */
+    private static final double MAX_NANOS_PER_RECORD = 1000;
+
+    @Test
+    public void testSingleThreadRecording() throws Exception {
+        Metrics metrics = new Metrics();
+        record(metrics, WARMUP_ITERATIONS);
+
+        long start = System.nanoTime();
+        record(metrics, ITERATIONS);
+        double nanosPerRecord = (double) (System.nanoTime() - start) / ITERATIONS;
+
+        System.out.println("Recorded " + ITERATIONS + " operations on one thread, " + String.format("%.1f", nanosPerRecord) + "ns each");
+        assertEquals(WARMUP_ITERATIONS + ITERATIONS, metrics.getPersistorOperation("retrieveAsset").getDurations().getCount());
+        assertTrue("Recording took " + nanosPerRecord + "ns", nanosPerRecord < MAX_NANOS_PER_RECORD);
+    }
+
+    @Test
+    public void testContendedRecording() throws Exception {
+        final Metrics metrics = new Metrics();
+        record(metrics, WARMUP_ITERATIONS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        record(metrics, ITERATIONS / THREADS);
+                        return null;
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            // Each processor in use spends the whole elapsed time recording
+            int busyProcessors = Math.min(THREADS, Runtime.getRuntime().availableProcessors());
+            double nanosPerRecord = (double) elapsed * busyProcessors / ITERATIONS;
+            System.out.println("Recorded " + ITERATIONS + " operations on " + THREADS + " threads and " + busyProcessors + " processors, "
+                               + String.format("%.1f", nanosPerRecord) + "ns of processor time each");
+            assertEquals(WARMUP_ITERATIONS + ITERATIONS, metrics.getPersistorOperation("retrieveAsset").getDurations().getCount());
+            assertTrue("Recording took " + nanosPerRecord + "ns", nanosPerRecord < MAX_NANOS_PER_RECORD);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Records operations in the same way as {@link MetricsPersistor}
+     */
+    private static void record(Metrics metrics, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            Metrics.Operation operation = metrics.getPersistorOperation("retrieveAsset");
+            long start = System.nanoTime();
+            operation.finished(start);
+        }
+    }
+}
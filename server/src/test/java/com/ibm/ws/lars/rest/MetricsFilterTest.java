@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Path;
+
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MetricsFilter}
+ */
+public class MetricsFilterTest {
+
+    private static final String ASSET_PATH = "/ma/v1/assets/0123456789abcdef01234567";
+
+    @Mocked
+    HttpServletRequest request;
+
+    @Mocked
+    HttpServletResponse response;
+
+    @Mocked
+    FilterChain chain;
+
+    @Mocked
+    SlowRequestLog slowRequestLog;
+
+    @Test
+    public void testPathTemplates() {
+        assertEquals("/", MetricsFilter.getPathTemplate(""));
+        assertEquals("/", MetricsFilter.getPathTemplate("/"));
+        assertEquals("/assets", MetricsFilter.getPathTemplate("/assets"));
+        assertEquals("/assets/summary", MetricsFilter.getPathTemplate("/assets/summary"));
+        assertEquals("/assets/bulk", MetricsFilter.getPathTemplate("/assets/bulk"));
+        assertEquals("/assets/delete", MetricsFilter.getPathTemplate("/assets/delete"));
+        assertEquals("/assets/{assetId}", MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567"));
+        assertEquals("/assets/{assetId}/state", MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567/state"));
+        assertEquals("/assets/{assetId}/assetreviews", MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567/assetreviews"));
+        assertEquals("/assets/{assetId}/attachments", MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567/attachments"));
+        assertEquals("/assets/{assetId}/attachments/{attachmentId}",
+                     MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567/attachments/0123456789abcdef01234568"));
+        assertEquals("/assets/{assetId}/attachments/{attachmentId}/{name}",
+                     MetricsFilter.getPathTemplate("/assets/0123456789abcdef01234567/attachments/0123456789abcdef01234568/my%20file.jar"));
+        assertEquals("/changes", MetricsFilter.getPathTemplate("/changes"));
+        assertEquals("/jobs/{jobId}", MetricsFilter.getPathTemplate("/jobs/0123456789abcdef01234567"));
+        assertEquals("/repository.config", MetricsFilter.getPathTemplate("/repository.config"));
+        assertEquals("/admin/explain/assets", MetricsFilter.getPathTemplate("/admin/explain/assets"));
+    }
+
+    @Test
+    public void testUnknownPaths() {
+        assertEquals("other", MetricsFilter.getPathTemplate("/assets/1234/unknown"));
+        assertEquals("other", MetricsFilter.getPathTemplate("/assets/1234/attachments/5678/name/extra"));
+        assertEquals("other", MetricsFilter.getPathTemplate("/assets/1234/state/extra"));
+        assertEquals("other", MetricsFilter.getPathTemplate("/jobs/1234/extra"));
+        assertEquals("other", MetricsFilter.getPathTemplate("/0123456789abcdef01234567"));
+        assertEquals("other", MetricsFilter.getPathTemplate("/a/b/c/d"));
+    }
+
+    /**
+     * Checks that the path of every resource method maps to the template it is declared with, so
+     * that the templates in the filter can't fall behind the resources
+     */
+    @Test
+    public void testResourcePathTemplates() {
+        int checked = 0;
+        for (Class<?> resource : new Class<?>[] { RepositoryRESTResource.class, AdminRESTResource.class }) {
+            String resourcePath = resource.getAnnotation(Path.class).value();
+            for (Method method : resource.getMethods()) {
+                Path methodPath = method.getAnnotation(Path.class);
+                if (methodPath == null) {
+                    continue;
+                }
+                String template = (resourcePath + methodPath.value()).replaceAll("/+", "/");
+                String path = fillTemplate(template);
+                assertEquals("Template for " + method.getName() + " (" + path + ")", template, MetricsFilter.getPathTemplate(path));
+                checked++;
+            }
+        }
+        assertFalse("No resource methods were found", checked == 0);
+    }
+
+    private static final Pattern PARAMETER = Pattern.compile("\\{(\\w+)\\}");
+
+    /**
+     * Replaces the parameters in a path template with values like those a client would send
+     */
+    private static String fillTemplate(String template) {
+        Matcher matcher = PARAMETER.matcher(template);
+        StringBuffer path = new StringBuffer();
+        int id = 0;
+        while (matcher.find()) {
+            String value = matcher.group(1).endsWith("Id") ? "0123456789abcdef0123456" + id++ : "my%20file.jar";
+            matcher.appendReplacement(path, value);
+        }
+        matcher.appendTail(path);
+        return path.toString();
+    }
+
+    /**
+     * Tests that a request which throws and also has an error status is counted as one error
+     */
+    @Test
+    public void testFailureCountedOnce() throws Exception {
+        Metrics metrics = new Metrics();
+        MetricsFilter filter = createFilter(metrics);
+        new Expectations() {
+            {
+                request.getRequestURI();
+                result = ASSET_PATH;
+                request.getContextPath();
+                result = "";
+                request.getMethod();
+                result = "GET";
+                response.getStatus();
+                result = 500;
+                minTimes = 0;
+                chain.doFilter(request, response);
+                result = new RuntimeException("Failed");
+            }
+        };
+
+        try {
+            filter.doFilter(request, response, chain);
+            fail("The exception should have been rethrown");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        assertEquals(1, metrics.getEndpoint("GET /assets/{assetId}").getErrors());
+        assertEquals(1, metrics.getEndpoint("GET /assets/{assetId}").getDurations().getCount());
+    }
+
+    /**
+     * Tests that an asynchronous response which fails while it is written, and so also completes
+     * with an error status, is counted as one error
+     */
+    @Test
+    public void testAsyncFailureCountedOnce(@Mocked final AsyncContext asyncContext) throws Exception {
+        Metrics metrics = new Metrics();
+        MetricsFilter filter = createFilter(metrics);
+        new Expectations() {
+            {
+                request.getRequestURI();
+                result = ASSET_PATH;
+                request.getContextPath();
+                result = "";
+                request.getMethod();
+                result = "GET";
+                request.isAsyncStarted();
+                result = true;
+                request.getAsyncContext();
+                result = asyncContext;
+                response.getStatus();
+                result = 500;
+                minTimes = 0;
+            }
+        };
+
+        filter.doFilter(request, response, chain);
+        final List<AsyncListener> listeners = new ArrayList<>();
+        new Verifications() {
+            {
+                asyncContext.addListener(withCapture(listeners));
+            }
+        };
+        assertEquals(1, listeners.size());
+        assertEquals(0, metrics.getEndpoint("GET /assets/{assetId}").getErrors());
+
+        listeners.get(0).onError(null);
+        listeners.get(0).onComplete(null);
+        assertEquals(1, metrics.getEndpoint("GET /assets/{assetId}").getErrors());
+        assertEquals(1, metrics.getEndpoint("GET /assets/{assetId}").getDurations().getCount());
+    }
+
+    private MetricsFilter createFilter(Metrics metrics) {
+        MetricsFilter filter = new MetricsFilter();
+        Deencapsulation.setField(filter, "metrics", metrics);
+        Deencapsulation.setField(filter, "slowRequestLog", slowRequestLog);
+        return filter;
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import mockit.Deencapsulation;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
+import com.ibm.ws.lars.rest.model.Asset;
+
+/**
+ * Tests for {@link Metrics} and {@link MetricsPersistor}
+ */
+public class MetricsTest {
+
+    @Test
+    public void testPrometheusText() {
+        Metrics metrics = new Metrics();
+        Metrics.Operation endpoint = metrics.getEndpoint("GET /assets/{assetId}");
+        endpoint.finished(System.nanoTime() - 2000000L);
+        endpoint.finished(System.nanoTime() - 2000000L);
+        endpoint.failed();
+        metrics.attachmentBytesWritten(1000);
+        metrics.attachmentBytesWritten(24);
+
+        String text = metrics.toPrometheusText();
+        assertTrue(text, text.contains("# TYPE lars_http_request_duration_seconds histogram\n"));
+        assertTrue(text, text.contains("lars_http_request_duration_seconds_bucket{endpoint=\"GET /assets/{assetId}\",le=\"0.001\"} 0\n"));
+        assertTrue(text, text.contains("lars_http_request_duration_seconds_bucket{endpoint=\"GET /assets/{assetId}\",le=\"0.0025\"} 2\n"));
+        assertTrue(text, text.contains("lars_http_request_duration_seconds_bucket{endpoint=\"GET /assets/{assetId}\",le=\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains("lars_http_request_duration_seconds_count{endpoint=\"GET /assets/{assetId}\"} 2\n"));
+        assertTrue(text, text.contains("lars_http_errors_total{endpoint=\"GET /assets/{assetId}\"} 1\n"));
+        assertTrue(text, text.contains("lars_attachment_bytes_written_total 1024\n"));
+        assertTrue(text, text.contains("lars_gridfs_chunk_read_seconds_count 0\n"));
+        assertTrue(text, text.endsWith("\n"));
+    }
+
+    @Test
+    public void testSameOperationIsReturned() {
+        Metrics metrics = new Metrics();
+        assertTrue(metrics.getPersistorOperation("retrieveAsset") == metrics.getPersistorOperation("retrieveAsset"));
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("a\\\"b\\\\c\\nd", Metrics.escape("a\"b\\c\nd"));
+    }
+
+    @Test
+    public void testPersistorIsMeasured() throws Exception {
+        Metrics metrics = new Metrics();
+        MetricsPersistor persistor = new MetricsPersistor();
+        Deencapsulation.setField(persistor, "delegate", new MemoryPersistor());
+        Deencapsulation.setField(persistor, "metrics", metrics);
+
+        Asset asset = persistor.createAsset(new Asset());
+        persistor.retrieveAsset(asset.get_id());
+        try {
+            persistor.retrieveAsset("ffffffffffffffffffffffff");
+            fail("Asset should not exist");
+        } catch (NonExistentArtefactException e) {
+            // Expected, and not a failure of the persistor
+        }
+        try {
+            persistor.explainAllAssets(Collections.<AssetFilter> emptyList(), null, null, null, null);
+            fail("The memory persistor can't explain queries");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        Metrics.Operation retrieve = metrics.getPersistorOperation("retrieveAsset");
+        assertEquals(2, retrieve.getDurations().getCount());
+        assertEquals(0, retrieve.getErrors());
+        assertEquals(1, metrics.getPersistorOperation("createAsset").getDurations().getCount());
+        Metrics.Operation explain = metrics.getPersistorOperation("explainAllAssets");
+        assertEquals(1, explain.getDurations().getCount());
+        assertEquals(1, explain.getErrors());
+    }
+}
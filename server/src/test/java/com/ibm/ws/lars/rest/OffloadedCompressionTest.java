@@ -0,0 +1,537 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.ws.rs.core.StreamingOutput;
+
+import mockit.Mocked;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
+
+/**
+ * Tests the {@link CompressionFilter} and the {@link OffloadFilter} together, as they are arranged
+ * in the container, with the body of the response written by a thread of a {@link ResponseWriters}
+ * pool. The filter chain does what the JAX-RS runtime does with a resource which returns an
+ * offloaded output.
+ * <p>
+ * Once the request has gone asynchronous the compression filter does not finish the response, so
+ * these check that the writer's thread does, and that the whole compressed body, with its
+ * trailer, has been written before the request is completed.
+ */
+public class OffloadedCompressionTest {
+
+    private static final String WRITER_THREAD = "Test response writer";
+
+    @Mocked
+    HttpServletRequest mockRequest;
+
+    @Mocked
+    HttpServletResponse mockResponse;
+
+    private ResponseWriters writers;
+
+    private TestRequest request;
+
+    private ContainerResponse response;
+
+    @Before
+    public void setUp() {
+        writers = new ResponseWriters(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, WRITER_THREAD);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        request = new TestRequest(mockRequest);
+        response = new ContainerResponse(mockResponse);
+    }
+
+    @After
+    public void tearDown() {
+        writers.shutdown();
+    }
+
+    @Test
+    public void testAssetListIsCompressedByWriter() throws Exception {
+        List<Asset> assets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("_id", String.format("%024x", i));
+            properties.put("name", "Asset " + i);
+            properties.put("description", "A test asset which is long enough for the list to be compressed");
+            assets.add(Asset.createAssetFromMap(properties));
+        }
+        CountDownLatch release = new CountDownLatch(1);
+        JaxRsRuntime runtime = new JaxRsRuntime("application/json", new AssetCursorStreamingOutput(new WaitingCursor(assets, release)));
+        runtime.headers.put("ETag", "\"list\"");
+
+        request.headers.put("Accept-Encoding", "gzip");
+        new CompressionFilter().doFilter(request, response, new OffloadingChain(runtime));
+
+        // The container's thread has returned, and the writer is waiting for the first asset
+        assertTrue(request.asyncStarted);
+        assertEquals("Nothing should be written by the container's thread", 0, response.body.size());
+        assertFalse("The response can't be committed before the encoding is chosen", response.committed);
+        assertNull(request.context.completedBody);
+
+        release.countDown();
+        byte[] body = request.context.awaitComplete();
+
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+        assertEquals("\"list-gzip\"", response.headers.get("ETag"));
+        assertEquals("Accept-Encoding", response.headers.get("Vary"));
+        assertTrue("Headers were set after the response was committed: " + response.lateHeaders, response.lateHeaders.isEmpty());
+        assertEquals("The trailer should be written by the writer", WRITER_THREAD, response.lastWriter.getName());
+        assertEquals(WRITER_THREAD, request.context.completedBy.getName());
+
+        // The body was whole, trailer and all, when the request was completed
+        byte[] json = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+        assertEquals(100, new ObjectMapper().readValue(json, List.class).size());
+        assertTrue("The writer should be given up", writers.tryReserve());
+    }
+
+    @Test
+    public void testShortAssetListIsNotCompressed() throws Exception {
+        List<Asset> assets = new ArrayList<>();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("name", "Only asset");
+        assets.add(Asset.createAssetFromMap(properties));
+        JaxRsRuntime runtime = new JaxRsRuntime("application/json", new AssetCursorStreamingOutput(new WaitingCursor(assets, null)));
+
+        request.headers.put("Accept-Encoding", "gzip");
+        new CompressionFilter().doFilter(request, response, new OffloadingChain(runtime));
+        byte[] body = request.context.awaitComplete();
+
+        assertNull(response.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.headers.get("Vary"));
+        assertTrue("Headers were set after the response was committed: " + response.lateHeaders, response.lateHeaders.isEmpty());
+        assertEquals("The held back body should be written by the writer", WRITER_THREAD, response.lastWriter.getName());
+        assertEquals("Only asset", ((Map<?, ?>) new ObjectMapper().readValue(body, List.class).get(0)).get("name"));
+    }
+
+    @Test
+    public void testTextAttachmentIsCompressedByWriter() throws Exception {
+        byte[] content = createContent(100000);
+        JaxRsRuntime runtime = new JaxRsRuntime("text/plain", new AttachmentStreamingOutput(new ByteArrayInputStream(content), 0, content.length, 8192));
+        runtime.headers.put("Content-Length", Integer.toString(content.length));
+
+        request.headers.put("Accept-Encoding", "gzip");
+        new CompressionFilter().doFilter(request, response, new OffloadingChain(runtime));
+        byte[] body = request.context.awaitComplete();
+
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+        assertNull("The length of the uncompressed content mustn't be sent", response.headers.get("Content-Length"));
+        assertTrue("Headers were set after the response was committed: " + response.lateHeaders, response.lateHeaders.isEmpty());
+        assertEquals(WRITER_THREAD, response.lastWriter.getName());
+        assertTrue(body.length < content.length);
+        assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(body))));
+    }
+
+    @Test
+    public void testBinaryAttachmentIsNotCompressed() throws Exception {
+        byte[] content = createContent(100000);
+        JaxRsRuntime runtime = new JaxRsRuntime("application/octet-stream", new AttachmentStreamingOutput(new ByteArrayInputStream(content), 0, content.length,
+                                                                                                          8192));
+        runtime.headers.put("Content-Length", Integer.toString(content.length));
+        runtime.headers.put("Accept-Ranges", "bytes");
+
+        request.headers.put("Accept-Encoding", "gzip");
+        new CompressionFilter().doFilter(request, response, new OffloadingChain(runtime));
+        byte[] body = request.context.awaitComplete();
+
+        assertNull(response.headers.get("Content-Encoding"));
+        assertEquals(Integer.toString(content.length), response.headers.get("Content-Length"));
+        assertEquals("bytes", response.headers.get("Accept-Ranges"));
+        assertTrue("Headers were set after the response was committed: " + response.lateHeaders, response.lateHeaders.isEmpty());
+        assertEquals(WRITER_THREAD, response.lastWriter.getName());
+        assertArrayEquals(content, body);
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + i % 13);
+        }
+        return content;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The part of the filter chain which the {@link OffloadFilter} is mapped to, inside the
+     * filters mapped by URL
+     */
+    private static class OffloadingChain implements FilterChain {
+        private final FilterChain runtime;
+
+        OffloadingChain(FilterChain runtime) {
+            this.runtime = runtime;
+        }
+
+        @Override
+        public void doFilter(ServletRequest req, ServletResponse resp) throws IOException, ServletException {
+            new OffloadFilter().doFilter(req, resp, runtime);
+        }
+    }
+
+    /**
+     * Does what the JAX-RS runtime does with a resource which returns an offloaded output: sets the
+     * status and headers, writes the output to the response's stream, then flushes and closes the
+     * stream and flushes the response
+     */
+    private class JaxRsRuntime implements FilterChain {
+        private final String contentType;
+        private final StreamingOutput output;
+        final Map<String, String> headers = new HashMap<>();
+
+        JaxRsRuntime(String contentType, StreamingOutput output) {
+            this.contentType = contentType;
+            this.output = output;
+        }
+
+        @Override
+        public void doFilter(ServletRequest req, ServletResponse resp) throws IOException {
+            assertEquals(Boolean.TRUE, req.getAttribute(OffloadFilter.ACTIVE_ATTRIBUTE));
+            assertTrue(writers.tryReserve());
+            StreamingOutput offloaded = new OffloadedStreamingOutput(output, (HttpServletRequest) req, writers);
+
+            HttpServletResponse httpResponse = (HttpServletResponse) resp;
+            httpResponse.setStatus(HttpServletResponse.SC_OK);
+            httpResponse.setContentType(contentType);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                httpResponse.setHeader(header.getKey(), header.getValue());
+            }
+            OutputStream os = httpResponse.getOutputStream();
+            offloaded.write(os);
+            os.flush();
+            os.close();
+            httpResponse.flushBuffer();
+        }
+    }
+
+    /**
+     * A cursor which waits before returning its first asset, so that the test can see what has
+     * happened before the body is written
+     */
+    private static class WaitingCursor implements AssetCursor {
+        private final List<Asset> assets;
+        private final CountDownLatch release;
+        private int next;
+
+        WaitingCursor(List<Asset> assets, CountDownLatch release) {
+            this.assets = assets;
+            this.release = release;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == 0 && release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return next < assets.size();
+        }
+
+        @Override
+        public Asset next() {
+            return assets.get(next++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private class TestRequest extends HttpServletRequestWrapper {
+        final Map<String, Object> attributes = new HashMap<>();
+        final Map<String, String> headers = new HashMap<>();
+        volatile boolean asyncStarted;
+        TestAsyncContext context;
+
+        TestRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object o) {
+            attributes.put(name, o);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean isAsyncStarted() {
+            return asyncStarted;
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest req, ServletResponse resp) {
+            asyncStarted = true;
+            context = new TestAsyncContext(req, resp);
+            return context;
+        }
+    }
+
+    /**
+     * The container's asynchronous context, which records the body as it was when the request was
+     * completed
+     */
+    private class TestAsyncContext implements AsyncContext {
+        private final ServletRequest req;
+        private final ServletResponse resp;
+        private final CountDownLatch completed = new CountDownLatch(1);
+        volatile byte[] completedBody;
+        volatile Thread completedBy;
+
+        TestAsyncContext(ServletRequest req, ServletResponse resp) {
+            this.req = req;
+            this.resp = resp;
+        }
+
+        byte[] awaitComplete() throws InterruptedException {
+            assertTrue("The request should be completed", completed.await(10, TimeUnit.SECONDS));
+            return completedBody;
+        }
+
+        @Override
+        public void complete() {
+            completedBody = response.toByteArray();
+            completedBy = Thread.currentThread();
+            completed.countDown();
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return req;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return resp;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return false;
+        }
+
+        @Override
+        public void dispatch() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void start(Runnable run) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {}
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {}
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeout(long timeout) {}
+
+        @Override
+        public long getTimeout() {
+            return 0;
+        }
+    }
+
+    /**
+     * The container's response, which records its headers, its body, and any headers set after it
+     * was committed, which a real container would drop
+     */
+    private static class ContainerResponse extends HttpServletResponseWrapper {
+        final Map<String, String> headers = new HashMap<>();
+        final List<String> lateHeaders = new ArrayList<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        volatile boolean committed;
+        volatile Thread lastWriter;
+        private int status = SC_OK;
+        private String contentType;
+
+        ContainerResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setContentType(String type) {
+            contentType = type;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public synchronized void setHeader(String name, String value) {
+            if (committed) {
+                lateHeaders.add(name);
+            }
+            headers.put(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            setHeader(name, value);
+        }
+
+        @Override
+        public synchronized String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public synchronized boolean containsHeader(String name) {
+            return headers.containsKey(name);
+        }
+
+        @Override
+        public void flushBuffer() {
+            committed = true;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        synchronized byte[] toByteArray() {
+            return body.toByteArray();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    synchronized (ContainerResponse.this) {
+                        committed = true;
+                        lastWriter = Thread.currentThread();
+                        body.write(b, off, len);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.ws.rs.core.StreamingOutput;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OffloadedStreamingOutput} and the {@link OffloadFilter} which starts it
+ */
+public class OffloadedStreamingOutputTest {
+
+    private static final byte[] BODY = new byte[] { 1, 2, 3, 4 };
+
+    @Mocked
+    HttpServletRequest mockRequest;
+
+    @Mocked
+    HttpServletResponse mockResponse;
+
+    @Mocked
+    AsyncContext asyncContext;
+
+    private TestRequest request;
+
+    private TestResponse response;
+
+    private QueueingWriters writers;
+
+    @Before
+    public void setUp() {
+        request = new TestRequest(mockRequest);
+        response = new TestResponse(mockResponse);
+        writers = new QueueingWriters();
+        assertTrue(writers.tryReserve());
+    }
+
+    @Test
+    public void testWrittenByWriter() throws Exception {
+        new Expectations() {
+            {
+                asyncContext.setTimeout(0);
+                asyncContext.getResponse();
+                result = response;
+                asyncContext.complete();
+                times = 1;
+            }
+        };
+
+        new OffloadFilter().doFilter(request, response, new JaxRsChain(new BodyOutput()));
+        assertEquals("Nothing should be written until the writer runs", 0, response.out.size());
+        assertFalse("The runtime's close shouldn't end the response", response.out.closed);
+        assertTrue(request.asyncStarted);
+        assertNull(request.getAttribute(OffloadedStreamingOutput.REQUEST_ATTRIBUTE));
+        assertNull(request.getAttribute(OffloadFilter.ACTIVE_ATTRIBUTE));
+        assertEquals(1, writers.tasks.size());
+
+        writers.tasks.get(0).run();
+        assertArrayEquals(BODY, response.out.toByteArray());
+        assertTrue("The stream should be closed so that filters can finish the response", response.out.closed);
+        assertTrue("The thread should be given up once the body is written", writers.tryReserve());
+    }
+
+    @Test
+    public void testNotWrittenWhenNotRequested() throws Exception {
+        // The runtime doesn't ask for the body of a response to a HEAD request
+        FilterChain chain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest req, ServletResponse resp) {
+                new OffloadedStreamingOutput(new BodyOutput(), request, writers);
+            }
+        };
+        new OffloadFilter().doFilter(request, response, chain);
+
+        assertFalse(request.asyncStarted);
+        assertTrue(writers.tasks.isEmpty());
+        assertTrue("The thread should be given up", writers.tryReserve());
+    }
+
+    @Test
+    public void testThreadGivenUpWhenRuntimeFails() throws Exception {
+        FilterChain chain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest req, ServletResponse resp) throws IOException {
+                new OffloadedStreamingOutput(new BodyOutput(), request, writers).write(resp.getOutputStream());
+                throw new IOException("Failed");
+            }
+        };
+        try {
+            new OffloadFilter().doFilter(request, response, chain);
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertFalse(request.asyncStarted);
+        assertTrue("The thread should be given up", writers.tryReserve());
+    }
+
+    @Test
+    public void testCompletedWhenWritersHaveStopped() throws Exception {
+        new Expectations() {
+            {
+                asyncContext.complete();
+                times = 1;
+            }
+        };
+
+        writers.rejecting = true;
+        new OffloadFilter().doFilter(request, response, new JaxRsChain(new BodyOutput()));
+        assertEquals("The body must not be written by the container's thread", 0, response.out.size());
+        assertTrue(writers.tryReserve());
+    }
+
+    @Test
+    public void testCompletedWhenClientGoesAway() throws Exception {
+        new Expectations() {
+            {
+                asyncContext.getResponse();
+                result = response;
+                asyncContext.complete();
+                times = 1;
+            }
+        };
+
+        StreamingOutput failing = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        new OffloadFilter().doFilter(request, response, new JaxRsChain(failing));
+        writers.tasks.get(0).run();
+        assertTrue(writers.tryReserve());
+    }
+
+    /**
+     * Does what the JAX-RS runtime does with a resource which returns an offloaded output: writes
+     * it to the response's stream, then flushes and closes the stream
+     */
+    private class JaxRsChain implements FilterChain {
+        private final StreamingOutput output;
+
+        JaxRsChain(StreamingOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void doFilter(ServletRequest req, ServletResponse resp) throws IOException, ServletException {
+            assertEquals(Boolean.TRUE, req.getAttribute(OffloadFilter.ACTIVE_ATTRIBUTE));
+            OutputStream os = resp.getOutputStream();
+            new OffloadedStreamingOutput(output, request, writers).write(os);
+            os.flush();
+            os.close();
+        }
+    }
+
+    private static class BodyOutput implements StreamingOutput {
+        @Override
+        public void write(OutputStream output) throws IOException {
+            output.write(BODY);
+        }
+    }
+
+    private static class QueueingWriters extends ResponseWriters {
+        final List<Runnable> tasks = new ArrayList<>();
+        boolean rejecting;
+
+        QueueingWriters() {
+            super(1, Executors.defaultThreadFactory());
+        }
+
+        @Override
+        void execute(final Runnable writer) {
+            if (rejecting) {
+                release();
+                throw new RejectedExecutionException();
+            }
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.run();
+                    } finally {
+                        release();
+                    }
+                }
+            });
+        }
+    }
+
+    private class TestRequest extends HttpServletRequestWrapper {
+        final Map<String, Object> attributes = new HashMap<>();
+        boolean asyncStarted;
+
+        TestRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object o) {
+            attributes.put(name, o);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest req, ServletResponse resp) {
+            asyncStarted = true;
+            return asyncContext;
+        }
+    }
+
+    private static class TestResponse extends HttpServletResponseWrapper {
+        final TestOutputStream out = new TestOutputStream();
+
+        TestResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+
+    private static class TestOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean closed;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
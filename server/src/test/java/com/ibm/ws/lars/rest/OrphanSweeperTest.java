@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mockit.Deencapsulation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.Attachment;
+import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+
+/**
+ * Tests for {@link OrphanSweeper}
+ */
+public class OrphanSweeperTest {
+
+    private MemoryPersistor persistor;
+
+    private OrphanSweeper sweeper;
+
+    @Before
+    public void setUp() {
+        persistor = new MemoryPersistor();
+        sweeper = new OrphanSweeper();
+        Deencapsulation.setField(sweeper, "persistor", persistor);
+        Deencapsulation.setField(sweeper, "configuration", new Configuration());
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        Asset asset = persistor.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"kept\"}"));
+        AttachmentContentMetadata kept = createContent("kept", "Content of an attachment");
+        createAttachment(asset.get_id(), kept.filename);
+
+        // Left behind by a delete which failed after removing the asset
+        AttachmentContentMetadata deleted = createContent("deleted", "Content of a deleted asset");
+        createAttachment("missing", deleted.filename);
+        for (int i = 0; i < OrphanSweeper.BATCH_SIZE + 50; i++) {
+            createAttachment("missing", null);
+        }
+
+        // Left behind by an upload which failed before its attachment was stored
+        AttachmentContentMetadata unattached = createContent("unattached", "Content without an attachment");
+
+        Date cutoff = new Date(System.currentTimeMillis() + 60000);
+        sweeper.sweep(cutoff);
+        assertTrue(persistor.hasAttachmentContent(kept.filename));
+        assertFalse(persistor.hasAttachmentContent(deleted.filename));
+        assertTrue("Content should only be marked by the first sweep", persistor.hasAttachmentContent(unattached.filename));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> lastSweep = (Map<String, Object>) sweeper.getStatistics().get("lastSweep");
+        assertEquals(OrphanSweeper.BATCH_SIZE + 52, lastSweep.get("attachmentsScanned"));
+        assertEquals(OrphanSweeper.BATCH_SIZE + 51, lastSweep.get("attachmentsRemoved"));
+        assertEquals(2, lastSweep.get("contentScanned"));
+        assertEquals(0, lastSweep.get("contentRemoved"));
+        assertEquals((long) deleted.length, lastSweep.get("bytesReclaimed"));
+
+        sweeper.sweep(cutoff);
+        assertTrue(persistor.hasAttachmentContent(kept.filename));
+        assertFalse(persistor.hasAttachmentContent(unattached.filename));
+
+        Map<String, Object> statistics = sweeper.getStatistics();
+        assertEquals(2L, statistics.get("sweeps"));
+        assertEquals(OrphanSweeper.BATCH_SIZE + 51L, statistics.get("attachmentsRemoved"));
+        assertEquals(1L, statistics.get("contentRemoved"));
+        assertEquals(deleted.length + unattached.length, statistics.get("bytesReclaimed"));
+        assertEquals(false, statistics.get("sweeping"));
+    }
+
+    @Test
+    public void testContentIsNotRemovedWhileItIsBeingAttached() throws Exception {
+        AttachmentContentMetadata content = createContent("abcd", "Content which is about to be attached");
+        Date cutoff = new Date(System.currentTimeMillis() + 60000);
+        sweeper.sweep(cutoff);
+
+        // A new attachment refers to the content before the next sweep
+        persistor.referenceExistingContent("abcd");
+        sweeper.sweep(cutoff);
+        assertTrue(persistor.hasAttachmentContent(content.filename));
+
+        Asset asset = persistor.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset\"}"));
+        createAttachment(asset.get_id(), content.filename);
+        sweeper.sweep(cutoff);
+        sweeper.sweep(cutoff);
+        assertTrue(persistor.hasAttachmentContent(content.filename));
+    }
+
+    @Test
+    public void testSweepJob() throws Exception {
+        createAttachment("missing", null);
+        Deencapsulation.setField(sweeper, "configuration", new Configuration() {
+            @Override
+            public long getOrphanGracePeriod() {
+                return 0;
+            }
+        });
+
+        JobManager jobManager = new JobManager();
+        RequestExecutors requestExecutors = new RequestExecutors();
+        requestExecutors.start();
+        Deencapsulation.setField(jobManager, "persistor", persistor);
+        Deencapsulation.setField(jobManager, "requestExecutors", requestExecutors);
+        try {
+            Map<String, Object> status = waitForJob(jobManager, jobManager.submit(sweeper.createSweepJob()));
+            assertEquals(JobManager.SUCCEEDED, status.get("state"));
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = (Map<String, Object>) status.get("result");
+            assertEquals(1, result.get("attachmentsRemoved"));
+            assertEquals(1L, sweeper.getStatistics().get("attachmentsRemoved"));
+            assertFalse(sweeper.isSweeping());
+
+            // Only one sweep runs at a time
+            AtomicBoolean sweeping = Deencapsulation.getField(sweeper, "sweeping");
+            sweeping.set(true);
+            status = waitForJob(jobManager, jobManager.submit(sweeper.createSweepJob()));
+            assertEquals(JobManager.FAILED, status.get("state"));
+            assertEquals(1L, sweeper.getStatistics().get("sweeps"));
+        } finally {
+            requestExecutors.shutdown();
+        }
+    }
+
+    private static Map<String, Object> waitForJob(JobManager jobManager, Map<String, Object> status) throws Exception {
+        String id = (String) status.get("id");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            status = jobManager.getStatus(id);
+            if (!JobManager.QUEUED.equals(status.get("state")) && !JobManager.RUNNING.equals(status.get("state"))) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        return status;
+    }
+
+    private AttachmentContentMetadata createContent(String hash, String content) throws Exception {
+        AttachmentContentMetadata metadata = persistor.createAttachmentContent(hash, "text/plain", new ByteArrayInputStream(content.getBytes("UTF-8")));
+        persistor.setContentHash(metadata.filename, hash);
+        return metadata;
+    }
+
+    private void createAttachment(String assetId, String gridFSId) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(Attachment.ASSET_ID, assetId);
+        if (gridFSId != null) {
+            properties.put(Attachment.GRIDFS_ID, gridFSId);
+        }
+        persistor.createAttachmentMetadata(Attachment.createAttachmentFromMap(properties));
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.SortOptions.SortOrder;
+import com.ibm.ws.lars.rest.exceptions.InvalidParameterException;
+import com.ibm.ws.lars.rest.model.Asset;
+
+/**
+ * Unit tests for the {@link PageToken} class
+ */
+public class PageTokenTest {
+
+    private static final String ID = "56a8a1c2e4b0d8d9e1a2b3c4";
+
+    private static Asset createAsset(String field, Object value) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("_id", ID);
+        properties.put(field, value);
+        return Asset.createAssetFromMap(properties);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SortOptions sortOptions = new SortOptions("name", SortOrder.DESCENDING);
+        PageToken token = PageToken.after(createAsset("name", "Some name/with+odd&chars"), sortOptions);
+
+        String encoded = token.encode();
+        assertTrue("The token should be URL safe: " + encoded, encoded.matches("[A-Za-z0-9_-]+"));
+
+        PageToken parsed = PageToken.parse(encoded);
+        assertEquals(token, parsed);
+        assertEquals("name", parsed.getField());
+        assertEquals(SortOrder.DESCENDING, parsed.getSortOrder());
+        assertEquals("Some name/with+odd&chars", parsed.getValue());
+        assertEquals(ID, parsed.getId());
+        assertTrue(parsed.matches(sortOptions));
+        assertFalse(parsed.matches(new SortOptions("name", SortOrder.ASCENDING)));
+        assertFalse(parsed.matches(null));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        SortOptions sortOptions = new SortOptions("size", SortOrder.ASCENDING);
+        assertEquals(1234, PageToken.parse(PageToken.after(createAsset("size", 1234), sortOptions).encode()).getValue());
+        assertNull(PageToken.parse(PageToken.after(createAsset("other", 1234), sortOptions).encode()).getValue());
+
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("size", 56);
+        sortOptions = new SortOptions("info.size", SortOrder.ASCENDING);
+        assertEquals(56, PageToken.after(createAsset("info", nested), sortOptions).getValue());
+
+        assertNull("An asset can't be found again by an array value",
+                   PageToken.after(createAsset("size", Arrays.asList(1, 2)), new SortOptions("size", SortOrder.ASCENDING)));
+    }
+
+    @Test
+    public void testUnsorted() throws Exception {
+        PageToken token = PageToken.parse(PageToken.after(createAsset("name", "a"), null).encode());
+        assertNull(token.getField());
+        assertEquals(ID, token.getId());
+        assertTrue(token.matches(null));
+        assertFalse(token.matches(new SortOptions("name", SortOrder.ASCENDING)));
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(PageToken.isSupported(null, null));
+        assertTrue(PageToken.isSupported("search", new SortOptions("name", SortOrder.ASCENDING)));
+        assertFalse("Results sorted on their relevance can't be paged by token", PageToken.isSupported("search", null));
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        for (String token : Arrays.asList("", "!!!!", "bm90IGpzb24", "e30", "eyJpZCI6Im5vdCBhbiBpZCIsIm8iOiJBU0NFTkRJTkcifQ")) {
+            try {
+                PageToken.parse(token);
+                fail("The token should not be valid: " + token);
+            } catch (InvalidParameterException e) {
+                // expected
+            }
+        }
+    }
+}
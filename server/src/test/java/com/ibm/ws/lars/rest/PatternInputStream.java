@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import java.io.InputStream;
+
+/**
+ * An input stream of generated content, used by the benchmarks to provide large attachments
+ * without holding them in memory.
+ */
+class PatternInputStream extends InputStream {
+
+    private long remaining;
+
+    PatternInputStream(long length) {
+        remaining = length;
+    }
+
+    @Override
+    public int read() {
+        if (remaining <= 0) {
+            return -1;
+        }
+        remaining--;
+        return (int) (remaining & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = (int) Math.min(len, remaining);
+        for (int i = 0; i < count; i++) {
+            b[off + i] = (byte) --remaining;
+        }
+        return count;
+    }
+}
@@ -29,7 +29,9 @@ import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.model.Asset;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 
 public class PersistenceBeanLoggingTest {
 
@@ -88,12 +90,16 @@ public class PersistenceBeanLoggingTest {
     }
 
     @Test
-    public void testCreateAsset() throws InvalidJsonAssetException {
+    public void testCreateAsset(@Mocked final DBCollection collection) throws InvalidJsonAssetException {
         new Expectations() {
             {
                 logger.isLoggable(Level.FINE);
                 result = true;
 
+                // The asset takes a number from the change sequence counter, and is written
+                collection.findAndModify((DBObject) any, null, null, false, (DBObject) any, true, anyBoolean);
+                result = new BasicDBObject("value", 1L);
+
                 logger.fine("createAsset: inserting object into the database: { }");
             }
         };
@@ -101,7 +107,7 @@ public class PersistenceBeanLoggingTest {
     }
 
     @Test
-    public void testUpdateAsset() throws InvalidJsonAssetException, NonExistentArtefactException {
+    public void testUpdateAsset(@Mocked final DBCollection collection) throws InvalidJsonAssetException, NonExistentArtefactException {
         final String expectedString = "updateAsset: query object: { \"_id\" : { \"$oid\" : \"ffffffffffffffffffffffff\"}}\n"
                                       + "updated asset:{ \"_id\" : { \"$oid\" : \"ffffffffffffffffffffffff\"}}";
         new Expectations() {
@@ -110,6 +116,9 @@ public class PersistenceBeanLoggingTest {
                 result = true;
 
                 logger.fine(expectedString);
+
+                collection.findAndModify((DBObject) any, null, null, false, (DBObject) any, true, anyBoolean);
+                result = new BasicDBObject("value", 1L);
             }
         };
         Asset asset = new Asset();
@@ -23,17 +23,26 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +50,7 @@ import java.util.logging.Logger;
 
 import mockit.Mocked;
 
+import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -49,11 +59,16 @@ import com.ibm.ws.lars.rest.Condition.Operation;
 import com.ibm.ws.lars.rest.exceptions.InvalidJsonAssetException;
 import com.ibm.ws.lars.rest.exceptions.NonExistentArtefactException;
 import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.AssetCursor;
 import com.ibm.ws.lars.rest.model.AssetList;
 import com.ibm.ws.lars.rest.model.Attachment;
 import com.ibm.ws.lars.rest.model.AttachmentContentMetadata;
+import com.ibm.ws.lars.rest.model.AttachmentContentResponse;
+import com.ibm.ws.lars.rest.model.AttachmentList;
 import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
 import com.mongodb.WriteConcern;
 
@@ -162,6 +177,29 @@ public class PersistenceBeanTest {
 
     }
 
+    /**
+     * Tests that the state of an asset is only changed if it is in one of the expected states.
+     */
+    @Test
+    public void testUpdateAssetState() throws InvalidJsonAssetException, NonExistentArtefactException {
+        Asset asset = Asset.deserializeAssetFromJson("{\"name\":\"state\", \"state\":\"draft\"}");
+        String id = persistenceBean.createAsset(asset).get_id();
+
+        Asset updated = persistenceBean.updateAssetState(id, EnumSet.of(Asset.State.DRAFT, Asset.State.NEED_MORE_INFO), Asset.State.AWAITING_APPROVAL,
+                                                         "2016-01-01T00:00:00.000Z");
+        assertNotNull("The asset was in an expected state, so it should have been changed", updated);
+        assertEquals(Asset.State.AWAITING_APPROVAL, updated.getState());
+        assertEquals("2016-01-01T00:00:00.000Z", updated.getLastUpdatedOn());
+        assertEquals("The rest of the asset should be unchanged", "state", updated.get("name"));
+
+        assertNull("The asset is no longer in an expected state, so it should not have been changed",
+                   persistenceBean.updateAssetState(id, EnumSet.of(Asset.State.DRAFT), Asset.State.AWAITING_APPROVAL, "2016-01-02T00:00:00.000Z"));
+        assertEquals("2016-01-01T00:00:00.000Z", persistenceBean.retrieveAsset(id).getLastUpdatedOn());
+
+        assertNull("An asset which doesn't exist should not be changed",
+                   persistenceBean.updateAssetState("ffffffffffffffffffffffff", EnumSet.of(Asset.State.DRAFT), Asset.State.AWAITING_APPROVAL, "2016-01-02T00:00:00.000Z"));
+    }
+
     /**
      * Tests that attachment (JSON) metadata can be stored in and retrieved from the
      * PersistenceBean.
@@ -181,6 +219,45 @@ public class PersistenceBeanTest {
         assertEquals(attachment, returnedAttachment);
     }
 
+    /**
+     * Tests that the attachments for several assets can be read at once, grouped by asset.
+     */
+    @Test
+    public void testFindAttachmentsForAssets() {
+        Attachment first = createAttachmentForAsset("asset1");
+        Attachment second = createAttachmentForAsset("asset1");
+        Attachment third = createAttachmentForAsset("asset2");
+        createAttachmentForAsset("asset3");
+
+        Map<String, AttachmentList> attachments = persistenceBean.findAttachmentsForAssets(Arrays.asList("asset1", "asset2", "asset4"));
+        assertEquals("Only assets with attachments should be in the map", 2, attachments.size());
+        assertThat(getIds(attachments.get("asset1")), containsInAnyOrder(first.get_id(), second.get_id()));
+        assertThat(getIds(attachments.get("asset2")), contains(third.get_id()));
+
+        assertTrue("No assets should give no attachments", persistenceBean.findAttachmentsForAssets(Collections.<String> emptyList()).isEmpty());
+    }
+
+    private Attachment createAttachmentForAsset(String assetId) {
+        return createAttachmentForAsset(assetId, null);
+    }
+
+    private Attachment createAttachmentForAsset(String assetId, String gridFSId) {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put(Attachment.ASSET_ID, assetId);
+        if (gridFSId != null) {
+            properties.put(Attachment.GRIDFS_ID, gridFSId);
+        }
+        return persistenceBean.createAttachmentMetadata(Attachment.createAttachmentFromMap(properties));
+    }
+
+    private static List<String> getIds(AttachmentList attachments) {
+        List<String> ids = new ArrayList<>();
+        for (Attachment attachment : attachments) {
+            ids.add(attachment.get_id());
+        }
+        return ids;
+    }
+
     /**
      * Tests that attachment content (ie arbitrary binary data) can be stored in and retrieved from
      * the PersistenceBean.
@@ -200,6 +277,269 @@ public class PersistenceBeanTest {
         }
     }
 
+    /**
+     * Tests that attachment content can be stored in the filesystem, that GridFS content can be
+     * moved there, and that content in either store can be read and deleted.
+     */
+    @Test
+    public void testFileSystemContentStore() throws Exception {
+        byte[] gridFSContent = "Content stored in GridFS".getBytes();
+        String gridFSId = persistenceBean.createAttachmentContent("gridfs.txt", "text/plain", new ByteArrayInputStream(gridFSContent)).filename;
+
+        File directory = Files.createTempDirectory("contentStore").toFile();
+        try {
+            useFileSystemContentStore(directory);
+
+            byte[] fileContent = "Content stored in the filesystem".getBytes();
+            AttachmentContentMetadata metadata = persistenceBean.createAttachmentContent("file.txt", "text/plain", new ByteArrayInputStream(fileContent));
+            assertEquals(fileContent.length, metadata.length);
+            assertEquals("Only the GridFS content should have chunks", 1, db.getCollection("fs.chunks").count());
+            try (AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(metadata.filename)) {
+                assertTrue(Arrays.equals(fileContent, TestUtils.slurp(response.getContentStream())));
+                assertEquals("text/plain", response.getContentType());
+                assertNotNull(response.getMD5());
+            }
+
+            // Content in GridFS can still be read, and is moved by the migration
+            try (AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(gridFSId)) {
+                assertTrue(Arrays.equals(gridFSContent, TestUtils.slurp(response.getContentStream())));
+            }
+            assertEquals(1, persistenceBean.migrateAttachmentContent());
+            assertEquals(0, db.getCollection("fs.chunks").count());
+            try (AttachmentContentResponse response = persistenceBean.retrieveAttachmentContent(gridFSId)) {
+                assertTrue(Arrays.equals(gridFSContent, TestUtils.slurp(response.getContentStream())));
+            }
+            assertEquals("There should be nothing left to migrate", 0, persistenceBean.migrateAttachmentContent());
+
+            persistenceBean.deleteAttachmentContent(metadata.filename);
+            persistenceBean.deleteAttachmentContent(gridFSId);
+            assertEquals(0, db.getCollection("fs.files").count());
+        } finally {
+            Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * Reconfigures the persistence bean to store new attachment content in the given directory
+     */
+    private void useFileSystemContentStore(final File directory) throws Exception {
+        Configuration configuration = new Configuration() {
+            @Override
+            public String getContentStore() {
+                return Configuration.FILESYSTEM_CONTENT_STORE;
+            }
+
+            @Override
+            public String getContentStoreDirectory() {
+                return directory.getAbsolutePath();
+            }
+        };
+        Field configurationField = PersistenceBean.class.getDeclaredField("configuration");
+        configurationField.setAccessible(true);
+        configurationField.set(persistenceBean, configuration);
+        persistenceBean.createGridFS();
+    }
+
+    /**
+     * Tests that content found by its hash is only deleted when the last reference to it goes.
+     */
+    @Test
+    public void testAttachmentContentReferenceCounting() throws Exception {
+        byte[] content = "Content shared between attachments".getBytes();
+        AttachmentContentMetadata contentMetadata = persistenceBean.createAttachmentContent("shared.txt", "text/plain", new ByteArrayInputStream(content));
+        assertNull("Content without a hash should not be found", persistenceBean.referenceExistingContent("abcd"));
+
+        persistenceBean.setContentHash(contentMetadata.filename, "abcd");
+        AttachmentContentMetadata existing = persistenceBean.referenceExistingContent("abcd");
+        assertEquals(contentMetadata.filename, existing.filename);
+        assertEquals(content.length, existing.length);
+        assertEquals("text/plain", existing.contentType);
+
+        // There are now two references, so the first delete should leave the content in place
+        persistenceBean.deleteAttachmentContent(contentMetadata.filename);
+        persistenceBean.retrieveAttachmentContent(contentMetadata.filename).close();
+
+        persistenceBean.deleteAttachmentContent(contentMetadata.filename);
+        assertNull("Deleted content should not be found", persistenceBean.referenceExistingContent("abcd"));
+        try {
+            persistenceBean.retrieveAttachmentContent(contentMetadata.filename);
+            fail("The content should have been deleted with its last reference");
+        } catch (NonExistentArtefactException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDeleteAttachmentsForAssets() throws Exception {
+        byte[] content = "Content shared between attachments".getBytes();
+        AttachmentContentMetadata shared = persistenceBean.createAttachmentContent("shared.txt", "text/plain", new ByteArrayInputStream(content));
+        persistenceBean.setContentHash(shared.filename, "abcd");
+        persistenceBean.referenceExistingContent("abcd");
+        persistenceBean.referenceExistingContent("abcd");
+        AttachmentContentMetadata legacy = persistenceBean.createAttachmentContent("legacy.txt", "text/plain", new ByteArrayInputStream(content));
+
+        createAttachmentForAsset("asset1", shared.filename);
+        createAttachmentForAsset("asset2", shared.filename);
+        createAttachmentForAsset("asset2", legacy.filename);
+        Attachment kept = createAttachmentForAsset("asset3");
+
+        List<String> gridFSIds = persistenceBean.deleteAttachmentsForAssets(Arrays.asList("asset1", "asset2"));
+        assertThat(gridFSIds, containsInAnyOrder(shared.filename, shared.filename, legacy.filename));
+        assertEquals(Collections.singleton("asset3"), persistenceBean.findAttachmentsForAssets(Arrays.asList("asset1", "asset2", "asset3")).keySet());
+        persistenceBean.retrieveAttachmentMetadata(kept.get_id());
+
+        // The shared content had three references, so one is left
+        persistenceBean.deleteAttachmentContents(gridFSIds);
+        persistenceBean.retrieveAttachmentContent(shared.filename).close();
+        try {
+            persistenceBean.retrieveAttachmentContent(legacy.filename);
+            fail("Content without a reference count should be deleted with its attachment");
+        } catch (NonExistentArtefactException e) {
+            // expected
+        }
+
+        persistenceBean.deleteAttachmentContents(Collections.singletonList(shared.filename));
+        assertNull("Deleted content should not be found", persistenceBean.referenceExistingContent("abcd"));
+    }
+
+    @Test
+    public void testDeleteAssets() throws InvalidJsonAssetException {
+        Asset first = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"first\"}"));
+        Asset second = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"second\"}"));
+        Asset kept = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"kept\"}"));
+
+        List<String> deleted = persistenceBean.deleteAssets(Arrays.asList(first.get_id(), second.get_id(), "ffffffffffffffffffffffff"));
+        assertThat(deleted, containsInAnyOrder(first.get_id(), second.get_id()));
+        assertEquals(1, persistenceBean.retrieveAllAssets().size());
+        assertEquals(kept.get_id(), persistenceBean.retrieveAllAssets().get(0).get_id());
+    }
+
+    @Test
+    public void testSweepOrphanedAttachments() throws Exception {
+        Asset asset = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"kept\"}"));
+        byte[] content = "Content of an orphaned attachment".getBytes();
+        AttachmentContentMetadata orphanedContent = persistenceBean.createAttachmentContent("orphan.txt", "text/plain", new ByteArrayInputStream(content));
+        persistenceBean.setContentHash(orphanedContent.filename, "abcd");
+        Attachment kept = createAttachmentForAsset(asset.get_id());
+        Attachment orphan = createAttachmentForAsset("ffffffffffffffffffffffff", orphanedContent.filename);
+
+        Date past = new Date(System.currentTimeMillis() - 60000);
+        assertEquals("Attachments after the cutoff should not be looked at", 0, persistenceBean.sweepOrphanedAttachments(null, past, 10).getScanned());
+
+        Date future = new Date(System.currentTimeMillis() + 60000);
+        OrphanBatch first = persistenceBean.sweepOrphanedAttachments(null, future, 1);
+        assertEquals(kept.get_id(), first.getNext());
+        assertEquals(0, first.getRemoved());
+
+        OrphanBatch second = persistenceBean.sweepOrphanedAttachments(first.getNext(), future, 1);
+        assertEquals(1, second.getScanned());
+        assertEquals(1, second.getRemoved());
+        assertEquals(content.length, second.getBytesReclaimed());
+        assertNull(persistenceBean.sweepOrphanedAttachments(second.getNext(), future, 1).getNext());
+
+        persistenceBean.retrieveAttachmentMetadata(kept.get_id());
+        try {
+            persistenceBean.retrieveAttachmentMetadata(orphan.get_id());
+            fail("The orphaned attachment should have been removed");
+        } catch (NonExistentArtefactException e) {
+            // expected
+        }
+        assertNull("The orphaned attachment's content should have been removed", persistenceBean.referenceExistingContent("abcd"));
+    }
+
+    @Test
+    public void testSweepOrphanedContent() throws Exception {
+        Asset asset = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"kept\"}"));
+        byte[] content = "Content which no attachment refers to".getBytes();
+        AttachmentContentMetadata referenced = persistenceBean.createAttachmentContent("kept.txt", "text/plain", new ByteArrayInputStream(content));
+        createAttachmentForAsset(asset.get_id(), referenced.filename);
+        AttachmentContentMetadata orphaned = persistenceBean.createAttachmentContent("orphan.txt", "text/plain", new ByteArrayInputStream(content));
+        persistenceBean.setContentHash(orphaned.filename, "abcd");
+
+        // The first sweep only marks the content
+        Date future = new Date(System.currentTimeMillis() + 60000);
+        OrphanBatch batch = persistenceBean.sweepOrphanedContent(null, future, 10);
+        assertEquals(2, batch.getScanned());
+        assertEquals(0, batch.getRemoved());
+        assertNull(batch.getNext());
+
+        // Adding a reference clears the mark, so the content is marked again rather than removed
+        persistenceBean.referenceExistingContent("abcd");
+        assertEquals(0, persistenceBean.sweepOrphanedContent(null, future, 10).getRemoved());
+
+        batch = persistenceBean.sweepOrphanedContent(null, future, 10);
+        assertEquals(1, batch.getRemoved());
+        assertEquals(content.length, batch.getBytesReclaimed());
+        persistenceBean.retrieveAttachmentContent(referenced.filename).close();
+        try {
+            persistenceBean.retrieveAttachmentContent(orphaned.filename);
+            fail("The orphaned content should have been removed");
+        } catch (NonExistentArtefactException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSweepOrphanedChunks() throws Exception {
+        byte[] content = "Content with a file".getBytes();
+        persistenceBean.createAttachmentContent("kept.txt", "text/plain", new ByteArrayInputStream(content));
+
+        // The chunks left by an upload which failed before its file was written
+        DBCollection chunks = db.getCollection("fs.chunks");
+        ObjectId missingFile = new ObjectId();
+        chunks.insert(new BasicDBObject("files_id", missingFile).append("n", 0).append("data", new byte[10]));
+        chunks.insert(new BasicDBObject("files_id", missingFile).append("n", 1).append("data", new byte[10]));
+        chunks.insert(new BasicDBObject("files_id", missingFile).append("n", 2).append("data", new byte[4]));
+
+        OrphanBatch batch = persistenceBean.sweepOrphanedChunks(null, new Date(System.currentTimeMillis() + 60000), 10);
+        assertEquals(2, batch.getScanned());
+        assertEquals(1, batch.getRemoved());
+        assertEquals(24, batch.getBytesReclaimed());
+        assertNull(batch.getNext());
+        assertEquals(1, chunks.count());
+    }
+
+    @Test
+    public void testJobs() throws Exception {
+        String id = persistenceBean.allocateNewId();
+        Map<String, Object> job = new HashMap<>();
+        job.put("_id", id);
+        job.put("type", "test");
+        job.put(JobManager.STATE, JobManager.QUEUED);
+        persistenceBean.createJob(job);
+        assertEquals(JobManager.QUEUED, persistenceBean.retrieveJob(id).get(JobManager.STATE));
+
+        Map<String, Object> running = Collections.<String, Object> singletonMap(JobManager.STATE, JobManager.RUNNING);
+        assertNull("The job isn't running", persistenceBean.updateJob(id, Collections.singleton(JobManager.RUNNING), running));
+        Map<String, Object> updated = persistenceBean.updateJob(id, Arrays.asList(JobManager.QUEUED, JobManager.RUNNING), running);
+        assertEquals(JobManager.RUNNING, updated.get(JobManager.STATE));
+        assertEquals("test", updated.get("type"));
+        assertEquals(id, updated.get("_id"));
+        assertEquals(JobManager.RUNNING, persistenceBean.retrieveJob(id).get(JobManager.STATE));
+
+        List<Map<String, Object>> unfinished = persistenceBean.retrieveJobs(Arrays.asList(JobManager.QUEUED, JobManager.RUNNING));
+        assertEquals(1, unfinished.size());
+        assertEquals(id, unfinished.get(0).get("_id"));
+        assertTrue(persistenceBean.retrieveJobs(Collections.singleton(JobManager.FAILED)).isEmpty());
+    }
+
+    @Test(expected = NonExistentArtefactException.class)
+    public void testRetrieveNonExistentJob() throws NonExistentArtefactException {
+        persistenceBean.retrieveJob("123456789012345678901234");
+    }
+
     /**
      * Verifies that an exception is thrown when we attempt to retrieve a non-existent asset.
      */
@@ -434,6 +774,37 @@ public class PersistenceBeanTest {
         assertThat("Wrong list of possible names with searchTerm=hot", searchNames, containsInAnyOrder((Object) "hot and flat", "hot and hilly"));
     }
 
+    @Test
+    public void testSummarizeAssets() throws InvalidJsonAssetException {
+        persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"weather\":\"hot\", \"ground\":\"flat\", \"tags\":[\"sunny\", \"dry\", \"sunny\"]}"));
+        persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"weather\":\"hot\", \"ground\":\"hilly\", \"tags\":\"sunny\"}"));
+        persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"weather\":\"hot\", \"ground\":\"flat\"}"));
+        persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"weather\":\"cold\", \"ground\":\"flat\", \"tags\":[\"wet\"]}"));
+
+        List<AssetFilter> filters = Collections.emptyList();
+        Map<String, Map<Object, Integer>> summary = persistenceBean.summarizeAssets(Arrays.asList("weather", "ground", "tags", "missing"), filters, null);
+        assertEquals(Arrays.asList("weather", "ground", "tags", "missing"), new ArrayList<>(summary.keySet()));
+
+        Map<Object, Integer> expectedWeathers = new HashMap<>();
+        expectedWeathers.put("hot", 3);
+        expectedWeathers.put("cold", 1);
+        assertEquals(expectedWeathers, summary.get("weather"));
+        assertEquals("Values should be ordered by count", "hot", summary.get("weather").keySet().iterator().next());
+
+        Map<Object, Integer> expectedTags = new HashMap<>();
+        expectedTags.put("sunny", 2);
+        expectedTags.put("dry", 1);
+        expectedTags.put("wet", 1);
+        assertEquals("Each element of an array should be counted once per asset", expectedTags, summary.get("tags"));
+        assertEquals(Collections.emptyMap(), summary.get("missing"));
+
+        filters = new ArrayList<>();
+        filters.add(new AssetFilter("ground", Arrays.asList(eq("flat"))));
+        summary = persistenceBean.summarizeAssets(Arrays.asList("weather"), filters, null);
+        expectedWeathers.put("hot", 2);
+        assertEquals(expectedWeathers, summary.get("weather"));
+    }
+
     @Test
     public void testPagination() throws Exception {
         Asset asset1 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset1\"}"));
@@ -503,6 +874,138 @@ public class PersistenceBeanTest {
         assertThat(collatePages(page1, page2), contains(asset1, asset2, asset3, asset4));
     }
 
+    /**
+     * Tests reading pages which start after a page token, including assets which share the same
+     * value in the sort field and assets which don't have the field at all.
+     */
+    @Test
+    public void testPageTokens() throws Exception {
+        Asset asset1 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset1\"}"));
+        Asset asset2 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset2\", \"score\":3}"));
+        Asset asset3 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset3\", \"score\":2}"));
+        Asset asset4 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset4\", \"score\":2}"));
+        Asset asset5 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset5\"}"));
+
+        List<AssetFilter> emptyFilter = Collections.emptyList();
+
+        assertThat(readPagesByToken(emptyFilter, null), contains(asset1, asset2, asset3, asset4, asset5));
+        assertThat(readPagesByToken(emptyFilter, new SortOptions("score", ASCENDING)), contains(asset1, asset5, asset3, asset4, asset2));
+        assertThat(readPagesByToken(emptyFilter, new SortOptions("score", DESCENDING)), contains(asset2, asset4, asset3, asset5, asset1));
+
+        List<AssetFilter> conditions = new ArrayList<>();
+        conditions.add(new AssetFilter("name", Arrays.asList(eq("asset2"), eq("asset3"), eq("asset4"))));
+        assertThat(readPagesByToken(conditions, new SortOptions("name", DESCENDING)), contains(asset4, asset3, asset2));
+    }
+
+    /**
+     * Reads all the assets matching the filters two at a time, starting each page after the token
+     * for the last asset on the previous page.
+     */
+    private List<Asset> readPagesByToken(List<AssetFilter> filters, SortOptions sortOptions) {
+        List<Asset> assets = new ArrayList<>();
+        PageToken after = null;
+        while (true) {
+            AssetList page = persistenceBean.retrieveAllAssets(filters, null, new PaginationOptions(0, 2, after), sortOptions);
+            for (Asset asset : page) {
+                assets.add(asset);
+            }
+            if (page.size() < 2) {
+                return assets;
+            }
+            after = PageToken.after(assets.get(assets.size() - 1), sortOptions);
+        }
+    }
+
+    /**
+     * Tests that only the requested fields are read when streaming assets, together with the id
+     * and the field the results are sorted by.
+     */
+    @Test
+    public void testStreamAllAssetsWithFields() throws Exception {
+        Asset asset1 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset1\", \"description\":\"long\", \"size\":2,"
+                                                                                  + " \"wlpInformation\":{\"provideFeature\":\"feature1\", \"shortName\":\"f1\"}}"));
+        Asset asset2 = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset2\", \"description\":\"long\", \"size\":1}"));
+
+        List<AssetFilter> emptyFilter = Collections.emptyList();
+        List<Asset> assets = new ArrayList<>();
+        try (AssetCursor cursor = persistenceBean.streamAllAssets(emptyFilter, null, null, new SortOptions("size", ASCENDING),
+                                                                   Arrays.asList("name", "wlpInformation.provideFeature"))) {
+            while (cursor.hasNext()) {
+                assets.add(cursor.next());
+            }
+        }
+
+        assertEquals(2, assets.size());
+        Map<String, Object> expected2 = new HashMap<>();
+        expected2.put("_id", asset2.get_id());
+        expected2.put("name", "asset2");
+        expected2.put("size", 1);
+        assertEquals(expected2, assets.get(0).getProperties());
+
+        Map<String, Object> expected1 = new HashMap<>();
+        expected1.put("_id", asset1.get_id());
+        expected1.put("name", "asset1");
+        expected1.put("size", 2);
+        expected1.put("wlpInformation", Collections.singletonMap("provideFeature", "feature1"));
+        assertEquals(expected1, assets.get(1).getProperties());
+    }
+
+    /**
+     * Tests that the query plan for the queries made by the repository client use the indexes
+     * created by {@link PersistenceBean#initialize()}.
+     */
+    @Test
+    public void testExplainAllAssets() throws Exception {
+        persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"asset1\", \"type\":\"com.ibm.websphere.Feature\","
+                                                                   + " \"wlpInformation\":{\"appliesToFilterInfo\":[{\"productId\":\"com.ibm.websphere.appserver\"}]}}"));
+
+        List<AssetFilter> filters = new ArrayList<>();
+        filters.add(new AssetFilter("type", Arrays.asList(eq("com.ibm.websphere.Feature"))));
+        filters.add(new AssetFilter("wlpInformation.appliesToFilterInfo.productId", Arrays.asList(eq("com.ibm.websphere.appserver"))));
+        String plan = persistenceBean.explainAllAssets(filters, null, null, null, null);
+        assertTrue(plan, plan.contains("lars_type_productId_minVersion"));
+
+        List<AssetFilter> emptyFilter = Collections.emptyList();
+        plan = persistenceBean.explainAllAssets(emptyFilter, null, new PaginationOptions(0, 10), new SortOptions("name", DESCENDING), null);
+        assertTrue(plan, plan.contains("lars_sort_name"));
+    }
+
+    @Test
+    public void testChangeFeed() throws Exception {
+        Asset first = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"first\"}"));
+        Asset second = persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"second\"}"));
+        long start = first.getChangeSequence();
+        assertTrue("Creating an asset should give it a change time", first.getChangeTime() > 0);
+        assertTrue("The sequence should increase", start < second.getChangeSequence());
+
+        // Writing an asset gives it a new number as part of the write
+        Asset updated = persistenceBean.updateAssetState(second.get_id(), EnumSet.of(Asset.State.DRAFT), Asset.State.AWAITING_APPROVAL, "now");
+        long secondChange = updated.getChangeSequence();
+        long firstChange = persistenceBean.updateAsset(first.get_id(), first).getChangeSequence();
+        assertTrue("The sequence should increase", second.getChangeSequence() < secondChange && secondChange < firstChange);
+        long attachmentChange = persistenceBean.recordAssetChange(first.get_id());
+        assertTrue("The sequence should increase", firstChange < attachmentChange);
+
+        AssetList changed = persistenceBean.retrieveAssetsChangedSince(start, 10);
+        assertEquals("Wrong number of changed assets", 2, changed.size());
+        assertEquals("Assets should be in order of change", second.get_id(), changed.get(0).get_id());
+        assertEquals("Wrong change sequence", secondChange, changed.get(0).getChangeSequence());
+        assertEquals("Assets should be in order of change", first.get_id(), changed.get(1).get_id());
+        assertEquals("Wrong change sequence", attachmentChange, changed.get(1).getChangeSequence());
+        assertEquals("Limit should be applied", 1, persistenceBean.retrieveAssetsChangedSince(start, 1).size());
+        assertEquals("No assets should have changed since the last change", 0, persistenceBean.retrieveAssetsChangedSince(attachmentChange, 10).size());
+
+        persistenceBean.deleteAsset(second.get_id());
+        long deletion = persistenceBean.recordAssetDeletion(second.get_id());
+        assertTrue("The deletion should come after the changes", deletion > attachmentChange);
+        List<AssetDeletion> deletions = persistenceBean.retrieveDeletionsSince(attachmentChange, 10);
+        assertEquals("Wrong number of deletions", 1, deletions.size());
+        assertEquals("Wrong deleted asset", second.get_id(), deletions.get(0).getAssetId());
+        assertEquals("Wrong deletion sequence", deletion, deletions.get(0).getChangeSequence());
+        assertTrue("The deletion should have a change time", deletions.get(0).getChangeTime() > 0);
+        assertTrue("No deletions should be found after the last one", persistenceBean.retrieveDeletionsSince(deletion, 10).isEmpty());
+    }
+
     @Test
     public void testCountAllAssets() throws Exception {
         persistenceBean.createAsset(Asset.deserializeAssetFromJson("{\"weather\":\"hot\", \"ground\":\"flat\", \"name\":\"hot and flat\"}"));
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static com.ibm.ws.lars.rest.Condition.Operation.EQUALS;
+import static com.ibm.ws.lars.rest.Condition.Operation.NOT_EQUALS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.SortOptions.SortOrder;
+
+public class QueryCacheKeyTest {
+
+    private static final AssetFilter TYPE_FILTER = new AssetFilter("type", Arrays.asList(new Condition(EQUALS, "com.ibm.websphere.Feature")));
+
+    @Test
+    public void testFilterOrderIsIgnored() {
+        AssetFilter productFilter = new AssetFilter("wlpInformation.appliesToFilterInfo.productId",
+                Arrays.asList(new Condition(EQUALS, "com.ibm.websphere.appserver")));
+
+        QueryCacheKey key1 = QueryCacheKey.forAssets(Arrays.asList(TYPE_FILTER, productFilter), null, null, null, null);
+        QueryCacheKey key2 = QueryCacheKey.forAssets(Arrays.asList(productFilter, TYPE_FILTER), null, null, null, null);
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+    }
+
+    @Test
+    public void testConditionOrderIsIgnored() {
+        AssetFilter filter1 = new AssetFilter("name", Arrays.asList(new Condition(EQUALS, "a"), new Condition(NOT_EQUALS, "c"), new Condition(EQUALS, "b")));
+        AssetFilter filter2 = new AssetFilter("name", Arrays.asList(new Condition(EQUALS, "b"), new Condition(EQUALS, "a"), new Condition(NOT_EQUALS, "c")));
+
+        assertEquals(QueryCacheKey.forCount(Collections.singletonList(filter1), "foo"),
+                     QueryCacheKey.forCount(Collections.singletonList(filter2), "foo"));
+
+        // The original filter must not be reordered
+        assertEquals("a", filter1.getConditions().get(0).getValue());
+        assertEquals("c", filter1.getConditions().get(1).getValue());
+    }
+
+    @Test
+    public void testDifferentQueriesAreNotEqual() {
+        List<AssetFilter> filters = Collections.singletonList(TYPE_FILTER);
+        QueryCacheKey key = QueryCacheKey.forAssets(filters, null, null, null, null);
+
+        assertFalse(key.equals(QueryCacheKey.forAssets(filters, "foo", null, null, null)));
+        assertFalse(key.equals(QueryCacheKey.forAssets(filters, null, new PaginationOptions(0, 10), null, null)));
+        assertFalse(key.equals(QueryCacheKey.forAssets(filters, null, null, new SortOptions("name", SortOrder.ASCENDING), null)));
+        assertFalse(key.equals(QueryCacheKey.forAssets(Collections.<AssetFilter> emptyList(), null, null, null, null)));
+        assertFalse(key.equals(QueryCacheKey.forAssets(filters, null, null, null, Arrays.asList("name"))));
+        assertTrue(QueryCacheKey.forAssets(filters, null, null, null, Arrays.asList("name", "type"))
+                                .equals(QueryCacheKey.forAssets(filters, null, null, null, Arrays.asList("type", "name"))));
+        assertFalse(key.equals(QueryCacheKey.forCount(filters, null)));
+        assertFalse(QueryCacheKey.forSummary(Arrays.asList("name"), filters, null).equals(QueryCacheKey.forSummary(Arrays.asList("type"), filters, null)));
+        assertTrue(QueryCacheKey.forSummary(Arrays.asList("name", "type"), filters, null)
+                                .equals(QueryCacheKey.forSummary(Arrays.asList("type", "name"), filters, null)));
+    }
+}
@@ -22,6 +22,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
 
@@ -29,7 +31,7 @@ import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
 
-import org.apache.wink.common.model.multipart.BufferedInMultiPart;
+import org.apache.wink.common.model.multipart.InMultiPart;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,6 +50,7 @@ public class RepositoryRESTResourceLoggingTest {
         // The asset service should be injected by jax-rs, so I think it
         // needs to be set explicitly here, don't think jmockit can do this automagically
         Deencapsulation.setField(tested, "assetService", assetService);
+        Deencapsulation.setField(tested, "requestExecutors", requestExecutors);
         return tested;
     }
 
@@ -56,6 +59,15 @@ public class RepositoryRESTResourceLoggingTest {
     @Mocked
     AssetServiceLayer assetService;
 
+    @Mocked
+    RequestExecutors requestExecutors;
+
+    @Mocked
+    Request request;
+
+    @Mocked
+    HttpHeaders headers;
+
     /** ID for an asset which should never exist */
     public static final String NON_EXISTENT_ID = "ffffffffffffffffffffffff";
 
@@ -65,7 +77,7 @@ public class RepositoryRESTResourceLoggingTest {
     }
 
     @Test
-    public void testGetAsset(@Mocked final Logger logger) throws InvalidIdException, NonExistentArtefactException {
+    public void testGetAsset(@Mocked final Logger logger) throws InvalidIdException, NonExistentArtefactException, InvalidParameterException {
 
         new Expectations() {
             {
@@ -75,7 +87,7 @@ public class RepositoryRESTResourceLoggingTest {
             }
         };
 
-        getRestResource().getAsset(NON_EXISTENT_ID, dummyUriInfo);
+        getRestResource().getAsset(NON_EXISTENT_ID, dummyUriInfo, request);
     }
 
     @Test
@@ -95,7 +107,7 @@ public class RepositoryRESTResourceLoggingTest {
             }
         };
 
-        getRestResource().getAssets(info);
+        getRestResource().getAssets(info, request, null);
     }
 
     @Test
@@ -151,7 +163,7 @@ public class RepositoryRESTResourceLoggingTest {
     }
 
     @Test
-    public void testCreateAttachmentWithContent(@Mocked final Logger logger, @Mocked final BufferedInMultiPart inMultiPart) throws InvalidJsonAssetException, InvalidIdException, AssetPersistenceException, NonExistentArtefactException {
+    public void testCreateAttachmentWithContent(@Mocked final Logger logger, @Mocked final InMultiPart inMultiPart) throws InvalidJsonAssetException, InvalidIdException, AssetPersistenceException, NonExistentArtefactException {
 
         new Expectations() {
             {
@@ -178,7 +190,7 @@ public class RepositoryRESTResourceLoggingTest {
             }
         };
 
-        getRestResource().createAttachmentNoContent("name", NON_EXISTENT_ID, null, "{}", dummyUriInfo);
+        getRestResource().createAttachmentNoContent("name", NON_EXISTENT_ID, null, null, "{}", dummyUriInfo);
     }
 
     @Test
@@ -224,7 +236,7 @@ public class RepositoryRESTResourceLoggingTest {
             }
         };
 
-        getRestResource().getAttachmentContent(NON_EXISTENT_ID, NON_EXISTENT_ID, "no_name", dummyUriInfo);
+        getRestResource().getAttachmentContent(NON_EXISTENT_ID, NON_EXISTENT_ID, "no_name", dummyUriInfo, request, headers, null);
     }
 
     @Test
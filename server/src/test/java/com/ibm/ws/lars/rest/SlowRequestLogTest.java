@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * Tests for {@link SlowRequestLog} and {@link RequestTrace}
+ */
+public class SlowRequestLogTest {
+
+    @Mocked
+    HttpServletRequest request;
+
+    @Test
+    public void testFastRequestIsNotLogged() {
+        SlowRequestLog log = createLog(60000);
+        RequestTrace trace = RequestTrace.begin("GET /assets", request);
+        log.finished(trace);
+        assertTrue(log.getSlowRequests().isEmpty());
+    }
+
+    @Test
+    public void testDisabled() {
+        SlowRequestLog log = createLog(0);
+        assertFalse(log.isEnabled());
+        assertTrue(createLog(1).isEnabled());
+    }
+
+    @Test
+    public void testSlowRequestIsLogged() throws Exception {
+        new NonStrictExpectations() {
+            {
+                request.getRequestURI();
+                result = "/ma/v1/assets";
+                request.getQueryString();
+                result = "name=secret";
+            }
+        };
+
+        SlowRequestLog log = createLog(1);
+        RequestTrace trace = RequestTrace.begin("GET /assets", request);
+        DBObject filter = new BasicDBObject("name", "secret");
+        DBObject sort = new BasicDBObject("name", 1);
+        RequestTrace.queryMade(filter, sort, null);
+
+        OutputStream os = RequestTrace.trace(new ByteArrayOutputStream());
+        os.write(new byte[10]);
+        os.write(1);
+        RequestTrace.resultsWritten(3);
+        Thread.sleep(2);
+        log.finished(trace);
+
+        List<Map<String, Object>> requests = log.getSlowRequests();
+        assertEquals(1, requests.size());
+        Map<String, Object> logged = requests.get(0);
+        assertEquals("GET /assets", logged.get("endpoint"));
+        assertEquals("The query string should not be logged", "/ma/v1/assets", logged.get("uri"));
+        assertTrue(((Double) logged.get("elapsedMillis")) >= 2);
+        assertEquals(1, logged.get("queryCount"));
+        assertEquals(3L, logged.get("resultCount"));
+        assertEquals(11L, logged.get("bytesWritten"));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> queries = (List<Map<String, Object>>) logged.get("queries");
+        assertEquals(1, queries.size());
+        assertEquals(JSON.serialize(new BasicDBObject("name", "?")), queries.get(0).get("filter"));
+        assertEquals(JSON.serialize(sort), queries.get(0).get("sort"));
+        assertNull(queries.get(0).get("projection"));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> phases = (Map<String, Object>) logged.get("phaseMillis");
+        assertEquals(Arrays.asList("parse", "query", "serialize", "write"), Arrays.asList(phases.keySet().toArray()));
+    }
+
+    @Test
+    public void testOnlySomeQueriesAreKept() {
+        RequestTrace trace = RequestTrace.begin("GET /assets", request);
+        for (int i = 0; i < RequestTrace.MAX_QUERIES + 2; i++) {
+            RequestTrace.queryMade(new BasicDBObject("n", i), null, null);
+        }
+        trace.end();
+        SlowRequestLog.SlowRequest captured = trace.capture(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(RequestTrace.MAX_QUERIES, captured.getQueries().size());
+        assertEquals(RequestTrace.MAX_QUERIES + 2, captured.toMap().get("queryCount"));
+        trace.release();
+    }
+
+    @Test
+    public void testPhasesDoNotOverlap() throws Exception {
+        RequestTrace trace = RequestTrace.begin("GET /assets", request);
+        RequestTrace.enter(RequestTrace.Phase.SERIALIZE);
+        try {
+            Thread.sleep(5);
+            RequestTrace.enter(RequestTrace.Phase.QUERY);
+            try {
+                Thread.sleep(20);
+            } finally {
+                RequestTrace.exit();
+            }
+            Thread.sleep(5);
+        } finally {
+            RequestTrace.exit();
+        }
+        long elapsed = trace.end();
+        SlowRequestLog.SlowRequest captured = trace.capture(elapsed);
+        trace.release();
+
+        long query = captured.getPhaseNanos(RequestTrace.Phase.QUERY);
+        long serialize = captured.getPhaseNanos(RequestTrace.Phase.SERIALIZE);
+        assertTrue(query >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(serialize >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue("The phases should not overlap", query + serialize <= elapsed);
+        assertEquals(0, captured.getPhaseNanos(RequestTrace.Phase.PARSE));
+    }
+
+    @Test
+    public void testNothingIsTracedWithoutATrace() throws IOException {
+        RequestTrace.begin("GET /assets", request).end();
+        // None of these should fail when the thread isn't tracing a request
+        RequestTrace.enter(RequestTrace.Phase.QUERY);
+        RequestTrace.exit();
+        RequestTrace.exit();
+        RequestTrace.queryMade(new BasicDBObject(), null, null);
+        RequestTrace.resultsWritten(1);
+        OutputStream os = new ByteArrayOutputStream();
+        assertSame(os, RequestTrace.trace(os));
+        assertNull(RequestTrace.detach());
+    }
+
+    @Test
+    public void testTraceMovesToAnotherThread() throws Exception {
+        final RequestTrace trace = RequestTrace.begin("GET /assets", request);
+        assertSame(trace, RequestTrace.detach());
+        RequestTrace.queryMade(new BasicDBObject("a", 1), null, null);
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                RequestTrace.attach(trace);
+                RequestTrace.queryMade(new BasicDBObject("b", 1), null, null);
+                RequestTrace.detach();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        trace.end();
+        SlowRequestLog.SlowRequest captured = trace.capture(0);
+        trace.release();
+        assertEquals(1, captured.getQueries().size());
+        assertEquals(JSON.serialize(new BasicDBObject("b", "?")), captured.getQueries().get(0).toMap().get("filter"));
+    }
+
+    @Test
+    public void testRingKeepsNewest() throws Exception {
+        SlowRequestLog log = createLog(1);
+        for (int i = 0; i < SlowRequestLog.CAPACITY + 5; i++) {
+            RequestTrace trace = RequestTrace.begin("GET /" + i, request);
+            Thread.sleep(1, 100000);
+            log.finished(trace);
+        }
+
+        List<Map<String, Object>> requests = log.getSlowRequests();
+        assertEquals(SlowRequestLog.CAPACITY, requests.size());
+        assertEquals("GET /" + (SlowRequestLog.CAPACITY + 4), requests.get(0).get("endpoint"));
+        assertEquals("GET /5", requests.get(SlowRequestLog.CAPACITY - 1).get("endpoint"));
+    }
+
+    @Test
+    public void testNormalize() {
+        DBObject in = new BasicDBObject("$in", Arrays.asList("a", "b"));
+        DBObject and = new BasicDBObject("$and", Arrays.asList(new BasicDBObject("type", "x"), new BasicDBObject("name", in)));
+        DBObject text = new BasicDBObject("$text", new BasicDBObject("$search", "secret"));
+        and.putAll(text);
+
+        DBObject expected = new BasicDBObject("$and", Arrays.asList(new BasicDBObject("type", "?"), new BasicDBObject("name", new BasicDBObject("$in",
+                "?"))));
+        expected.put("$text", new BasicDBObject("$search", "?"));
+        assertEquals(expected, SlowRequestLog.normalize(and));
+    }
+
+    private static SlowRequestLog createLog(long thresholdMillis) {
+        SlowRequestLog log = new SlowRequestLog();
+        log.setThreshold(thresholdMillis);
+        return log;
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.ibm.ws.lars.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.ws.lars.rest.injection.AssetServiceLayerInjection;
+import com.ibm.ws.lars.rest.model.Asset;
+import com.ibm.ws.lars.rest.model.RepositoryResourceLifecycleException;
+import com.ibm.ws.lars.testutils.FatUtils;
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+
+/**
+ * Changes the states of a small number of assets from many threads at once through
+ * {@link AssetServiceLayer#updateAssetState}, and reports the number of state changes attempted
+ * per second. Every thread tries to publish and then cancel the same few assets, so most attempts
+ * find that another thread has already made the change. The benchmark checks that no change was
+ * lost, by comparing the number of successful publishes and cancels with the final states.
+ * <p>
+ * Benchmarks are run with the <code>benchmark</code> gradle task, not as part of the unit tests.
+ */
+public class StateChangeBenchmark {
+
+    private static final String DB_NAME = "benchmarkdb";
+
+    private static final int ASSETS = 4;
+
+    private static final int THREADS = 16;
+
+    /** The number of publish and cancel pairs each thread attempts */
+    private static final int ITERATIONS = 2000;
+
+    private static MongoClient mongoClient;
+    private static DB db;
+    private static AssetServiceLayer service;
+    private static final List<String> assetIds = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        mongoClient = new MongoClient("localhost:" + FatUtils.DB_PORT);
+        db = mongoClient.getDB(DB_NAME);
+        db.dropDatabase();
+
+        PersistenceBean persistenceBean = new PersistenceBean();
+        Field dbField = PersistenceBean.class.getDeclaredField("db");
+        dbField.setAccessible(true);
+        dbField.set(persistenceBean, db);
+        persistenceBean.createGridFS();
+        persistenceBean.initialize();
+
+        service = new AssetServiceLayer();
+        AssetServiceLayerInjection.setConfiguration(service, new Configuration());
+        AssetServiceLayerInjection.setPersistenceBean(service, persistenceBean);
+        service.createCaches();
+
+        for (int i = 0; i < ASSETS; i++) {
+            assetIds.add(service.createAsset(Asset.deserializeAssetFromJson("{\"name\":\"state benchmark " + i + "\"}"), "benchmark").get_id());
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.dropDatabase();
+        mongoClient.close();
+    }
+
+    @Test
+    public void testParallelStateChanges() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    // Publishes and cancels made by this thread, for each asset
+                    int[] counts = new int[ASSETS * 2];
+                    startLatch.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        int asset = (thread + i) % ASSETS;
+                        String id = assetIds.get(asset);
+                        if (tryStateChange(Asset.StateAction.PUBLISH, id)) {
+                            counts[asset * 2]++;
+                        }
+                        if (tryStateChange(Asset.StateAction.CANCEL, id)) {
+                            counts[asset * 2 + 1]++;
+                        }
+                    }
+                    return counts;
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+        int[] totals = new int[ASSETS * 2];
+        for (Future<int[]> result : results) {
+            int[] counts = result.get();
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += counts[i];
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int changes = 0;
+        for (int asset = 0; asset < ASSETS; asset++) {
+            int publishes = totals[asset * 2];
+            int cancels = totals[asset * 2 + 1];
+            changes += publishes + cancels;
+
+            // Each publish must be followed by a cancel before the next publish can succeed, so
+            // if no change was lost the counts differ by at most one, and the difference is the
+            // asset's final state
+            Asset.State state = service.retrieveAsset(assetIds.get(asset), null).getState();
+            assertEquals("Changes to asset " + asset + " were lost: " + publishes + " publishes and " + cancels + " cancels, final state " + state,
+                         state == Asset.State.AWAITING_APPROVAL ? 1 : 0, publishes - cancels);
+        }
+
+        long attempts = (long) THREADS * ITERATIONS * 2;
+        System.out.println(THREADS + " threads attempted " + attempts + " state changes on " + ASSETS + " assets in " + (elapsed / 1000000) + "ms ("
+                           + (attempts * 1000000000L / elapsed) + " attempts/s), of which " + changes + " succeeded");
+    }
+
+    private static boolean tryStateChange(Asset.StateAction action, String id) throws Exception {
+        try {
+            service.updateAssetState(action, id);
+            return true;
+        } catch (RepositoryResourceLifecycleException e) {
+            // Another thread got there first
+            return false;
+        }
+    }
+}
@@ -168,6 +168,11 @@ public abstract class AbstractFileWriteableClient implements RepositoryWriteable
         return _readClient.getAttachment(asset, attachment);
     }
 
+    @Override
+    public void downloadAttachment(Asset asset, Attachment attachment, File target) throws IOException, BadVersionException, RequestFailureException {
+        _readClient.downloadAttachment(asset, attachment, target);
+    }
+
     @Override
     public List<Asset> findAssets(String searchString, Collection<ResourceType> types) throws IOException, RequestFailureException {
         return _readClient.findAssets(searchString, types);
@@ -178,6 +183,11 @@ public abstract class AbstractFileWriteableClient implements RepositoryWriteable
         return _readClient.getFilteredAssets(filters);
     }
 
+    @Override
+    public Collection<Asset> getFilteredAssets(Map<FilterableAttribute, Collection<String>> filters, Collection<String> fields) throws IOException, RequestFailureException {
+        return _readClient.getFilteredAssets(filters, fields);
+    }
+
     @Override
     public void checkRepositoryStatus() throws IOException, RequestFailureException {
         _readClient.checkRepositoryStatus();